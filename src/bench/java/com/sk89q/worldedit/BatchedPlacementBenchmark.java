@@ -0,0 +1,75 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+/**
+ * Fills a large cuboid through a queued {@link EditSession}, with and
+ * without batching, against a world with and without a bulk
+ * {@link LocalWorld#setBlocks(ChunkBlockBuffer, boolean)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchedPlacementBenchmark {
+
+    @Param({ "perBlock", "batched", "batchedBulk" })
+    public String mode;
+
+    private BenchmarkWorld world;
+    private CuboidRegion region;
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld(mode.equals("batchedBulk"));
+        region = new CuboidRegion(new Vector(0, 0, 0), new Vector(127, 63, 127));
+    }
+
+    @Benchmark
+    public int fillCuboid() throws MaxChangedBlocksException {
+        final EditSession editSession = new EditSession(world, -1);
+        editSession.enableQueue();
+        editSession.setBatchingMode(!mode.equals("perBlock"));
+
+        // Alternate so that every block actually changes
+        final int affected = editSession.setBlocks(region, new BaseBlock(1 + (counter++ & 1)));
+        editSession.flushQueue();
+        return affected;
+    }
+}
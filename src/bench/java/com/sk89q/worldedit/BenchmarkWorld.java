@@ -0,0 +1,70 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+
+/**
+ * A {@link MemoryWorld} for benchmarks, which can also leave out the bulk
+ * methods to measure the paths that worlds without them take.
+ */
+public class BenchmarkWorld extends MemoryWorld {
+
+    private final boolean bulk;
+
+    /**
+     * Construct the world.
+     *
+     * @param bulk whether to implement {@link #setBlocks(ChunkBlockBuffer, boolean)}
+     *     and {@link #getChunkSnapshot(BlockVector2D)}
+     */
+    public BenchmarkWorld(boolean bulk) {
+        super("benchmark");
+        this.bulk = bulk;
+    }
+
+    @Override
+    public int setBlocks(ChunkBlockBuffer buffer, boolean fastMode) {
+        if (bulk) {
+            return super.setBlocks(buffer, fastMode);
+        }
+
+        // The same as LocalWorld.setBlocks()
+        int changed = 0;
+        for (int i = 0; i < buffer.size(); ++i) {
+            final Vector pt = buffer.getPosition(i);
+            final BaseBlock block = buffer.getBlock(i);
+            final boolean result;
+            if (block.getType() == 0) {
+                result = fastMode ? setBlockTypeFast(pt, 0) : setBlockType(pt, 0);
+            } else {
+                result = setBlock(pt, block, fastMode);
+            }
+            if (result) {
+                ++changed;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public ChunkBlockSnapshot getChunkSnapshot(BlockVector2D chunk) {
+        return bulk ? super.getChunkSnapshot(chunk) : null;
+    }
+}
@@ -0,0 +1,79 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copies a large cuboid into a {@link CuboidClipboard}, block by block and
+ * from chunk snapshots on worker threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClipboardCopyBenchmark {
+
+    @Param({ "perBlock", "snapshots" })
+    public String mode;
+
+    private BenchmarkWorld world;
+    private Vector size;
+    private Vector origin;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld(true);
+        size = new Vector(200, 64, 200);
+        // Not aligned to chunks
+        origin = new Vector(-37, 10, 5);
+
+        for (int x = 0; x < size.getBlockX(); ++x) {
+            for (int y = 0; y < size.getBlockY(); ++y) {
+                for (int z = 0; z < size.getBlockZ(); ++z) {
+                    world.setTypeIdAndData(origin.add(x, y, z), 1 + (x ^ z) % 7, y & 15);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public CuboidClipboard copy() {
+        final EditSession editSession = new EditSession(world, -1);
+        editSession.setParallelCopy(mode.equals("snapshots"));
+
+        final CuboidClipboard clipboard = new CuboidClipboard(size, origin);
+        clipboard.copy(editSession);
+        return clipboard;
+    }
+}
@@ -0,0 +1,92 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sk89q.worldedit.blocks.BlockID;
+
+/**
+ * Rotates a {@link CuboidClipboard} of stairs, wool and air, and pastes it
+ * into a {@link MemoryWorld} through a queued edit session, alternating
+ * between two positions so that the pasted blocks change every time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClipboardTransformBenchmark {
+
+    private MemoryWorld world;
+    private CuboidClipboard clipboard;
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        world = new MemoryWorld();
+        final Vector size = new Vector(96, 48, 96);
+        final Vector origin = new Vector(-40, 10, 3);
+
+        for (int x = 0; x < size.getBlockX(); ++x) {
+            for (int y = 0; y < size.getBlockY(); ++y) {
+                for (int z = 0; z < size.getBlockZ(); ++z) {
+                    final int type;
+                    switch ((x + y * 3 + z * 7) % 5) {
+                    case 0: type = BlockID.COBBLESTONE_STAIRS; break;
+                    case 1: type = BlockID.CLOTH; break;
+                    case 2: type = BlockID.STONE; break;
+                    default: type = 0; break;
+                    }
+                    world.setTypeIdAndData(origin.add(x, y, z), type, type == 0 ? 0 : (x ^ z) & 3);
+                }
+            }
+        }
+
+        clipboard = new CuboidClipboard(size, origin);
+        clipboard.copy(new EditSession(world, -1));
+    }
+
+    @Benchmark
+    public CuboidClipboard rotate2D() {
+        clipboard.rotate2D(90);
+        return clipboard;
+    }
+
+    @Benchmark
+    public int place() throws MaxChangedBlocksException {
+        final EditSession editSession = new EditSession(world, -1);
+        editSession.enableQueue();
+        clipboard.place(editSession, new Vector((counter++ & 1) * 3, 70, 0), false);
+        editSession.flushQueue();
+        return editSession.getBlockChangeCount();
+    }
+}
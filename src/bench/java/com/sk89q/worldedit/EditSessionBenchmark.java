@@ -0,0 +1,135 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Polygonal2DRegion;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * Runs the common region operations of {@link EditSession} through a queued
+ * edit session on a {@link MemoryWorld}, on a cuboid and on an octagon of
+ * about the same size. Every operation alternates between two blocks, so
+ * that each invocation changes the blocks again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EditSessionBenchmark {
+
+    @Param({ "cuboid", "polygon" })
+    public String shape;
+
+    private MemoryWorld world;
+    private Region region;
+    private int counter;
+
+    @Setup
+    public void setUp() throws MaxChangedBlocksException {
+        world = new MemoryWorld();
+
+        if (shape.equals("cuboid")) {
+            region = new CuboidRegion(world, new Vector(-48, 10, -48), new Vector(47, 57, 47));
+        } else {
+            final List<BlockVector2D> points = new ArrayList<BlockVector2D>();
+            points.add(new BlockVector2D(-20, -48));
+            points.add(new BlockVector2D(20, -48));
+            points.add(new BlockVector2D(47, -20));
+            points.add(new BlockVector2D(47, 20));
+            points.add(new BlockVector2D(20, 47));
+            points.add(new BlockVector2D(-20, 47));
+            points.add(new BlockVector2D(-48, 20));
+            points.add(new BlockVector2D(-48, -20));
+            region = new Polygonal2DRegion(world, points, 10, 57);
+        }
+
+        final EditSession editSession = createEditSession();
+        editSession.setBlocks(region, new BaseBlock(BlockID.STONE));
+        editSession.flushQueue();
+    }
+
+    private EditSession createEditSession() {
+        final EditSession editSession = new EditSession(world, -1);
+        editSession.enableQueue();
+        return editSession;
+    }
+
+    private BaseBlock nextBlock() {
+        return new BaseBlock((counter++ & 1) == 0 ? BlockID.DIRT : BlockID.STONE);
+    }
+
+    @Benchmark
+    public int setBlocks() throws MaxChangedBlocksException {
+        final EditSession editSession = createEditSession();
+        final int affected = editSession.setBlocks(region, nextBlock());
+        editSession.flushQueue();
+        return affected;
+    }
+
+    @Benchmark
+    public int replaceBlocks() throws MaxChangedBlocksException {
+        final EditSession editSession = createEditSession();
+        final BaseBlock to = nextBlock();
+        final BaseBlock from = new BaseBlock(to.getType() == BlockID.STONE ? BlockID.DIRT : BlockID.STONE);
+        final int affected = editSession.replaceBlocks(region, Collections.singleton(from), to);
+        editSession.flushQueue();
+        return affected;
+    }
+
+    @Benchmark
+    public int makeSphere() throws MaxChangedBlocksException {
+        final EditSession editSession = createEditSession();
+        final int affected = editSession.makeSphere(region.getCenter(),
+                new SingleBlockPattern(nextBlock()), 23, true);
+        editSession.flushQueue();
+        return affected;
+    }
+
+    @Benchmark
+    public int hollowOutRegion() throws MaxChangedBlocksException {
+        final EditSession editSession = createEditSession();
+        // The inside is filled, not emptied, so that it stays to be hollowed out
+        final int affected = editSession.hollowOutRegion(region, 2, new SingleBlockPattern(nextBlock()));
+        editSession.flushQueue();
+        return affected;
+    }
+}
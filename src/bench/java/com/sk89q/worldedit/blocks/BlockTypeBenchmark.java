@@ -0,0 +1,139 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.blocks;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sk89q.worldedit.BenchmarkWorld;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+/**
+ * Compares the block property queries of {@link BlockType}, which use a table
+ * indexed by ID, against the <code>HashSet&lt;Integer&gt;</code> lookups they
+ * replaced, and measures a queued {@link EditSession#setBlocks} that runs
+ * those queries for every block.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlockTypeBenchmark {
+
+    private int[] ids;
+    private Set<Integer> placeLast;
+    private Set<Integer> placeFinal;
+    private Set<Integer> passThrough;
+    private Set<Integer> container;
+
+    private BenchmarkWorld world;
+    private CuboidRegion region;
+    private Pattern pattern;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(0);
+        ids = new int[4096];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = random.nextInt(146);
+        }
+
+        placeLast = new HashSet<Integer>();
+        placeFinal = new HashSet<Integer>();
+        passThrough = new HashSet<Integer>();
+        container = new HashSet<Integer>();
+        for (int id = 0; id < 4096; ++id) {
+            if (BlockType.shouldPlaceLast(id)) placeLast.add(id);
+            if (BlockType.shouldPlaceFinal(id)) placeFinal.add(id);
+            if (BlockType.canPassThrough(id)) passThrough.add(id);
+            if (BlockType.isContainerBlock(id)) container.add(id);
+        }
+
+        world = new BenchmarkWorld(false);
+        region = new CuboidRegion(new Vector(0, 0, 0), new Vector(63, 63, 63));
+
+        // Mostly plain blocks, with some that go to the other queues
+        final int[] types = { BlockID.STONE, BlockID.DIRT, BlockID.TORCH, BlockID.SIGN_POST,
+                BlockID.GLASS, BlockID.RED_FLOWER, BlockID.WOOD, BlockID.SAND };
+        pattern = new Pattern() {
+            @Override
+            public BaseBlock next(Vector pos) {
+                return next(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
+            }
+
+            @Override
+            public BaseBlock next(int x, int y, int z) {
+                return new BaseBlock(types[(x + y * 3 + z * 7) & 7]);
+            }
+        };
+    }
+
+    @Benchmark
+    public int propertyTable() {
+        int count = 0;
+        for (int id : ids) {
+            if (BlockType.shouldPlaceLast(id)) ++count;
+            if (BlockType.shouldPlaceFinal(id)) ++count;
+            if (BlockType.canPassThrough(id)) ++count;
+            if (BlockType.isContainerBlock(id)) ++count;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int propertyHashSets() {
+        int count = 0;
+        for (int id : ids) {
+            if (placeLast.contains(id)) ++count;
+            if (placeFinal.contains(id)) ++count;
+            if (passThrough.contains(id)) ++count;
+            if (container.contains(id)) ++count;
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int queuedSetBlocks() throws MaxChangedBlocksException {
+        final EditSession editSession = new EditSession(world, -1);
+        editSession.enableQueue();
+        final int affected = editSession.setBlocks(region, pattern);
+        editSession.flushQueue();
+        return affected;
+    }
+}
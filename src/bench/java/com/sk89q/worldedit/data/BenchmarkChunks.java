@@ -0,0 +1,264 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.ByteTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.DoubleTag;
+import com.sk89q.jnbt.FloatTag;
+import com.sk89q.jnbt.IntArrayTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.LongTag;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.ShortTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.blocks.BlockID;
+
+/**
+ * Generates Anvil chunks and region files for benchmarks. The chunks have
+ * the tags that the game writes, with stone and ores up to Y 59, dirt and
+ * grass up to Y 64, a few entities and some tile entities.
+ */
+public final class BenchmarkChunks {
+
+    private BenchmarkChunks() {
+    }
+
+    /**
+     * Generate a chunk.
+     *
+     * @param random random generator for the ores and entities
+     * @param x X of the chunk
+     * @param z Z of the chunk
+     * @return the root tag of the chunk
+     */
+    public static CompoundTag generateChunk(Random random, int x, int z) {
+        final Map<String, Tag> level = new HashMap<String, Tag>();
+        level.put("xPos", new IntTag("xPos", x));
+        level.put("zPos", new IntTag("zPos", z));
+        level.put("LastUpdate", new LongTag("LastUpdate", random.nextLong()));
+        level.put("TerrainPopulated", new ByteTag("TerrainPopulated", (byte) 1));
+        final int[] heightMap = new int[256];
+        Arrays.fill(heightMap, 65);
+        level.put("HeightMap", new IntArrayTag("HeightMap", heightMap));
+        final byte[] biomes = new byte[256];
+        Arrays.fill(biomes, (byte) 1);
+        level.put("Biomes", new ByteArrayTag("Biomes", biomes));
+
+        final List<Tag> sections = new ArrayList<Tag>();
+        for (int sectionY = 0; sectionY < 8; ++sectionY) {
+            final byte[] blocks = new byte[4096];
+            final byte[] data = new byte[2048];
+            final byte[] skyLight = new byte[2048];
+            final byte[] blockLight = new byte[2048];
+            for (int i = 0; i < 4096; ++i) {
+                final int y = (sectionY << 4) | (i >> 8);
+                if (y < 60) {
+                    blocks[i] = (byte) (random.nextInt(50) == 0 ? BlockID.COAL_ORE : BlockID.STONE);
+                } else if (y < 64) {
+                    blocks[i] = BlockID.DIRT;
+                } else if (y == 64) {
+                    blocks[i] = BlockID.GRASS;
+                } else {
+                    skyLight[i >> 1] = (byte) 0xFF;
+                }
+            }
+            final Map<String, Tag> section = new HashMap<String, Tag>();
+            section.put("Y", new ByteTag("Y", (byte) sectionY));
+            section.put("Blocks", new ByteArrayTag("Blocks", blocks));
+            section.put("Data", new ByteArrayTag("Data", data));
+            section.put("SkyLight", new ByteArrayTag("SkyLight", skyLight));
+            section.put("BlockLight", new ByteArrayTag("BlockLight", blockLight));
+            sections.add(new CompoundTag("", section));
+        }
+        level.put("Sections", new ListTag("Sections", CompoundTag.class, sections));
+
+        final List<Tag> entities = new ArrayList<Tag>();
+        for (int i = 0; i < 8; ++i) {
+            final Map<String, Tag> entity = new HashMap<String, Tag>();
+            entity.put("id", new StringTag("id", "Sheep"));
+            entity.put("Pos", randomDoubles("Pos", random, 3));
+            entity.put("Motion", randomDoubles("Motion", random, 3));
+            final List<Tag> rotation = new ArrayList<Tag>();
+            rotation.add(new FloatTag("", random.nextFloat()));
+            rotation.add(new FloatTag("", random.nextFloat()));
+            entity.put("Rotation", new ListTag("Rotation", FloatTag.class, rotation));
+            entity.put("Health", new ShortTag("Health", (short) 8));
+            entity.put("OnGround", new ByteTag("OnGround", (byte) 1));
+            entities.add(new CompoundTag("", entity));
+        }
+        level.put("Entities", new ListTag("Entities", CompoundTag.class, entities));
+
+        final List<Tag> tileEntities = new ArrayList<Tag>();
+        for (int i = 0; i < 2; ++i) {
+            final Map<String, Tag> tileEntity = new HashMap<String, Tag>();
+            tileEntity.put("id", new StringTag("id", "Sign"));
+            tileEntity.put("x", new IntTag("x", x * 16 + i));
+            tileEntity.put("y", new IntTag("y", 65));
+            tileEntity.put("z", new IntTag("z", z * 16));
+            for (int line = 1; line <= 4; ++line) {
+                tileEntity.put("Text" + line, new StringTag("Text" + line, "Line " + line));
+            }
+            tileEntities.add(new CompoundTag("", tileEntity));
+        }
+        level.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, tileEntities));
+
+        final Map<String, Tag> root = new HashMap<String, Tag>();
+        root.put("Level", new CompoundTag("Level", level));
+        return new CompoundTag("", root);
+    }
+
+    /**
+     * Encode a tag without compression.
+     *
+     * @param tag the tag
+     * @return the encoded tag
+     * @throws IOException on I/O error
+     */
+    public static byte[] encode(CompoundTag tag) throws IOException {
+        // NBTOutputStream always writes gzip
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final NBTOutputStream nbt = new NBTOutputStream(out);
+        nbt.writeTag(tag);
+        nbt.close();
+        return readFully(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    /**
+     * Write a world folder with a region file of generated chunks, from
+     * chunk 0, 0 to chunk size - 1, size - 1.
+     *
+     * @param size number of chunks along X and Z, at most 32
+     * @param random random generator for the chunks
+     * @return the world folder
+     * @throws IOException on I/O error
+     */
+    public static File writeWorld(int size, Random random) throws IOException {
+        final File folder = File.createTempFile("benchmark", "");
+        folder.delete();
+        new File(folder, "region").mkdirs();
+
+        final ByteArrayOutputStream region = new ByteArrayOutputStream();
+        final byte[] header = new byte[2 * McRegionReader.SECTOR_BYTES];
+        region.write(header);
+
+        for (int x = 0; x < size; ++x) {
+            for (int z = 0; z < size; ++z) {
+                final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+                final DeflaterOutputStream out = new DeflaterOutputStream(deflated);
+                out.write(encode(generateChunk(random, x, z)));
+                out.close();
+                final byte[] data = deflated.toByteArray();
+
+                final int sector = region.size() / McRegionReader.SECTOR_BYTES;
+                final int sectors = (data.length + McRegionReader.CHUNK_HEADER_SIZE
+                        + McRegionReader.SECTOR_BYTES - 1) / McRegionReader.SECTOR_BYTES;
+                writeInt(header, (x + z * 32) * 4, (sector << 8) | sectors);
+
+                final byte[] chunk = new byte[sectors * McRegionReader.SECTOR_BYTES];
+                writeInt(chunk, 0, data.length + 1);
+                chunk[4] = McRegionReader.VERSION_DEFLATE;
+                System.arraycopy(data, 0, chunk, McRegionReader.CHUNK_HEADER_SIZE, data.length);
+                region.write(chunk);
+            }
+        }
+
+        final byte[] bytes = region.toByteArray();
+        System.arraycopy(header, 0, bytes, 0, header.length);
+        final FileOutputStream out = new FileOutputStream(getRegionFile(folder));
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return folder;
+    }
+
+    /**
+     * Get the region file of a world folder written by {@link #writeWorld(int, Random)}.
+     *
+     * @param folder the world folder
+     * @return the region file
+     */
+    public static File getRegionFile(File folder) {
+        return new File(folder, "region" + File.separator + "r.0.0.mca");
+    }
+
+    /**
+     * Delete a world folder written by {@link #writeWorld(int, Random)}.
+     *
+     * @param folder the world folder
+     */
+    public static void deleteWorld(File folder) {
+        getRegionFile(folder).delete();
+        new File(folder, "region").delete();
+        folder.delete();
+    }
+
+    /**
+     * Read a stream to the end and close it.
+     *
+     * @param in the stream
+     * @return the bytes read
+     * @throws IOException on I/O error
+     */
+    public static byte[] readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static ListTag randomDoubles(String name, Random random, int count) {
+        final List<Tag> values = new ArrayList<Tag>();
+        for (int i = 0; i < count; ++i) {
+            values.add(new DoubleTag("", random.nextDouble()));
+        }
+        return new ListTag(name, DoubleTag.class, values);
+    }
+
+    private static void writeInt(byte[] bytes, int index, int value) {
+        bytes[index] = (byte) (value >>> 24);
+        bytes[index + 1] = (byte) (value >>> 16);
+        bytes[index + 2] = (byte) (value >>> 8);
+        bytes[index + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,132 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.worldedit.BlockVector2D;
+
+/**
+ * Compares decoding whole chunk tags against decoding only the tags in
+ * {@link ChunkStore#CHUNK_TAGS}, and reads every chunk of a region file,
+ * decompressing and decoding the tags that chunk stores use.
+ * </p>
+ * Pass a region file with <code>-p regionFile=/path/to/r.0.0.mca</code> to
+ * use its chunks; otherwise a region file of 8x8 generated Anvil chunks is
+ * written to a temporary folder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChunkDecodeBenchmark {
+
+    @Param({ "" })
+    public String regionFile;
+
+    private File world;
+    private MappedMcRegionReader reader;
+    private List<BlockVector2D> positions;
+    private List<byte[]> chunks;
+
+    @Setup
+    public void setUp() throws IOException, DataException {
+        final File file;
+        if (regionFile.length() == 0) {
+            world = BenchmarkChunks.writeWorld(8, new Random(0));
+            file = BenchmarkChunks.getRegionFile(world);
+        } else {
+            file = new File(regionFile);
+        }
+
+        reader = new MappedMcRegionReader(file);
+        positions = new ArrayList<BlockVector2D>();
+        chunks = new ArrayList<byte[]>();
+        for (int x = 0; x < 32; ++x) {
+            for (int z = 0; z < 32; ++z) {
+                if (reader.hasChunk(x, z)) {
+                    final BlockVector2D position = new BlockVector2D(x, z);
+                    positions.add(position);
+                    chunks.add(BenchmarkChunks.readFully(reader.getChunkInputStream(position)));
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (world != null) {
+            BenchmarkChunks.deleteWorld(world);
+        }
+    }
+
+    @Benchmark
+    public int decodeAll() throws IOException {
+        int count = 0;
+        for (byte[] chunk : chunks) {
+            final NBTInputStream nbt = new NBTInputStream(new ByteArrayInputStream(chunk));
+            count += ((CompoundTag) nbt.readTag()).getValue().size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int decodeChunkTags() throws IOException {
+        int count = 0;
+        for (byte[] chunk : chunks) {
+            final NBTInputStream nbt = new NBTInputStream(new ByteArrayInputStream(chunk));
+            count += ((CompoundTag) nbt.readTag(ChunkStore.CHUNK_TAGS)).getValue().size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int readRegion() throws IOException, DataException {
+        int count = 0;
+        for (BlockVector2D position : positions) {
+            final NBTInputStream nbt = new NBTInputStream(reader.getChunkInputStream(position));
+            count += ((CompoundTag) nbt.readTag(ChunkStore.CHUNK_TAGS)).getValue().size();
+            nbt.close();
+        }
+        return count;
+    }
+}
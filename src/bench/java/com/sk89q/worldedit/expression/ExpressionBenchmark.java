@@ -0,0 +1,85 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sk89q.worldedit.expression.runtime.EvaluationException;
+
+/**
+ * Evaluates expressions like the ones of {@link ExpressionTest} and a typical
+ * //generate shape for a 16x16x16 grid of inputs, interpreted and compiled
+ * to bytecode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExpressionBenchmark {
+
+    @Param({
+        "x + y * z - x / (z + 1)",
+        "sin(x) * atan2(y, z) + sqrt(x^2 + z^2)",
+        "if (x > y) { r = x } else { r = y } r * z",
+        "r = 0; for (i = 0, 5) { r += x * i } r < y",
+        "(z/2)^2 + (x/2)^2 - 1 < y && abs(y) < 0.5",
+    })
+    public String expression;
+
+    @Param({ "interpreted", "compiled" })
+    public String mode;
+
+    private Expression compiled;
+
+    @Setup
+    public void setUp() throws ExpressionException {
+        compiled = Expression.compile(expression, "x", "y", "z", "r", "i");
+        compiled.optimize();
+        if (mode.equals("compiled") && !compiled.compileBytecode()) {
+            throw new IllegalStateException("Not supported by the compiler: " + expression);
+        }
+    }
+
+    @Benchmark
+    public double evaluateGrid() throws EvaluationException {
+        double sum = 0;
+        for (int x = 0; x < 16; ++x) {
+            for (int y = 0; y < 16; ++y) {
+                for (int z = 0; z < 16; ++z) {
+                    sum += compiled.evaluate((x - 8) / 8.0, (y - 8) / 8.0, (z - 8) / 8.0);
+                }
+            }
+        }
+        return sum;
+    }
+}
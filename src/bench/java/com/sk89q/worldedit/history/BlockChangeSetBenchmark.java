@@ -0,0 +1,162 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.DoubleArrayList;
+import com.sk89q.worldedit.blocks.BaseBlock;
+
+/**
+ * Compares recording and replaying history with {@link BlockChangeSet}
+ * against the pair of {@link DoubleArrayList}s that EditSession used before.
+ * </p>
+ * The retained heap of both structures can be compared by running the
+ * {@link #main(String[])} method of this class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlockChangeSetBenchmark {
+
+    /**
+     * Side length of the cuboid that is "set".
+     */
+    @Param({ "100" })
+    public int size;
+
+    private DoubleArrayList<BlockVector, BaseBlock> original;
+    private DoubleArrayList<BlockVector, BaseBlock> current;
+    private BlockChangeSet changes;
+
+    @Setup
+    public void setUp() {
+        original = new DoubleArrayList<BlockVector, BaseBlock>(true);
+        current = new DoubleArrayList<BlockVector, BaseBlock>(false);
+        recordLists(size, original, current);
+        changes = recordChangeSet(size);
+    }
+
+    @Benchmark
+    public Object recordDoubleArrayLists() {
+        DoubleArrayList<BlockVector, BaseBlock> original = new DoubleArrayList<BlockVector, BaseBlock>(true);
+        DoubleArrayList<BlockVector, BaseBlock> current = new DoubleArrayList<BlockVector, BaseBlock>(false);
+        recordLists(size, original, current);
+        return original;
+    }
+
+    @Benchmark
+    public Object recordBlockChangeSet() {
+        return recordChangeSet(size);
+    }
+
+    @Benchmark
+    public void undoDoubleArrayLists(Blackhole blackhole) {
+        for (Map.Entry<BlockVector, BaseBlock> entry : original) {
+            blackhole.consume(entry.getKey().getBlockX());
+            blackhole.consume(entry.getValue().getType());
+        }
+    }
+
+    @Benchmark
+    public void undoBlockChangeSet(Blackhole blackhole) {
+        BlockChangeSet.Cursor cursor = changes.reverse();
+        while (cursor.next()) {
+            blackhole.consume(cursor.getX());
+            blackhole.consume(cursor.getBeforeType());
+        }
+    }
+
+    private static void recordLists(int size, DoubleArrayList<BlockVector, BaseBlock> original,
+            DoubleArrayList<BlockVector, BaseBlock> current) {
+        for (int x = 0; x < size; ++x) {
+            for (int y = 0; y < size; ++y) {
+                for (int z = 0; z < size; ++z) {
+                    original.put(new BlockVector(x, y, z), new BaseBlock((x + y) & 0xFF, z & 0xF));
+                    current.put(new BlockVector(x, y, z), new BaseBlock(1));
+                }
+            }
+        }
+    }
+
+    private static BlockChangeSet recordChangeSet(int size) {
+        BlockChangeSet changes = new BlockChangeSet();
+        for (int x = 0; x < size; ++x) {
+            for (int y = 0; y < size; ++y) {
+                for (int z = 0; z < size; ++z) {
+                    changes.add(x, y, z, new BaseBlock((x + y) & 0xFF, z & 0xF), new BaseBlock(1));
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Print the retained heap of both structures after recording a cuboid.
+     *
+     * @param args optional side length of the cuboid
+     */
+    public static void main(String[] args) {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final int count = size * size * size;
+
+        long before = usedMemory();
+        DoubleArrayList<BlockVector, BaseBlock> original = new DoubleArrayList<BlockVector, BaseBlock>(true);
+        DoubleArrayList<BlockVector, BaseBlock> current = new DoubleArrayList<BlockVector, BaseBlock>(false);
+        recordLists(size, original, current);
+        long lists = usedMemory() - before;
+        System.out.println("DoubleArrayList x2: " + lists + " bytes ("
+                + (lists / count) + " bytes/change, " + original.size() + " changes)");
+        original = null;
+        current = null;
+
+        before = usedMemory();
+        BlockChangeSet changes = recordChangeSet(size);
+        long changeSet = usedMemory() - before;
+        System.out.println("BlockChangeSet:     " + changeSet + " bytes ("
+                + (changeSet / count) + " bytes/change, estimated "
+                + changes.getMemoryUsage() + " bytes)");
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
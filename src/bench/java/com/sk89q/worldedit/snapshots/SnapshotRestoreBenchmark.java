@@ -0,0 +1,88 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.snapshots;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.data.BenchmarkChunks;
+import com.sk89q.worldedit.data.FileMcRegionChunkStore;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+/**
+ * Restores a region that spans 8x8 generated chunks from a region file into
+ * an empty {@link MemoryWorld}, loading the chunks on worker threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SnapshotRestoreBenchmark {
+
+    private File folder;
+    private FileMcRegionChunkStore store;
+    private CuboidRegion region;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = BenchmarkChunks.writeWorld(8, new Random(0));
+        store = new FileMcRegionChunkStore(folder);
+        // Not aligned to chunks
+        region = new CuboidRegion(new Vector(4, 0, 4), new Vector(123, 79, 123));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        BenchmarkChunks.deleteWorld(folder);
+    }
+
+    @Benchmark
+    public int restore() throws MaxChangedBlocksException {
+        final EditSession editSession = new EditSession(new MemoryWorld(), -1);
+        editSession.enableQueue();
+        final SnapshotRestore restore = new SnapshotRestore(store, region);
+        restore.restore(editSession);
+        editSession.flushQueue();
+        if (restore.hadTotalFailure()) {
+            throw new IllegalStateException(restore.getLastErrorMessage());
+        }
+        return editSession.getBlockChangeCount();
+    }
+}
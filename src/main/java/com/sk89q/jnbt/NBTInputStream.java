@@ -79,6 +79,11 @@ public final class NBTInputStream implements Closeable {
      */
     private final DataInputStream is;
 
+    /**
+     * Buffer for the names of tags that may be skipped.
+     */
+    private byte[] nameBuffer = new byte[32];
+
     /**
      * Creates a new <code>NBTInputStream</code>, which will source its data
      * from the specified input stream.
@@ -103,6 +108,30 @@ public Tag readTag() throws IOException {
         return readTag(0);
     }
 
+    /**
+     * Reads an NBT tag from the stream, but only decodes the tags selected by
+     * a filter. The other tags are skipped, and are missing from the compound
+     * tags they were in.
+     * 
+     * @param filter
+     *            The filter.
+     * @return The tag that was read.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public Tag readTag(TagFilter filter) throws IOException {
+        int type = readTagType();
+
+        String name;
+        if (type != NBTConstants.TYPE_END) {
+            name = readTagName();
+        } else {
+            name = "";
+        }
+
+        return readTagPayload(type, name, 0, filter);
+    }
+
     /**
      * Reads an NBT from the stream.
      * 
@@ -113,14 +142,11 @@ public Tag readTag() throws IOException {
      *             if an I/O error occurs.
      */
     private Tag readTag(int depth) throws IOException {
-        int type = is.readByte() & 0xFF;
+        int type = readTagType();
 
         String name;
         if (type != NBTConstants.TYPE_END) {
-            int nameLength = is.readShort() & 0xFFFF;
-            byte[] nameBytes = new byte[nameLength];
-            is.readFully(nameBytes);
-            name = new String(nameBytes, NBTConstants.CHARSET);
+            name = readTagName();
         } else {
             name = "";
         }
@@ -128,6 +154,148 @@ private Tag readTag(int depth) throws IOException {
         return readTagPayload(type, name, depth);
     }
 
+    /**
+     * Reads the type of the next tag. Together with {@link #readTagName()},
+     * {@link #readTagPayload(int, String)} and {@link #skipTagPayload(int)}
+     * this allows reading the children of a compound tag one by one, without
+     * keeping all of them in memory.
+     * 
+     * @return The type.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public int readTagType() throws IOException {
+        return is.readByte() & 0xFF;
+    }
+
+    /**
+     * Reads the name of a tag, which follows its type unless it is a
+     * <code>TAG_End</code>.
+     * 
+     * @return The name.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public String readTagName() throws IOException {
+        int nameLength = is.readShort() & 0xFFFF;
+        byte[] nameBytes = new byte[nameLength];
+        is.readFully(nameBytes);
+        return new String(nameBytes, NBTConstants.CHARSET);
+    }
+
+    /**
+     * Reads the payload of a tag within a compound tag.
+     * 
+     * @param type
+     *            The type.
+     * @param name
+     *            The name.
+     * @return The tag.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public Tag readTagPayload(int type, String name) throws IOException {
+        return readTagPayload(type, name, 1);
+    }
+
+    /**
+     * Reads the length of a <code>TAG_Byte_Array</code>, which is followed
+     * by that many bytes to be read with
+     * {@link #readBytes(byte[], int, int)}.
+     * 
+     * @return The length.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public int readByteArrayLength() throws IOException {
+        return is.readInt();
+    }
+
+    /**
+     * Reads bytes of a <code>TAG_Byte_Array</code>.
+     * 
+     * @param bytes
+     *            The array to read into.
+     * @param offset
+     *            The offset in the array.
+     * @param length
+     *            The number of bytes to read.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void readBytes(byte[] bytes, int offset, int length) throws IOException {
+        is.readFully(bytes, offset, length);
+    }
+
+    /**
+     * Skips the payload of a tag.
+     * 
+     * @param type
+     *            The type.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void skipTagPayload(int type) throws IOException {
+        switch (type) {
+        case NBTConstants.TYPE_END:
+            break;
+        case NBTConstants.TYPE_BYTE:
+            skip(1);
+            break;
+        case NBTConstants.TYPE_SHORT:
+            skip(2);
+            break;
+        case NBTConstants.TYPE_INT:
+        case NBTConstants.TYPE_FLOAT:
+            skip(4);
+            break;
+        case NBTConstants.TYPE_LONG:
+        case NBTConstants.TYPE_DOUBLE:
+            skip(8);
+            break;
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            skip(is.readInt());
+            break;
+        case NBTConstants.TYPE_STRING:
+            skip(is.readShort() & 0xFFFF);
+            break;
+        case NBTConstants.TYPE_LIST:
+            int childType = is.readByte();
+            int length = is.readInt();
+            for (int i = 0; i < length; ++i) {
+                skipTagPayload(childType);
+            }
+            break;
+        case NBTConstants.TYPE_COMPOUND:
+            while (true) {
+                int childTagType = readTagType();
+                if (childTagType == NBTConstants.TYPE_END) {
+                    break;
+                }
+                skip(is.readShort() & 0xFFFF);
+                skipTagPayload(childTagType);
+            }
+            break;
+        case NBTConstants.TYPE_INT_ARRAY:
+            skip(is.readInt() * 4L);
+            break;
+        default:
+            throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            int skipped = is.skipBytes((int) Math.min(count, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                // skipBytes() may skip nothing without being at the end
+                is.readByte();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
     /**
      * Reads the payload of a tag, given the name and type.
      * 
@@ -211,6 +379,73 @@ private Tag readTagPayload(int type, String name, int depth)
         }
     }
 
+    /**
+     * Reads the payload of a tag, decoding only the tags selected by a filter.
+     * 
+     * @param type
+     *            The type.
+     * @param name
+     *            The name.
+     * @param depth
+     *            The depth.
+     * @param filter
+     *            The filter for the children of the tag.
+     * @return The tag.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private Tag readTagPayload(int type, String name, int depth, TagFilter filter)
+            throws IOException {
+        if (filter.isAll()) {
+            return readTagPayload(type, name, depth);
+        }
+
+        switch (type) {
+        case NBTConstants.TYPE_LIST:
+            int childType = is.readByte();
+            int length = is.readInt();
+
+            List<Tag> tagList = new ArrayList<Tag>();
+            for (int i = 0; i < length; ++i) {
+                Tag tag = readTagPayload(childType, "", depth + 1, filter);
+                if (tag instanceof EndTag) {
+                    throw new IOException("TAG_End not permitted in a list.");
+                }
+                tagList.add(tag);
+            }
+
+            return new ListTag(name, NBTUtils.getTypeClass(childType), tagList);
+        case NBTConstants.TYPE_COMPOUND:
+            Map<String, Tag> tagMap = new HashMap<String, Tag>();
+            while (true) {
+                int childTagType = readTagType();
+                if (childTagType == NBTConstants.TYPE_END) {
+                    break;
+                }
+
+                // Only decode the name if the child is selected
+                int nameLength = is.readShort() & 0xFFFF;
+                if (nameLength > nameBuffer.length) {
+                    nameBuffer = new byte[Math.max(nameLength, nameBuffer.length * 2)];
+                }
+                is.readFully(nameBuffer, 0, nameLength);
+
+                TagFilter childFilter = filter.getChild(nameBuffer, nameLength);
+                if (childFilter == null) {
+                    skipTagPayload(childTagType);
+                    continue;
+                }
+
+                String childName = new String(nameBuffer, 0, nameLength, NBTConstants.CHARSET);
+                tagMap.put(childName, readTagPayload(childTagType, childName, depth + 1, childFilter));
+            }
+
+            return new CompoundTag(name, tagMap);
+        default:
+            return readTagPayload(type, name, depth);
+        }
+    }
+
     public void close() throws IOException {
         is.close();
     }
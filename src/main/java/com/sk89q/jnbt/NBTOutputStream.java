@@ -99,12 +99,7 @@ public NBTOutputStream(OutputStream os) throws IOException {
      */
     public void writeTag(Tag tag) throws IOException {
         int type = NBTUtils.getTypeCode(tag.getClass());
-        String name = tag.getName();
-        byte[] nameBytes = name.getBytes(NBTConstants.CHARSET);
-
-        os.writeByte(type);
-        os.writeShort(nameBytes.length);
-        os.write(nameBytes);
+        writeTagHeader(type, tag.getName());
 
         if (type == NBTConstants.TYPE_END) {
             throw new IOException("Named TAG_End not permitted.");
@@ -113,6 +108,35 @@ public void writeTag(Tag tag) throws IOException {
         writeTagPayload(tag);
     }
 
+    /**
+     * Writes the type and name of a tag. The payload has to be written next,
+     * which allows writing the children of a compound tag one by one.
+     * 
+     * @param type
+     *            The type.
+     * @param name
+     *            The name.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeTagHeader(int type, String name) throws IOException {
+        byte[] nameBytes = name.getBytes(NBTConstants.CHARSET);
+
+        os.writeByte(type);
+        os.writeShort(nameBytes.length);
+        os.write(nameBytes);
+    }
+
+    /**
+     * Writes the <code>TAG_End</code> closing a compound tag.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeEndTag() throws IOException {
+        os.writeByte(NBTConstants.TYPE_END);
+    }
+
     /**
      * Writes tag payload.
      * 
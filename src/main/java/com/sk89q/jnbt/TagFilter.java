@@ -0,0 +1,184 @@
+package com.sk89q.jnbt;
+
+import java.util.Arrays;
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+/**
+ * <p>
+ * Selects the tags that {@link NBTInputStream#readTag(TagFilter)} decodes.
+ * Tags that are not selected are skipped by their length, without creating
+ * any objects for them.
+ * </p>
+ * 
+ * <p>
+ * A filter is built from paths of tag names separated by dots, relative to
+ * the tag that is read. A path selects the tag it leads to with everything
+ * inside it, and the compound tags on the way with only the children that
+ * some path leads through. The elements of a list tag are filtered like the
+ * list itself, so <code>Level.Sections.Y</code> selects the <code>Y</code>
+ * tag of every section.
+ * </p>
+ */
+public final class TagFilter {
+
+    /**
+     * A filter that selects everything.
+     */
+    public static final TagFilter ALL = new TagFilter();
+
+    /**
+     * The names of the selected children, encoded like in the stream, or
+     * null if all children are selected.
+     */
+    private byte[][] names;
+
+    /**
+     * The filters of the selected children.
+     */
+    private TagFilter[] children;
+
+    private TagFilter() {
+    }
+
+    /**
+     * Creates a filter from paths.
+     * 
+     * @param paths
+     *            The paths of the selected tags.
+     * @return The filter.
+     */
+    public static TagFilter of(String... paths) {
+        final TagFilter root = new TagFilter();
+        root.names = new byte[0][];
+        root.children = new TagFilter[0];
+
+        for (String path : paths) {
+            TagFilter filter = root;
+            final String[] parts = path.split("\\.");
+            for (int i = 0; i < parts.length; ++i) {
+                if (filter == ALL) {
+                    break;
+                }
+
+                final boolean last = i == parts.length - 1;
+                final byte[] name = parts[i].getBytes(NBTConstants.CHARSET);
+                final int index = filter.indexOf(name, name.length);
+                if (index >= 0) {
+                    if (last) {
+                        filter.children[index] = ALL;
+                    }
+                    filter = filter.children[index];
+                    continue;
+                }
+
+                final TagFilter child;
+                if (last) {
+                    child = ALL;
+                } else {
+                    child = new TagFilter();
+                    child.names = new byte[0][];
+                    child.children = new TagFilter[0];
+                }
+                filter.add(name, child);
+                filter = child;
+            }
+        }
+
+        return root;
+    }
+
+    /**
+     * Gets whether this filter selects everything.
+     * 
+     * @return true if everything is selected.
+     */
+    public boolean isAll() {
+        return names == null;
+    }
+
+    /**
+     * Gets the filter for a child of a compound tag.
+     * 
+     * @param name
+     *            The name of the child.
+     * @return The filter, or null if the child is not selected.
+     */
+    public TagFilter getChild(String name) {
+        final byte[] bytes = name.getBytes(NBTConstants.CHARSET);
+        return getChild(bytes, bytes.length);
+    }
+
+    /**
+     * Gets the filter for a child of a compound tag, given the encoded name.
+     * 
+     * @param name
+     *            A buffer with the encoded name.
+     * @param length
+     *            The length of the name in the buffer.
+     * @return The filter, or null if the child is not selected.
+     */
+    TagFilter getChild(byte[] name, int length) {
+        if (names == null) {
+            return ALL;
+        }
+        final int index = indexOf(name, length);
+        return index < 0 ? null : children[index];
+    }
+
+    private int indexOf(byte[] name, int length) {
+        outer:
+        for (int i = 0; i < names.length; ++i) {
+            final byte[] candidate = names[i];
+            if (candidate.length != length) {
+                continue;
+            }
+            for (int j = 0; j < length; ++j) {
+                if (candidate[j] != name[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void add(byte[] name, TagFilter child) {
+        names = Arrays.copyOf(names, names.length + 1);
+        names[names.length - 1] = name;
+        children = Arrays.copyOf(children, children.length + 1);
+        children[children.length - 1] = child;
+    }
+
+}
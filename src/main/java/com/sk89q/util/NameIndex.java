@@ -0,0 +1,178 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up values by name, ignoring case, spaces and underscores. A fuzzy
+ * lookup also accepts a name that is one edit away from a key starting with
+ * the same letter.
+ * </p>
+ * To find such keys without comparing the name against all of them, every
+ * key is also indexed under each variant of it with one character removed.
+ * Two strings that are at most one edit apart always have such a variant
+ * (or the string itself) in common, so only keys sharing a variant with the
+ * name are compared.
+ *
+ * @param <T> the type of the values
+ */
+public class NameIndex<T> {
+    private final Map<String, T> values = new HashMap<String, T>();
+    private final List<String> keys = new ArrayList<String>();
+    private final Map<String, List<Integer>> variants = new HashMap<String, List<Integer>>();
+
+    /**
+     * Add a key. A value that was added under the same key before is
+     * replaced.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(String key, T value) {
+        key = normalize(key);
+        if (values.put(key, value) != null || key.length() == 0) {
+            return;
+        }
+
+        final Integer index = keys.size();
+        keys.add(key);
+        addVariant(key, index);
+        for (int i = 0; i < key.length(); ++i) {
+            addVariant(removeAt(key, i), index);
+        }
+    }
+
+    private void addVariant(String variant, Integer index) {
+        List<Integer> list = variants.get(variant);
+        if (list == null) {
+            list = new ArrayList<Integer>(1);
+            variants.put(variant, list);
+        } else if (list.contains(index)) {
+            // Keys with repeated letters have some variants twice
+            return;
+        }
+        list.add(index);
+    }
+
+    /**
+     * Look up a value. If a fuzzy lookup finds several keys one edit away,
+     * the key that was added first wins.
+     *
+     * @param name the name
+     * @param fuzzy whether to accept names one edit away from a key
+     * @return the value, or null if not found
+     */
+    public T get(String name, boolean fuzzy) {
+        final String testName = normalize(name);
+        final T value = values.get(testName);
+        if (value != null || !fuzzy || testName.length() == 0) {
+            return value;
+        }
+
+        int best = match(testName, testName, Integer.MAX_VALUE);
+        for (int i = 0; i < testName.length(); ++i) {
+            best = match(testName, removeAt(testName, i), best);
+        }
+
+        return best == Integer.MAX_VALUE ? null : values.get(keys.get(best));
+    }
+
+    /**
+     * Find the first key with the given variant that is one edit away from
+     * the name.
+     *
+     * @param name the name
+     * @param variant the variant
+     * @param best index of the best key so far
+     * @return the index of the best key
+     */
+    private int match(String name, String variant, int best) {
+        final List<Integer> candidates = variants.get(variant);
+        if (candidates == null) {
+            return best;
+        }
+
+        for (int index : candidates) {
+            if (index >= best) {
+                break;
+            }
+
+            final String key = keys.get(index);
+            if (key.charAt(0) == name.charAt(0) && isOneEditApart(key, name)) {
+                return index;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Remove spaces and underscores and convert to lower case.
+     *
+     * @param name the name
+     * @return the normalized name
+     */
+    private static String normalize(String name) {
+        final StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); ++i) {
+            final char c = name.charAt(i);
+            if (c != ' ' && c != '_') {
+                builder.append(c);
+            }
+        }
+        return builder.toString().toLowerCase();
+    }
+
+    private static String removeAt(String str, int index) {
+        return str.substring(0, index) + str.substring(index + 1);
+    }
+
+    /**
+     * Returns whether two different strings have a Levenshtein distance of 1.
+     *
+     * @param a a string
+     * @param b another string
+     * @return true if one substitution, insertion or deletion turns one into the other
+     */
+    private static boolean isOneEditApart(String a, String b) {
+        if (a.length() < b.length()) {
+            final String swap = a;
+            a = b;
+            b = swap;
+        }
+
+        final int lengthDifference = a.length() - b.length();
+        if (lengthDifference > 1) {
+            return false;
+        }
+
+        int i = 0;
+        while (i < b.length() && a.charAt(i) == b.charAt(i)) {
+            ++i;
+        }
+
+        // Skip the differing character of the longer string, or of both
+        final int offset = lengthDifference == 1 ? 1 : 0;
+        return a.regionMatches(i + 1, b, i + 1 - offset, b.length() - i - 1 + offset);
+    }
+}
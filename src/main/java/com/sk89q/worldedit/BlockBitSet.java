@@ -0,0 +1,355 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.Arrays;
+
+/**
+ * A dense set of block positions inside a box.
+ * </p>
+ * The box is the given bounds grown by one block on every side, so the
+ * neighbors of every block within the bounds can be stored as well. Each
+ * position takes a single bit, and neighborhood operations work on 64
+ * positions at a time by shifting whole words.
+ * </p>
+ * Positions are numbered with X varying fastest, then Y, then Z, which is
+ * the order in which a {@link com.sk89q.worldedit.regions.CuboidRegion} is
+ * iterated.
+ */
+public class BlockBitSet {
+    private final int offsetX;
+    private final int offsetY;
+    private final int offsetZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int size;
+    private final long[] words;
+
+    /**
+     * Construct an empty set.
+     *
+     * @param min the minimum point of the bounds
+     * @param max the maximum point of the bounds
+     * @throws IllegalArgumentException if the box is too large
+     */
+    public BlockBitSet(Vector min, Vector max) {
+        offsetX = min.getBlockX() - 1;
+        offsetY = min.getBlockY() - 1;
+        offsetZ = min.getBlockZ() - 1;
+        sizeX = max.getBlockX() - offsetX + 2;
+        sizeY = max.getBlockY() - offsetY + 2;
+        sizeZ = max.getBlockZ() - offsetZ + 2;
+
+        final long volume = (long) sizeX * sizeY * sizeZ;
+        if (volume > Integer.MAX_VALUE - 64) {
+            throw new IllegalArgumentException("Box too large: " + sizeX + "x" + sizeY + "x" + sizeZ);
+        }
+        size = (int) volume;
+        words = new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * Construct an empty set with the same box as another set.
+     *
+     * @param other the other set
+     */
+    public BlockBitSet(BlockBitSet other) {
+        offsetX = other.offsetX;
+        offsetY = other.offsetY;
+        offsetZ = other.offsetZ;
+        sizeX = other.sizeX;
+        sizeY = other.sizeY;
+        sizeZ = other.sizeZ;
+        size = other.size;
+        words = new long[other.words.length];
+    }
+
+    /**
+     * Get the number of positions in the box, including the border.
+     *
+     * @return number of positions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check whether a position lies within the box, including the border.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return true if the position can be stored
+     */
+    public boolean isInBox(int x, int y, int z) {
+        x -= offsetX;
+        y -= offsetY;
+        z -= offsetZ;
+        return x >= 0 && x < sizeX && y >= 0 && y < sizeY && z >= 0 && z < sizeZ;
+    }
+
+    /**
+     * Get the index of a position. The position must lie within the box.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return index
+     */
+    public int index(int x, int y, int z) {
+        return ((z - offsetZ) * sizeY + (y - offsetY)) * sizeX + (x - offsetX);
+    }
+
+    /**
+     * Get the X coordinate of an index.
+     *
+     * @param index
+     * @return X coordinate
+     */
+    public int getX(int index) {
+        return index % sizeX + offsetX;
+    }
+
+    /**
+     * Get the Y coordinate of an index.
+     *
+     * @param index
+     * @return Y coordinate
+     */
+    public int getY(int index) {
+        return (index / sizeX) % sizeY + offsetY;
+    }
+
+    /**
+     * Get the Z coordinate of an index.
+     *
+     * @param index
+     * @return Z coordinate
+     */
+    public int getZ(int index) {
+        return index / sizeX / sizeY + offsetZ;
+    }
+
+    /**
+     * Get the difference between the indices of neighboring positions along
+     * an axis.
+     *
+     * @param axis 0 for X, 1 for Y, 2 for Z
+     * @return index stride
+     */
+    public int getStride(int axis) {
+        switch (axis) {
+        case 0:
+            return 1;
+        case 1:
+            return sizeX;
+        default:
+            return sizeX * sizeY;
+        }
+    }
+
+    /**
+     * Check whether a position is in the set.
+     *
+     * @param index
+     * @return true if the position is in the set
+     */
+    public boolean get(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Add a position.
+     *
+     * @param index
+     */
+    public void set(int index) {
+        words[index >>> 6] |= 1L << index;
+    }
+
+    /**
+     * Add a position.
+     *
+     * @param index
+     * @return true if the position was not in the set before
+     */
+    public boolean add(int index) {
+        final int word = index >>> 6;
+        final long mask = 1L << index;
+        if ((words[word] & mask) != 0) {
+            return false;
+        }
+        words[word] |= mask;
+        return true;
+    }
+
+    /**
+     * Add every position within the bounds, leaving out the border.
+     */
+    public void setInner() {
+        final int strideZ = sizeX * sizeY;
+        for (int z = 1; z < sizeZ - 1; ++z) {
+            for (int y = 1; y < sizeY - 1; ++y) {
+                final int start = z * strideZ + y * sizeX + 1;
+                setRange(start, start + sizeX - 2);
+            }
+        }
+    }
+
+    private void setRange(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+
+        final int firstWord = from >>> 6;
+        final int lastWord = (to - 1) >>> 6;
+        final long firstMask = -1L << from;
+        final long lastMask = -1L >>> -to;
+        if (firstWord == lastWord) {
+            words[firstWord] |= firstMask & lastMask;
+            return;
+        }
+
+        words[firstWord] |= firstMask;
+        for (int i = firstWord + 1; i < lastWord; ++i) {
+            words[i] = -1L;
+        }
+        words[lastWord] |= lastMask;
+    }
+
+    /**
+     * Get the index of the first position in the set at or after an index.
+     *
+     * @param from
+     * @return index, or -1 if there is none
+     */
+    public int nextSetBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+
+        int word = from >>> 6;
+        long bits = words[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == words.length) {
+                return -1;
+            }
+            bits = words[word];
+        }
+
+        final int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+        return index < size ? index : -1;
+    }
+
+    /**
+     * Add every position of another set.
+     *
+     * @param other a set with the same box
+     * @return true if this set changed
+     */
+    public boolean or(BlockBitSet other) {
+        final long[] otherWords = other.words;
+        long changed = 0;
+        for (int i = 0; i < words.length; ++i) {
+            changed |= otherWords[i] & ~words[i];
+            words[i] |= otherWords[i];
+        }
+        return changed != 0;
+    }
+
+    /**
+     * Remove every position that is not in another set.
+     *
+     * @param other a set with the same box
+     */
+    public void and(BlockBitSet other) {
+        final long[] otherWords = other.words;
+        for (int i = 0; i < words.length; ++i) {
+            words[i] &= otherWords[i];
+        }
+    }
+
+    /**
+     * Remove every position that is in another set.
+     *
+     * @param other a set with the same box
+     */
+    public void andNot(BlockBitSet other) {
+        final long[] otherWords = other.words;
+        for (int i = 0; i < words.length; ++i) {
+            words[i] &= ~otherWords[i];
+        }
+    }
+
+    /**
+     * Replace the contents of this set with the positions that have at least
+     * one of their six direct neighbors in another set. The positions of the
+     * other set themselves are only included if they have such a neighbor.
+     * </p>
+     * The result is only exact for positions within the bounds. Border
+     * positions may pick up neighbors from the opposite side of the box.
+     *
+     * @param other a set with the same box
+     */
+    public void setNeighbors(BlockBitSet other) {
+        Arrays.fill(words, 0);
+        for (int axis = 0; axis < 3; ++axis) {
+            final int stride = getStride(axis);
+            orShifted(other.words, stride);
+            orShifted(other.words, -stride);
+        }
+
+        final int tail = size & 63;
+        if (tail != 0) {
+            words[words.length - 1] &= -1L >>> (64 - tail);
+        }
+    }
+
+    /**
+     * Add the positions of a bitset moved by a number of bits.
+     *
+     * @param source bitset of the same length
+     * @param shift positive to move up, negative to move down
+     */
+    private void orShifted(long[] source, int shift) {
+        final int length = words.length;
+        if (shift >= 0) {
+            final int wordShift = shift >>> 6;
+            final int bitShift = shift & 63;
+            for (int i = length - 1; i >= wordShift; --i) {
+                long bits = source[i - wordShift] << bitShift;
+                if (bitShift != 0 && i - wordShift - 1 >= 0) {
+                    bits |= source[i - wordShift - 1] >>> (64 - bitShift);
+                }
+                words[i] |= bits;
+            }
+        } else {
+            final int wordShift = (-shift) >>> 6;
+            final int bitShift = (-shift) & 63;
+            for (int i = 0; i + wordShift < length; ++i) {
+                long bits = source[i + wordShift] >>> bitShift;
+                if (bitShift != 0 && i + wordShift + 1 < length) {
+                    bits |= source[i + wordShift + 1] << (64 - bitShift);
+                }
+                words[i] |= bits;
+            }
+        }
+    }
+}
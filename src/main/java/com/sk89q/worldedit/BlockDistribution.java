@@ -0,0 +1,329 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.regions.AbstractRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.regions.RegionVisitor;
+import com.sk89q.worldedit.util.WorkerPool;
+
+/**
+ * Counts the blocks of a region by type and data value.
+ * </p>
+ * Chunks are snapshotted on the thread that calls {@link #resume(long)},
+ * and counted on worker threads. Each worker counts into a histogram with a
+ * slot for every combination of type and data, and the histograms are added
+ * up at the end. Worlds without snapshots are counted on the calling thread,
+ * one chunk at a time.
+ * </p>
+ * The work can be spread over several calls to {@link #resume(long)}, so it
+ * can run on the server thread a few milliseconds per tick.
+ */
+public class BlockDistribution {
+    /**
+     * Number of slots of a histogram, indexed by <code>(type << 4) | data</code>.
+     */
+    private static final int HISTOGRAM_SIZE = 4096 * 16;
+
+    /**
+     * Number of chunks per worker thread that may be snapshotted ahead of
+     * the counting.
+     */
+    private static final int READ_AHEAD = 4;
+
+    private final LocalWorld world;
+    private final Region region;
+    private final List<Vector2D> chunks;
+    private int nextChunk = 0;
+    private boolean useSnapshots = true;
+
+    private boolean cancelled = false;
+
+    private final LinkedList<Future<?>> pending = new LinkedList<Future<?>>();
+    private final Queue<long[]> histograms = new ConcurrentLinkedQueue<long[]>();
+    private long[] histogram;
+
+    /**
+     * Construct the counter. The region is copied, as it is read on worker
+     * threads while the original may still be changed, for example by the
+     * selection commands.
+     *
+     * @param world the world to read
+     * @param region the region to count
+     */
+    public BlockDistribution(LocalWorld world, Region region) {
+        this.world = world;
+        this.region = region.clone();
+        this.chunks = new ArrayList<Vector2D>(this.region.getChunks());
+    }
+
+    /**
+     * Count all blocks right away.
+     */
+    public void run() {
+        resume(Long.MAX_VALUE);
+    }
+
+    /**
+     * Continue counting until the deadline.
+     *
+     * @param deadline value of {@link System#nanoTime()} to stop at, or
+     *     {@link Long#MAX_VALUE} to finish
+     * @return true if all blocks have been counted
+     * @throws IllegalStateException if counting was cancelled
+     */
+    public boolean resume(long deadline) {
+        if (cancelled) {
+            throw new IllegalStateException("Counting was cancelled");
+        }
+        if (histogram != null) {
+            return true;
+        }
+
+        final int readAhead = WorkerPool.getParallelism() * READ_AHEAD;
+        boolean success = false;
+        try {
+            while (nextChunk < chunks.size()) {
+                if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0) {
+                    success = true;
+                    return false;
+                }
+
+                if (pending.size() >= readAhead && !finishCount(deadline)) {
+                    success = true;
+                    return false;
+                }
+
+                final Vector2D chunk = chunks.get(nextChunk);
+                if (useSnapshots) {
+                    final ChunkBlockSnapshot snapshot = world.getChunkSnapshot(chunk.toBlockVector2D());
+                    if (snapshot != null) {
+                        pending.add(WorkerPool.submit(new ChunkCount(snapshot)));
+                        ++nextChunk;
+                        continue;
+                    }
+
+                    // Worlds either support snapshots or they do not
+                    useSnapshots = false;
+                }
+
+                countFromWorld(chunk);
+                ++nextChunk;
+            }
+
+            while (!pending.isEmpty()) {
+                if (!finishCount(deadline)) {
+                    success = true;
+                    return false;
+                }
+            }
+
+            histogram = new long[HISTOGRAM_SIZE];
+            for (long[] counts : histograms) {
+                for (int i = 0; i < HISTOGRAM_SIZE; ++i) {
+                    histogram[i] += counts[i];
+                }
+            }
+            histograms.clear();
+
+            success = true;
+            return true;
+        } finally {
+            if (!success) {
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * Stop counting. Chunks that are being counted are abandoned, and no
+     * results are available afterwards.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Future<?> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        nextChunk = chunks.size();
+    }
+
+    /**
+     * Wait for the oldest chunk that is being counted.
+     *
+     * @param deadline
+     * @return false if the chunk is not counted yet and there is no time to
+     *     wait for it
+     */
+    private boolean finishCount(long deadline) {
+        final Future<?> future = pending.getFirst();
+        if (deadline != Long.MAX_VALUE && !future.isDone()) {
+            return false;
+        }
+
+        try {
+            WorkerPool.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        pending.removeFirst();
+        return true;
+    }
+
+    /**
+     * Count the blocks of a chunk by reading them from the world.
+     *
+     * @param chunk
+     */
+    private void countFromWorld(Vector2D chunk) {
+        long[] counts = histograms.poll();
+        if (counts == null) {
+            counts = new long[HISTOGRAM_SIZE];
+        }
+
+        final long[] target = counts;
+        try {
+            AbstractRegion.visitRegionChunk(region, new RegionVisitor() {
+                public void visit(int x, int y, int z) {
+                    final Vector pt = new Vector(x, y, z);
+                    ++target[((world.getBlockType(pt) & 0xFFF) << 4) | (world.getBlockData(pt) & 0xF)];
+                }
+            }, chunk.getBlockX(), chunk.getBlockZ());
+        } catch (MaxChangedBlocksException e) {
+            // Not thrown when only counting
+            throw new IllegalStateException(e);
+        } finally {
+            histograms.add(counts);
+        }
+    }
+
+    /**
+     * Get the number of blocks counted.
+     *
+     * @return number of blocks
+     */
+    public long getTotal() {
+        long total = 0;
+        for (long count : getHistogram()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Get the number of blocks of each type, most common last.
+     *
+     * @return the counts
+     */
+    public List<Countable<Integer>> getDistribution() {
+        final long[] histogram = getHistogram();
+        final List<Countable<Integer>> distribution = new ArrayList<Countable<Integer>>();
+
+        for (int type = 0; type < HISTOGRAM_SIZE >> 4; ++type) {
+            long count = 0;
+            for (int data = 0; data < 16; ++data) {
+                count += histogram[(type << 4) | data];
+            }
+            if (count > 0) {
+                distribution.add(new Countable<Integer>(type, count));
+            }
+        }
+
+        Collections.sort(distribution);
+        return distribution;
+    }
+
+    /**
+     * Get the number of blocks of each type and data value, most common last.
+     *
+     * @return the counts
+     */
+    public List<Countable<BaseBlock>> getDistributionWithData() {
+        final long[] histogram = getHistogram();
+        final List<Countable<BaseBlock>> distribution = new ArrayList<Countable<BaseBlock>>();
+
+        for (int i = 0; i < HISTOGRAM_SIZE; ++i) {
+            if (histogram[i] > 0) {
+                distribution.add(new Countable<BaseBlock>(new BaseBlock(i >> 4, i & 0xF), histogram[i]));
+            }
+        }
+
+        Collections.sort(distribution);
+        return distribution;
+    }
+
+    private long[] getHistogram() {
+        if (cancelled) {
+            throw new IllegalStateException("Counting was cancelled");
+        }
+        if (histogram == null) {
+            throw new IllegalStateException("Counting is not finished");
+        }
+        return histogram;
+    }
+
+    /**
+     * Counts the blocks of the region in one chunk snapshot.
+     */
+    private class ChunkCount implements Callable<Void>, RegionVisitor {
+        private final ChunkBlockSnapshot snapshot;
+        private long[] counts;
+
+        ChunkCount(ChunkBlockSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public Void call() throws MaxChangedBlocksException {
+            // Each thread uses one histogram at a time, so there are never
+            // more histograms than threads
+            counts = histograms.poll();
+            if (counts == null) {
+                counts = new long[HISTOGRAM_SIZE];
+            }
+
+            try {
+                final BlockVector2D chunk = snapshot.getChunk();
+                AbstractRegion.visitRegionChunk(region, this, chunk.getBlockX(), chunk.getBlockZ());
+            } finally {
+                histograms.add(counts);
+                counts = null;
+            }
+            return null;
+        }
+
+        @Override
+        public void visit(int x, int y, int z) {
+            x &= 15;
+            z &= 15;
+            ++counts[(snapshot.getBlockType(x, y, z) << 4) | snapshot.getBlockData(x, y, z)];
+        }
+    }
+}
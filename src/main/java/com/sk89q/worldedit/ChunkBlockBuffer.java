@@ -0,0 +1,169 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.Arrays;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+
+/**
+ * A list of block changes that all lie within the same 16x16 chunk column.
+ * Edit sessions use it to hand their changes to a {@link LocalWorld} one
+ * chunk at a time, see {@link LocalWorld#setBlocks(ChunkBlockBuffer, boolean)}.
+ *
+ * @author sk89q
+ */
+public class ChunkBlockBuffer {
+
+    private final BlockVector2D chunk;
+    private Vector[] positions;
+    private BaseBlock[] blocks;
+    private int size = 0;
+
+    /**
+     * Construct the buffer.
+     *
+     * @param chunk position of the chunk
+     */
+    public ChunkBlockBuffer(BlockVector2D chunk) {
+        this(chunk, 64);
+    }
+
+    /**
+     * Construct the buffer with an initial capacity.
+     *
+     * @param chunk position of the chunk
+     * @param capacity initial capacity
+     */
+    public ChunkBlockBuffer(BlockVector2D chunk, int capacity) {
+        this.chunk = chunk;
+        positions = new Vector[Math.max(1, capacity)];
+        blocks = new BaseBlock[positions.length];
+    }
+
+    /**
+     * Get the position of the chunk, in chunk coordinates.
+     *
+     * @return chunk position
+     */
+    public BlockVector2D getChunk() {
+        return chunk;
+    }
+
+    /**
+     * Add a change. The position must lie within the chunk.
+     *
+     * @param pt position
+     * @param block block to set
+     */
+    public void add(Vector pt, BaseBlock block) {
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+            blocks = Arrays.copyOf(blocks, size * 2);
+        }
+        positions[size] = pt;
+        blocks[size] = block;
+        ++size;
+    }
+
+    /**
+     * Get the number of changes.
+     *
+     * @return number of changes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the position of a change.
+     *
+     * @param index index of the change
+     * @return position
+     */
+    public Vector getPosition(int index) {
+        return positions[index];
+    }
+
+    /**
+     * Get the block of a change.
+     *
+     * @param index index of the change
+     * @return block
+     */
+    public BaseBlock getBlock(int index) {
+        return blocks[index];
+    }
+
+    /**
+     * Order the changes by 16-block high section, from the bottom up. The
+     * order of changes within a section is kept, so that later changes to
+     * the same position still win.
+     */
+    public void sortBySection() {
+        if (size < 2) {
+            return;
+        }
+
+        int minSection = Integer.MAX_VALUE;
+        int maxSection = Integer.MIN_VALUE;
+        boolean sorted = true;
+        int previous = Integer.MIN_VALUE;
+        for (int i = 0; i < size; ++i) {
+            final int section = positions[i].getBlockY() >> 4;
+            minSection = Math.min(minSection, section);
+            maxSection = Math.max(maxSection, section);
+            sorted &= section >= previous;
+            previous = section;
+        }
+
+        if (sorted) {
+            return;
+        }
+
+        // Counting sort, which is stable
+        final int[] starts = new int[maxSection - minSection + 2];
+        for (int i = 0; i < size; ++i) {
+            ++starts[(positions[i].getBlockY() >> 4) - minSection + 1];
+        }
+        for (int i = 1; i < starts.length; ++i) {
+            starts[i] += starts[i - 1];
+        }
+
+        final Vector[] sortedPositions = new Vector[positions.length];
+        final BaseBlock[] sortedBlocks = new BaseBlock[blocks.length];
+        for (int i = 0; i < size; ++i) {
+            final int index = starts[(positions[i].getBlockY() >> 4) - minSection]++;
+            sortedPositions[index] = positions[i];
+            sortedBlocks[index] = blocks[i];
+        }
+
+        positions = sortedPositions;
+        blocks = sortedBlocks;
+    }
+
+    /**
+     * Remove all changes.
+     */
+    public void clear() {
+        Arrays.fill(positions, 0, size, null);
+        Arrays.fill(blocks, 0, size, null);
+        size = 0;
+    }
+}
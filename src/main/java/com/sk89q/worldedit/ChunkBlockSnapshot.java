@@ -0,0 +1,79 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+/**
+ * A copy of the blocks of one chunk that can be read from any thread.
+ * </p>
+ * Snapshots are taken with {@link LocalWorld#getChunkSnapshot(BlockVector2D)}
+ * on the thread that is allowed to access the world. They only hold type
+ * and data values; blocks with extra data (such as tile entities) are
+ * marked, and have to be read with {@link LocalWorld#getBlock(Vector)}.
+ * </p>
+ * Positions are relative to the chunk for X and Z (0 to 15) and absolute for
+ * Y. Positions above or below the world are air.
+ */
+public interface ChunkBlockSnapshot {
+
+    /**
+     * Get the position of the chunk, in chunk coordinates.
+     *
+     * @return chunk position
+     */
+    public BlockVector2D getChunk();
+
+    /**
+     * Get the type of a block.
+     *
+     * @param x X within the chunk
+     * @param y Y
+     * @param z Z within the chunk
+     * @return type ID
+     */
+    public int getBlockType(int x, int y, int z);
+
+    /**
+     * Get the data value of a block.
+     *
+     * @param x X within the chunk
+     * @param y Y
+     * @param z Z within the chunk
+     * @return data value
+     */
+    public int getBlockData(int x, int y, int z);
+
+    /**
+     * Checks whether a block has extra data that is not part of the snapshot.
+     *
+     * @param x X within the chunk
+     * @param y Y
+     * @param z Z within the chunk
+     * @return true if the block has to be read from the world
+     */
+    public boolean hasTileEntity(int x, int y, int z);
+
+    /**
+     * Checks whether a 16 block high section holds nothing but air. This may
+     * return false for sections that are empty.
+     *
+     * @param sectionY the section, Y divided by 16
+     * @return true if every block of the section is air
+     */
+    public boolean isSectionEmpty(int sectionY);
+}
@@ -32,7 +32,7 @@
     /**
      * Amount.
      */
-    private int amount;
+    private long amount;
 
     /**
      * Construct the object.
@@ -45,6 +45,17 @@ public Countable(T id, int amount) {
         this.amount = amount;
     }
 
+    /**
+     * Construct the object.
+     *
+     * @param id
+     * @param amount
+     */
+    public Countable(T id, long amount) {
+        this.id = id;
+        this.amount = amount;
+    }
+
     /**
      * @return the id
      */
@@ -60,9 +71,17 @@ public void setID(T id) {
     }
 
     /**
-     * @return the amount
+     * @return the amount, or {@link Integer#MAX_VALUE} if it is larger
+     * @see #getLongAmount()
      */
     public int getAmount() {
+        return (int) Math.min(amount, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the amount
+     */
+    public long getLongAmount() {
         return amount;
     }
 
@@ -23,17 +23,34 @@
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockData;
+import com.sk89q.worldedit.blocks.PalettedBlockArray;
 import com.sk89q.worldedit.data.DataException;
 import com.sk89q.worldedit.schematic.SchematicFormat;
+import com.sk89q.worldedit.util.WorkerPool;
 
 /**
  * The clipboard remembers the state of a cuboid region.
+ * </p>
+ * Blocks are kept in a {@link PalettedBlockArray}, ordered by Y, then Z,
+ * then X, so that large copies of few distinct blocks take little memory.
+ * </p>
+ * Rotating and flipping do not move any blocks. Instead, the clipboard
+ * remembers how positions map to the stored array and how the data values
+ * of plain blocks change (as a lookup table from type and data value to the
+ * new data value). Both are applied when blocks are read. Only blocks with
+ * extra data, such as tile entities, are transformed right away.
  *
  * @author sk89q
  */
@@ -47,7 +64,35 @@ public enum FlipDirection {
         UP_DOWN
     }
 
-    private BaseBlock[][][] data;
+    /**
+     * Number of plain blocks, that is, all type and data value combinations.
+     */
+    private static final int PLAIN_BLOCKS = 1 << 16;
+
+    /**
+     * Number of chunks to read ahead per worker thread when copying from
+     * chunk snapshots.
+     */
+    private static final int READ_AHEAD = 4;
+
+    private PalettedBlockArray data;
+    private int storedWidth;
+    private int storedLength;
+    // Maps a position in the clipboard to a position in the stored array:
+    // storedX = xx * x + xz * z + x0, storedY = yy * y + y0,
+    // storedZ = zx * x + zz * z + z0
+    private int xx = 1, xz, x0;
+    private int yy = 1, y0;
+    private int zx, zz = 1, z0;
+    /**
+     * New data value of every plain block, indexed by (type << 4) | data,
+     * or null if the data values are unchanged.
+     */
+    private byte[] dataTable;
+    /**
+     * Transformed palette entries, or null if they have to be looked up.
+     */
+    private BaseBlock[] transformedPalette;
     private Vector offset;
     private Vector origin;
     private Vector size;
@@ -60,7 +105,7 @@ public enum FlipDirection {
      */
     public CuboidClipboard(Vector size) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        setStorage(new PalettedBlockArray(getVolume(size)));
         origin = new Vector();
         offset = new Vector();
     }
@@ -73,7 +118,7 @@ public CuboidClipboard(Vector size) {
      */
     public CuboidClipboard(Vector size, Vector origin) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        setStorage(new PalettedBlockArray(getVolume(size)));
         this.origin = origin;
         offset = new Vector();
     }
@@ -87,7 +132,7 @@ public CuboidClipboard(Vector size, Vector origin) {
      */
     public CuboidClipboard(Vector size, Vector origin, Vector offset) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        setStorage(new PalettedBlockArray(getVolume(size)));
         this.origin = origin;
         this.offset = offset;
     }
@@ -132,41 +177,53 @@ public void rotate2D(int angle) {
         boolean reverse = angle < 0;
         int numRotations = Math.abs((int) Math.floor(angle / 90.0));
 
-        int width = getWidth();
-        int length = getLength();
-        int height = getHeight();
         Vector sizeRotated = size.transform2D(angle, 0, 0, 0, 0);
         int shiftX = sizeRotated.getX() < 0 ? -sizeRotated.getBlockX() - 1 : 0;
         int shiftZ = sizeRotated.getZ() < 0 ? -sizeRotated.getBlockZ() - 1 : 0;
 
-        BaseBlock newData[][][] = new BaseBlock
-                [Math.abs(sizeRotated.getBlockX())]
-                [Math.abs(sizeRotated.getBlockY())]
-                [Math.abs(sizeRotated.getBlockZ())];
+        // A position moves to (cos * x - sin * z + shiftX, sin * x + cos * z + shiftZ),
+        // so the old position of a new one is found with the transposed matrix
+        Vector unit = new Vector(1, 0, 0).transform2D(angle, 0, 0, 0, 0);
+        int cos = unit.getBlockX();
+        int sin = unit.getBlockZ();
+        int newXX = xx * cos - xz * sin;
+        int newXZ = xx * sin + xz * cos;
+        int newZX = zx * cos - zz * sin;
+        int newZZ = zx * sin + zz * cos;
+        x0 -= newXX * shiftX + newXZ * shiftZ;
+        z0 -= newZX * shiftX + newZZ * shiftZ;
+        xx = newXX;
+        xz = newXZ;
+        zx = newZX;
+        zz = newZZ;
+
+        byte[] table = getDataTable();
+        for (int key = 0; key < PLAIN_BLOCKS; ++key) {
+            int type = key >> 4;
+            int blockData = table[key];
+            for (int i = 0; i < numRotations; ++i) {
+                blockData = reverse
+                        ? BlockData.rotate90Reverse(type, blockData)
+                        : BlockData.rotate90(type, blockData);
+            }
+            table[key] = (byte) blockData;
+        }
+        for (int i = 0; i < data.getPaletteSize(); ++i) {
+            BaseBlock block = data.getPaletteBlock(i);
+            if (PalettedBlockArray.isPlain(block)) {
+                continue;
+            }
 
-        for (int x = 0; x < width; ++x) {
-            for (int z = 0; z < length; ++z) {
-                Vector v = (new Vector(x, 0, z)).transform2D(angle, 0, 0, 0, 0);
-                int newX = v.getBlockX();
-                int newZ = v.getBlockZ();
-                for (int y = 0; y < height; ++y) {
-                    BaseBlock block = data[x][y][z];
-                    newData[shiftX + newX][y][shiftZ + newZ] = block;
-
-                    if (reverse) {
-                        for (int i = 0; i < numRotations; ++i) {
-                            block.rotate90Reverse();
-                        }
-                    } else {
-                        for (int i = 0; i < numRotations; ++i) {
-                            block.rotate90();
-                        }
-                    }
+            for (int j = 0; j < numRotations; ++j) {
+                if (reverse) {
+                    block.rotate90Reverse();
+                } else {
+                    block.rotate90();
                 }
             }
         }
+        transformedPalette = null;
 
-        data = newData;
         size = new Vector(Math.abs(sizeRotated.getBlockX()),
                           Math.abs(sizeRotated.getBlockY()),
                           Math.abs(sizeRotated.getBlockZ()));
@@ -196,17 +253,11 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
 
         switch (dir) {
         case WEST_EAST:
-            final int wid = (int) Math.ceil(width / 2.0f);
-            for (int xs = 0; xs < wid; ++xs) {
-                for (int z = 0; z < length; ++z) {
-                    for (int y = 0; y < height; ++y) {
-                        BaseBlock old = data[xs][y][z].flip(dir);
-                        if (xs == width - xs - 1) continue;
-                        data[xs][y][z] = data[width - xs - 1][y][z].flip(dir);
-                        data[width - xs - 1][y][z] = old;
-                    }
-                }
-            }
+            // The old position of x is width - x - 1
+            x0 += xx * (width - 1);
+            z0 += zx * (width - 1);
+            xx = -xx;
+            zx = -zx;
 
             if (aroundPlayer) {
                 offset = offset.setX(1 - offset.getX() - width);
@@ -215,17 +266,10 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
             break;
 
         case NORTH_SOUTH:
-            final int len = (int) Math.ceil(length / 2.0f);
-            for (int zs = 0; zs < len; ++zs) {
-                for (int x = 0; x < width; ++x) {
-                    for (int y = 0; y < height; ++y) {
-                        BaseBlock old = data[x][y][zs].flip(dir);
-                        if (zs == length - zs - 1) continue;
-                        data[x][y][zs] = data[x][y][length - zs - 1].flip(dir);
-                        data[x][y][length - zs - 1] = old;
-                    }
-                }
-            }
+            x0 += xz * (length - 1);
+            z0 += zz * (length - 1);
+            xz = -xz;
+            zz = -zz;
 
             if (aroundPlayer) {
                 offset = offset.setZ(1 - offset.getZ() - length);
@@ -234,17 +278,8 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
             break;
 
         case UP_DOWN:
-            final int hei = (int) Math.ceil(height / 2.0f);
-            for (int ys = 0; ys < hei; ++ys) {
-                for (int x = 0; x < width; ++x) {
-                    for (int z = 0; z < length; ++z) {
-                        BaseBlock old = data[x][ys][z].flip(dir);
-                        if (ys == height - ys - 1) continue;
-                        data[x][ys][z] = data[x][height - ys - 1][z].flip(dir);
-                        data[x][height - ys - 1][z] = old;
-                    }
-                }
-            }
+            y0 += yy * (height - 1);
+            yy = -yy;
 
             if (aroundPlayer) {
                 offset = offset.setY(1 - offset.getY() - height);
@@ -252,6 +287,92 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
 
             break;
         }
+
+        byte[] table = getDataTable();
+        for (int key = 0; key < PLAIN_BLOCKS; ++key) {
+            table[key] = (byte) BlockData.flip(key >> 4, table[key], dir);
+        }
+        for (int i = 0; i < data.getPaletteSize(); ++i) {
+            BaseBlock block = data.getPaletteBlock(i);
+            if (!PalettedBlockArray.isPlain(block)) {
+                block.flip(dir);
+            }
+        }
+        transformedPalette = null;
+    }
+
+    /**
+     * Get the table of transformed data values, creating it if required.
+     *
+     * @return table
+     */
+    private byte[] getDataTable() {
+        if (dataTable == null) {
+            dataTable = new byte[PLAIN_BLOCKS];
+            for (int key = 0; key < PLAIN_BLOCKS; ++key) {
+                dataTable[key] = (byte) (key & 0xF);
+            }
+        }
+        return dataTable;
+    }
+
+    /**
+     * Checks whether the clipboard has been rotated or flipped since the
+     * blocks were stored.
+     *
+     * @return true if transformed
+     */
+    private boolean isTransformed() {
+        return dataTable != null
+                || xx != 1 || xz != 0 || x0 != 0
+                || yy != 1 || y0 != 0
+                || zx != 0 || zz != 1 || z0 != 0;
+    }
+
+    /**
+     * Replace the stored blocks, which are then in the clipboard's orientation.
+     *
+     * @param data
+     */
+    private void setStorage(PalettedBlockArray data) {
+        this.data = data;
+        storedWidth = size.getBlockX();
+        storedLength = size.getBlockZ();
+        xx = 1; xz = 0; x0 = 0;
+        yy = 1; y0 = 0;
+        zx = 0; zz = 1; z0 = 0;
+        dataTable = null;
+        transformedPalette = null;
+    }
+
+    /**
+     * Move the blocks into the clipboard's current orientation, so that
+     * they can be changed.
+     */
+    private void applyTransform() {
+        if (!isTransformed()) {
+            return;
+        }
+
+        final int width = getWidth();
+        final int height = getHeight();
+        final int length = getLength();
+        final PalettedBlockArray newData = new PalettedBlockArray(data.size(), data);
+
+        int index = 0;
+        for (int y = 0; y < height; ++y) {
+            for (int z = 0; z < length; ++z) {
+                for (int x = 0; x < width; ++x) {
+                    newData.setPaletteIndex(index++, data.getPaletteIndex(getStoredIndex(x, y, z)));
+                }
+            }
+        }
+
+        for (int i = 0; i < newData.getPaletteSize(); ++i) {
+            newData.setPaletteBlock(i, getTransformedBlock(i));
+        }
+
+        setStorage(newData);
     }
 
     /**
@@ -260,16 +381,178 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
      * @param editSession
      */
     public void copy(EditSession editSession) {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
-                    data[x][y][z] =
-                            editSession.getBlock(new Vector(x, y, z).add(getOrigin()));
+        final int width = getWidth();
+        final int height = getHeight();
+        final int length = getLength();
+        final Vector origin = getOrigin();
+
+        // Every block is replaced, so any rotation can be dropped
+        setStorage(new PalettedBlockArray(data.size()));
+
+        if (editSession.hasParallelCopy() && WorkerPool.getParallelism() > 1
+                && copyFromSnapshots(editSession)) {
+            return;
+        }
+
+        int index = 0;
+        for (int y = 0; y < height; ++y) {
+            for (int z = 0; z < length; ++z) {
+                for (int x = 0; x < width; ++x) {
+                    data.set(index++, editSession.getBlock(origin.add(x, y, z)));
                 }
             }
         }
     }
 
+    /**
+     * Like {@link #copy(EditSession)}, but takes a snapshot of every chunk on
+     * the calling thread and reads the blocks from the snapshots on worker
+     * threads, up to {@link #READ_AHEAD} chunks per thread ahead. Blocks
+     * with extra data are then read from the world on the calling thread.
+     *
+     * @param editSession
+     * @return false if the world does not support snapshots, in which case
+     *     nothing was copied
+     */
+    private boolean copyFromSnapshots(EditSession editSession) {
+        final LocalWorld world = editSession.getWorld();
+        final int minX = getOrigin().getBlockX();
+        final int minZ = getOrigin().getBlockZ();
+        final int maxX = minX + getWidth() - 1;
+        final int maxZ = minZ + getLength() - 1;
+
+        final LinkedList<Future<ChunkCopy>> pending = new LinkedList<Future<ChunkCopy>>();
+        final int readAhead = WorkerPool.getParallelism() * READ_AHEAD;
+
+        try {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; ++chunkZ) {
+                for (int chunkX = minX >> 4; chunkX <= maxX >> 4; ++chunkX) {
+                    final ChunkBlockSnapshot snapshot = world.getChunkSnapshot(new BlockVector2D(chunkX, chunkZ));
+                    if (snapshot == null) {
+                        // Worlds either support snapshots or they do not
+                        return false;
+                    }
+
+                    pending.add(WorkerPool.submit(new ChunkCopy(snapshot,
+                            Math.max(minX, chunkX << 4), Math.min(maxX, (chunkX << 4) + 15),
+                            Math.max(minZ, chunkZ << 4), Math.min(maxZ, (chunkZ << 4) + 15))));
+
+                    while (pending.size() >= readAhead) {
+                        storeChunkCopy(editSession, pending.removeFirst());
+                    }
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                storeChunkCopy(editSession, pending.removeFirst());
+            }
+        } finally {
+            // Only left over if something failed
+            for (Future<ChunkCopy> future : pending) {
+                future.cancel(false);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Store the blocks read from a snapshot.
+     *
+     * @param editSession
+     * @param future
+     */
+    private void storeChunkCopy(EditSession editSession, Future<ChunkCopy> future) {
+        final ChunkCopy copy;
+        try {
+            copy = WorkerPool.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        final int width = getWidth();
+        final int height = getHeight();
+        final int length = getLength();
+        final Vector origin = getOrigin();
+        final int offsetX = copy.minX - origin.getBlockX();
+        final int offsetZ = copy.minZ - origin.getBlockZ();
+        final int sizeX = copy.maxX - copy.minX + 1;
+        final int sizeZ = copy.maxZ - copy.minZ + 1;
+
+        int i = 0;
+        for (int y = 0; y < height; ++y) {
+            for (int z = 0; z < sizeZ; ++z) {
+                int index = (y * length + offsetZ + z) * width + offsetX;
+                for (int x = 0; x < sizeX; ++x) {
+                    final char block = copy.blocks[i++];
+                    data.set(index++, block >> 4, block & 0xF);
+                }
+            }
+        }
+
+        for (int j = 0; j < copy.tileEntityCount; ++j) {
+            final int tileEntity = copy.tileEntities[j];
+            final int x = tileEntity % sizeX;
+            final int z = (tileEntity / sizeX) % sizeZ;
+            final int y = tileEntity / sizeX / sizeZ;
+            final Vector pt = origin.add(offsetX + x, y, offsetZ + z);
+            data.set((y * length + offsetZ + z) * width + offsetX + x, editSession.getBlock(pt));
+        }
+    }
+
+    /**
+     * Reads the blocks of one chunk of the clipboard from a snapshot.
+     */
+    private class ChunkCopy implements Callable<ChunkCopy> {
+        private ChunkBlockSnapshot snapshot;
+        private final int minX, maxX;
+        private final int minZ, maxZ;
+        /**
+         * <code>(type << 4) | data</code> of every block, ordered by Y,
+         * then Z, then X.
+         */
+        private char[] blocks;
+        /**
+         * Indices in {@link #blocks} of blocks that have extra data.
+         */
+        private int[] tileEntities = new int[16];
+        private int tileEntityCount;
+
+        ChunkCopy(ChunkBlockSnapshot snapshot, int minX, int maxX, int minZ, int maxZ) {
+            this.snapshot = snapshot;
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minZ = minZ;
+            this.maxZ = maxZ;
+        }
+
+        @Override
+        public ChunkCopy call() {
+            final int minY = getOrigin().getBlockY();
+            final int maxY = minY + getHeight() - 1;
+            blocks = new char[(maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1)];
+
+            int i = 0;
+            for (int y = minY; y <= maxY; ++y) {
+                for (int z = minZ & 15; z <= (maxZ & 15); ++z) {
+                    for (int x = minX & 15; x <= (maxX & 15); ++x) {
+                        if (snapshot.hasTileEntity(x, y, z)) {
+                            if (tileEntityCount == tileEntities.length) {
+                                tileEntities = Arrays.copyOf(tileEntities, tileEntityCount * 2);
+                            }
+                            tileEntities[tileEntityCount++] = i;
+                        }
+                        blocks[i++] = (char) ((snapshot.getBlockType(x, y, z) << 4) | snapshot.getBlockData(x, y, z));
+                    }
+                }
+            }
+
+            // Not needed while waiting to be stored
+            snapshot = null;
+            return this;
+        }
+    }
+
     public void paste(EditSession editSession, Vector newOrigin, boolean noAir)
             throws MaxChangedBlocksException {
         paste(editSession, newOrigin, noAir, false);
@@ -300,14 +583,19 @@ public void paste(EditSession editSession, Vector newOrigin, boolean noAir, bool
      * @throws MaxChangedBlocksException
      */
     public void place(EditSession editSession, Vector pos, boolean noAir) throws MaxChangedBlocksException {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
-                    if (noAir && data[x][y][z].isAir()) {
+        final int width = getWidth();
+        final int height = getHeight();
+        final int length = getLength();
+
+        for (int y = 0; y < height; ++y) {
+            for (int z = 0; z < length; ++z) {
+                for (int x = 0; x < width; ++x) {
+                    BaseBlock block = getTransformedBlock(data.getPaletteIndex(getStoredIndex(x, y, z)));
+                    if (noAir && block.isAir()) {
                         continue;
                     }
 
-                    editSession.setBlock(new Vector(x, y, z).add(pos), data[x][y][z]);
+                    editSession.setBlock(pos.add(x, y, z), block);
                 }
             }
         }
@@ -332,12 +620,29 @@ public void storeEntity(LocalEntity entity) {
      * Get one point in the copy. The point is relative to the origin
      * of the copy (0, 0, 0) and not to the actual copy origin.
      *
+     * The returned block is shared with other points of the clipboard and
+     * must not be modified.
+     *
      * @param pos
-     * @return null
+     * @return the block
      * @throws ArrayIndexOutOfBoundsException
      */
     public BaseBlock getPoint(Vector pos) throws ArrayIndexOutOfBoundsException {
-        return data[pos.getBlockX()][pos.getBlockY()][pos.getBlockZ()];
+        return getPoint(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
+    }
+
+    /**
+     * Get one point in the copy, like {@link #getPoint(Vector)}, without
+     * creating a vector for it.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return the block
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public BaseBlock getPoint(int x, int y, int z) throws ArrayIndexOutOfBoundsException {
+        return getTransformedBlock(data.getPaletteIndex(getIndex(x, y, z)));
     }
 
     /**
@@ -349,7 +654,82 @@ public BaseBlock getPoint(Vector pos) throws ArrayIndexOutOfBoundsException {
      * @throws ArrayIndexOutOfBoundsException
      */
     public void setBlock(Vector pt, BaseBlock block) {
-        data[pt.getBlockX()][pt.getBlockY()][pt.getBlockZ()] = block;
+        applyTransform();
+        data.set(getIndex(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ()), block);
+    }
+
+    /**
+     * Get a palette entry as it appears in the clipboard's orientation.
+     *
+     * @param paletteIndex
+     * @return block
+     */
+    private BaseBlock getTransformedBlock(int paletteIndex) {
+        if (dataTable == null) {
+            return data.getPaletteBlock(paletteIndex);
+        }
+
+        if (transformedPalette == null || transformedPalette.length < data.getPaletteSize()) {
+            transformedPalette = new BaseBlock[data.getPaletteSize()];
+        }
+        BaseBlock block = transformedPalette[paletteIndex];
+        if (block == null) {
+            block = data.getPaletteBlock(paletteIndex);
+            if (PalettedBlockArray.isPlain(block)) {
+                final int type = block.getType();
+                block = new BaseBlock(type, dataTable[(type << 4) | block.getData()]);
+            }
+            transformedPalette[paletteIndex] = block;
+        }
+        return block;
+    }
+
+    /**
+     * Get the index of a point in the block array.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return index
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    private int getIndex(int x, int y, int z) throws ArrayIndexOutOfBoundsException {
+        final int width = size.getBlockX();
+        final int height = size.getBlockY();
+        final int length = size.getBlockZ();
+        if (x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= length) {
+            throw new ArrayIndexOutOfBoundsException("(" + x + ", " + y + ", " + z + ")");
+        }
+        return getStoredIndex(x, y, z);
+    }
+
+    /**
+     * Get the index of a point in the block array without checking bounds.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return index
+     */
+    private int getStoredIndex(int x, int y, int z) {
+        final int storedX = xx * x + xz * z + x0;
+        final int storedY = yy * y + y0;
+        final int storedZ = zx * x + zz * z + z0;
+        return (storedY * storedLength + storedZ) * storedWidth + storedX;
+    }
+
+    /**
+     * Get the number of blocks in a clipboard of the given size.
+     *
+     * @param size
+     * @return volume
+     */
+    private static int getVolume(Vector size) {
+        final long volume = (long) size.getBlockX() * size.getBlockY() * size.getBlockZ();
+        if (volume > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Clipboard is too large: " + size);
+        }
+        return (int) volume;
     }
 
     /**
@@ -433,24 +813,21 @@ public List<Countable<Integer>> getBlockDistribution() {
         List<Countable<Integer>> distribution = new ArrayList<Countable<Integer>>();
         Map<Integer, Countable<Integer>> map = new HashMap<Integer, Countable<Integer>>();
 
-        int maxX = getWidth();
-        int maxY = getHeight();
-        int maxZ = getLength();
-
-        for (int x = 0; x < maxX; ++x) {
-            for (int y = 0; y < maxY; ++y) {
-                for (int z = 0; z < maxZ; ++z) {
+        int[] counts = data.getPaletteCounts();
+        for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] == 0) {
+                continue;
+            }
 
-                    int id = data[x][y][z].getId();
+            int id = data.getPaletteBlock(i).getId();
 
-                    if (map.containsKey(id)) {
-                        map.get(id).increment();
-                    } else {
-                        Countable<Integer> c = new Countable<Integer>(id, 1);
-                        map.put(id, c);
-                        distribution.add(c);
-                    }
-                }
+            if (map.containsKey(id)) {
+                Countable<Integer> c = map.get(id);
+                c.setAmount(c.getAmount() + counts[i]);
+            } else {
+                Countable<Integer> c = new Countable<Integer>(id, counts[i]);
+                map.put(id, c);
+                distribution.add(c);
             }
         }
 
@@ -470,26 +847,22 @@ public List<Countable<BaseBlock>> getBlockDistributionWithData() {
         List<Countable<BaseBlock>> distribution = new ArrayList<Countable<BaseBlock>>();
         Map<BaseBlock, Countable<BaseBlock>> map = new HashMap<BaseBlock, Countable<BaseBlock>>();
 
-        int maxX = getWidth();
-        int maxY = getHeight();
-        int maxZ = getLength();
-
-        for (int x = 0; x < maxX; ++x) {
-            for (int y = 0; y < maxY; ++y) {
-                for (int z = 0; z < maxZ; ++z) {
+        int[] counts = data.getPaletteCounts();
+        for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] == 0) {
+                continue;
+            }
 
-                    int id = data[x][y][z].getId();
-                    int meta = data[x][y][z].getData();
-                    BaseBlock blk = new BaseBlock(id, meta);
+            BaseBlock block = getTransformedBlock(i);
+            BaseBlock blk = new BaseBlock(block.getId(), block.getData());
 
-                    if (map.containsKey(blk)) {
-                        map.get(blk).increment();
-                    } else {
-                        Countable<BaseBlock> c = new Countable<BaseBlock>(blk, 1);
-                        map.put(blk, c);
-                        distribution.add(c);
-                    }
-                }
+            if (map.containsKey(blk)) {
+                Countable<BaseBlock> c = map.get(blk);
+                c.setAmount(c.getAmount() + counts[i]);
+            } else {
+                Countable<BaseBlock> c = new Countable<BaseBlock>(blk, counts[i]);
+                map.put(blk, c);
+                distribution.add(c);
             }
         }
 
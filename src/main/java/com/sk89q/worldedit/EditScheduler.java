@@ -0,0 +1,380 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+
+import com.sk89q.worldedit.metrics.Metrics;
+
+import com.sk89q.worldedit.util.StringUtil;
+
+/**
+ * Spreads the flushing of large edits over several server ticks so that no
+ * single tick spends more than the configured time placing blocks.
+ *
+ * <p>The blocks of an edit are recorded in its history before the flush
+ * starts, so the edit is still a single history entry. Until its pending
+ * edit has been placed, a session can still run commands and use tools, but
+ * the edit sessions it creates refuse to change blocks.</p>
+ *
+ * <p>Read-only work such as counting blocks can be scheduled as a
+ * {@link Job}. Jobs get a few milliseconds of every tick even when no edit
+ * budget is configured, since they are usually run on huge areas.</p>
+ */
+public class EditScheduler {
+    /**
+     * Milliseconds between two progress messages.
+     */
+    private static final long PROGRESS_INTERVAL = 5000;
+
+    /**
+     * Milliseconds per tick given to jobs when no edit budget is configured.
+     */
+    private static final int DEFAULT_JOB_BUDGET = 10;
+
+    private final WorldEdit worldEdit;
+    private final ServerInterface server;
+    private final LocalConfiguration config;
+    private final List<PendingEdit> pending = new LinkedList<PendingEdit>();
+    private final List<PendingJob> jobs = new LinkedList<PendingJob>();
+    private int taskId = -1;
+
+    public EditScheduler(WorldEdit worldEdit, ServerInterface server, LocalConfiguration config) {
+        this.worldEdit = worldEdit;
+        this.server = server;
+        this.config = config;
+    }
+
+    /**
+     * Flush the queue of an edit session, within the tick budget if one is
+     * configured. Whatever does not fit in the budget is placed during the
+     * following ticks, and the player is told about the progress.
+     *
+     * @param player the player who made the edit
+     * @param session the player's session
+     * @param editSession the edit session to flush
+     * @return true if the edit was placed completely
+     */
+    public boolean flush(LocalPlayer player, LocalSession session, EditSession editSession) {
+        final EditSession.QueueFlush flush = editSession.startFlush();
+
+        if (config.editTickBudget < 0) {
+            return flush.resume(Long.MAX_VALUE);
+        }
+
+        if (flush.resume(deadline())) {
+            return true;
+        }
+
+        if (!startTask()) {
+            // No scheduler available, so all we can do is finish right away
+            return flush.resume(Long.MAX_VALUE);
+        }
+
+        pending.add(new PendingEdit(player, session, editSession, flush));
+        player.print("Операция будет выполнена по частям (" + flush.getTotal() + " "
+                + StringUtil.plural(flush.getTotal(), "блок", "блока", "блоков") + ").");
+        return false;
+    }
+
+    /**
+     * Run a job, spread over several ticks if it does not finish within the
+     * job budget. The job is completed when it is done, and the player is told
+     * if it fails.
+     *
+     * @param player the player who started the job
+     * @param job the job
+     * @return true if the job was completed right away
+     */
+    public boolean schedule(LocalPlayer player, Job job) {
+        final PendingJob pendingJob = new PendingJob(player, job);
+
+        if (pendingJob.resume(jobDeadline())) {
+            job.complete();
+            return true;
+        }
+
+        if (pendingJob.failed) {
+            return false;
+        }
+
+        if (!startTask()) {
+            if (pendingJob.resume(Long.MAX_VALUE)) {
+                job.complete();
+                return true;
+            }
+            return false;
+        }
+
+        jobs.add(pendingJob);
+        return false;
+    }
+
+    /**
+     * Returns whether the session still has an edit being placed.
+     *
+     * @param session the session
+     * @return true if an edit is pending
+     */
+    public boolean isPending(LocalSession session) {
+        return getPending(session) != null;
+    }
+
+    /**
+     * Tell the player to wait if the session still has an edit being placed.
+     *
+     * @param player the player
+     * @param session the session of the player
+     * @return true if an edit is pending
+     */
+    public boolean checkPending(LocalPlayer player, LocalSession session) {
+        final PendingEdit edit = getPending(session);
+        if (edit == null) {
+            return false;
+        }
+
+        player.printError("Предыдущая операция ещё выполняется ("
+                + edit.getPercentage() + "%), подождите.");
+        return true;
+    }
+
+    /**
+     * Place all pending edits right away. Used when shutting down.
+     */
+    public void finishAll() {
+        while (!pending.isEmpty()) {
+            final PendingEdit edit = pending.remove(0);
+            if (edit.resume(Long.MAX_VALUE)) {
+                edit.complete();
+            }
+        }
+
+        while (!jobs.isEmpty()) {
+            final PendingJob job = jobs.remove(0);
+            if (job.resume(Long.MAX_VALUE)) {
+                job.job.complete();
+            }
+        }
+    }
+
+    private PendingEdit getPending(LocalSession session) {
+        for (PendingEdit edit : pending) {
+            if (edit.session == session) {
+                return edit;
+            }
+        }
+
+        return null;
+    }
+
+    private long deadline() {
+        return System.nanoTime() + config.editTickBudget * 1000000L;
+    }
+
+    private long jobDeadline() {
+        final int budget = config.editTickBudget < 0 ? DEFAULT_JOB_BUDGET : config.editTickBudget;
+        return System.nanoTime() + budget * 1000000L;
+    }
+
+    /**
+     * Start the task that resumes pending work every tick.
+     *
+     * @return false if the server has no scheduler
+     */
+    private boolean startTask() {
+        if (taskId == -1) {
+            taskId = server.schedule(1, 1, new Runnable() {
+                @Override
+                public void run() {
+                    if (pending.isEmpty() && jobs.isEmpty()) {
+                        return;
+                    }
+
+                    final long start = System.nanoTime();
+                    tick();
+                    tickJobs();
+                    final long elapsed = System.nanoTime() - start;
+                    Metrics.SCHEDULER.update(elapsed);
+                    Metrics.MAIN_THREAD.update(elapsed);
+                }
+            });
+        }
+
+        return taskId != -1;
+    }
+
+    private void tickJobs() {
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        final long deadline = jobDeadline();
+        final Iterator<PendingJob> it = jobs.iterator();
+        while (it.hasNext()) {
+            final PendingJob job = it.next();
+            if (job.resume(deadline)) {
+                it.remove();
+                job.job.complete();
+            } else if (job.failed) {
+                it.remove();
+            } else {
+                // Out of time for this tick
+                break;
+            }
+        }
+    }
+
+    private void tick() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final long deadline = deadline();
+        final Iterator<PendingEdit> it = pending.iterator();
+        while (it.hasNext()) {
+            final PendingEdit edit = it.next();
+            if (edit.resume(deadline)) {
+                it.remove();
+                edit.complete();
+            } else if (edit.failed) {
+                it.remove();
+            } else {
+                // Out of time for this tick
+                edit.reportProgress();
+                break;
+            }
+        }
+    }
+
+    private class PendingEdit {
+        private final LocalPlayer player;
+        private final LocalSession session;
+        private final EditSession editSession;
+        private final EditSession.QueueFlush flush;
+        private final long started = System.currentTimeMillis();
+        private long lastReport = started;
+        private boolean failed = false;
+
+        private PendingEdit(LocalPlayer player, LocalSession session,
+                EditSession editSession, EditSession.QueueFlush flush) {
+            this.player = player;
+            this.session = session;
+            this.editSession = editSession;
+            this.flush = flush;
+        }
+
+        /**
+         * Place blocks until the deadline.
+         *
+         * @param deadline the deadline
+         * @return true if complete, false if more is left or placing failed
+         */
+        private boolean resume(long deadline) {
+            final long start = System.nanoTime();
+            try {
+                return flush.resume(deadline);
+            } catch (RuntimeException e) {
+                failed = true;
+                WorldEdit.logger.log(Level.SEVERE, "Failed to place the blocks of " + player.getName(), e);
+                player.printError("Ошибка при выполнении операции (смотрите консоль).");
+                return false;
+            } finally {
+                Metrics.playerTimer(player.getName()).updateSince(start);
+            }
+        }
+
+        private int getPercentage() {
+            final int total = flush.getTotal();
+            return total == 0 ? 100 : (int) (flush.getDone() * 100L / total);
+        }
+
+        private void reportProgress() {
+            final long now = System.currentTimeMillis();
+            if (now - lastReport < PROGRESS_INTERVAL) {
+                return;
+            }
+            lastReport = now;
+
+            final int done = flush.getDone();
+            final long remaining = done == 0 ? -1
+                    : (now - started) * (flush.getTotal() - done) / done / 1000;
+            player.print("Выполнено " + getPercentage() + "%"
+                    + (remaining < 0 ? "" : ", осталось ~" + remaining + " сек."));
+        }
+
+        private void complete() {
+            final double time = (System.currentTimeMillis() - started) / 1000.0;
+            player.print("Операция завершена за " + time + " сек.");
+            worldEdit.flushBlockBag(player, editSession);
+        }
+    }
+
+    /**
+     * Work that can be done a bit at a time on the server thread.
+     */
+    public interface Job {
+        /**
+         * Continue the work until the deadline.
+         *
+         * @param deadline value of {@link System#nanoTime()} to stop at, or
+         *     {@link Long#MAX_VALUE} to finish
+         * @return true if the work is done
+         */
+        public boolean resume(long deadline);
+
+        /**
+         * Called on the server thread once the work is done.
+         */
+        public void complete();
+    }
+
+    private static class PendingJob {
+        private final LocalPlayer player;
+        private final Job job;
+        private boolean failed = false;
+
+        private PendingJob(LocalPlayer player, Job job) {
+            this.player = player;
+            this.job = job;
+        }
+
+        /**
+         * Run the job until the deadline.
+         *
+         * @param deadline the deadline
+         * @return true if complete, false if more is left or the job failed
+         */
+        private boolean resume(long deadline) {
+            final long start = System.nanoTime();
+            try {
+                return job.resume(deadline);
+            } catch (RuntimeException e) {
+                failed = true;
+                WorldEdit.logger.log(Level.SEVERE, "Failed to run a job of " + player.getName(), e);
+                player.printError("Ошибка при выполнении операции (смотрите консоль).");
+                return false;
+            } finally {
+                Metrics.playerTimer(player.getName()).updateSince(start);
+            }
+        }
+    }
+}
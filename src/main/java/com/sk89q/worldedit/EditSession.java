@@ -19,10 +19,12 @@
 package com.sk89q.worldedit;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -30,6 +32,8 @@
 import java.util.Random;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import com.sk89q.worldedit.bags.BlockBag;
 import com.sk89q.worldedit.bags.BlockBagException;
@@ -40,11 +44,18 @@
 import com.sk89q.worldedit.expression.Expression;
 import com.sk89q.worldedit.expression.ExpressionException;
 import com.sk89q.worldedit.expression.runtime.RValue;
+import com.sk89q.worldedit.history.BlockChangeSet;
+import com.sk89q.worldedit.masks.CompiledMask;
 import com.sk89q.worldedit.masks.Mask;
+import com.sk89q.worldedit.metrics.Metrics;
 import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
+import com.sk89q.worldedit.regions.AbstractRegion;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.regions.RegionVisitor;
 import com.sk89q.worldedit.util.TreeGenerator;
+import com.sk89q.worldedit.util.WorkerPool;
 
 /**
  * This class can wrap all block editing operations into one "edit session" that
@@ -69,16 +80,9 @@ public class EditSession {
     protected LocalWorld world;
 
     /**
-     * Stores the original blocks before modification.
+     * Stores the original blocks before modification and the current blocks.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> original =
-            new DoubleArrayList<BlockVector, BaseBlock>(true);
-
-    /**
-     * Stores the current blocks.
-     */
-    private DoubleArrayList<BlockVector, BaseBlock> current =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeSet changes = new BlockChangeSet();
 
     /**
      * Blocks that should be placed before last.
@@ -116,6 +120,32 @@ public class EditSession {
      */
     private boolean fastMode = false;
 
+    /**
+     * Apply queued blocks chunk by chunk when flushing the queue. Masks and
+     * block bag checks then see the chunk as it was before the flush.
+     */
+    private boolean batching = false;
+
+    /**
+     * Evaluate expressions for many blocks on worker threads.
+     */
+    private boolean parallel = false;
+
+    /**
+     * Refuse all changes, as an earlier edit is still being placed.
+     */
+    private boolean waiting = false;
+
+    /**
+     * Expressions are translated to bytecode if this is true.
+     */
+    private boolean compileExpressions = false;
+
+    /**
+     * Clipboards are copied from chunk snapshots on worker threads.
+     */
+    private boolean parallelCopy = false;
+
     /**
      * Block bag to use for getting blocks.
      */
@@ -131,6 +161,21 @@ public class EditSession {
      */
     private Mask mask;
 
+    /**
+     * The mask compiled into a single evaluator, null if there is no mask.
+     */
+    private CompiledMask compiledMask;
+    private CompiledMask.Context maskContext;
+
+    /**
+     * Number of blocks read from and written to the world, and the part of
+     * those that was already added to {@link Metrics}.
+     */
+    private int blocksRead = 0;
+    private int blocksWritten = 0;
+    private int reportedRead = 0;
+    private int reportedWritten = 0;
+
     /**
      * Construct the object with a maximum number of blocks.
      *
@@ -172,6 +217,8 @@ public EditSession(LocalWorld world, int maxBlocks, BlockBag blockBag) {
      * @return Whether the block changed
      */
     public boolean rawSetBlock(Vector pt, BaseBlock block) {
+        checkNotWaiting();
+
         final int y = pt.getBlockY();
         final int type = block.getType();
         if (y < 0 || y > world.getMaxY()) {
@@ -180,17 +227,64 @@ public boolean rawSetBlock(Vector pt, BaseBlock block) {
 
         world.checkLoadedChunk(pt);
 
-        // No invalid blocks
-        if (!world.isValidBlockType(type)) {
+        if (!prepareBlock(pt, block)) {
             return false;
         }
 
-        if (mask != null) {
-            if (!mask.matches(this, pt)) {
+        boolean result;
+
+        if (type == 0) {
+            if (fastMode) {
+                result = world.setBlockTypeFast(pt, 0);
+            } else {
+                result = world.setBlockType(pt, 0);
+            }
+        } else {
+            result = world.setBlock(pt, block, fastMode);
+        }
+
+        if (result) {
+            ++blocksWritten;
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks whether a block may be set and prepares the position for it,
+     * without actually setting the block. The chunk must be loaded.
+     *
+     * @param pt
+     * @param block
+     * @return whether the block should be set
+     */
+    private boolean prepareBlock(Vector pt, BaseBlock block) {
+        if (compiledMask != null) {
+            if (!compiledMask.matches(maskContext, pt.getBlockX(), pt.getBlockY(), pt.getBlockZ())) {
                 return false;
             }
         }
 
+        return prepareUnmaskedBlock(pt, block);
+    }
+
+    /**
+     * Checks whether a block may be set and prepares the position for it,
+     * like {@link #prepareBlock(Vector, BaseBlock)}, for a block that is
+     * already known to match the mask.
+     *
+     * @param pt
+     * @param block
+     * @return whether the block should be set
+     */
+    private boolean prepareUnmaskedBlock(Vector pt, BaseBlock block) {
+        final int type = block.getType();
+
+        // No invalid blocks
+        if (!world.isValidBlockType(type)) {
+            return false;
+        }
+
         final int existing = world.getBlockType(pt);
 
         // Clear the container block so that it doesn't drop items
@@ -224,20 +318,8 @@ public boolean rawSetBlock(Vector pt, BaseBlock block) {
                 }
             }
         }
-        
-        boolean result;
-        
-        if (type == 0) {
-            if (fastMode) {
-                result = world.setBlockTypeFast(pt, 0);
-            } else {
-                result = world.setBlockType(pt, 0);
-            }
-        } else {
-            result = world.setBlock(pt, block, fastMode);
-        }
-        
-        return result;
+
+        return true;
     }
 
     /**
@@ -252,17 +334,12 @@ public boolean rawSetBlock(Vector pt, BaseBlock block) {
      */
     public boolean setBlock(Vector pt, BaseBlock block)
             throws MaxChangedBlocksException {
-        BlockVector blockPt = pt.toBlockVector();
-
-        // if (!original.containsKey(blockPt)) {
-        original.put(blockPt, getBlock(pt));
+        checkNotWaiting();
+        changes.add(pt, getBlock(pt), block);
 
-        if (maxBlocks != -1 && original.size() > maxBlocks) {
+        if (maxBlocks != -1 && changes.size() > maxBlocks) {
             throw new MaxChangedBlocksException(maxBlocks);
         }
-        // }
-
-        current.put(pt.toBlockVector(), block);
 
         return smartSetBlock(pt, block);
     }
@@ -275,10 +352,7 @@ public boolean setBlock(Vector pt, BaseBlock block)
      * @param block
      */
     public void rememberChange(Vector pt, BaseBlock existing, BaseBlock block) {
-        BlockVector blockPt = pt.toBlockVector();
-
-        original.put(blockPt, existing);
-        current.put(pt.toBlockVector(), block);
+        changes.add(pt, existing, block);
     }
 
     /**
@@ -319,6 +393,8 @@ public boolean setBlockIfAir(Vector pt, BaseBlock block)
      * @return
      */
     public boolean smartSetBlock(Vector pt, BaseBlock block) {
+        checkNotWaiting();
+
         if (queued) {
             if (BlockType.shouldPlaceLast(block.getType())) {
                 // Place torches, etc. last
@@ -379,6 +455,7 @@ public int getBlockType(Vector pt) {
              */
         }
 
+        ++blocksRead;
         return world.getBlockType(pt);
     }
 
@@ -394,6 +471,7 @@ public int getBlockData(Vector pt) {
              */
         }
 
+        ++blocksRead;
         return world.getBlockData(pt);
     }
 
@@ -404,6 +482,7 @@ public int getBlockData(Vector pt) {
      * @return BaseBlock
      */
     public BaseBlock rawGetBlock(Vector pt) {
+        ++blocksRead;
         return world.getBlock(pt);
     }
 
@@ -413,9 +492,10 @@ public BaseBlock rawGetBlock(Vector pt) {
      * @param sess
      */
     public void undo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : original) {
-            BlockVector pt = entry.getKey();
-            sess.smartSetBlock(pt, entry.getValue());
+        BlockChangeSet.Cursor cursor = changes.reverse();
+        while (cursor.next()) {
+            BlockVector pt = new BlockVector(cursor.getX(), cursor.getY(), cursor.getZ());
+            sess.smartSetBlock(pt, cursor.getBefore());
         }
         sess.flushQueue();
     }
@@ -426,20 +506,30 @@ public void undo(EditSession sess) {
      * @param sess
      */
     public void redo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : current) {
-            BlockVector pt = entry.getKey();
-            sess.smartSetBlock(pt, entry.getValue());
+        BlockChangeSet.Cursor cursor = changes.forward();
+        while (cursor.next()) {
+            BlockVector pt = new BlockVector(cursor.getX(), cursor.getY(), cursor.getZ());
+            sess.smartSetBlock(pt, cursor.getAfter());
         }
         sess.flushQueue();
     }
 
+    /**
+     * Get the recorded changes of this edit session.
+     *
+     * @return change set
+     */
+    public BlockChangeSet getChangeSet() {
+        return changes;
+    }
+
     /**
      * Get the number of changed blocks.
      *
      * @return
      */
     public int size() {
-        return original.size();
+        return changes.size();
     }
 
     /**
@@ -508,6 +598,132 @@ public boolean hasFastMode() {
         return fastMode;
     }
 
+    /**
+     * Set batching mode. In batching mode, queued blocks are grouped by
+     * chunk when the queue is flushed, and each chunk is loaded once and
+     * handed to {@link LocalWorld#setBlocks(ChunkBlockBuffer, boolean)}.
+     * Masks are then checked before any block of the chunk is set.
+     *
+     * <p>This changes what masks and the block bag see. Without batching,
+     * every block is checked against the world as left by the blocks set
+     * before it. With batching, all blocks of a chunk are checked against
+     * the chunk as it was before any of them was set, so a mask such as
+     * {@code >stone} does not match a block placed on stone that was set
+     * earlier in the same chunk. The block bag and container checks
+     * likewise read the chunk as it was before the flush.</p>
+     *
+     * @param batching
+     */
+    public void setBatchingMode(boolean batching) {
+        this.batching = batching;
+    }
+
+    /**
+     * Return batching mode status.
+     *
+     * @return
+     */
+    public boolean hasBatchingMode() {
+        return batching;
+    }
+
+    /**
+     * Set parallel evaluation. If enabled, {@link #makeShape} and
+     * {@link #deformRegion} evaluate their expression on worker threads when
+     * the expression keeps no state between blocks. The world is still only
+     * accessed from the calling thread.
+     *
+     * @param parallel
+     */
+    public void setParallelEvaluation(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Return parallel evaluation status.
+     *
+     * @return
+     */
+    public boolean hasParallelEvaluation() {
+        return parallel;
+    }
+
+    /**
+     * Set whether an earlier edit of the same session is still being placed.
+     * If so, every attempt to change a block throws
+     * {@link EditPendingException}, while reading blocks still works.
+     *
+     * @param waiting
+     */
+    public void setWaitingForEdit(boolean waiting) {
+        this.waiting = waiting;
+    }
+
+    /**
+     * Return whether changes are refused until an earlier edit is placed.
+     *
+     * @return
+     */
+    public boolean isWaitingForEdit() {
+        return waiting;
+    }
+
+    private void checkNotWaiting() {
+        if (waiting) {
+            throw new EditPendingException();
+        }
+    }
+
+    /**
+     * Set expression compilation. If enabled, the expressions of
+     * {@link #makeShape} and {@link #deformRegion} are translated to JVM
+     * bytecode before they are evaluated.
+     *
+     * @param compile
+     */
+    public void setExpressionCompilation(boolean compile) {
+        this.compileExpressions = compile;
+    }
+
+    /**
+     * Return expression compilation status.
+     *
+     * @return
+     */
+    public boolean hasExpressionCompilation() {
+        return compileExpressions;
+    }
+
+    /**
+     * Set parallel copying. If enabled, {@link CuboidClipboard#copy} takes
+     * snapshots of the chunks on the calling thread and reads the blocks
+     * from them on worker threads, if the world supports snapshots.
+     *
+     * @param parallel
+     */
+    public void setParallelCopy(boolean parallel) {
+        this.parallelCopy = parallel;
+    }
+
+    /**
+     * Return parallel copying status.
+     *
+     * @return
+     */
+    public boolean hasParallelCopy() {
+        return parallelCopy;
+    }
+
+    /**
+     * Checks whether an expression should be evaluated on worker threads.
+     *
+     * @param expression
+     * @return
+     */
+    private boolean evaluateInParallel(Expression expression) {
+        return parallel && WorkerPool.getParallelism() > 1 && expression.isStateless();
+    }
+
     /**
      * Set a block by chance.
      *
@@ -541,10 +757,10 @@ public int countBlock(Region region, Set<Integer> searchIDs) {
      * @return
      */
     public int countBlocks(Region region, Set<BaseBlock> searchBlocks) {
-        int count = 0;
+        final int[] count = new int[1];
 
         // allow -1 data in the searchBlocks to match any type
-        Set<BaseBlock> newSet = new HashSet<BaseBlock>() {
+        final Set<BaseBlock> newSet = new HashSet<BaseBlock>() {
             @Override
             public boolean contains(Object o) {
                 for (BaseBlock b : this.toArray(new BaseBlock[this.size()])) {
@@ -559,40 +775,18 @@ public boolean contains(Object o) {
         };
         newSet.addAll(searchBlocks);
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
+        visitReadOnly(region, new RegionVisitor() {
+            public void visit(int x, int y, int z) {
+                Vector pt = new Vector(x, y, z);
 
-                        BaseBlock compare = new BaseBlock(getBlockType(pt), getBlockData(pt));
-                        if (newSet.contains(compare)) {
-                            ++count;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
                 BaseBlock compare = new BaseBlock(getBlockType(pt), getBlockData(pt));
                 if (newSet.contains(compare)) {
-                    ++count;
+                    ++count[0];
                 }
             }
-        }
+        });
 
-        return count;
+        return count[0];
     }
 
     /**
@@ -671,7 +865,49 @@ public LocalWorld getWorld() {
      * @return
      */
     public int getBlockChangeCount() {
-        return original.size();
+        return changes.size();
+    }
+
+    /**
+     * Get the number of blocks read from the world through this edit session,
+     * including the blocks that its mask read.
+     *
+     * @return number of blocks
+     */
+    public int getBlocksRead() {
+        collectMaskReads();
+        return blocksRead;
+    }
+
+    /**
+     * Get the number of blocks that this edit session changed in the world.
+     *
+     * @return number of blocks
+     */
+    public int getBlocksWritten() {
+        return blocksWritten;
+    }
+
+    /**
+     * Add the blocks that the mask read to the blocks read by this edit
+     * session.
+     */
+    private void collectMaskReads() {
+        if (maskContext != null) {
+            blocksRead += maskContext.takeBlocksRead();
+        }
+    }
+
+    /**
+     * Add the blocks read and written since the last call to the counters
+     * of {@link Metrics}.
+     */
+    private void reportMetrics() {
+        collectMaskReads();
+        Metrics.BLOCKS_READ.add(blocksRead - reportedRead);
+        Metrics.BLOCKS_WRITTEN.add(blocksWritten - reportedWritten);
+        reportedRead = blocksRead;
+        reportedWritten = blocksWritten;
     }
 
     /**
@@ -684,53 +920,400 @@ public Mask getMask() {
     }
 
     /**
-     * Set a mask.
+     * Set a mask. The mask is compiled when it is set, so a mask that is
+     * changed afterwards has to be set again.
      *
      * @param mask mask or null
      */
     public void setMask(Mask mask) {
+        collectMaskReads();
         this.mask = mask;
+        if (mask == null) {
+            compiledMask = null;
+            maskContext = null;
+        } else {
+            compiledMask = CompiledMask.compile(mask);
+            maskContext = new CompiledMask.Context(this);
+        }
     }
 
     /**
      * Finish off the queue.
      */
     public void flushQueue() {
-        if (!queued) {
-            return;
+        startFlush().resume(Long.MAX_VALUE);
+    }
+
+    /**
+     * Begin flushing the queue in steps. The returned flush places nothing
+     * until it is resumed; it must be resumed until it completes before this
+     * edit session is used again.
+     *
+     * @return the flush
+     */
+    public QueueFlush startFlush() {
+        return new QueueFlush();
+    }
+
+    /**
+     * A flush of the queue that can be carried out over several calls, so
+     * that large edits can be spread over several server ticks.
+     */
+    public class QueueFlush {
+        private static final int STAGE_AFTER = 0;
+        private static final int STAGE_LAST = 1;
+        private static final int STAGE_FINAL = 2;
+        private static final int STAGE_FIX = 3;
+        private static final int STAGE_DONE = 4;
+
+        /**
+         * Number of changes in a section above which the mask is tested for
+         * the whole section at once.
+         */
+        private static final int SECTION_MASK_THRESHOLD = 512;
+
+        private final Set<BlockVector2D> dirtyChunks = new HashSet<BlockVector2D>();
+        private final int total;
+        private int done = 0;
+        private int stage;
+        private int sinceCheck = 0;
+
+        private Iterator<Map.Entry<BlockVector, BaseBlock>> entries;
+        private Map<BlockVector2D, ChunkBlockBuffer> buffers;
+        private ChunkBlockBuffer lastBuffer;
+        private Iterator<ChunkBlockBuffer> chunks;
+        private List<BlockVector> finalOrder;
+        private Map<BlockVector, BaseBlock> finalTypes;
+        private int finalIndex;
+        private final long[] sectionBits = new long[64];
+        private long nanos = 0;
+
+        private QueueFlush() {
+            if (queued) {
+                total = queueAfter.size() + queueLast.size() + queueFinal.size();
+                stage = STAGE_AFTER;
+            } else {
+                total = 0;
+                stage = STAGE_DONE;
+            }
+        }
+
+        /**
+         * Get the number of queued blocks this flush started with.
+         *
+         * @return number of blocks
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Get the number of queued blocks that were handled so far.
+         *
+         * @return number of blocks
+         */
+        public int getDone() {
+            return done;
+        }
+
+        /**
+         * Returns whether the whole queue has been flushed.
+         *
+         * @return true if complete
+         */
+        public boolean isComplete() {
+            return stage == STAGE_DONE;
+        }
+
+        /**
+         * Place queued blocks until the queue is empty or the deadline has
+         * passed. Lighting and physics for fast mode are fixed at the end.
+         *
+         * @param deadline a {@link System#nanoTime()} value, or
+         *     {@link Long#MAX_VALUE} to flush everything
+         * @return true if the flush is complete
+         */
+        public boolean resume(long deadline) {
+            final boolean wasComplete = stage == STAGE_DONE;
+            final long start = System.nanoTime();
+            final boolean complete = resumeStages(deadline);
+            nanos += System.nanoTime() - start;
+
+            if (complete && !wasComplete) {
+                Metrics.FLUSH.update(nanos);
+            }
+            if (complete) {
+                reportMetrics();
+            }
+
+            return complete;
+        }
+
+        private boolean resumeStages(long deadline) {
+            while (stage != STAGE_DONE) {
+                final boolean complete;
+                switch (stage) {
+                case STAGE_AFTER:
+                    complete = placeQueue(queueAfter, deadline);
+                    break;
+
+                case STAGE_LAST:
+                    complete = placeQueue(queueLast, deadline);
+                    break;
+
+                case STAGE_FINAL:
+                    complete = placeFinal(deadline);
+                    break;
+
+                default:
+                    if (!dirtyChunks.isEmpty()) world.fixAfterFastMode(dirtyChunks);
+
+                    queueAfter.clear();
+                    queueLast.clear();
+                    queueFinal.clear();
+                    done = total;
+                    complete = true;
+                }
+
+                if (!complete) {
+                    return false;
+                }
+
+                ++stage;
+
+                // We don't want to place these blocks if other blocks were missing
+                // because it might cause the items to drop
+                if (stage == STAGE_LAST && blockBag != null && missingBlocks.size() > 0) {
+                    stage = STAGE_FIX;
+                }
+            }
+
+            return true;
         }
 
-        final Set<BlockVector2D> dirtyChunks = new HashSet<BlockVector2D>();
+        private boolean outOfTime(long deadline, int interval) {
+            if (deadline == Long.MAX_VALUE || ++sinceCheck < interval) {
+                return false;
+            }
 
-        for (Map.Entry<BlockVector, BaseBlock> entry : queueAfter) {
-            BlockVector pt = entry.getKey();
-            rawSetBlock(pt, entry.getValue());
+            sinceCheck = 0;
+            return System.nanoTime() - deadline >= 0;
+        }
 
+        private void markDirty(Vector pt) {
             // TODO: use ChunkStore.toChunk(pt) after optimizing it.
             if (fastMode) {
                 dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
             }
         }
 
-        // We don't want to place these blocks if other blocks were missing
-        // because it might cause the items to drop
-        if (blockBag == null || missingBlocks.size() == 0) {
-            for (Map.Entry<BlockVector, BaseBlock> entry : queueLast) {
-                BlockVector pt = entry.getKey();
-                rawSetBlock(pt, entry.getValue());
+        private boolean placeQueue(DoubleArrayList<BlockVector, BaseBlock> queue, long deadline) {
+            if (!batching) {
+                if (entries == null) {
+                    entries = queue.iterator();
+                }
+
+                while (entries.hasNext()) {
+                    final Map.Entry<BlockVector, BaseBlock> entry = entries.next();
+                    final BlockVector pt = entry.getKey();
+                    rawSetBlock(pt, entry.getValue());
+                    markDirty(pt);
+                    ++done;
+
+                    if (outOfTime(deadline, 64) && entries.hasNext()) {
+                        return false;
+                    }
+                }
+
+                entries = null;
+                return true;
+            }
+
+            if (chunks == null) {
+                if (entries == null) {
+                    entries = queue.iterator();
+                    buffers = new LinkedHashMap<BlockVector2D, ChunkBlockBuffer>();
+                    lastBuffer = null;
+                }
+
+                final int maxY = world.getMaxY();
+                while (entries.hasNext()) {
+                    final Map.Entry<BlockVector, BaseBlock> entry = entries.next();
+                    final BlockVector pt = entry.getKey();
+                    final int y = pt.getBlockY();
+                    if (y < 0 || y > maxY) {
+                        ++done;
+                        continue;
+                    }
+
+                    final int x = pt.getBlockX() >> 4;
+                    final int z = pt.getBlockZ() >> 4;
+
+                    // Consecutive blocks are usually in the same chunk
+                    if (lastBuffer == null || x != lastBuffer.getChunk().getBlockX()
+                            || z != lastBuffer.getChunk().getBlockZ()) {
+                        final BlockVector2D chunk = new BlockVector2D(x, z);
+                        lastBuffer = buffers.get(chunk);
+                        if (lastBuffer == null) {
+                            lastBuffer = new ChunkBlockBuffer(chunk);
+                            buffers.put(chunk, lastBuffer);
+                        }
+                    }
+
+                    lastBuffer.add(pt, entry.getValue());
+
+                    if (outOfTime(deadline, 1024) && entries.hasNext()) {
+                        return false;
+                    }
+                }
+
+                entries = null;
+                lastBuffer = null;
+                chunks = buffers.values().iterator();
+                buffers = null;
+            }
+
+            while (chunks.hasNext()) {
+                final ChunkBlockBuffer buffer = chunks.next();
+                done += buffer.size();
+                placeChunk(buffer);
+
+                if (outOfTime(deadline, 1) && chunks.hasNext()) {
+                    return false;
+                }
+            }
+
+            chunks = null;
+            return true;
+        }
+
+        private void placeChunk(ChunkBlockBuffer buffer) {
+            world.checkLoadedChunk(buffer.getPosition(0));
+            // Every block of the chunk is checked before any is set, so the
+            // checks do not see the other changes of the chunk (see
+            // setBatchingMode)
+            buffer.sortBySection();
+
+            final boolean[] matched = compiledMask == null ? null : matchMask(buffer);
+            final ChunkBlockBuffer accepted = new ChunkBlockBuffer(buffer.getChunk(), buffer.size());
+            for (int i = 0; i < buffer.size(); ++i) {
+                final Vector pt = buffer.getPosition(i);
+                final BaseBlock block = buffer.getBlock(i);
+                if ((matched == null || matched[i]) && prepareUnmaskedBlock(pt, block)) {
+                    accepted.add(pt, block);
+                }
+            }
+            buffer.clear();
+
+            if (accepted.size() > 0) {
+                blocksWritten += world.setBlocks(accepted, fastMode);
 
-                // TODO: use ChunkStore.toChunk(pt) after optimizing it.
                 if (fastMode) {
-                    dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
+                    dirtyChunks.add(accepted.getChunk());
+                }
+            }
+        }
+
+        /**
+         * Test the mask against all changes of a chunk, before any of them
+         * is placed. Sections that the mask rules out are skipped as a whole,
+         * and sections with many changes are tested at once against a
+         * snapshot of the chunk. The changes must be sorted by section.
+         *
+         * @param buffer the changes
+         * @return whether each change matches the mask
+         */
+        private boolean[] matchMask(ChunkBlockBuffer buffer) {
+            final boolean[] matched = new boolean[buffer.size()];
+            final int minX = buffer.getChunk().getBlockX() << 4;
+            final int minZ = buffer.getChunk().getBlockZ() << 4;
+
+            // The snapshot is only taken once a section has enough changes
+            // to be tested as a whole, and only if the mask reads blocks
+            boolean useSnapshot = compiledMask.readsBlocks();
+            ChunkBlockSnapshot snapshot = null;
+            try {
+                int start = 0;
+                while (start < buffer.size()) {
+                    final int section = buffer.getPosition(start).getBlockY() >> 4;
+                    int end = start + 1;
+                    while (end < buffer.size() && buffer.getPosition(end).getBlockY() >> 4 == section) {
+                        ++end;
+                    }
+
+                    final int minY = section << 4;
+                    if (!compiledMask.mayMatchSection(minX, minY, minZ)) {
+                        start = end;
+                        continue;
+                    }
+
+                    if (useSnapshot && snapshot == null && end - start >= SECTION_MASK_THRESHOLD) {
+                        snapshot = world.getChunkSnapshot(buffer.getChunk());
+                        maskContext.setSnapshot(snapshot);
+                        useSnapshot = snapshot != null;
+                    }
+
+                    if (snapshot != null && end - start >= SECTION_MASK_THRESHOLD) {
+                        if (compiledMask.matchSection(maskContext, minX, minY, minZ, sectionBits)) {
+                            for (int i = start; i < end; ++i) {
+                                final Vector pt = buffer.getPosition(i);
+                                final int index = ((pt.getBlockY() & 15) << 8)
+                                        | ((pt.getBlockZ() & 15) << 4) | (pt.getBlockX() & 15);
+                                matched[i] = (sectionBits[index >> 6] & (1L << index)) != 0;
+                            }
+                        }
+                    } else {
+                        for (int i = start; i < end; ++i) {
+                            final Vector pt = buffer.getPosition(i);
+                            matched[i] = compiledMask.matches(maskContext,
+                                    pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+                        }
+                    }
+
+                    start = end;
                 }
+            } finally {
+                maskContext.setSnapshot(null);
             }
 
+            return matched;
+        }
+
+        private boolean placeFinal(long deadline) {
+            if (finalOrder == null) {
+                orderFinalQueue();
+            }
+
+            while (finalIndex < finalOrder.size()) {
+                final BlockVector pt = finalOrder.get(finalIndex++);
+                rawSetBlock(pt, finalTypes.get(pt));
+                markDirty(pt);
+                ++done;
+
+                if (outOfTime(deadline, 64) && finalIndex < finalOrder.size()) {
+                    return false;
+                }
+            }
+
+            finalOrder = null;
+            finalTypes = null;
+            return true;
+        }
+
+        /**
+         * Order the final queue so that attached blocks come after the blocks
+         * they are attached to.
+         */
+        private void orderFinalQueue() {
+            finalOrder = new ArrayList<BlockVector>(queueFinal.size());
+            finalTypes = new HashMap<BlockVector, BaseBlock>();
+            finalIndex = 0;
+
             final Set<BlockVector> blocks = new HashSet<BlockVector>();
-            final Map<BlockVector, BaseBlock> blockTypes = new HashMap<BlockVector, BaseBlock>();
             for (Map.Entry<BlockVector, BaseBlock> entry : queueFinal) {
                 final BlockVector pt = entry.getKey();
                 blocks.add(pt);
-                blockTypes.put(pt, entry.getValue());
+                finalTypes.put(pt, entry.getValue());
             }
 
             while (!blocks.isEmpty()) {
@@ -744,9 +1327,9 @@ public void flushQueue() {
                 while (true) {
                     walked.addFirst(current);
 
-                    assert(blockTypes.containsKey(current));
+                    assert(finalTypes.containsKey(current));
 
-                    final BaseBlock baseBlock = blockTypes.get(current);
+                    final BaseBlock baseBlock = finalTypes.get(current);
 
                     final int type = baseBlock.getType();
                     final int data = baseBlock.getData();
@@ -783,22 +1366,11 @@ public void flushQueue() {
                 }
 
                 for (BlockVector pt : walked) {
-                    rawSetBlock(pt, blockTypes.get(pt));
+                    finalOrder.add(pt);
                     blocks.remove(pt);
-
-                    // TODO: use ChunkStore.toChunk(pt) after optimizing it.
-                    if (fastMode) {
-                        dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
-                    }
                 }
             }
         }
-
-        if (!dirtyChunks.isEmpty()) world.fixAfterFastMode(dirtyChunks);
-
-        queueAfter.clear();
-        queueLast.clear();
-        queueFinal.clear();
     }
 
     /**
@@ -814,96 +1386,7 @@ public void flushQueue() {
      */
     public int fillXZ(Vector origin, BaseBlock block, double radius, int depth,
             boolean recursive) throws MaxChangedBlocksException {
-
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
-
-        queue.push(new BlockVector(originX, originY, originZ));
-
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
-
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
-            }
-
-            visited.add(pt);
-
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    if (setBlock(pt, block)) {
-                        ++affected;
-                    }
-                } else {
-                    continue;
-                }
-
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
-
-                if (dist > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, block, minY);
-                } else {
-                    continue;
-                }
-            }
-
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
-        }
-
-        return affected;
-    }
-
-    /**
-     * Recursively fills a block and below until it hits another block.
-     *
-     * @param x
-     * @param cy
-     * @param z
-     * @param block
-     * @param minY
-     * @throws MaxChangedBlocksException
-     * @return
-     */
-    private int fillY(int x, int cy, int z, BaseBlock block, int minY)
-            throws MaxChangedBlocksException {
-        int affected = 0;
-
-        for (int y = cy; y >= minY; --y) {
-            Vector pt = new Vector(x, y, z);
-
-            if (getBlock(pt).isAir()) {
-                setBlock(pt, block);
-                ++affected;
-            } else {
-                break;
-            }
-        }
-
-        return affected;
+        return fillXZ(origin, new SingleBlockPattern(block), radius, depth, recursive);
     }
 
     /**
@@ -917,69 +1400,37 @@ private int fillY(int x, int cy, int z, BaseBlock block, int minY)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int fillXZ(Vector origin, Pattern pattern, double radius, int depth,
-            boolean recursive) throws MaxChangedBlocksException {
+    public int fillXZ(Vector origin, final Pattern pattern, double radius, int depth,
+            final boolean recursive) throws MaxChangedBlocksException {
 
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
-
-        queue.push(new BlockVector(originX, originY, originZ));
-
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
+        final int originY = origin.getBlockY();
+        final int minY = originY - depth + 1;
+        final int[] affected = new int[1];
 
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
+        FloodFill fill = new FloodFill(new FloodFill.Predicate() {
+            public boolean test(int x, int y, int z) {
+                return getBlockType(new Vector(x, y, z)) == BlockID.AIR;
             }
-
-            visited.add(pt);
-
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
+        }, new FloodFill.Visitor() {
+            public void visit(int x, int y, int z) throws MaxChangedBlocksException {
+                if (recursive) {
+                    BlockVector pt = new BlockVector(x, y, z);
                     if (setBlock(pt, pattern.next(pt))) {
-                        ++affected;
+                        ++affected[0];
                     }
                 } else {
-                    continue;
-                }
-
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
-
-                if (dist > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, pattern, minY);
-                } else {
-                    continue;
+                    affected[0] += fillY(x, originY, z, pattern, minY);
                 }
             }
+        });
+        fill.setRadius(radius);
+        fill.setHeightRange(0, originY);
+        // Without recursion, the fill spreads on the origin's layer and
+        // fills down from there
+        fill.setHorizontal(!recursive);
+        fill.fill(origin);
 
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
-        }
-
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1127,42 +1578,19 @@ public int removeNear(Vector pos, int blockType, int size)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int setBlocks(Region region, BaseBlock block)
+    public int setBlocks(Region region, final BaseBlock block)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
+        final int[] affected = new int[1];
 
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        if (setBlock(pt, block)) {
-                            ++affected;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                if (setBlock(pt, block)) {
-                    ++affected;
+        AbstractRegion.visitRegion(region, new RegionVisitor() {
+            public void visit(int x, int y, int z) throws MaxChangedBlocksException {
+                if (setBlock(new Vector(x, y, z), block)) {
+                    ++affected[0];
                 }
             }
-        }
+        });
 
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1173,42 +1601,21 @@ public int setBlocks(Region region, BaseBlock block)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int setBlocks(Region region, Pattern pattern)
+    public int setBlocks(Region region, final Pattern pattern)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
+        final int[] affected = new int[1];
 
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
+        AbstractRegion.visitRegion(region, new RegionVisitor() {
+            public void visit(int x, int y, int z) throws MaxChangedBlocksException {
+                Vector pt = new Vector(x, y, z);
 
-                        if (setBlock(pt, pattern.next(pt))) {
-                            ++affected;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
                 if (setBlock(pt, pattern.next(pt))) {
-                    ++affected;
+                    ++affected[0];
                 }
             }
-        }
+        });
 
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1220,9 +1627,9 @@ public int setBlocks(Region region, Pattern pattern)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, BaseBlock toBlock) throws MaxChangedBlocksException {
-        Set<BaseBlock> definiteBlockTypes = new HashSet<BaseBlock>();
-        Set<Integer> fuzzyBlockTypes = new HashSet<Integer>();
+    public int replaceBlocks(Region region, final Set<BaseBlock> fromBlockTypes, final BaseBlock toBlock) throws MaxChangedBlocksException {
+        final Set<BaseBlock> definiteBlockTypes = new HashSet<BaseBlock>();
+        final Set<Integer> fuzzyBlockTypes = new HashSet<Integer>();
 
         if (fromBlockTypes != null) {
             for (BaseBlock block : fromBlockTypes) {
@@ -1234,67 +1641,32 @@ public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, BaseBlock
             }
         }
 
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        BaseBlock curBlockType = getBlock(pt);
-
-                        if (fromBlockTypes == null) {
-                            //replace <to-block>
-                            if (curBlockType.isAir()) {
-                                continue;
-                            }
-                        } else {
-                            //replace <from-block> <to-block>
-                            if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
-                                continue;
-                            }
-                        }
+        final int[] affected = new int[1];
 
-                        if (setBlock(pt, toBlock)) {
-                            ++affected;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
+        AbstractRegion.visitRegion(region, new RegionVisitor() {
+            public void visit(int x, int y, int z) throws MaxChangedBlocksException {
+                Vector pt = new Vector(x, y, z);
                 BaseBlock curBlockType = getBlock(pt);
 
                 if (fromBlockTypes == null) {
                     //replace <to-block>
                     if (curBlockType.isAir()) {
-                        continue;
+                        return;
                     }
                 } else {
                     //replace <from-block> <to-block>
                     if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
-                        continue;
+                        return;
                     }
                 }
 
                 if (setBlock(pt, toBlock)) {
-                    ++affected;
+                    ++affected[0];
                 }
             }
-        }
+        });
 
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1306,9 +1678,9 @@ public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, BaseBlock
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, Pattern pattern) throws MaxChangedBlocksException {
-        Set<BaseBlock> definiteBlockTypes = new HashSet<BaseBlock>();
-        Set<Integer> fuzzyBlockTypes = new HashSet<Integer>();
+    public int replaceBlocks(Region region, final Set<BaseBlock> fromBlockTypes, final Pattern pattern) throws MaxChangedBlocksException {
+        final Set<BaseBlock> definiteBlockTypes = new HashSet<BaseBlock>();
+        final Set<Integer> fuzzyBlockTypes = new HashSet<Integer>();
         if (fromBlockTypes != null) {
             for (BaseBlock block : fromBlockTypes) {
                 if (block.getData() == -1) {
@@ -1319,67 +1691,32 @@ public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, Pattern p
             }
         }
 
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        BaseBlock curBlockType = getBlock(pt);
-
-                        if (fromBlockTypes == null) {
-                            //replace <to-block>
-                            if (curBlockType.isAir()) {
-                                continue;
-                            }
-                        } else {
-                            //replace <from-block> <to-block>
-                            if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
-                                continue;
-                            }
-                        }
+        final int[] affected = new int[1];
 
-                        if (setBlock(pt, pattern.next(pt))) {
-                            ++affected;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
+        AbstractRegion.visitRegion(region, new RegionVisitor() {
+            public void visit(int x, int y, int z) throws MaxChangedBlocksException {
+                Vector pt = new Vector(x, y, z);
                 BaseBlock curBlockType = getBlock(pt);
 
                 if (fromBlockTypes == null) {
                     //replace <to-block>
                     if (curBlockType.isAir()) {
-                        continue;
+                        return;
                     }
                 } else {
                     //replace <from-block> <to-block>
                     if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
-                        continue;
+                        return;
                     }
                 }
 
                 if (setBlock(pt, pattern.next(pt))) {
-                    ++affected;
+                    ++affected[0];
                 }
             }
-        }
+        });
 
-        return affected;
+        return affected[0];
     }
 
     public int center(Region region, Pattern pattern)
@@ -2646,55 +2983,9 @@ public int makeForest(Vector basePos, int size, double density,
      * @return
      */
     public List<Countable<Integer>> getBlockDistribution(Region region) {
-        List<Countable<Integer>> distribution = new ArrayList<Countable<Integer>>();
-        Map<Integer, Countable<Integer>> map = new HashMap<Integer, Countable<Integer>>();
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        int id = getBlockType(pt);
-
-                        if (map.containsKey(id)) {
-                            map.get(id).increment();
-                        } else {
-                            Countable<Integer> c = new Countable<Integer>(id, 1);
-                            map.put(id, c);
-                            distribution.add(c);
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                int id = getBlockType(pt);
-
-                if (map.containsKey(id)) {
-                    map.get(id).increment();
-                } else {
-                    Countable<Integer> c = new Countable<Integer>(id, 1);
-                    map.put(id, c);
-                }
-            }
-        }
-
-        Collections.sort(distribution);
-        // Collections.reverse(distribution);
-
-        return distribution;
+        final BlockDistribution distribution = new BlockDistribution(world, region);
+        distribution.run();
+        return distribution.getDistribution();
     }
 
     /**
@@ -2703,66 +2994,41 @@ public List<Countable<Integer>> getBlockDistribution(Region region) {
      * @param region
      * @return
      */
-    // TODO reduce code duplication - probably during ops-redux
     public List<Countable<BaseBlock>> getBlockDistributionWithData(Region region) {
-        List<Countable<BaseBlock>> distribution = new ArrayList<Countable<BaseBlock>>();
-        Map<BaseBlock, Countable<BaseBlock>> map = new HashMap<BaseBlock, Countable<BaseBlock>>();
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        BaseBlock blk = new BaseBlock(getBlockType(pt), getBlockData(pt));
-
-                        if (map.containsKey(blk)) {
-                            map.get(blk).increment();
-                        } else {
-                            Countable<BaseBlock> c = new Countable<BaseBlock>(blk, 1);
-                            map.put(blk, c);
-                            distribution.add(c);
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                BaseBlock blk = new BaseBlock(getBlockType(pt), getBlockData(pt));
+        final BlockDistribution distribution = new BlockDistribution(world, region);
+        distribution.run();
+        return distribution.getDistributionWithData();
+    }
 
-                if (map.containsKey(blk)) {
-                    map.get(blk).increment();
-                } else {
-                    Countable<BaseBlock> c = new Countable<BaseBlock>(blk, 1);
-                    map.put(blk, c);
-                }
-            }
+    /**
+     * Visit a region with a visitor that does not change any blocks.
+     *
+     * @param region
+     * @param visitor
+     */
+    private static void visitReadOnly(Region region, RegionVisitor visitor) {
+        try {
+            AbstractRegion.visitRegion(region, visitor);
+        } catch (MaxChangedBlocksException e) {
+            // Only thrown when changing blocks
+            throw new IllegalStateException(e);
         }
-
-        Collections.sort(distribution);
-        // Collections.reverse(distribution);
-
-        return distribution;
     }
 
     public int makeShape(final Region region, final Vector zero, final Vector unit, final Pattern pattern, final String expressionString, final boolean hollow) throws ExpressionException, MaxChangedBlocksException {
         final Expression expression = Expression.compile(expressionString, "x", "y", "z", "type", "data");
         expression.optimize();
+        if (compileExpressions) {
+            expression.compileBytecode();
+        }
 
         final RValue typeVariable = expression.getVariable("type", false);
         final RValue dataVariable = expression.getVariable("data", false);
 
+        if (evaluateInParallel(expression)) {
+            return makeShapeParallel(region, zero, unit, pattern, expression, hollow);
+        }
+
         final ArbitraryShape shape = new ArbitraryShape(region) {
             @Override
             protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial) {
@@ -2784,9 +3050,151 @@ protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial)
         return shape.generate(this, pattern, hollow);
     }
 
+    /**
+     * Marks a block that has not been evaluated in a shape buffer.
+     */
+    private static final int SHAPE_PENDING = Integer.MIN_VALUE;
+
+    /**
+     * Marks a block outside of the shape in a shape buffer.
+     */
+    private static final int SHAPE_OUTSIDE = Integer.MIN_VALUE + 1;
+
+    /**
+     * Like {@link #makeShape}, but evaluates the expression on worker threads
+     * first. The materials are kept in a buffer covering the region and a
+     * one block border, where each block is either
+     * {@link #SHAPE_PENDING}, {@link #SHAPE_OUTSIDE} or
+     * <code>(type << 16) | (data & 0xFFFF)</code>. Package-private for
+     * tests, which cannot rely on having several processors.
+     */
+    int makeShapeParallel(final Region region, final Vector zero, final Vector unit, final Pattern pattern, final Expression expression, final boolean hollow) throws ExpressionException, MaxChangedBlocksException {
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+
+        final int offsetX = min.getBlockX() - 1;
+        final int offsetY = min.getBlockY() - 1;
+        final int offsetZ = min.getBlockZ() - 1;
+        final int sizeX = max.getBlockX() - offsetX + 2;
+        final int sizeY = max.getBlockY() - offsetY + 2;
+        final int sizeZ = max.getBlockZ() - offsetZ + 2;
+
+        final int[] buffer = new int[sizeX * sizeY * sizeZ];
+        Arrays.fill(buffer, SHAPE_PENDING);
+
+        // The pattern is not thread-safe, so fetch the default materials here
+        for (BlockVector position : region) {
+            final int x = position.getBlockX() - offsetX;
+            final int y = position.getBlockY() - offsetY;
+            final int z = position.getBlockZ() - offsetZ;
+            final int index = y + z * sizeY + x * sizeY * sizeZ;
+
+            if (buffer[index] == SHAPE_PENDING) {
+                buffer[index] = packShapeMaterial(pattern.next(position));
+            }
+
+            if (hollow) {
+                for (Vector direction : recurseDirections) {
+                    final int neighbor = index + direction.getBlockY()
+                            + direction.getBlockZ() * sizeY
+                            + direction.getBlockX() * sizeY * sizeZ;
+                    if (buffer[neighbor] == SHAPE_PENDING) {
+                        buffer[neighbor] = packShapeMaterial(pattern.next(position.add(direction).toBlockVector()));
+                    }
+                }
+            }
+        }
+
+        final int[] bounds = WorkerPool.split(sizeX, 4);
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(bounds.length - 1);
+        for (int i = 0; i < bounds.length - 1; ++i) {
+            final int fromX = bounds[i];
+            final int toX = bounds[i + 1];
+            final Expression local = expression.copy();
+
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final RValue typeVariable = local.getVariable("type", false);
+                    final RValue dataVariable = local.getVariable("data", false);
+
+                    for (int x = fromX; x < toX; ++x) {
+                        for (int z = 0; z < sizeZ; ++z) {
+                            for (int y = 0; y < sizeY; ++y) {
+                                final int index = y + z * sizeY + x * sizeY * sizeZ;
+                                final int defaultMaterial = buffer[index];
+                                if (defaultMaterial == SHAPE_PENDING) {
+                                    continue;
+                                }
+
+                                final Vector scaled = new Vector(x + offsetX, y + offsetY, z + offsetZ).subtract(zero).divide(unit);
+
+                                try {
+                                    if (local.evaluate(scaled.getX(), scaled.getY(), scaled.getZ(), defaultMaterial >> 16, (short) defaultMaterial) <= 0) {
+                                        buffer[index] = SHAPE_OUTSIDE;
+                                    } else {
+                                        buffer[index] = packShapeMaterial((int) typeVariable.getValue(), (int) dataVariable.getValue());
+                                    }
+                                } catch (Exception e) {
+                                    e.printStackTrace();
+                                    buffer[index] = SHAPE_OUTSIDE;
+                                }
+                            }
+                        }
+                    }
+
+                    return null;
+                }
+            });
+        }
+
+        try {
+            WorkerPool.invokeAll(tasks);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        final ArbitraryShape shape = new ArbitraryShape(region) {
+            @Override
+            protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial) {
+                final int material = buffer[(y - offsetY) + (z - offsetZ) * sizeY + (x - offsetX) * sizeY * sizeZ];
+                if (material == SHAPE_PENDING || material == SHAPE_OUTSIDE) {
+                    return null;
+                }
+
+                return new BaseBlock(material >> 16, (short) material);
+            }
+        };
+
+        return shape.generate(this, pattern, hollow);
+    }
+
+    private static int packShapeMaterial(BaseBlock block) {
+        return packShapeMaterial(block.getType(), block.getData());
+    }
+
+    /**
+     * Pack a material for a shape buffer. Invalid blocks are left out of the
+     * shape, like {@link #makeShape} does when it cannot create them.
+     *
+     * @param type
+     * @param data
+     * @return the packed material, or {@link #SHAPE_OUTSIDE}
+     */
+    private static int packShapeMaterial(int type, int data) {
+        if (type < 0 || type > BaseBlock.MAX_ID || data < -1 || data > BaseBlock.MAX_DATA) {
+            return SHAPE_OUTSIDE;
+        }
+
+        return (type << 16) | (data & 0xFFFF);
+    }
+
     public int deformRegion(final Region region, final Vector zero, final Vector unit, final String expressionString) throws ExpressionException, MaxChangedBlocksException {
         final Expression expression = Expression.compile(expressionString, "x", "y", "z");
         expression.optimize();
+        if (compileExpressions) {
+            expression.compileBytecode();
+        }
 
         final RValue x = expression.getVariable("x", false);
         final RValue y = expression.getVariable("y", false);
@@ -2796,23 +3204,37 @@ public int deformRegion(final Region region, final Vector zero, final Vector uni
 
         final DoubleArrayList<BlockVector, BaseBlock> queue = new DoubleArrayList<BlockVector, BaseBlock>(false);
 
-        for (BlockVector position : region) {
-            // offset, scale
-            final Vector scaled = position.subtract(zero).divide(unit);
+        if (evaluateInParallel(expression)) {
+            final List<BlockVector> positions = new ArrayList<BlockVector>();
+            for (BlockVector position : region) {
+                positions.add(position);
+            }
 
-            // transform
-            expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ());
+            final BlockVector[] sources = deformParallel(positions, zero, zero2, unit, expression);
+            for (int i = 0; i < sources.length; ++i) {
+                // read block from world
+                final BlockVector sourcePosition = sources[i];
+                queue.put(positions.get(i), new BaseBlock(world.getBlockType(sourcePosition), world.getBlockData(sourcePosition)));
+            }
+        } else {
+            for (BlockVector position : region) {
+                // offset, scale
+                final Vector scaled = position.subtract(zero).divide(unit);
 
-            final Vector sourceScaled = new Vector(x.getValue(), y.getValue(), z.getValue());
+                // transform
+                expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ());
 
-            // unscale, unoffset, round-nearest
-            final BlockVector sourcePosition = sourceScaled.multiply(unit).add(zero2).toBlockPoint();
+                final Vector sourceScaled = new Vector(x.getValue(), y.getValue(), z.getValue());
 
-            // read block from world
-            BaseBlock material = new BaseBlock(world.getBlockType(sourcePosition), world.getBlockData(sourcePosition));
+                // unscale, unoffset, round-nearest
+                final BlockVector sourcePosition = sourceScaled.multiply(unit).add(zero2).toBlockPoint();
 
-            // queue operation
-            queue.put(position, material);
+                // read block from world
+                BaseBlock material = new BaseBlock(world.getBlockType(sourcePosition), world.getBlockData(sourcePosition));
+
+                // queue operation
+                queue.put(position, material);
+            }
         }
 
         int affected = 0;
@@ -2829,6 +3251,59 @@ public int deformRegion(final Region region, final Vector zero, final Vector uni
         return affected;
     }
 
+    /**
+     * Evaluates the transformation of {@link #deformRegion} for the given
+     * positions on worker threads.
+     *
+     * @return the source position of each position
+     */
+    private BlockVector[] deformParallel(final List<BlockVector> positions, final Vector zero, final Vector zero2, final Vector unit, final Expression expression) throws ExpressionException {
+        final BlockVector[] sources = new BlockVector[positions.size()];
+
+        final int[] bounds = WorkerPool.split(sources.length, 4);
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(bounds.length - 1);
+        for (int i = 0; i < bounds.length - 1; ++i) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            final Expression local = expression.copy();
+
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws ExpressionException {
+                    final RValue x = local.getVariable("x", false);
+                    final RValue y = local.getVariable("y", false);
+                    final RValue z = local.getVariable("z", false);
+
+                    for (int index = from; index < to; ++index) {
+                        // offset, scale
+                        final Vector scaled = positions.get(index).subtract(zero).divide(unit);
+
+                        // transform
+                        local.evaluate(scaled.getX(), scaled.getY(), scaled.getZ());
+
+                        final Vector sourceScaled = new Vector(x.getValue(), y.getValue(), z.getValue());
+
+                        // unscale, unoffset, round-nearest
+                        sources[index] = sourceScaled.multiply(unit).add(zero2).toBlockPoint();
+                    }
+
+                    return null;
+                }
+            });
+        }
+
+        try {
+            WorkerPool.invokeAll(tasks);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ExpressionException) {
+                throw (ExpressionException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+
+        return sources;
+    }
+
     Vector[] recurseDirections = {
         PlayerDirection.NORTH.vector(),
         PlayerDirection.EAST.vector(),
@@ -2851,11 +3326,58 @@ public int deformRegion(final Region region, final Vector zero, final Vector uni
     public int hollowOutRegion(Region region, int thickness, Pattern pattern) throws MaxChangedBlocksException {
         int affected = 0;
 
-        final Set<BlockVector> outside = new HashSet<BlockVector>();
-
         final Vector min = region.getMinimumPoint();
         final Vector max = region.getMaximumPoint();
 
+        final BlockBitSet inside = new BlockBitSet(min, max);
+        if (region instanceof CuboidRegion) {
+            inside.setInner();
+        } else {
+            for (BlockVector position : region) {
+                inside.set(inside.index(position.getBlockX(), position.getBlockY(), position.getBlockZ()));
+            }
+        }
+
+        final BlockBitSet outside = findOutside(inside, min, max);
+
+        // Grow the outside by one layer of the region per pass
+        final BlockBitSet neighbors = new BlockBitSet(inside);
+        for (int i = 1; i < thickness; ++i) {
+            neighbors.setNeighbors(outside);
+            neighbors.and(inside);
+            if (!outside.or(neighbors)) {
+                break;
+            }
+        }
+
+        neighbors.setNeighbors(outside);
+        inside.andNot(neighbors);
+
+        for (int index = inside.nextSetBit(0); index >= 0; index = inside.nextSetBit(index + 1)) {
+            final BlockVector position = new BlockVector(inside.getX(index), inside.getY(index), inside.getZ(index));
+            if (setBlock(position, pattern.next(position))) {
+                ++affected;
+            }
+        }
+
+        return affected;
+    }
+
+    /**
+     * Finds the blocks that can be reached from the faces of the bounding box
+     * through blocks that can be passed through, without leaving the region.
+     * Reachable blocks outside the region are included, but not walked past.
+     *
+     * @param inside the blocks of the region
+     * @param min the minimum point of the region
+     * @param max the maximum point of the region
+     * @return the reachable blocks
+     */
+    private BlockBitSet findOutside(BlockBitSet inside, Vector min, Vector max) {
+        final BlockBitSet outside = new BlockBitSet(inside);
+        final BlockBitSet queued = new BlockBitSet(inside);
+        final FloodFill.LongQueue queue = new FloodFill.LongQueue();
+
         final int minX = min.getBlockX();
         final int minY = min.getBlockY();
         final int minZ = min.getBlockZ();
@@ -2865,80 +3387,58 @@ public int hollowOutRegion(Region region, int thickness, Pattern pattern) throws
 
         for (int x = minX; x <= maxX; ++x) {
             for (int y = minY; y <= maxY; ++y) {
-                recurseHollow(region, new BlockVector(x, y, minZ), outside);
-                recurseHollow(region, new BlockVector(x, y, maxZ), outside);
+                enqueueHollow(queued, queue, inside.index(x, y, minZ));
+                enqueueHollow(queued, queue, inside.index(x, y, maxZ));
             }
         }
 
         for (int y = minY; y <= maxY; ++y) {
             for (int z = minZ; z <= maxZ; ++z) {
-                recurseHollow(region, new BlockVector(minX, y, z), outside);
-                recurseHollow(region, new BlockVector(maxX, y, z), outside);
+                enqueueHollow(queued, queue, inside.index(minX, y, z));
+                enqueueHollow(queued, queue, inside.index(maxX, y, z));
             }
         }
 
         for (int z = minZ; z <= maxZ; ++z) {
             for (int x = minX; x <= maxX; ++x) {
-                recurseHollow(region, new BlockVector(x, minY, z), outside);
-                recurseHollow(region, new BlockVector(x, maxY, z), outside);
-            }
-        }
-
-        for (int i = 1; i < thickness; ++i) {
-            final Set<BlockVector> newOutside = new HashSet<BlockVector>();
-            outer: for (BlockVector position : region) {
-                for (Vector recurseDirection: recurseDirections) {
-                    BlockVector neighbor = position.add(recurseDirection).toBlockVector();
-
-                    if (outside.contains(neighbor)) {
-                        newOutside.add(position);
-                        continue outer;
-                    }
-                }
-            }
-
-            outside.addAll(newOutside);
-        }
-
-        outer: for (BlockVector position : region) {
-            for (Vector recurseDirection: recurseDirections) {
-                BlockVector neighbor = position.add(recurseDirection).toBlockVector();
-
-                if (outside.contains(neighbor)) {
-                    continue outer;
-                }
-            }
-
-            if (setBlock(position, pattern.next(position))) {
-                ++affected;
+                enqueueHollow(queued, queue, inside.index(x, minY, z));
+                enqueueHollow(queued, queue, inside.index(x, maxY, z));
             }
         }
 
-        return affected;
-    }
-
-    private void recurseHollow(Region region, BlockVector origin, Set<BlockVector> outside) {
-        final LinkedList<BlockVector> queue = new LinkedList<BlockVector>();
-        queue.addLast(origin);
+        final int strideY = inside.getStride(1);
+        final int strideZ = inside.getStride(2);
 
         while (!queue.isEmpty()) {
-            final BlockVector current = queue.removeFirst();
+            final int index = (int) queue.remove();
+            final Vector current = new Vector(inside.getX(index), inside.getY(index), inside.getZ(index));
             if (!BlockType.canPassThrough(getBlockType(current))) {
                 continue;
             }
 
-            if (!outside.add(current)) {
-                continue;
-            }
+            outside.set(index);
 
-            if (!region.contains(current)) {
+            if (!inside.get(index)) {
                 continue;
             }
 
-            for (Vector recurseDirection: recurseDirections) {
-                queue.addLast(current.add(recurseDirection).toBlockVector());
-            }
-        } // while
+            // Blocks of the region are never on the border of the box,
+            // so all of their neighbors have an index
+            enqueueHollow(queued, queue, index + 1);
+            enqueueHollow(queued, queue, index - 1);
+            enqueueHollow(queued, queue, index + strideY);
+            enqueueHollow(queued, queue, index - strideY);
+            enqueueHollow(queued, queue, index + strideZ);
+            enqueueHollow(queued, queue, index - strideZ);
+        }
+
+        return outside;
+    }
+
+    private static void enqueueHollow(BlockBitSet queued, FloodFill.LongQueue queue, int index) {
+        if (queued.add(index)) {
+            queue.add(index);
+        }
     }
 
 }
@@ -0,0 +1,299 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Visits all blocks connected to an origin that match a predicate, in
+ * breadth-first order.
+ * </p>
+ * The fill does not recurse, so it cannot overflow the stack, and it does not
+ * allocate an object per block. Pending blocks are kept in a queue of
+ * positions packed into <code>long</code>s, and visited blocks are marked in
+ * a bitset keyed by the offset from the origin. The bitset is split into
+ * pages of 16x16x16 blocks that are only allocated when the fill reaches
+ * them, so its size follows the size of the fill rather than the radius.
+ * </p>
+ * Every block is tested at most once. Blocks that match the predicate are
+ * handed to the visitor, and their neighbors are queued.
+ */
+public class FloodFill {
+
+    /**
+     * Decides which blocks belong to the fill.
+     */
+    public interface Predicate {
+        /**
+         * Checks whether a block belongs to the fill.
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @return true if the block should be visited
+         */
+        public boolean test(int x, int y, int z);
+    }
+
+    /**
+     * Acts on the blocks of the fill.
+     */
+    public interface Visitor {
+        /**
+         * Visit a block that belongs to the fill.
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @throws MaxChangedBlocksException
+         */
+        public void visit(int x, int y, int z) throws MaxChangedBlocksException;
+    }
+
+    /**
+     * Bits per coordinate of a packed offset.
+     */
+    private static final int OFFSET_BITS = 21;
+    private static final int MAX_OFFSET = (1 << (OFFSET_BITS - 1)) - 1;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final Predicate predicate;
+    private final Visitor visitor;
+    private double radius = -1;
+    private int minY = Integer.MIN_VALUE;
+    private int maxY = Integer.MAX_VALUE;
+    private int limit = -1;
+    private boolean horizontal = false;
+
+    /**
+     * Construct the fill.
+     *
+     * @param predicate decides which blocks belong to the fill
+     * @param visitor acts on the blocks of the fill
+     */
+    public FloodFill(Predicate predicate, Visitor visitor) {
+        this.predicate = predicate;
+        this.visitor = visitor;
+    }
+
+    /**
+     * Set the maximum distance of a block from the origin. Offsets from the
+     * origin are limited to about a million blocks in any case.
+     *
+     * @param radius the radius, or -1 for no limit
+     */
+    public void setRadius(double radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * Set the range of Y coordinates that the fill may reach.
+     *
+     * @param minY the lowest Y coordinate
+     * @param maxY the highest Y coordinate
+     */
+    public void setHeightRange(int minY, int maxY) {
+        this.minY = minY;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Set the maximum number of blocks to visit. The fill stops once this
+     * many blocks have been handed to the visitor.
+     *
+     * @param limit the limit, or -1 for no limit
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Set whether the fill only spreads along the X and Z axes.
+     *
+     * @param horizontal true to never spread up or down
+     */
+    public void setHorizontal(boolean horizontal) {
+        this.horizontal = horizontal;
+    }
+
+    /**
+     * Run the fill.
+     *
+     * @param origin the first block
+     * @return number of blocks visited
+     * @throws MaxChangedBlocksException
+     */
+    public int fill(Vector origin) throws MaxChangedBlocksException {
+        return fill(origin.getBlockX(), origin.getBlockY(), origin.getBlockZ());
+    }
+
+    /**
+     * Run the fill.
+     *
+     * @param originX X of the first block
+     * @param originY Y of the first block
+     * @param originZ Z of the first block
+     * @return number of blocks visited
+     * @throws MaxChangedBlocksException
+     */
+    public int fill(int originX, int originY, int originZ) throws MaxChangedBlocksException {
+        final double radiusSq = radius * radius;
+        final VisitedSet visited = new VisitedSet();
+        final LongQueue queue = new LongQueue();
+        int count = 0;
+
+        visited.add(0, 0, 0);
+        queue.add(pack(0, 0, 0));
+
+        while (!queue.isEmpty()) {
+            final long packed = queue.remove();
+            final int dx = unpack(packed, 2);
+            final int dy = unpack(packed, 1);
+            final int dz = unpack(packed, 0);
+            final int x = originX + dx;
+            final int y = originY + dy;
+            final int z = originZ + dz;
+
+            if (y < minY || y > maxY) {
+                continue;
+            }
+
+            if (radius >= 0 && (double) dx * dx + (double) dy * dy + (double) dz * dz > radiusSq) {
+                continue;
+            }
+
+            if (!predicate.test(x, y, z)) {
+                continue;
+            }
+
+            if (count == limit) {
+                break;
+            }
+            visitor.visit(x, y, z);
+            ++count;
+
+            enqueue(visited, queue, dx + 1, dy, dz);
+            enqueue(visited, queue, dx - 1, dy, dz);
+            enqueue(visited, queue, dx, dy, dz + 1);
+            enqueue(visited, queue, dx, dy, dz - 1);
+            if (!horizontal) {
+                enqueue(visited, queue, dx, dy + 1, dz);
+                enqueue(visited, queue, dx, dy - 1, dz);
+            }
+        }
+
+        return count;
+    }
+
+    private static void enqueue(VisitedSet visited, LongQueue queue, int dx, int dy, int dz) {
+        if (Math.abs(dx) > MAX_OFFSET || Math.abs(dy) > MAX_OFFSET || Math.abs(dz) > MAX_OFFSET) {
+            return;
+        }
+
+        if (visited.add(dx, dy, dz)) {
+            queue.add(pack(dx, dy, dz));
+        }
+    }
+
+    private static long pack(int dx, int dy, int dz) {
+        return ((dx & OFFSET_MASK) << (2 * OFFSET_BITS))
+                | ((dy & OFFSET_MASK) << OFFSET_BITS)
+                | (dz & OFFSET_MASK);
+    }
+
+    private static int unpack(long packed, int part) {
+        // Shift the part to the top, then back down to extend the sign
+        return (int) ((packed << (64 - (part + 1) * OFFSET_BITS)) >> (64 - OFFSET_BITS));
+    }
+
+    /**
+     * A set of offsets, stored as a bitset per 16x16x16 section.
+     */
+    private static class VisitedSet {
+        private final Map<Long, long[]> pages = new HashMap<Long, long[]>();
+        private long lastKey = Long.MIN_VALUE;
+        private long[] lastPage;
+
+        /**
+         * Add an offset.
+         *
+         * @param dx
+         * @param dy
+         * @param dz
+         * @return true if the offset was not in the set before
+         */
+        boolean add(int dx, int dy, int dz) {
+            final long key = pack(dx >> 4, dy >> 4, dz >> 4);
+            long[] page;
+            if (key == lastKey) {
+                page = lastPage;
+            } else {
+                page = pages.get(key);
+                if (page == null) {
+                    page = new long[16 * 16 * 16 / 64];
+                    pages.put(key, page);
+                }
+                lastKey = key;
+                lastPage = page;
+            }
+
+            final int bit = ((dy & 15) << 8) | ((dz & 15) << 4) | (dx & 15);
+            final long mask = 1L << bit;
+            if ((page[bit >> 6] & mask) != 0) {
+                return false;
+            }
+            page[bit >> 6] |= mask;
+            return true;
+        }
+    }
+
+    /**
+     * A growable ring buffer of <code>long</code>s.
+     */
+    static class LongQueue {
+        private long[] elements = new long[64];
+        private int head;
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void add(long element) {
+            if (size == elements.length) {
+                final long[] newElements = new long[elements.length * 2];
+                final int firstPart = elements.length - head;
+                System.arraycopy(elements, head, newElements, 0, firstPart);
+                System.arraycopy(elements, 0, newElements, firstPart, head);
+                elements = newElements;
+                head = 0;
+            }
+            elements[(head + size) & (elements.length - 1)] = element;
+            ++size;
+        }
+
+        long remove() {
+            final long element = elements[head];
+            head = (head + 1) & (elements.length - 1);
+            --size;
+            return element;
+        }
+    }
+}
@@ -110,6 +110,15 @@ public abstract class LocalConfiguration {
     public int butcherMaxRadius = -1;
     public boolean allowExtraDataValues = false;
     public boolean allowSymlinks = false;
+    public int historyHeapBudget = -1;
+    public boolean batchBlockChanges = false;
+    public int editTickBudget = -1;
+    public boolean parallelExpressions = false;
+    public boolean compileExpressions = false;
+    public boolean parallelCopy = false;
+    public boolean metricsJmx = false;
+    public int metricsLogInterval = -1;
+    public String metricsLogFile = "worldedit-metrics.csv";
 
     /**
      * Loads the configuration.
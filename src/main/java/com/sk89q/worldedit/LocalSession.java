@@ -19,11 +19,14 @@
 
 package com.sk89q.worldedit;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.logging.Level;
 import com.sk89q.jchronic.Chronic;
 import com.sk89q.jchronic.Options;
 import com.sk89q.jchronic.utils.Span;
@@ -37,7 +40,9 @@
 import com.sk89q.worldedit.cui.CUIRegion;
 import com.sk89q.worldedit.cui.CUIEvent;
 import com.sk89q.worldedit.cui.SelectionShapeEvent;
+import com.sk89q.worldedit.history.BlockChangeSet;
 import com.sk89q.worldedit.masks.Mask;
+import com.sk89q.worldedit.metrics.Metrics;
 import com.sk89q.worldedit.regions.CuboidRegionSelector;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.regions.RegionSelector;
@@ -60,6 +65,9 @@ public class LocalSession {
     private boolean placeAtPos1 = false;
     private LinkedList<EditSession> history = new LinkedList<EditSession>();
     private int historyPointer = 0;
+    private File historyDirectory;
+    private long reportedMemoryUsage = 0;
+    private long reportedDiskUsage = 0;
     private CuboidClipboard clipboard;
     private boolean toolControl = true;
     private boolean superPickaxe = false;
@@ -107,8 +115,82 @@ public void setTimezone(TimeZone timezone) {
      * Clear history.
      */
     public void clearHistory() {
+        for (EditSession editSession : history) {
+            editSession.getChangeSet().clear();
+        }
         history.clear();
         historyPointer = 0;
+        updateHistoryMetrics();
+    }
+
+    /**
+     * Set the directory that history is written to once the history of this
+     * session exceeds the heap budget. If no directory is set, history is
+     * always kept in memory.
+     *
+     * @param historyDirectory directory, or null
+     */
+    public void setHistoryDirectory(File historyDirectory) {
+        this.historyDirectory = historyDirectory;
+    }
+
+    /**
+     * Delete the history files left in the history directories of all
+     * players, such as after a crash. History is not kept across restarts,
+     * so none of these files can be read again.
+     *
+     * @param directory the directory holding the history directories
+     * @return the number of files deleted
+     */
+    public static int deleteHistoryFiles(File directory) {
+        final File[] playerDirectories = directory.listFiles();
+        if (playerDirectories == null) {
+            return 0;
+        }
+
+        int deleted = 0;
+        for (File playerDirectory : playerDirectories) {
+            final File[] files = playerDirectory.listFiles();
+            if (files == null) {
+                continue;
+            }
+
+            for (File file : files) {
+                final String name = file.getName();
+                if (name.startsWith("history") && name.endsWith(".dat") && file.delete()) {
+                    ++deleted;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Get the approximate number of bytes of heap used by the history of
+     * this session.
+     *
+     * @return size in bytes
+     */
+    public long getHistoryMemoryUsage() {
+        long bytes = 0;
+        for (EditSession editSession : history) {
+            bytes += editSession.getChangeSet().getMemoryUsage();
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the number of bytes of history of this session that were
+     * written to disk.
+     *
+     * @return size in bytes
+     */
+    public long getHistoryDiskUsage() {
+        long bytes = 0;
+        for (EditSession editSession : history) {
+            bytes += editSession.getChangeSet().getDiskUsage();
+        }
+        return bytes;
     }
 
     /**
@@ -123,13 +205,86 @@ public void remember(EditSession editSession) {
 
         // Destroy any sessions after this undo point
         while (historyPointer < history.size()) {
-            history.remove(historyPointer);
+            history.remove(historyPointer).getChangeSet().clear();
         }
         history.add(editSession);
         while (history.size() > MAX_HISTORY_SIZE) {
-            history.remove(0);
+            history.remove(0).getChangeSet().clear();
         }
         historyPointer = history.size();
+        spillHistory();
+        updateHistoryMetrics();
+    }
+
+    /**
+     * Bring the history metrics up to date with the current size of the
+     * history of this session.
+     */
+    private void updateHistoryMetrics() {
+        final long memoryUsage = getHistoryMemoryUsage();
+        final long diskUsage = getHistoryDiskUsage();
+        Metrics.HISTORY_BYTES.add(memoryUsage - reportedMemoryUsage);
+        Metrics.HISTORY_SPILLED_BYTES.add(diskUsage - reportedDiskUsage);
+        reportedMemoryUsage = memoryUsage;
+        reportedDiskUsage = diskUsage;
+    }
+
+    /**
+     * Write the oldest edit sessions to disk until the history held in
+     * memory fits into the configured heap budget. The files are written on
+     * the {@link com.sk89q.worldedit.util.WorkerPool}, and the edit sessions
+     * are released from the heap by a later call once they were written.
+     */
+    private void spillHistory() {
+        if (historyDirectory == null) {
+            return;
+        }
+
+        // Release the edit sessions that were written in the meantime
+        for (EditSession editSession : history) {
+            final BlockChangeSet changes = editSession.getChangeSet();
+            if (!changes.isSpilling()) {
+                continue;
+            }
+
+            try {
+                changes.completeSpill();
+            } catch (IOException e) {
+                WorldEdit.logger.log(Level.WARNING, "Failed to write history to " + historyDirectory, e);
+            }
+        }
+
+        if (config.historyHeapBudget < 0) {
+            return;
+        }
+
+        final long budget = config.historyHeapBudget * 1024L * 1024L;
+        long usage = getHistoryMemoryUsage();
+
+        for (EditSession editSession : history) {
+            if (usage <= budget) {
+                break;
+            }
+
+            final BlockChangeSet changes = editSession.getChangeSet();
+            if (changes.isSpilled()) {
+                continue;
+            }
+
+            // Count edit sessions being written as if they were released
+            usage -= changes.getMemoryUsage();
+            if (changes.isSpilling()) {
+                continue;
+            }
+
+            try {
+                historyDirectory.mkdirs();
+                changes.startSpill(File.createTempFile("history", ".dat", historyDirectory));
+            } catch (IOException e) {
+                WorldEdit.logger.log(Level.WARNING, "Failed to write history to " + historyDirectory, e);
+                return;
+            }
+        }
     }
 
     /**
@@ -147,6 +302,7 @@ public EditSession undo(BlockBag newBlockBag, LocalPlayer player) {
                     .getEditSession(editSession.getWorld(), -1, newBlockBag, player);
             newEditSession.enableQueue();
             newEditSession.setFastMode(fastMode);
+            newEditSession.setBatchingMode(config.batchBlockChanges);
             editSession.undo(newEditSession);
             return editSession;
         } else {
@@ -169,6 +325,7 @@ public EditSession redo(BlockBag newBlockBag, LocalPlayer player) {
                     .getEditSession(editSession.getWorld(), -1, newBlockBag, player);
             newEditSession.enableQueue();
             newEditSession.setFastMode(fastMode);
+            newEditSession.setBatchingMode(config.batchBlockChanges);
             editSession.redo(newEditSession);
             ++historyPointer;
             return editSession;
@@ -704,6 +861,11 @@ public EditSession createEditSession(LocalPlayer player) {
                 .getEditSession(player.isPlayer() ? player.getWorld() : null,
                         getBlockChangeLimit(), blockBag, player);
         editSession.setFastMode(fastMode);
+        editSession.setBatchingMode(config.batchBlockChanges);
+        editSession.setParallelEvaluation(config.parallelExpressions);
+        editSession.setExpressionCompilation(config.compileExpressions);
+        editSession.setParallelCopy(config.parallelCopy);
+        editSession.setWaitingForEdit(WorldEdit.getInstance().getEditScheduler().isPending(this));
         if (mask != null) {
             mask.prepare(this, player, null);
         }
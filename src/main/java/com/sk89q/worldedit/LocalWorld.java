@@ -546,6 +546,56 @@ public boolean setBlock(Vector pt, Block block, boolean notifyAdjacent) {
         return successful;
     }
 
+    /**
+     * Set a batch of blocks that all lie within the same chunk. The chunk
+     * has already been loaded with {@link #checkLoadedChunk(Vector)} and the
+     * changes are ordered by section. Implementations can override this to
+     * resolve the chunk only once; the default implementation sets the
+     * blocks one by one, the same way {@link EditSession} does.
+     *
+     * @param buffer the changes
+     * @param fastMode whether the edit session uses fast mode
+     * @return number of blocks that were changed
+     */
+    public int setBlocks(ChunkBlockBuffer buffer, boolean fastMode) {
+        int changed = 0;
+
+        for (int i = 0; i < buffer.size(); ++i) {
+            final Vector pt = buffer.getPosition(i);
+            final BaseBlock block = buffer.getBlock(i);
+            final boolean result;
+
+            if (block.getType() == 0) {
+                if (fastMode) {
+                    result = setBlockTypeFast(pt, 0);
+                } else {
+                    result = setBlockType(pt, 0);
+                }
+            } else {
+                result = setBlock(pt, block, fastMode);
+            }
+
+            if (result) {
+                ++changed;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Take a snapshot of the blocks of a chunk, loading the chunk if
+     * required. The snapshot can then be read from other threads.
+     * Implementations that cannot take snapshots return null, and the
+     * blocks have to be read one by one instead.
+     *
+     * @param chunk position of the chunk, in chunk coordinates
+     * @return the snapshot, or null if not supported
+     */
+    public ChunkBlockSnapshot getChunkSnapshot(BlockVector2D chunk) {
+        return null;
+    }
+
     @Override
     public BaseBlock getBlock(Vector pt) {
         checkLoadedChunk(pt);
@@ -0,0 +1,565 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BaseItemStack;
+import com.sk89q.worldedit.data.AnvilChunk;
+import com.sk89q.worldedit.data.Chunk;
+import com.sk89q.worldedit.data.ChunkStore;
+import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.data.MissingChunkException;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * A world that only exists in memory, so that edit sessions can run without
+ * a server, for tests, benchmarks and offline tools.
+ * </p>
+ * Chunks are split into 16 block high sections of <code>(type << 4) | data</code>
+ * values, which are only allocated once a block other than air is set. Tile
+ * entities and biomes are only stored for chunks that have them. Worlds can
+ * be seeded with chunks read from a {@link ChunkStore}.
+ * </p>
+ * Fast mode skips counting the blocks of each section. Sections changed in
+ * fast mode are counted again by {@link #fixAfterFastMode(Iterable)}, which
+ * also frees the sections that only hold air.
+ * </p>
+ * Like the worlds of a server, this world may only be accessed by one thread
+ * at a time; snapshots can be read from any thread.
+ */
+public class MemoryWorld extends LocalWorld {
+    private static final int SECTION_COUNT = 16;
+    private static final int SECTION_SIZE = 16 * 16 * 16;
+
+    private final String name;
+    private final Map<Long, MemoryChunk> chunks = new HashMap<Long, MemoryChunk>();
+    private long lastKey;
+    private MemoryChunk lastChunk;
+
+    /**
+     * Construct an empty world.
+     */
+    public MemoryWorld() {
+        this("memory");
+    }
+
+    /**
+     * Construct an empty world.
+     *
+     * @param name the name of the world
+     */
+    public MemoryWorld(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Blocks, tile entities and biomes of a chunk.
+     */
+    private static class MemoryChunk {
+        private final char[][] sections = new char[SECTION_COUNT][];
+        private final int[] blockCounts = new int[SECTION_COUNT];
+        private boolean countsStale = false;
+        private Map<Integer, CompoundTag> tileEntities;
+        private BiomeType[] biomes;
+
+        private char get(int x, int y, int z) {
+            final char[] section = sections[y >> 4];
+            return section == null ? 0 : section[index(x, y, z)];
+        }
+
+        private boolean set(int x, int y, int z, char value, boolean fastMode) {
+            final int sectionY = y >> 4;
+            char[] section = sections[sectionY];
+            if (section == null) {
+                if (value == 0) {
+                    return false;
+                }
+                section = sections[sectionY] = new char[SECTION_SIZE];
+            }
+
+            final int index = index(x, y, z);
+            final char previous = section[index];
+            if (previous == value) {
+                return false;
+            }
+            section[index] = value;
+
+            if (previous >> 4 != value >> 4) {
+                if (tileEntities != null) {
+                    tileEntities.remove(blockIndex(x, y, z));
+                }
+
+                if (fastMode || countsStale) {
+                    countsStale = true;
+                } else if (previous >> 4 == 0) {
+                    ++blockCounts[sectionY];
+                } else if (value >> 4 == 0 && --blockCounts[sectionY] == 0) {
+                    sections[sectionY] = null;
+                }
+            }
+
+            return true;
+        }
+
+        private void setTileEntity(int x, int y, int z, CompoundTag tileEntity) {
+            if (tileEntity != null) {
+                if (tileEntities == null) {
+                    tileEntities = new HashMap<Integer, CompoundTag>();
+                }
+                tileEntities.put(blockIndex(x, y, z), tileEntity);
+            } else if (tileEntities != null) {
+                tileEntities.remove(blockIndex(x, y, z));
+            }
+        }
+
+        private CompoundTag getTileEntity(int x, int y, int z) {
+            return tileEntities == null ? null : tileEntities.get(blockIndex(x, y, z));
+        }
+
+        /**
+         * Count the blocks of every section again, freeing the sections
+         * that only hold air.
+         */
+        private void recount() {
+            for (int sectionY = 0; sectionY < SECTION_COUNT; ++sectionY) {
+                final char[] section = sections[sectionY];
+                int count = 0;
+                if (section != null) {
+                    for (int i = 0; i < SECTION_SIZE; ++i) {
+                        if (section[i] >> 4 != 0) {
+                            ++count;
+                        }
+                    }
+                    if (count == 0) {
+                        sections[sectionY] = null;
+                    }
+                }
+                blockCounts[sectionY] = count;
+            }
+            countsStale = false;
+        }
+
+        private static int index(int x, int y, int z) {
+            return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+        }
+
+        private static int blockIndex(int x, int y, int z) {
+            return (y << 8) | ((z & 15) << 4) | (x & 15);
+        }
+    }
+
+    private static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get a chunk.
+     *
+     * @param chunkX X of the chunk
+     * @param chunkZ Z of the chunk
+     * @param create whether to create the chunk if it does not exist yet
+     * @return the chunk, or null if it does not exist and create is false
+     */
+    private MemoryChunk getChunk(int chunkX, int chunkZ, boolean create) {
+        final long key = key(chunkX, chunkZ);
+
+        // Consecutive accesses are mostly in the same chunk
+        if (lastChunk != null && lastKey == key) {
+            return lastChunk;
+        }
+
+        MemoryChunk chunk = chunks.get(key);
+        if (chunk == null) {
+            if (!create) {
+                return null;
+            }
+            chunk = new MemoryChunk();
+            chunks.put(key, chunk);
+        }
+
+        lastKey = key;
+        lastChunk = chunk;
+        return chunk;
+    }
+
+    private MemoryChunk getChunk(Vector pt, boolean create) {
+        return getChunk(pt.getBlockX() >> 4, pt.getBlockZ() >> 4, create);
+    }
+
+    private static boolean isInWorld(int y) {
+        return y >= 0 && y < SECTION_COUNT * 16;
+    }
+
+    private char get(Vector pt) {
+        final int y = pt.getBlockY();
+        if (!isInWorld(y)) {
+            return 0;
+        }
+        final MemoryChunk chunk = getChunk(pt, false);
+        return chunk == null ? 0 : chunk.get(pt.getBlockX(), y, pt.getBlockZ());
+    }
+
+    private boolean set(Vector pt, int type, int data, boolean fastMode) {
+        final int y = pt.getBlockY();
+        if (!isInWorld(y) || type < 0 || type > BaseBlock.MAX_ID) {
+            return false;
+        }
+        final char value = (char) ((type << 4) | (data & 0xF));
+        final MemoryChunk chunk = getChunk(pt, value != 0);
+        return chunk != null && chunk.set(pt.getBlockX(), y, pt.getBlockZ(), value, fastMode);
+    }
+
+    /**
+     * Create the tile entity of a block, as it is stored in chunks.
+     *
+     * @param block the block
+     * @param x X of the block
+     * @param y Y of the block
+     * @param z Z of the block
+     * @return the tile entity, or null if the block has none
+     */
+    private static CompoundTag createTileEntity(BaseBlock block, int x, int y, int z) {
+        final CompoundTag nbtData = block.getNbtData();
+        if (nbtData == null) {
+            return null;
+        }
+
+        final Map<String, Tag> values = new HashMap<String, Tag>(nbtData.getValue());
+        values.put("id", new StringTag("id", block.getNbtId()));
+        values.put("x", new IntTag("x", x));
+        values.put("y", new IntTag("y", y));
+        values.put("z", new IntTag("z", z));
+        return new CompoundTag("", values);
+    }
+
+    /**
+     * Load a chunk from a chunk store, replacing the blocks and tile entities
+     * of the chunk in this world.
+     *
+     * @param store the store to read from
+     * @param position position of the chunk, in chunk coordinates
+     * @throws DataException if the chunk could not be read
+     * @throws IOException if the chunk could not be read
+     */
+    public void loadChunk(ChunkStore store, Vector2D position) throws DataException, IOException {
+        final Chunk source = store.getChunk(position, this);
+        final int chunkX = position.getBlockX();
+        final int chunkZ = position.getBlockZ();
+
+        // Chunks from before Anvil are only 128 blocks high
+        final int height = source instanceof AnvilChunk ? SECTION_COUNT * 16 : 128;
+
+        final MemoryChunk chunk = new MemoryChunk();
+        for (int x = chunkX << 4; x < (chunkX + 1) << 4; ++x) {
+            for (int z = chunkZ << 4; z < (chunkZ + 1) << 4; ++z) {
+                for (int y = 0; y < height; ++y) {
+                    final BaseBlock block = source.getBlock(new Vector(x, y, z));
+                    chunk.set(x, y, z, (char) ((block.getType() << 4) | block.getData()), true);
+                    if (block.hasNbtData()) {
+                        chunk.setTileEntity(x, y, z, block.getNbtData());
+                    }
+                }
+            }
+        }
+        chunk.recount();
+
+        chunks.put(key(chunkX, chunkZ), chunk);
+        lastChunk = null;
+    }
+
+    /**
+     * Load the chunks of a region from a chunk store. Chunks that are not in
+     * the store are left as they are.
+     *
+     * @param store the store to read from
+     * @param region the region
+     * @return number of chunks that were loaded
+     * @throws DataException if a chunk could not be read
+     * @throws IOException if a chunk could not be read
+     */
+    public int loadChunks(ChunkStore store, Region region) throws DataException, IOException {
+        int loaded = 0;
+        for (Vector2D position : region.getChunks()) {
+            try {
+                loadChunk(store, position);
+                ++loaded;
+            } catch (MissingChunkException e) {
+                // Not generated
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Get the number of chunks that have been created, by setting blocks or
+     * by loading them.
+     *
+     * @return number of chunks
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    @Override
+    public int setBlocks(ChunkBlockBuffer buffer, boolean fastMode) {
+        final MemoryChunk chunk = getChunk(buffer.getChunk().getBlockX(), buffer.getChunk().getBlockZ(), true);
+        int changed = 0;
+
+        for (int i = 0; i < buffer.size(); ++i) {
+            final Vector pt = buffer.getPosition(i);
+            final BaseBlock block = buffer.getBlock(i);
+            final int x = pt.getBlockX();
+            final int y = pt.getBlockY();
+            final int z = pt.getBlockZ();
+            if (!isInWorld(y)) {
+                continue;
+            }
+
+            if (chunk.set(x, y, z, (char) ((block.getType() << 4) | (block.getData() & 0xF)), fastMode)) {
+                ++changed;
+            }
+            chunk.setTileEntity(x, y, z, createTileEntity(block, x, y, z));
+        }
+
+        return changed;
+    }
+
+    @Override
+    public ChunkBlockSnapshot getChunkSnapshot(final BlockVector2D position) {
+        final MemoryChunk chunk = getChunk(position.getBlockX(), position.getBlockZ(), false);
+        final char[][] sections = new char[SECTION_COUNT][];
+        final boolean[] empty = new boolean[SECTION_COUNT];
+        final boolean[] tileEntities;
+
+        for (int sectionY = 0; sectionY < SECTION_COUNT; ++sectionY) {
+            final char[] section = chunk == null ? null : chunk.sections[sectionY];
+            if (section == null) {
+                empty[sectionY] = true;
+            } else {
+                sections[sectionY] = section.clone();
+                empty[sectionY] = !chunk.countsStale && chunk.blockCounts[sectionY] == 0;
+            }
+        }
+        if (chunk != null && chunk.tileEntities != null && !chunk.tileEntities.isEmpty()) {
+            tileEntities = new boolean[SECTION_COUNT * SECTION_SIZE];
+            for (Integer index : chunk.tileEntities.keySet()) {
+                tileEntities[index] = true;
+            }
+        } else {
+            tileEntities = null;
+        }
+
+        return new ChunkBlockSnapshot() {
+            @Override
+            public BlockVector2D getChunk() {
+                return position;
+            }
+
+            private char get(int x, int y, int z) {
+                if (!isInWorld(y)) {
+                    return 0;
+                }
+                final char[] section = sections[y >> 4];
+                return section == null ? 0 : section[MemoryChunk.index(x, y, z)];
+            }
+
+            @Override
+            public int getBlockType(int x, int y, int z) {
+                return get(x, y, z) >> 4;
+            }
+
+            @Override
+            public int getBlockData(int x, int y, int z) {
+                return get(x, y, z) & 0xF;
+            }
+
+            @Override
+            public boolean hasTileEntity(int x, int y, int z) {
+                return tileEntities != null && isInWorld(y) && tileEntities[MemoryChunk.blockIndex(x, y, z)];
+            }
+
+            @Override
+            public boolean isSectionEmpty(int sectionY) {
+                return sectionY < 0 || sectionY >= SECTION_COUNT || empty[sectionY];
+            }
+        };
+    }
+
+    @Override
+    public void fixAfterFastMode(Iterable<BlockVector2D> positions) {
+        for (BlockVector2D position : positions) {
+            final MemoryChunk chunk = getChunk(position.getBlockX(), position.getBlockZ(), false);
+            if (chunk != null && chunk.countsStale) {
+                chunk.recount();
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    @Deprecated
+    public boolean setBlockType(Vector pt, int type) {
+        return set(pt, type, 0, false);
+    }
+
+    @Override
+    @Deprecated
+    public boolean setBlockTypeFast(Vector pt, int type) {
+        return set(pt, type, 0, true);
+    }
+
+    @Override
+    @Deprecated
+    public boolean setTypeIdAndData(Vector pt, int type, int data) {
+        return set(pt, type, data, false);
+    }
+
+    @Override
+    @Deprecated
+    public boolean setTypeIdAndDataFast(Vector pt, int type, int data) {
+        return set(pt, type, data, true);
+    }
+
+    @Override
+    public int getBlockType(Vector pt) {
+        return get(pt) >> 4;
+    }
+
+    @Override
+    @Deprecated
+    public void setBlockData(Vector pt, int data) {
+        set(pt, getBlockType(pt), data, false);
+    }
+
+    @Override
+    @Deprecated
+    public void setBlockDataFast(Vector pt, int data) {
+        set(pt, getBlockType(pt), data, true);
+    }
+
+    @Override
+    public int getBlockData(Vector pt) {
+        return get(pt) & 0xF;
+    }
+
+    @Override
+    public BiomeType getBiome(Vector2D pt) {
+        final MemoryChunk chunk = getChunk(pt.getBlockX() >> 4, pt.getBlockZ() >> 4, false);
+        if (chunk == null || chunk.biomes == null) {
+            return BiomeType.UNKNOWN;
+        }
+        final BiomeType biome = chunk.biomes[((pt.getBlockZ() & 15) << 4) | (pt.getBlockX() & 15)];
+        return biome == null ? BiomeType.UNKNOWN : biome;
+    }
+
+    @Override
+    public void setBiome(Vector2D pt, BiomeType biome) {
+        final MemoryChunk chunk = getChunk(pt.getBlockX() >> 4, pt.getBlockZ() >> 4, true);
+        if (chunk.biomes == null) {
+            chunk.biomes = new BiomeType[16 * 16];
+        }
+        chunk.biomes[((pt.getBlockZ() & 15) << 4) | (pt.getBlockX() & 15)] = biome;
+    }
+
+    @Override
+    public int getBlockLightLevel(Vector pt) {
+        return 15;
+    }
+
+    @Override
+    public boolean regenerate(Region region, EditSession editSession) {
+        return false;
+    }
+
+    @Override
+    public boolean copyToWorld(Vector pt, BaseBlock block) {
+        final int y = pt.getBlockY();
+        if (!isInWorld(y)) {
+            return false;
+        }
+        final CompoundTag tileEntity = createTileEntity(block, pt.getBlockX(), y, pt.getBlockZ());
+        final MemoryChunk chunk = getChunk(pt, tileEntity != null);
+        if (chunk == null) {
+            return false;
+        }
+        chunk.setTileEntity(pt.getBlockX(), y, pt.getBlockZ(), tileEntity);
+        return tileEntity != null;
+    }
+
+    @Override
+    public boolean copyFromWorld(Vector pt, BaseBlock block) {
+        final int y = pt.getBlockY();
+        if (!isInWorld(y)) {
+            return false;
+        }
+        final MemoryChunk chunk = getChunk(pt, false);
+        final CompoundTag tileEntity = chunk == null ? null : chunk.getTileEntity(pt.getBlockX(), y, pt.getBlockZ());
+        if (tileEntity == null) {
+            return false;
+        }
+        try {
+            block.setNbtData(tileEntity);
+            return true;
+        } catch (DataException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean clearContainerBlockContents(Vector pt) {
+        final int y = pt.getBlockY();
+        final MemoryChunk chunk = isInWorld(y) ? getChunk(pt, false) : null;
+        if (chunk == null || chunk.getTileEntity(pt.getBlockX(), y, pt.getBlockZ()) == null) {
+            return false;
+        }
+        chunk.setTileEntity(pt.getBlockX(), y, pt.getBlockZ(), null);
+        return true;
+    }
+
+    @Override
+    public void dropItem(Vector pt, BaseItemStack item) {
+    }
+
+    @Override
+    public int removeEntities(EntityType type, Vector origin, int radius) {
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other == this;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+}
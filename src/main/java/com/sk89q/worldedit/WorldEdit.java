@@ -29,6 +29,7 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,6 +40,7 @@
 
 import javax.script.ScriptException;
 
+import com.sk89q.minecraft.util.commands.Command;
 import com.sk89q.minecraft.util.commands.CommandException;
 import com.sk89q.minecraft.util.commands.CommandPermissionsException;
 import com.sk89q.minecraft.util.commands.CommandUsageException;
@@ -85,6 +87,8 @@
 import com.sk89q.worldedit.masks.RandomMask;
 import com.sk89q.worldedit.masks.RegionMask;
 import com.sk89q.worldedit.masks.UnderOverlayMask;
+import com.sk89q.worldedit.metrics.Metrics;
+import com.sk89q.worldedit.metrics.MetricsExporter;
 import com.sk89q.worldedit.patterns.BlockChance;
 import com.sk89q.worldedit.patterns.ClipboardPattern;
 import com.sk89q.worldedit.patterns.Pattern;
@@ -115,6 +119,16 @@ public class WorldEdit {
     public static final Logger logger = Logger.getLogger("Minecraft.WorldEdit");
     public final Logger commandLogger = Logger.getLogger("Minecraft.WorldEdit.CommandLogger");
 
+    /**
+     * Size at which the metrics log is rolled over, in bytes.
+     */
+    private static final long METRICS_LOG_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * Number of parsed block strings to remember.
+     */
+    private static final int PARSED_BLOCKS_SIZE = 1024;
+
     /**
      * Holds the current instance of this class, for static access
      */
@@ -145,6 +159,11 @@ public class WorldEdit {
      */
     private EditSessionFactory editSessionFactory = new EditSessionFactory();
 
+    /**
+     * Spreads large edits over several server ticks.
+     */
+    private final EditScheduler editScheduler;
+
     /**
      * Stores a list of WorldEdit sessions, keyed by players' names. Sessions
      * persist only for the user's session. On disconnect, the session will be
@@ -154,6 +173,22 @@ public class WorldEdit {
      */
     private final HashMap<String, LocalSession> sessions = new HashMap<String, LocalSession>();
 
+    /**
+     * Recently parsed block strings, keyed by the parse options and the
+     * string, least recently used first. Only plain blocks are kept. They are
+     * copied before they are handed out and the world and permission checks
+     * are repeated on every use, so the entries are shared by all players.
+     */
+    private final Map<String, BaseBlock> parsedBlocks =
+            new LinkedHashMap<String, BaseBlock>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BaseBlock> eldest) {
+            return size() > PARSED_BLOCKS_SIZE;
+        }
+    };
+
     /**
      * Initialize statically.
      */
@@ -171,6 +206,7 @@ public WorldEdit(ServerInterface server, final LocalConfiguration config) {
         instance = this;
         this.server = server;
         this.config = config;
+        this.editScheduler = new EditScheduler(this, server, config);
 
         if (!config.logFile.equals("")) {
             try {
@@ -185,6 +221,20 @@ public WorldEdit(ServerInterface server, final LocalConfiguration config) {
             }
         }
 
+        final int staleHistoryFiles = LocalSession.deleteHistoryFiles(getWorkingDirectoryFile("history"));
+        if (staleHistoryFiles > 0) {
+            logger.info("Deleted " + staleHistoryFiles + " history file(s) left from the last run");
+        }
+
+        if (config.metricsJmx) {
+            Metrics.enableJmx();
+        }
+
+        if (config.metricsLogInterval > 0 && !config.metricsLogFile.equals("")) {
+            Metrics.startExport(new MetricsExporter(new File(config.getWorkingDirectory(),
+                    config.metricsLogFile), METRICS_LOG_SIZE), config.metricsLogInterval);
+        }
+
         commands = new CommandsManager<LocalPlayer>() {
             @Override
             protected void checkPermission(LocalPlayer player, Method method) throws CommandException {
@@ -314,6 +364,7 @@ public LocalSession getSession(LocalPlayer player) {
             } else {
                 session = new LocalSession(config);
                 session.setBlockChangeLimit(config.defaultChangeLimit);
+                session.setHistoryDirectory(new File(getWorkingDirectoryFile("history"), player.getName()));
                 // Remember the session
                 sessions.put(player.getName(), session);
             }
@@ -385,6 +436,55 @@ public BaseBlock getBlock(LocalPlayer player, String arg, boolean allAllowed)
     public BaseBlock getBlock(LocalPlayer player, String arg,
                               boolean allAllowed, boolean allowNoData)
             throws UnknownItemException, DisallowedItemException {
+        final char options = (char) ('0' + (allAllowed ? 1 : 0) + (allowNoData ? 2 : 0)
+                + (config.allowExtraDataValues ? 4 : 0));
+        final String key = options + arg;
+
+        final BaseBlock cached;
+        synchronized (parsedBlocks) {
+            cached = parsedBlocks.get(key);
+        }
+
+        if (cached == null) {
+            final BaseBlock block = parseBlock(player, arg, allAllowed, allowNoData);
+
+            // Signs, mob spawners and the like hold more than a type and data
+            if (block.getClass() == BaseBlock.class) {
+                synchronized (parsedBlocks) {
+                    parsedBlocks.put(key, new BaseBlock(block.getType(), block.getData()));
+                }
+            }
+            return block;
+        }
+
+        // The block may have been parsed for another player or world
+        final int blockId = cached.getType();
+        if (!player.getWorld().isValidBlockType(blockId)) {
+            throw new UnknownItemException(arg.replace("_", " ").replace(";", "|"));
+        }
+
+        if (!allAllowed && !player.hasPermission("worldedit.anyblock")
+                && config.disallowedBlocks.contains(blockId)) {
+            throw new DisallowedItemException(arg.replace("_", " ").replace(";", "|"));
+        }
+
+        return new BaseBlock(blockId, cached.getData());
+    }
+
+    /**
+     * Parse a block, without using the cache of {@link #getBlock(LocalPlayer, String, boolean, boolean)}.
+     *
+     * @param player
+     * @param arg
+     * @param allAllowed true to ignore blacklists
+     * @param allowNoData true to leave the data at -1 if none is given
+     * @return
+     * @throws UnknownItemException
+     * @throws DisallowedItemException
+     */
+    private BaseBlock parseBlock(LocalPlayer player, String arg,
+                                 boolean allAllowed, boolean allowNoData)
+            throws UnknownItemException, DisallowedItemException {
         BlockType blockType;
         arg = arg.replace("_", " ");
         arg = arg.replace(";", "|");
@@ -401,7 +501,7 @@ public BaseBlock getBlock(LocalPlayer player, String arg,
             blockId = Integer.parseInt(testID);
             blockType = BlockType.fromID(blockId);
         } catch (NumberFormatException e) {
-            blockType = BlockType.lookup(testID);
+            blockType = BlockType.lookup(testID, false);
             if (blockType == null) {
                 int t = server.resolveItem(testID);
                 if (t > 0) {
@@ -419,7 +519,11 @@ public BaseBlock getBlock(LocalPlayer player, String arg,
                 blockType = BlockType.CLOTH;
                 data = col.getID();
             } else {
-                throw new UnknownItemException(arg);
+                // Only now, so that exact names win over similar block names
+                blockType = BlockType.lookup(testID, true);
+                if (blockType == null) {
+                    throw new UnknownItemException(arg);
+                }
             }
         }
 
@@ -624,6 +728,8 @@ public Set<BaseBlock> getBlocks(LocalPlayer player, String list)
         return getBlocks(player, list, false);
     }
 
+    private static final java.util.regex.Pattern chancePattern = java.util.regex.Pattern.compile("[0-9]+(?:\\.(?:[0-9]+)?)?%.*");
+
     /**
      * Returns a Pattern corresponding to the specified pattern string,
      * as given by the player on the command line.
@@ -671,7 +777,7 @@ public Pattern getBlockPattern(LocalPlayer player, String patternString)
             double chance;
 
             // Parse special percentage syntax
-            if (s.matches("[0-9]+(?:\\.(?:[0-9]+)?)?%.*")) {
+            if (chancePattern.matcher(s).matches()) {
                 String[] p = s.split("%");
                 chance = Double.parseDouble(p[0]);
                 block = getBlock(player, p[1]);
@@ -1090,7 +1196,11 @@ public FlipDirection getFlipDirection(LocalPlayer player, String dirStr)
      */
     public void removeSession(LocalPlayer player) {
         synchronized (sessions) {
-            sessions.remove(player.getName());
+            LocalSession session = sessions.remove(player.getName());
+            if (session != null) {
+                session.clearHistory();
+            }
+            Metrics.removePlayer(player.getName());
         }
     }
 
@@ -1098,8 +1208,14 @@ public void removeSession(LocalPlayer player) {
      * Remove all sessions.
      */
     public void clearSessions() {
+        editScheduler.finishAll();
+
         synchronized (sessions) {
+            for (LocalSession session : sessions.values()) {
+                session.clearHistory();
+            }
             sessions.clear();
+            Metrics.clearPlayers();
         }
     }
 
@@ -1200,7 +1316,9 @@ public void flushExpiredSessions(SessionCheck checker) {
                 Map.Entry<String, LocalSession> entry = it.next();
                 if (entry.getValue().hasExpired()
                         && !checker.isOnlinePlayer(entry.getKey())) {
+                    entry.getValue().clearHistory();
                     it.remove();
+                    Metrics.removePlayer(entry.getKey());
                 }
             }
         }
@@ -1236,7 +1354,11 @@ public boolean handleArmSwing(LocalPlayer player) {
         Tool tool = session.getTool(player.getItemInHand());
         if (tool != null && tool instanceof DoubleActionTraceTool) {
             if (tool.canUse(player)) {
-                ((DoubleActionTraceTool) tool).actSecondary(server, config, player, session);
+                try {
+                    ((DoubleActionTraceTool) tool).actSecondary(server, config, player, session);
+                } catch (EditPendingException e) {
+                    editScheduler.checkPending(player, session);
+                }
                 return true;
             }
         }
@@ -1272,7 +1394,11 @@ public boolean handleRightClick(LocalPlayer player) {
         Tool tool = session.getTool(player.getItemInHand());
         if (tool != null && tool instanceof TraceTool) {
             if (tool.canUse(player)) {
-                ((TraceTool) tool).actPrimary(server, config, player, session);
+                try {
+                    ((TraceTool) tool).actPrimary(server, config, player, session);
+                } catch (EditPendingException e) {
+                    editScheduler.checkPending(player, session);
+                }
                 return true;
             }
         }
@@ -1310,7 +1436,11 @@ public boolean handleBlockRightClick(LocalPlayer player, WorldVector clicked) {
         Tool tool = session.getTool(player.getItemInHand());
         if (tool != null && tool instanceof BlockTool) {
             if (tool.canUse(player)) {
-                ((BlockTool) tool).actPrimary(server, config, player, session, clicked);
+                try {
+                    ((BlockTool) tool).actPrimary(server, config, player, session, clicked);
+                } catch (EditPendingException e) {
+                    editScheduler.checkPending(player, session);
+                }
                 return true;
             }
         }
@@ -1348,14 +1478,23 @@ public boolean handleBlockLeftClick(LocalPlayer player, WorldVector clicked) {
         if (player.isHoldingPickAxe() && session.hasSuperPickAxe()) {
             final BlockTool superPickaxe = session.getSuperPickaxe();
             if (superPickaxe != null && superPickaxe.canUse(player)) {
-                return superPickaxe.actPrimary(server, config, player, session, clicked);
+                try {
+                    return superPickaxe.actPrimary(server, config, player, session, clicked);
+                } catch (EditPendingException e) {
+                    editScheduler.checkPending(player, session);
+                    return true;
+                }
             }
         }
 
         Tool tool = session.getTool(player.getItemInHand());
         if (tool != null && tool instanceof DoubleActionBlockTool) {
             if (tool.canUse(player)) {
-                ((DoubleActionBlockTool) tool).actSecondary(server, config, player, session, clicked);
+                try {
+                    ((DoubleActionBlockTool) tool).actSecondary(server, config, player, session, clicked);
+                } catch (EditPendingException e) {
+                    editScheduler.checkPending(player, session);
+                }
                 return true;
             }
         }
@@ -1363,6 +1502,20 @@ public boolean handleBlockLeftClick(LocalPlayer player, WorldVector clicked) {
         return false;
     }
 
+    /**
+     * Get the first alias of a root command, so that all aliases of a
+     * command share its metrics.
+     *
+     * @param name a name of the command
+     * @return the primary alias
+     */
+    private String getPrimaryAlias(String name) {
+        name = name.toLowerCase();
+        final Method method = commands.getMethods().get(null).get(name);
+        final Command command = method == null ? null : method.getAnnotation(Command.class);
+        return command == null ? name : command.aliases()[0];
+    }
+
     private static final java.util.regex.Pattern numberFormatExceptionPattern = java.util.regex.Pattern.compile("^For input string: \"(.*)\"$");
 
     /**
@@ -1379,13 +1532,14 @@ public boolean handleCommand(LocalPlayer player, String[] split) {
                 return false;
             }
 
+            // While an edit is being placed, the edit session refuses changes
             LocalSession session = getSession(player);
             EditSession editSession = session.createEditSession(player);
             editSession.enableQueue();
 
             session.tellVersion(player);
 
-            long start = System.currentTimeMillis();
+            final long start = System.nanoTime();
 
             try {
                 commands.execute(split, player, session, player, editSession);
@@ -1403,22 +1557,25 @@ public boolean handleCommand(LocalPlayer player, String[] split) {
                 return false;
             } finally {
                 session.remember(editSession);
-                editSession.flushQueue();
+                final boolean flushed = editScheduler.flush(player, session, editSession);
+
+                final long nanos = System.nanoTime() - start;
+                Metrics.recordCommand(player.getName(), getPrimaryAlias(split[0]), nanos);
 
                 if (config.profile) {
-                    long time = System.currentTimeMillis() - start;
-                    int changed = editSession.getBlockChangeCount();
-                    if (time > 0) {
-                        double throughput = changed / (time / 1000.0);
-                        player.printDebug("Выполнено за " + (time / 1000.0) + " " + com.sk89q.worldedit.util.StringUtil.plural(Integer.parseInt((time / 1000.0) + ""), "секунду", "секунды", "секунд") + " (история: "
-                                + changed + " изменен; "
-                                + Math.round(throughput) + " " + com.sk89q.worldedit.util.StringUtil.plural(Integer.parseInt(Math.round(throughput) + ""), "блок", "блока", "блоков") + "/сек).");
-                    } else {
-                        player.printDebug("Выполнено за " + com.sk89q.worldedit.util.StringUtil.plural(Integer.parseInt((time / 1000.0) + ""), "секунду", "секунды", "секунд") + "s elapsed.");
-                    }
+                    final double time = nanos / 1000000000.0;
+                    final int changed = editSession.getBlockChangeCount();
+                    final long throughput = time > 0 ? Math.round(changed / time) : 0;
+                    player.printDebug(String.format("Выполнено за %.3f сек. (история: %d изменено; "
+                            + "прочитано %d, записано %d; %d %s/сек).",
+                            time, changed, editSession.getBlocksRead(), editSession.getBlocksWritten(),
+                            throughput, com.sk89q.worldedit.util.StringUtil.plural((int) Math.min(throughput, Integer.MAX_VALUE),
+                                    "блок", "блока", "блоков")));
                 }
 
-                flushBlockBag(player, editSession);
+                if (flushed) {
+                    flushBlockBag(player, editSession);
+                }
             }
         } catch (NumberFormatException e) {
             final Matcher matcher = numberFormatExceptionPattern.matcher(e.getMessage());
@@ -1458,6 +1615,8 @@ public boolean handleCommand(LocalPlayer player, String[] split) {
                     + ItemType.toHeldName(e.getItemId()) + ": " + e.getMessage());
         } catch (FileSelectionAbortedException e) {
             player.printError("Выделение отменено.");
+        } catch (EditPendingException e) {
+            editScheduler.checkPending(player, getSession(player));
         } catch (WorldEditException e) {
             player.printError(e.getMessage());
         } catch (Throwable excp) {
@@ -1610,6 +1769,15 @@ public EditSessionFactory getEditSessionFactory() {
         return this.editSessionFactory;
     }
 
+    /**
+     * Get the scheduler that spreads large edits over several ticks.
+     *
+     * @return
+     */
+    public EditScheduler getEditScheduler() {
+        return editScheduler;
+    }
+
     /**
      * Set the edit session factory
      *
@@ -26,7 +26,7 @@
 import java.util.Random;
 import java.util.Set;
 
-import com.sk89q.util.StringUtil;
+import com.sk89q.util.NameIndex;
 import com.sk89q.worldedit.PlayerDirection;
 
 /**
@@ -182,6 +182,11 @@ public enum BlockType {
     HEAD(BlockID.HEAD, "Голова", "head", "headmount", "mount"),
     ANVIL(BlockID.ANVIL, "Наковальня", "anvil", "blacksmith");
 
+    /**
+     * Number of block IDs covered by the lookup tables.
+     */
+    private static final int PROPERTY_TABLE_SIZE = 4096;
+
     /**
      * Stores a map of the IDs for fast access.
      */
@@ -189,7 +194,11 @@ public enum BlockType {
     /**
      * Stores a map of the names for fast access.
      */
-    private static final Map<String, BlockType> lookup = new HashMap<String, BlockType>();
+    private static final NameIndex<BlockType> lookup = new NameIndex<BlockType>();
+    /**
+     * The types by ID, for lookups without boxing.
+     */
+    private static final BlockType[] byId = new BlockType[PROPERTY_TABLE_SIZE];
 
     private final int id;
     private final String name;
@@ -198,6 +207,7 @@ public enum BlockType {
     static {
         for (BlockType type : EnumSet.allOf(BlockType.class)) {
             ids.put(type.id, type);
+            byId[type.id] = type;
             for (String key : type.lookupKeys) {
                 lookup.put(key, type);
             }
@@ -236,7 +246,10 @@ public enum BlockType {
      * @return
      */
     public static BlockType fromID(int id) {
-        return ids.get(id);
+        if (id < 0 || id >= byId.length) {
+            return null;
+        }
+        return byId[id];
     }
 
     /**
@@ -260,7 +273,7 @@ public static BlockType lookup(String name, boolean fuzzy) {
         try {
             return fromID(Integer.parseInt(name));
         } catch (NumberFormatException e) {
-            return StringUtil.lookup(lookup, name, fuzzy);
+            return lookup.get(name, fuzzy);
         }
     }
 
@@ -340,7 +353,7 @@ public String getName() {
      * @return
      */
     public static boolean shouldPlaceLast(int id) {
-        return shouldPlaceLast.contains(id);
+        return hasProperty(id, PLACE_LAST);
     }
 
     /**
@@ -349,7 +362,7 @@ public static boolean shouldPlaceLast(int id) {
      * @return
      */
     public boolean shouldPlaceLast() {
-        return shouldPlaceLast.contains(id);
+        return hasProperty(id, PLACE_LAST);
     }
 
     /**
@@ -377,7 +390,7 @@ public boolean shouldPlaceLast() {
      * @return
      */
     public static boolean shouldPlaceFinal(int id) {
-        return shouldPlaceFinal.contains(id);
+        return hasProperty(id, PLACE_FINAL);
     }
 
     /**
@@ -438,7 +451,7 @@ public static boolean shouldPlaceFinal(int id) {
      * @return
      */
     public static boolean canPassThrough(int id) {
-        return canPassThrough.contains(id);
+        return hasProperty(id, PASS_THROUGH);
     }
 
     /**
@@ -447,7 +460,7 @@ public static boolean canPassThrough(int id) {
      * @return
      */
     public boolean canPassThrough() {
-        return canPassThrough.contains(id);
+        return hasProperty(id, PASS_THROUGH);
     }
 
     /**
@@ -487,6 +500,20 @@ public boolean canPassThrough() {
      * @return
      */
     public static double centralTopLimit(int id, int data) {
+        if (id >= 0 && id < PROPERTY_TABLE_SIZE) {
+            final double[] byData = topLimitsByData[id];
+            if (byData == null) {
+                return topLimits[id];
+            }
+            if (data >= 0 && data < 16) {
+                return byData[data];
+            }
+        }
+
+        return computeCentralTopLimit(id, data);
+    }
+
+    private static double computeCentralTopLimit(int id, int data) {
         if (centralTopLimit.containsKey(id))
             return centralTopLimit.get(id);
 
@@ -502,10 +529,7 @@ public static double centralTopLimit(int id, int data) {
      * @return
      */
     public double centralTopLimit() {
-        if (centralTopLimit.containsKey(id))
-            return centralTopLimit.get(id);
-
-        return canPassThrough(id) ? 0 : 1;
+        return topLimits[id];
     }
 
     /**
@@ -607,7 +631,7 @@ public double centralTopLimit() {
      * @return
      */
     public static boolean usesData(int id) {
-        return usesData.contains(id);
+        return hasProperty(id, USES_DATA);
     }
 
     /**
@@ -616,7 +640,7 @@ public static boolean usesData(int id) {
      * @return
      */
     public boolean usesData() {
-        return usesData.contains(id);
+        return hasProperty(id, USES_DATA);
     }
 
     /**
@@ -639,7 +663,7 @@ public boolean usesData() {
      * @return
      */
     public static boolean isContainerBlock(int id) {
-        return isContainerBlock.contains(id);
+        return hasProperty(id, CONTAINER);
     }
 
     /**
@@ -648,7 +672,7 @@ public static boolean isContainerBlock(int id) {
      * @return
      */
     public boolean isContainerBlock() {
-        return isContainerBlock.contains(id);
+        return hasProperty(id, CONTAINER);
     }
 
     /**
@@ -686,7 +710,7 @@ public boolean isContainerBlock() {
      * @return
      */
     public static boolean isRedstoneBlock(int id) {
-        return isRedstoneBlock.contains(id);
+        return hasProperty(id, REDSTONE);
     }
 
     /**
@@ -695,7 +719,7 @@ public static boolean isRedstoneBlock(int id) {
      * @return
      */
     public boolean isRedstoneBlock() {
-        return isRedstoneBlock.contains(id);
+        return hasProperty(id, REDSTONE);
     }
 
     /**
@@ -718,7 +742,7 @@ public boolean isRedstoneBlock() {
      * @return
      */
     public static boolean canTransferRedstone(int id) {
-        return canTransferRedstone.contains(id);
+        return hasProperty(id, TRANSFERS_REDSTONE);
     }
 
     /**
@@ -728,7 +752,7 @@ public static boolean canTransferRedstone(int id) {
      * @return
      */
     public boolean canTransferRedstone() {
-        return canTransferRedstone.contains(id);
+        return hasProperty(id, TRANSFERS_REDSTONE);
     }
 
     /**
@@ -754,7 +778,7 @@ public boolean canTransferRedstone() {
      * @return
      */
     public static boolean isRedstoneSource(int id) {
-        return isRedstoneSource.contains(id);
+        return hasProperty(id, REDSTONE_SOURCE);
     }
 
     /**
@@ -763,7 +787,7 @@ public static boolean isRedstoneSource(int id) {
      * @return
      */
     public boolean isRedstoneSource() {
-        return isRedstoneSource.contains(id);
+        return hasProperty(id, REDSTONE_SOURCE);
     }
 
     /**
@@ -783,7 +807,7 @@ public boolean isRedstoneSource() {
      * @return
      */
     public static boolean isRailBlock(int id) {
-        return isRailBlock.contains(id);
+        return hasProperty(id, RAIL);
     }
 
     /**
@@ -792,7 +816,7 @@ public static boolean isRailBlock(int id) {
      * @return
      */
     public boolean isRailBlock() {
-        return isRailBlock.contains(id);
+        return hasProperty(id, RAIL);
     }
 
     /**
@@ -833,7 +857,7 @@ public boolean isRailBlock() {
      * @return
      */
     public static boolean isNaturalTerrainBlock(int id) {
-        return isNaturalTerrainBlock.contains(id);
+        return hasProperty(id, NATURAL_TERRAIN);
     }
 
     /**
@@ -842,7 +866,7 @@ public static boolean isNaturalTerrainBlock(int id) {
      * @return
      */
     public boolean isNaturalTerrainBlock() {
-        return isNaturalTerrainBlock.contains(id);
+        return hasProperty(id, NATURAL_TERRAIN);
     }
 
     /**
@@ -878,7 +902,7 @@ public boolean isNaturalTerrainBlock() {
      * @return
      */
     public static boolean emitsLight(int id) {
-        return emitsLight.contains(id);
+        return hasProperty(id, EMITS_LIGHT);
     }
 
     /**
@@ -976,7 +1000,97 @@ public static boolean emitsLight(int id) {
      * @return
      */
     public static boolean isTranslucent(int id) {
-        return isTranslucent.contains(id);
+        return hasProperty(id, TRANSLUCENT);
+    }
+
+    private static final int PLACE_LAST = 1;
+    private static final int PLACE_FINAL = 1 << 1;
+    private static final int PASS_THROUGH = 1 << 2;
+    private static final int USES_DATA = 1 << 3;
+    private static final int CONTAINER = 1 << 4;
+    private static final int REDSTONE = 1 << 5;
+    private static final int TRANSFERS_REDSTONE = 1 << 6;
+    private static final int REDSTONE_SOURCE = 1 << 7;
+    private static final int RAIL = 1 << 8;
+    private static final int NATURAL_TERRAIN = 1 << 9;
+    private static final int EMITS_LIGHT = 1 << 10;
+    private static final int TRANSLUCENT = 1 << 11;
+
+    /**
+     * The properties above by block ID, built from the sets so that queries
+     * on hot paths don't box the ID.
+     */
+    private static final int[] properties = new int[PROPERTY_TABLE_SIZE];
+
+    /**
+     * {@link #centralTopLimit(int, int)} by block ID, for blocks where it
+     * doesn't depend on the data value.
+     */
+    private static final double[] topLimits = new double[PROPERTY_TABLE_SIZE];
+
+    /**
+     * {@link #centralTopLimit(int, int)} by block ID and data value, null for
+     * blocks where it doesn't depend on the data value.
+     */
+    private static final double[][] topLimitsByData = new double[PROPERTY_TABLE_SIZE][];
+
+    static {
+        for (int id : shouldPlaceLast) {
+            properties[id] |= PLACE_LAST;
+        }
+        for (int id : shouldPlaceFinal) {
+            properties[id] |= PLACE_FINAL;
+        }
+        for (int id : canPassThrough) {
+            properties[id] |= PASS_THROUGH;
+        }
+        for (int id : usesData) {
+            properties[id] |= USES_DATA;
+        }
+        for (int id : isContainerBlock) {
+            properties[id] |= CONTAINER;
+        }
+        for (int id : isRedstoneBlock) {
+            properties[id] |= REDSTONE;
+        }
+        for (int id : canTransferRedstone) {
+            properties[id] |= TRANSFERS_REDSTONE;
+        }
+        for (int id : isRedstoneSource) {
+            properties[id] |= REDSTONE_SOURCE;
+        }
+        for (int id : isRailBlock) {
+            properties[id] |= RAIL;
+        }
+        for (int id : isNaturalTerrainBlock) {
+            properties[id] |= NATURAL_TERRAIN;
+        }
+        for (int id : emitsLight) {
+            properties[id] |= EMITS_LIGHT;
+        }
+        for (int id : isTranslucent) {
+            properties[id] |= TRANSLUCENT;
+        }
+
+        for (int key : centralTopLimit.keySet()) {
+            if (key < 0) {
+                topLimitsByData[-key >> 4] = new double[16];
+            }
+        }
+        for (int id = 0; id < PROPERTY_TABLE_SIZE; ++id) {
+            topLimits[id] = computeCentralTopLimit(id, 0);
+            if (topLimitsByData[id] != null) {
+                // Same as without a data value when called on a type
+                topLimits[id] = centralTopLimit.containsKey(id) ? centralTopLimit.get(id) : canPassThrough(id) ? 0 : 1;
+                for (int data = 0; data < 16; ++data) {
+                    topLimitsByData[id][data] = computeCentralTopLimit(id, data);
+                }
+            }
+        }
+    }
+
+    private static boolean hasProperty(int id, int property) {
+        return id >= 0 && id < PROPERTY_TABLE_SIZE && (properties[id] & property) != 0;
     }
 
     /**
@@ -22,11 +22,10 @@
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
-import com.sk89q.util.StringUtil;
+import com.sk89q.util.NameIndex;
 
 /**
  * ItemType types.
@@ -355,7 +354,7 @@ public enum ItemType {
     /**
      * Stores a map of the names for fast access.
      */
-    private static final Map<String, ItemType> lookup = new LinkedHashMap<String, ItemType>();
+    private static final NameIndex<ItemType> lookup = new NameIndex<ItemType>();
 
     private final int id;
     private final String name;
@@ -459,7 +458,7 @@ public static ItemType lookup(String name, boolean fuzzy) {
         try {
             return fromID(Integer.parseInt(name));
         } catch (NumberFormatException e) {
-            return StringUtil.lookup(lookup, name, fuzzy);
+            return lookup.get(name, fuzzy);
         }
     }
 
@@ -0,0 +1,343 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.blocks;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fixed-size array of blocks that stores every distinct block only once.
+ * </p>
+ * The distinct blocks are kept in a palette, and every element of the array
+ * is an index into the palette. The indices are packed into a
+ * <code>long[]</code> and are only as wide as the palette requires: an array
+ * holding only a single block type takes one bit per element, while an
+ * array with up to 16 distinct blocks takes four. The width grows (and the
+ * indices are repacked) as blocks are added to the palette.
+ * </p>
+ * Blocks without extra data share a palette entry by type and data value.
+ * Blocks with extra data (such as tile entities) get an entry of their own.
+ * The blocks returned from the array are the palette entries themselves and
+ * must not be modified; use {@link #setPaletteBlock(int, BaseBlock)} to
+ * change all elements that refer to an entry.
+ * </p>
+ * Every element of a new array is air.
+ *
+ * @author sk89q
+ */
+public class PalettedBlockArray {
+
+    /**
+     * Number of plain blocks, that is, all type and data value combinations.
+     */
+    private static final int PLAIN_BLOCKS = 1 << 16;
+
+    private final int size;
+    private long[] words;
+    private int bits;
+    private int shift;
+    private long mask;
+
+    private final List<BaseBlock> palette = new ArrayList<BaseBlock>();
+    /**
+     * Palette index + 1 of every plain block, or 0 if it is not in the palette.
+     */
+    private final int[] plainIndex = new int[PLAIN_BLOCKS];
+    private final Map<BaseBlock, Integer> unpackedIndex = new IdentityHashMap<BaseBlock, Integer>();
+
+    /**
+     * Construct an array of air.
+     *
+     * @param size number of elements
+     */
+    public PalettedBlockArray(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size: " + size);
+        }
+
+        this.size = size;
+        setBits(1);
+        words = new long[wordCount(size, 1)];
+        addToPalette(new BaseBlock(BlockID.AIR));
+    }
+
+    /**
+     * Construct an array with a copy of the palette of another array, which
+     * can then be filled with {@link #setPaletteIndex(int, int)}. Every
+     * element initially refers to the first palette entry.
+     *
+     * @param size number of elements
+     * @param other array to copy the palette from
+     */
+    public PalettedBlockArray(int size, PalettedBlockArray other) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size: " + size);
+        }
+
+        this.size = size;
+        setBits(other.bits);
+        words = new long[wordCount(size, bits)];
+        palette.addAll(other.palette);
+        System.arraycopy(other.plainIndex, 0, plainIndex, 0, PLAIN_BLOCKS);
+        unpackedIndex.putAll(other.unpackedIndex);
+    }
+
+    /**
+     * Get the number of elements.
+     *
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a block.
+     *
+     * @param index element index
+     * @return the block, which must not be modified
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public BaseBlock get(int index) throws ArrayIndexOutOfBoundsException {
+        return palette.get(getPaletteIndex(index));
+    }
+
+    /**
+     * Set a block. Plain blocks are copied into the palette, while blocks
+     * with extra data are stored as they are.
+     *
+     * @param index element index
+     * @param block the block
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public void set(int index, BaseBlock block) throws ArrayIndexOutOfBoundsException {
+        checkIndex(index);
+        setIndexUnchecked(index, paletteIndexOf(block));
+    }
+
+    /**
+     * Set a plain block by its type and data value.
+     *
+     * @param index element index
+     * @param type type ID
+     * @param data data value
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public void set(int index, int type, int data) throws ArrayIndexOutOfBoundsException {
+        if (type < 0 || type > 4095 || data < 0 || data > 15) {
+            set(index, new BaseBlock(type, data));
+            return;
+        }
+
+        checkIndex(index);
+        final int key = (type << 4) | data;
+        int paletteIndex = plainIndex[key] - 1;
+        if (paletteIndex < 0) {
+            paletteIndex = addToPalette(new BaseBlock(type, data));
+        }
+        setIndexUnchecked(index, paletteIndex);
+    }
+
+    /**
+     * Get the palette index of an element.
+     *
+     * @param index element index
+     * @return palette index
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public int getPaletteIndex(int index) throws ArrayIndexOutOfBoundsException {
+        checkIndex(index);
+        final int bitIndex = (index & ((1 << shift) - 1)) * bits;
+        return (int) ((words[index >>> shift] >>> bitIndex) & mask);
+    }
+
+    /**
+     * Set the palette index of an element.
+     *
+     * @param index element index
+     * @param paletteIndex palette index
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public void setPaletteIndex(int index, int paletteIndex) throws ArrayIndexOutOfBoundsException {
+        checkIndex(index);
+        if (paletteIndex < 0 || paletteIndex >= palette.size()) {
+            throw new ArrayIndexOutOfBoundsException(paletteIndex);
+        }
+        setIndexUnchecked(index, paletteIndex);
+    }
+
+    /**
+     * Get the number of palette entries. Entries are never removed, so this
+     * may include blocks that are no longer used by any element.
+     *
+     * @return palette size
+     */
+    public int getPaletteSize() {
+        return palette.size();
+    }
+
+    /**
+     * Get a palette entry.
+     *
+     * @param paletteIndex palette index
+     * @return the block, which must not be modified
+     */
+    public BaseBlock getPaletteBlock(int paletteIndex) {
+        return palette.get(paletteIndex);
+    }
+
+    /**
+     * Replace a palette entry, which changes every element that refers to it.
+     *
+     * @param paletteIndex palette index
+     * @param block the new block
+     */
+    public void setPaletteBlock(int paletteIndex, BaseBlock block) {
+        final BaseBlock old = palette.get(paletteIndex);
+        if (isPlain(old)) {
+            final int key = plainKey(old);
+            if (plainIndex[key] == paletteIndex + 1) {
+                plainIndex[key] = 0;
+            }
+        } else {
+            unpackedIndex.remove(old);
+        }
+
+        if (isPlain(block)) {
+            block = new BaseBlock(block.getType(), block.getData());
+            final int key = plainKey(block);
+            if (plainIndex[key] == 0) {
+                plainIndex[key] = paletteIndex + 1;
+            }
+        } else {
+            unpackedIndex.put(block, paletteIndex);
+        }
+        palette.set(paletteIndex, block);
+    }
+
+    /**
+     * Count how many elements refer to each palette entry.
+     *
+     * @return counts, indexed by palette index
+     */
+    public int[] getPaletteCounts() {
+        final int[] counts = new int[palette.size()];
+        for (int index = 0; index < size; ++index) {
+            ++counts[getPaletteIndex(index)];
+        }
+        return counts;
+    }
+
+    /**
+     * Get the palette index of a block, adding it to the palette if required.
+     *
+     * @param block the block
+     * @return palette index
+     */
+    private int paletteIndexOf(BaseBlock block) {
+        if (isPlain(block)) {
+            final int index = plainIndex[plainKey(block)] - 1;
+            if (index >= 0) {
+                return index;
+            }
+            return addToPalette(new BaseBlock(block.getType(), block.getData()));
+        }
+
+        final Integer index = unpackedIndex.get(block);
+        if (index != null) {
+            return index;
+        }
+        return addToPalette(block);
+    }
+
+    private int addToPalette(BaseBlock block) {
+        final int index = palette.size();
+        if (bits < 32 && index >= 1 << bits) {
+            resize(bits * 2);
+        }
+
+        palette.add(block);
+        if (isPlain(block)) {
+            plainIndex[plainKey(block)] = index + 1;
+        } else {
+            unpackedIndex.put(block, index);
+        }
+        return index;
+    }
+
+    /**
+     * Repack all indices with a new width.
+     *
+     * @param newBits new number of bits per index
+     */
+    private void resize(int newBits) {
+        final long[] oldWords = words;
+        final int oldBits = bits;
+        final int oldShift = shift;
+        final long oldMask = mask;
+
+        setBits(newBits);
+        words = new long[wordCount(size, newBits)];
+        for (int index = 0; index < size; ++index) {
+            final int bitIndex = (index & ((1 << oldShift) - 1)) * oldBits;
+            setIndexUnchecked(index, (int) ((oldWords[index >>> oldShift] >>> bitIndex) & oldMask));
+        }
+    }
+
+    private void setIndexUnchecked(int index, int paletteIndex) {
+        final int word = index >>> shift;
+        final int bitIndex = (index & ((1 << shift) - 1)) * bits;
+        words[word] = (words[word] & ~(mask << bitIndex)) | ((long) paletteIndex << bitIndex);
+    }
+
+    private void setBits(int bits) {
+        this.bits = bits;
+        this.shift = Integer.numberOfTrailingZeros(64 / bits);
+        this.mask = (1L << bits) - 1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+    private static int wordCount(int size, int bits) {
+        return (int) (((long) size * bits + 63) / 64);
+    }
+
+    /**
+     * Checks whether a block is fully described by its type and data value.
+     * Such blocks share a palette entry.
+     *
+     * @param block the block
+     * @return true if the block is plain
+     */
+    public static boolean isPlain(BaseBlock block) {
+        return block.getClass() == BaseBlock.class && !block.hasNbtData()
+                && block.getType() >= 0 && block.getType() <= 4095
+                && block.getData() >= 0 && block.getData() <= 15;
+    }
+
+    private static int plainKey(BaseBlock block) {
+        return (block.getType() << 4) | block.getData();
+    }
+}
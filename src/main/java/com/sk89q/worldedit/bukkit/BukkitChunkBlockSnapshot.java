@@ -0,0 +1,97 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.bukkit;
+
+import java.util.BitSet;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.block.BlockState;
+
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.ChunkBlockSnapshot;
+
+/**
+ * A {@link ChunkBlockSnapshot} backed by a Bukkit {@link ChunkSnapshot}.
+ * The positions of tile entities are collected when the snapshot is taken.
+ */
+class BukkitChunkBlockSnapshot implements ChunkBlockSnapshot {
+    private final BlockVector2D position;
+    private final ChunkSnapshot snapshot;
+    private final int maxY;
+    private final BitSet tileEntities;
+
+    /**
+     * Take a snapshot of a loaded chunk. Must be called from the main thread.
+     *
+     * @param chunk the chunk
+     */
+    BukkitChunkBlockSnapshot(Chunk chunk) {
+        position = new BlockVector2D(chunk.getX(), chunk.getZ());
+        snapshot = chunk.getChunkSnapshot(false, false, false);
+        maxY = chunk.getWorld().getMaxHeight() - 1;
+
+        final BlockState[] states = chunk.getTileEntities();
+        tileEntities = states.length == 0 ? null : new BitSet();
+        for (BlockState state : states) {
+            tileEntities.set(getIndex(state.getX() & 15, state.getY(), state.getZ() & 15));
+        }
+    }
+
+    @Override
+    public BlockVector2D getChunk() {
+        return position;
+    }
+
+    @Override
+    public int getBlockType(int x, int y, int z) {
+        if (y < 0 || y > maxY) {
+            return 0;
+        }
+        return snapshot.getBlockTypeId(x, y, z);
+    }
+
+    @Override
+    public int getBlockData(int x, int y, int z) {
+        if (y < 0 || y > maxY) {
+            return 0;
+        }
+        return snapshot.getBlockData(x, y, z);
+    }
+
+    @Override
+    public boolean hasTileEntity(int x, int y, int z) {
+        if (tileEntities == null || y < 0 || y > maxY) {
+            return false;
+        }
+        return tileEntities.get(getIndex(x, y, z));
+    }
+
+    @Override
+    public boolean isSectionEmpty(int sectionY) {
+        if (sectionY < 0 || sectionY > maxY >> 4) {
+            return true;
+        }
+        return snapshot.isSectionEmpty(sectionY);
+    }
+
+    private static int getIndex(int x, int y, int z) {
+        return (y << 8) | (z << 4) | x;
+    }
+}
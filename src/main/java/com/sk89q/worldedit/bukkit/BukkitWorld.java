@@ -36,6 +36,7 @@
 import java.util.logging.Logger;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Effect;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -77,6 +78,8 @@
 
 import com.sk89q.worldedit.BiomeType;
 import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.ChunkBlockBuffer;
+import com.sk89q.worldedit.ChunkBlockSnapshot;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.EntityType;
 import com.sk89q.worldedit.LocalEntity;
@@ -94,6 +97,7 @@
 import com.sk89q.worldedit.blocks.SignBlock;
 import com.sk89q.worldedit.blocks.SkullBlock;
 import com.sk89q.worldedit.bukkit.entity.BukkitEntity;
+import com.sk89q.worldedit.metrics.Metrics;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.util.TreeGenerator;
 
@@ -1118,6 +1122,7 @@ public boolean isValidBlockType(int type) {
     public void checkLoadedChunk(Vector pt) {
         if (!world.isChunkLoaded(pt.getBlockX() >> 4, pt.getBlockZ() >> 4)) {
             world.loadChunk(pt.getBlockX() >> 4, pt.getBlockZ() >> 4);
+            Metrics.CHUNK_LOADS.add(1);
         }
     }
 
@@ -1147,6 +1152,43 @@ public void fixAfterFastMode(Iterable<BlockVector2D> chunks) {
         }
     }
 
+    @Override
+    public int setBlocks(ChunkBlockBuffer buffer, boolean fastMode) {
+        final BlockVector2D chunkPos = buffer.getChunk();
+        final Chunk chunk = world.getChunkAt(chunkPos.getBlockX(), chunkPos.getBlockZ());
+        int changed = 0;
+
+        for (int i = 0; i < buffer.size(); ++i) {
+            final Vector pt = buffer.getPosition(i);
+            final BaseBlock block = buffer.getBlock(i);
+            final int type = block.getType();
+            final boolean result;
+
+            if (block.getClass() != BaseBlock.class) {
+                // Blocks with extra data still go through the NMS path
+                result = setBlock(pt, block, fastMode);
+            } else {
+                final Block bukkitBlock = chunk.getBlock(pt.getBlockX() & 15, pt.getBlockY(), pt.getBlockZ() & 15);
+                if (type == 0) {
+                    result = bukkitBlock.setTypeId(0, !fastMode);
+                } else {
+                    result = bukkitBlock.setTypeIdAndData(type, (byte) block.getData(), fastMode);
+                }
+            }
+
+            if (result) {
+                ++changed;
+            }
+        }
+
+        return changed;
+    }
+
+    @Override
+    public ChunkBlockSnapshot getChunkSnapshot(BlockVector2D chunk) {
+        return new BukkitChunkBlockSnapshot(world.getChunkAt(chunk.getBlockX(), chunk.getBlockZ()));
+    }
+
     private static final Map<Integer, Effect> effects = new HashMap<Integer, Effect>();
     static {
         for (Effect effect : Effect.values()) {
@@ -50,6 +50,7 @@
 import com.sk89q.worldedit.bukkit.selections.CuboidSelection;
 import com.sk89q.worldedit.bukkit.selections.Polygonal2DSelection;
 import com.sk89q.worldedit.bukkit.selections.Selection;
+import com.sk89q.worldedit.metrics.Metrics;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Polygonal2DRegion;
 import com.sk89q.worldedit.regions.Region;
@@ -172,6 +173,8 @@ public void onDisable() {
         config.unload();
         server.unregisterCommands();
         this.getServer().getScheduler().cancelTasks(this);
+        Metrics.disableJmx();
+        Metrics.stopExport();
     }
 
     /**
@@ -56,6 +56,9 @@ public void undo(CommandContext args, LocalSession session, LocalPlayer player,
         for (int i = 0; i < times; ++i) {
             EditSession undone;
             if (args.argsLength() < 2) {
+                if (we.getEditScheduler().checkPending(player, session)) {
+                    break;
+                }
                 undone = session.undo(session.getBlockBag(player), player);
             } else {
                 player.checkPermission("worldedit.history.undo.other");
@@ -64,6 +67,9 @@ public void undo(CommandContext args, LocalSession session, LocalPlayer player,
                     player.printError("Невозможно найти сессию для " + args.getString(1));
                     break;
                 }
+                if (we.getEditScheduler().checkPending(player, sess)) {
+                    break;
+                }
                 undone = sess.undo(session.getBlockBag(player), player);
             }
 
@@ -98,6 +104,9 @@ public void redo(CommandContext args, LocalSession session, LocalPlayer player,
         for (int i = 0; i < times; ++i) {
             EditSession redone;
             if (args.argsLength() < 2) {
+                if (we.getEditScheduler().checkPending(player, session)) {
+                    break;
+                }
                 redone = session.redo(session.getBlockBag(player), player);
             } else {
                 player.checkPermission("worldedit.history.redo.other");
@@ -106,6 +115,9 @@ public void redo(CommandContext args, LocalSession session, LocalPlayer player,
                     player.printError("Невозможно найти сессию для " + args.getString(1));
                     break;
                 }
+                if (we.getEditScheduler().checkPending(player, sess)) {
+                    break;
+                }
                 redone = sess.redo(session.getBlockBag(player), player);
             }
 
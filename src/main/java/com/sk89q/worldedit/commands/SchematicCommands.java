@@ -28,6 +28,7 @@
 import com.sk89q.minecraft.util.commands.CommandException;
 import com.sk89q.minecraft.util.commands.CommandPermissions;
 import com.sk89q.minecraft.util.commands.Console;
+import com.sk89q.minecraft.util.commands.Logging;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.FilenameResolutionException;
 import com.sk89q.worldedit.LocalConfiguration;
@@ -38,6 +39,8 @@
 import com.sk89q.worldedit.data.DataException;
 import com.sk89q.worldedit.schematic.SchematicFormat;
 
+import static com.sk89q.minecraft.util.commands.Logging.LogMode.PLACEMENT;
+
 /**
  * Commands related to schematics
  *
@@ -79,24 +82,62 @@ public void load(CommandContext args, LocalSession session, LocalPlayer player,
         }
         File dir = we.getWorkingDirectoryFile(config.saveDir);
         File f = we.getSafeOpenFile(player, dir, fileName, "schematic", "schematic");
-
-        if (!f.exists()) {
-            player.printError("Схематический файл " + fileName + " не найден!");
+        SchematicFormat format = getFormat(player, f, fileName, formatName, args.hasFlag('f'));
+        if (format == null) {
             return;
         }
 
-        SchematicFormat format = formatName == null ? null : SchematicFormat.getFormat(formatName);
-        if (format == null) {
-            format = SchematicFormat.getFormat(f);
-        }
+        try {
+            String filePath = f.getCanonicalPath();
+            String dirPath = dir.getCanonicalPath();
 
-        if (format == null) {
-            player.printError("Неизвестный тип схематического файла: " + formatName);
-            return;
+            if (!filePath.substring(0, dirPath.length()).equals(dirPath)) {
+                player.printError("Схема не может быть прочитана или она несуществует.");
+            } else {
+                session.setClipboard(format.load(f));
+                WorldEdit.logger.info(player.getName() + " loaded " + filePath);
+                player.print("Схема "+ fileName + " загружена. Вставка из буфера обмена //paste");
+            }
+        } catch (DataException e) {
+            player.printError("Ошибка при загрузке: " + e.getMessage());
+        } catch (IOException e) {
+            player.printError("Схема не может быть прочитана или она несуществует: " + e.getMessage());
         }
+    }
 
-        if (!format.isOfFormat(f) && !args.hasFlag('f')) {
-            player.printError(fileName + " не " + format.getName() + " схематический файл!");
+    @Command(
+            aliases = { "paste", "p" },
+            usage = "[format] <filename>",
+            desc = "Вставка схемы без загрузки в буфер обмена.",
+            help = "Вставляет схему из файла, не загружая её в буфер обмена.\n" +
+                    "Подходит для очень больших схем.\n" +
+                    "Флаги:\n" +
+                    "  -a пропускает блоки воздуха\n" +
+                    "  -f не проверять формат файла",
+            flags = "af",
+            min = 1,
+            max = 2
+    )
+    @CommandPermissions({"worldedit.schematic.load", "worldedit.clipboard.paste"})
+    @Logging(PLACEMENT)
+    public void paste(CommandContext args, LocalSession session, LocalPlayer player,
+                     EditSession editSession) throws WorldEditException {
+
+        LocalConfiguration config = we.getConfiguration();
+        String fileName;
+        String formatName;
+
+        if (args.argsLength() == 1) {
+            formatName = null;
+            fileName = args.getString(0);
+        } else {
+            formatName = args.getString(0);
+            fileName = args.getString(1);
+        }
+        File dir = we.getWorkingDirectoryFile(config.saveDir);
+        File f = we.getSafeOpenFile(player, dir, fileName, "schematic", "schematic");
+        SchematicFormat format = getFormat(player, f, fileName, formatName, args.hasFlag('f'));
+        if (format == null) {
             return;
         }
 
@@ -107,9 +148,10 @@ public void load(CommandContext args, LocalSession session, LocalPlayer player,
             if (!filePath.substring(0, dirPath.length()).equals(dirPath)) {
                 player.printError("Схема не может быть прочитана или она несуществует.");
             } else {
-                session.setClipboard(format.load(f));
-                WorldEdit.logger.info(player.getName() + " loaded " + filePath);
-                player.print("Схема "+ fileName + " загружена. Вставка из буфера обмена //paste");
+                format.paste(f, editSession, session.getPlacementPosition(player), args.hasFlag('a'));
+                WorldEdit.logger.info(player.getName() + " pasted " + filePath);
+                player.findFreePosition();
+                player.print("Вставлено. Для отмены напишите //undo");
             }
         } catch (DataException e) {
             player.printError("Ошибка при загрузке: " + e.getMessage());
@@ -179,6 +221,40 @@ public void save(CommandContext args, LocalSession session, LocalPlayer player,
         }
     }
 
+    /**
+     * Find the format of a schematic file to read.
+     *
+     * @param player
+     * @param f
+     * @param fileName
+     * @param formatName the requested format, or null to detect it
+     * @param force true to read the file even if it is not of the format
+     * @return the format, or null if an error has been printed
+     */
+    private SchematicFormat getFormat(LocalPlayer player, File f, String fileName, String formatName, boolean force) {
+        if (!f.exists()) {
+            player.printError("Схематический файл " + fileName + " не найден!");
+            return null;
+        }
+
+        SchematicFormat format = formatName == null ? null : SchematicFormat.getFormat(formatName);
+        if (format == null) {
+            format = SchematicFormat.getFormat(f);
+        }
+
+        if (format == null) {
+            player.printError("Неизвестный тип схематического файла: " + formatName);
+            return null;
+        }
+
+        if (!format.isOfFormat(f) && !force) {
+            player.printError(fileName + " не " + format.getName() + " схематический файл!");
+            return null;
+        }
+
+        return format;
+    }
+
     @Command(
             aliases = {"formats", "listformats", "f"},
             desc = "Показывает список всех доступных форматов",
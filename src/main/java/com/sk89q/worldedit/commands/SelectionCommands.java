@@ -32,8 +32,10 @@
 import com.sk89q.minecraft.util.commands.CommandContext;
 import com.sk89q.minecraft.util.commands.CommandPermissions;
 import com.sk89q.minecraft.util.commands.Logging;
+import com.sk89q.worldedit.BlockDistribution;
 import com.sk89q.worldedit.Countable;
 import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.EditScheduler;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalPlayer;
 import com.sk89q.worldedit.LocalSession;
@@ -605,58 +607,82 @@ public void count(CommandContext args, LocalSession session, LocalPlayer player,
         max = 0
     )
     @CommandPermissions("worldedit.analysis.distr")
-    public void distr(CommandContext args, LocalSession session, LocalPlayer player,
+    public void distr(CommandContext args, LocalSession session, final LocalPlayer player,
             EditSession editSession) throws WorldEditException {
 
-        int size;
-        boolean useData = args.hasFlag('d');
-        List<Countable<Integer>> distribution = null;
-        List<Countable<BaseBlock>> distributionData = null;
+        final boolean useData = args.hasFlag('d');
 
         if (args.hasFlag('c')) {
             CuboidClipboard clip = session.getClipboard();
+            int size = clip.getHeight() * clip.getLength() * clip.getWidth();
             if (useData) {
-                distributionData = clip.getBlockDistributionWithData();
+                printDistributionWithData(player, clip.getBlockDistributionWithData(), size);
             } else {
-                distribution = clip.getBlockDistribution();
+                printDistribution(player, clip.getBlockDistribution(), size);
             }
-            size = clip.getHeight() * clip.getLength() * clip.getWidth(); 
-        } else {
-            if (useData) {
-                distributionData = editSession.getBlockDistributionWithData(session.getSelection(player.getWorld()));
-            } else {
-                distribution = editSession.getBlockDistribution(session.getSelection(player.getWorld()));
+            return;
+        }
+
+        // The blocks are counted on worker threads, and the chunks are read
+        // a few at a time every tick so that huge selections don't stall the server
+        final BlockDistribution distribution = new BlockDistribution(player.getWorld(),
+                session.getSelection(player.getWorld()));
+        final boolean done = we.getEditScheduler().schedule(player, new EditScheduler.Job() {
+            @Override
+            public boolean resume(long deadline) {
+                return distribution.resume(deadline);
             }
-            size = session.getSelection(player.getWorld()).getArea();
+
+            @Override
+            public void complete() {
+                if (useData) {
+                    printDistributionWithData(player, distribution.getDistributionWithData(),
+                            distribution.getTotal());
+                } else {
+                    printDistribution(player, distribution.getDistribution(), distribution.getTotal());
+                }
+            }
+        });
+
+        if (!done) {
+            player.print("Подсчет блоков выполняется в фоне, результат будет выведен позже.");
         }
+    }
 
-        if ((useData && distributionData.size() <= 0)
-                || (!useData && distribution.size() <= 0)) {  // *Should* always be true
+    private static void printDistribution(LocalPlayer player, List<Countable<Integer>> distribution, long size) {
+        if (distribution.size() <= 0) {  // *Should* always be false
             player.printError("В выделенной территории блоки не найдены.");
             return;
         }
-        
-        player.print("В выделенной территории " + size + StringUtil.plural(size, " блок", " блока", " блоков"));
 
-        if (useData) {
-            for (Countable<BaseBlock> c : distributionData) {
-                String name = BlockType.fromID(c.getID().getId()).getName();
-                String str = String.format("%-7s (%.3f%%) %s #%d:%d",
-                        String.valueOf(c.getAmount()),
-                        c.getAmount() / (double) size * 100,
-                        name == null ? "Неизвестно" : name,
-                        c.getID().getType(), c.getID().getData());
-                player.print(str);
-            }
-        } else {
-            for (Countable<Integer> c : distribution) {
-                BlockType block = BlockType.fromID(c.getID());
-                String str = String.format("%-7s (%.3f%%) %s #%d",
-                        String.valueOf(c.getAmount()),
-                        c.getAmount() / (double) size * 100,
-                        block == null ? "Неизвестно" : block.getName(), c.getID());
-                player.print(str);
-            }
+        player.print("В выделенной территории " + size + StringUtil.plural((int) (size % 100), " блок", " блока", " блоков"));
+
+        for (Countable<Integer> c : distribution) {
+            BlockType block = BlockType.fromID(c.getID());
+            String str = String.format("%-7s (%.3f%%) %s #%d",
+                    String.valueOf(c.getLongAmount()),
+                    c.getLongAmount() / (double) size * 100,
+                    block == null ? "Неизвестно" : block.getName(), c.getID());
+            player.print(str);
+        }
+    }
+
+    private static void printDistributionWithData(LocalPlayer player, List<Countable<BaseBlock>> distribution, long size) {
+        if (distribution.size() <= 0) {  // *Should* always be false
+            player.printError("В выделенной территории блоки не найдены.");
+            return;
+        }
+
+        player.print("В выделенной территории " + size + StringUtil.plural((int) (size % 100), " блок", " блока", " блоков"));
+
+        for (Countable<BaseBlock> c : distribution) {
+            BlockType block = BlockType.fromID(c.getID().getId());
+            String str = String.format("%-7s (%.3f%%) %s #%d:%d",
+                    String.valueOf(c.getLongAmount()),
+                    c.getLongAmount() / (double) size * 100,
+                    block == null ? "Неизвестно" : block.getName(),
+                    c.getID().getType(), c.getID().getData());
+            player.print(str);
         }
     }
 
@@ -36,6 +36,16 @@ public abstract class ChunkStore {
      * << from chunk
      */
     public static final int CHUNK_SHIFTS = 4;
+
+    /**
+     * The tags of a chunk file that {@link AnvilChunk} and {@link OldChunk}
+     * read. Everything else, like entities and lighting, is skipped.
+     */
+    protected static final TagFilter CHUNK_TAGS = TagFilter.of(
+            "Level.xPos", "Level.zPos",
+            "Level.Sections.Y", "Level.Sections.Blocks", "Level.Sections.Add", "Level.Sections.Data",
+            "Level.Blocks", "Level.Data",
+            "Level.TileEntities");
     /**
      * Convert a position to a chunk.
      *
@@ -50,7 +60,8 @@ public static BlockVector2D toChunk(Vector pos) {
     }
 
     /**
-     * Get the tag for a chunk.
+     * Get the tag for a chunk. Only the tags needed to read the blocks of
+     * the chunk are decoded, see {@link #CHUNK_TAGS}.
      *
      * @param pos
      * @return tag
@@ -89,6 +100,15 @@ public void close() throws IOException {
 
     }
 
+    /**
+     * Returns whether chunks may be loaded from several threads at once.
+     *
+     * @return
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
     /**
      * Returns whether the chunk store is of this type.
      *
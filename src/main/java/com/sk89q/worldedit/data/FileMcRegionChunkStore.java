@@ -24,14 +24,36 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.regex.Pattern;
 
+import com.sk89q.worldedit.Vector2D;
+
 public class FileMcRegionChunkStore extends McRegionChunkStore {
+    /**
+     * Number of region files kept mapped.
+     */
+    private static final int MAX_OPEN_REGIONS = 16;
+
     /**
      * Folder to read from.
      */
     private File path;
 
+    /**
+     * Recently used region files, least recently used first.
+     */
+    private final Map<String, MappedMcRegionReader> regions =
+            new LinkedHashMap<String, MappedMcRegionReader>(MAX_OPEN_REGIONS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MappedMcRegionReader> eldest) {
+            return size() > MAX_OPEN_REGIONS;
+        }
+    };
+
     /**
      * Create an instance. The passed path is the folder to read the
      * chunk files from.
@@ -42,28 +64,78 @@ public FileMcRegionChunkStore(File path) {
         this.path = path;
     }
 
-    @Override
-    protected InputStream getInputStream(String name, String world) throws IOException,
-            DataException {
+    /**
+     * Find a region file, allowing either file extension.
+     *
+     * @param name
+     * @return
+     * @throws MissingChunkException
+     */
+    private File getRegionFile(String name) throws MissingChunkException {
         Pattern ext = Pattern.compile(".*\\.mc[ra]$"); // allow either file extension, both work the same
-        File file = null;
-        for (File f : new File(path, "region" + File.separator).listFiles()) {
-            String tempName = f.getName().replaceFirst("mcr$", "mca"); // matcher only does one at a time
-            if (ext.matcher(f.getName()).matches() && name.equalsIgnoreCase(tempName)) {
-                // get full original path now
-                file = new File(path + File.separator + "region" + File.separator + f.getName());
-                break;
+        File[] files = new File(path, "region" + File.separator).listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String tempName = f.getName().replaceFirst("mcr$", "mca"); // matcher only does one at a time
+                if (ext.matcher(f.getName()).matches() && name.equalsIgnoreCase(tempName)) {
+                    // get full original path now
+                    return new File(path + File.separator + "region" + File.separator + f.getName());
+                }
             }
         }
 
+        throw new MissingChunkException();
+    }
+
+    @Override
+    protected InputStream getInputStream(String name, String world) throws IOException,
+            DataException {
         try {
-            if (file == null) throw new FileNotFoundException();
-            return new FileInputStream(file);
+            return new FileInputStream(getRegionFile(name));
         } catch (FileNotFoundException e) {
             throw new MissingChunkException();
         }
     }
 
+    /**
+     * Get the mapped region file containing a chunk.
+     *
+     * @param pos
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    protected MappedMcRegionReader getMappedReader(Vector2D pos) throws IOException, DataException {
+        String filename = getFilename(pos);
+
+        synchronized (regions) {
+            MappedMcRegionReader reader = regions.get(filename);
+            if (reader == null) {
+                try {
+                    reader = new MappedMcRegionReader(getRegionFile(filename));
+                } catch (FileNotFoundException e) {
+                    throw new MissingChunkException();
+                }
+                regions.put(filename, reader);
+            }
+            return reader;
+        }
+    }
+
+    @Override
+    protected InputStream getChunkInputStream(Vector2D pos, String worldname) throws DataException, IOException {
+        return getMappedReader(pos).getChunkInputStream(pos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+
+        synchronized (regions) {
+            regions.clear();
+        }
+    }
+
     @Override
     public boolean isValid() {
         return new File(path, "region").isDirectory() ||
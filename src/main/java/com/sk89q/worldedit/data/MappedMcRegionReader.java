@@ -0,0 +1,176 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.sk89q.worldedit.Vector2D;
+
+/**
+ * Reader for a MCRegion file on disk. The file is memory-mapped, its offset
+ * table is read once and chunks are decompressed straight from the mapping,
+ * in any order and from any number of threads.
+ */
+public class MappedMcRegionReader {
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final int[] offsets = new int[McRegionReader.SECTOR_INTS];
+
+    /**
+     * Map a region file.
+     *
+     * @param file the file
+     * @throws IOException
+     * @throws DataException if the file is too short to contain the header
+     */
+    public MappedMcRegionReader(File file) throws IOException, DataException {
+        this.file = file;
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the channel is closed
+            final FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+
+        if (buffer.limit() < McRegionReader.SECTOR_BYTES) {
+            throw new DataException("MCRegion file " + file.getName() + " has a truncated header");
+        }
+
+        buffer.asIntBuffer().get(offsets);
+    }
+
+    /**
+     * Get the mapped file.
+     *
+     * @return
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the uncompressed data input stream for a chunk.
+     *
+     * @param pos
+     * @return the stream, or null if the chunk hasn't been generated
+     * @throws IOException
+     * @throws DataException
+     */
+    public InputStream getChunkInputStream(Vector2D pos) throws IOException, DataException {
+        final int x = pos.getBlockX() & 31;
+        final int z = pos.getBlockZ() & 31;
+        final int offset = offsets[x + z * 32];
+
+        // The chunk hasn't been generated
+        if (offset == 0) {
+            return null;
+        }
+
+        final int start = (offset >>> 8) * McRegionReader.SECTOR_BYTES;
+        final int numSectors = offset & 0xFF;
+
+        if (start + McRegionReader.CHUNK_HEADER_SIZE > buffer.limit()) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        final int length = buffer.getInt(start);
+        if (length < 1 || length > McRegionReader.SECTOR_BYTES * numSectors) {
+            throw new DataException("MCRegion chunk at "
+                    + x + "," + z + " has an invalid length of " + length);
+        }
+        if (start + 4 + length > buffer.limit()) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        final byte version = buffer.get(start + 4);
+
+        // Every chunk reads from its own view of the mapping
+        final ByteBuffer data = buffer.duplicate();
+        data.limit(start + 4 + length);
+        data.position(start + McRegionReader.CHUNK_HEADER_SIZE);
+
+        if (version == McRegionReader.VERSION_GZIP) {
+            return new GZIPInputStream(new ByteBufferInputStream(data));
+        } else if (version == McRegionReader.VERSION_DEFLATE) {
+            return new InflaterInputStream(new ByteBufferInputStream(data));
+        } else {
+            throw new DataException("MCRegion chunk at "
+                    + x + "," + z + " has an unsupported version of " + version);
+        }
+    }
+
+    /**
+     * Returns whether the file contains a chunk.
+     *
+     * @param x
+     * @param z
+     * @return
+     */
+    public boolean hasChunk(int x, int z) {
+        return offsets[(x & 31) + (z & 31) * 32] != 0;
+    }
+
+    /**
+     * An input stream reading the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            final int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
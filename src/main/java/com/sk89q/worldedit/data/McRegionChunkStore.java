@@ -50,7 +50,7 @@ public static String getFilename(Vector2D pos) {
     protected McRegionReader getReader(Vector2D pos, String worldname) throws DataException, IOException {
         String filename = getFilename(pos);
         if (curFilename != null) {
-            if (curFilename.equals(filename)) {
+            if (curFilename.equals(filename) && cachedReader.canSeekTo(pos)) {
                 return cachedReader;
             } else {
                 try {
@@ -59,24 +59,42 @@ protected McRegionReader getReader(Vector2D pos, String worldname) throws DataEx
                 }
             }
         }
+        curFilename = null;
         InputStream stream = getInputStream(filename, worldname);
         cachedReader = new McRegionReader(stream);
-        //curFilename = filename;
+        curFilename = filename;
         return cachedReader;
     }
 
+    /**
+     * Get the uncompressed data input stream for a chunk. The compressed
+     * data is read completely, so that the stream can be decompressed without
+     * holding the lock of the store.
+     *
+     * @param pos
+     * @param worldname
+     * @return the stream, or null if the chunk hasn't been generated
+     * @throws DataException
+     * @throws IOException
+     */
+    protected synchronized InputStream getChunkInputStream(Vector2D pos, String worldname) throws DataException, IOException {
+        return getReader(pos, worldname).getChunkInputStream(pos);
+    }
+
     @Override
     public CompoundTag getChunkTag(Vector2D pos, LocalWorld world) throws DataException,
             IOException {
         
-        McRegionReader reader = getReader(pos, world.getName());
+        InputStream stream = getChunkInputStream(pos, world.getName());
+        if (stream == null) {
+            throw new MissingChunkException(pos);
+        }
 
-        InputStream stream = reader.getChunkInputStream(pos);
         NBTInputStream nbt = new NBTInputStream(stream);
         Tag tag;
 
         try {
-            tag = nbt.readTag();
+            tag = nbt.readTag(CHUNK_TAGS);
             if (!(tag instanceof CompoundTag)) {
                 throw new ChunkStoreException("CompoundTag expected for chunk; got "
                         + tag.getClass().getName());
@@ -118,15 +136,22 @@ public CompoundTag getChunkTag(Vector2D pos, LocalWorld world) throws DataExcept
     protected abstract InputStream getInputStream(String name, String worldname)
             throws IOException, DataException;
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     /**
      * Close resources.
      *
      * @throws IOException
      */
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         if (cachedReader != null) {
             cachedReader.close();
+            cachedReader = null;
+            curFilename = null;
         }
     }
 }
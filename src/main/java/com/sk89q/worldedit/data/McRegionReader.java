@@ -56,6 +56,7 @@ counts. The chunk offset for a chunk (x, z) begins at byte 4*(x+z*32) in the
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.zip.GZIPInputStream;
@@ -150,18 +151,10 @@ public synchronized InputStream getChunkInputStream(Vector2D pos)
         byte version = dataStream.readByte();
 
         if (version == VERSION_GZIP) {
-            byte[] data = new byte[length - 1];
-            if (dataStream.read(data) < length - 1) {
-                throw new DataException("MCRegion file does not contain "
-                        + x + "," + z + " in full");
-            }
+            byte[] data = readChunkData(length - 1, x, z);
             return new GZIPInputStream(new ByteArrayInputStream(data));
         } else if (version == VERSION_DEFLATE) {
-            byte[] data = new byte[length - 1];
-            if (dataStream.read(data) < length - 1) {
-                throw new DataException("MCRegion file does not contain "
-                        + x + "," + z + " in full");
-            }
+            byte[] data = readChunkData(length - 1, x, z);
             return new InflaterInputStream(new ByteArrayInputStream(data));
         } else {
             throw new DataException("MCRegion chunk at "
@@ -169,6 +162,28 @@ public synchronized InputStream getChunkInputStream(Vector2D pos)
         }
     }
 
+    /**
+     * Read the compressed data of a chunk. Streams of compressed archives
+     * may return fewer bytes per read than requested.
+     *
+     * @param length
+     * @param x
+     * @param z
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    private byte[] readChunkData(int length, int x, int z) throws IOException, DataException {
+        byte[] data = new byte[length];
+        try {
+            dataStream.readFully(data);
+        } catch (EOFException e) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+        return data;
+    }
+
     /**
      * Get the offset for a chunk. May return 0 if it doesn't exist.
      * 
@@ -180,6 +195,18 @@ private int getOffset(int x, int z) {
         return offsets[x + z * 32];
     }
 
+    /**
+     * Returns whether a chunk can still be read. The stream can only seek
+     * forward, so chunks stored before the last chunk read cannot.
+     *
+     * @param pos
+     * @return
+     */
+    public synchronized boolean canSeekTo(Vector2D pos) {
+        int offset = getOffset(pos.getBlockX() & 31, pos.getBlockZ() & 31);
+        return offset == 0 || (long) (offset >> 8) * SECTOR_BYTES >= stream.getPosition();
+    }
+
     /**
      * Returns whether the file contains a chunk.
      * 
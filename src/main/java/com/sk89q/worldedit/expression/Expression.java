@@ -19,6 +19,7 @@
 
 package com.sk89q.worldedit.expression;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,10 +28,13 @@
 import com.sk89q.worldedit.expression.lexer.Lexer;
 import com.sk89q.worldedit.expression.lexer.tokens.Token;
 import com.sk89q.worldedit.expression.parser.Parser;
+import com.sk89q.worldedit.expression.runtime.BytecodeCompiler;
+import com.sk89q.worldedit.expression.runtime.CompiledExpression;
 import com.sk89q.worldedit.expression.runtime.Constant;
 import com.sk89q.worldedit.expression.runtime.EvaluationException;
 import com.sk89q.worldedit.expression.runtime.RValue;
 import com.sk89q.worldedit.expression.runtime.ReturnException;
+import com.sk89q.worldedit.expression.runtime.StateAnalyzer;
 import com.sk89q.worldedit.expression.runtime.Variable;
 
 /**
@@ -62,7 +66,10 @@ public class Expression {
 
     private final Map<String, RValue> variables = new HashMap<String, RValue>();
     private final String[] variableNames;
+    private final List<Token> tokens;
     private RValue root;
+    private boolean optimized = false;
+    private CompiledExpression compiled;
     private final Map<Integer, double[]> megabuf = new HashMap<Integer, double[]>();
 
     public static Expression compile(String expression, String... variableNames) throws ExpressionException {
@@ -75,6 +82,7 @@ private Expression(String expression, String... variableNames) throws Expression
 
     private Expression(List<Token> tokens, String... variableNames) throws ExpressionException {
         this.variableNames = variableNames;
+        this.tokens = tokens;
 
         variables.put("e", new Constant(-1, Math.E));
         variables.put("pi", new Constant(-1, Math.PI));
@@ -104,6 +112,10 @@ public double evaluate(double... values) throws EvaluationException {
 
         pushInstance();
         try {
+            if (compiled != null) {
+                return compiled.evaluate();
+            }
+
             return root.getValue();
         } catch (ReturnException e) {
             return e.getValue();
@@ -114,6 +126,64 @@ public double evaluate(double... values) throws EvaluationException {
 
     public void optimize() throws EvaluationException {
         root = root.optimize();
+        optimized = true;
+    }
+
+    /**
+     * Translates the expression into JVM bytecode, which is used by all
+     * following evaluations. Should be called after {@link #optimize()}.
+     * Expressions that cannot be translated stay interpreted.
+     *
+     * @return true if the expression was translated
+     */
+    public boolean compileBytecode() {
+        compiled = BytecodeCompiler.compile(root);
+        return compiled != null;
+    }
+
+    /**
+     * Checks whether evaluations run the bytecode created by
+     * {@link #compileBytecode()}.
+     *
+     * @return true if the expression is evaluated as bytecode
+     */
+    public boolean isBytecodeCompiled() {
+        return compiled != null;
+    }
+
+    /**
+     * Creates an independent copy of this expression, with its own variables
+     * and buffers, which can be evaluated on another thread.
+     *
+     * @return the copy
+     * @throws ExpressionException
+     */
+    public Expression copy() throws ExpressionException {
+        final Expression copy = new Expression(tokens, variableNames);
+        if (optimized) {
+            copy.optimize();
+        }
+        if (compiled != null) {
+            copy.compileBytecode();
+        }
+
+        return copy;
+    }
+
+    /**
+     * Checks whether the result of an evaluation only depends on the values
+     * passed to {@link #evaluate(double...)}. If so, copies of this expression
+     * can evaluate different values in any order and produce the same results.
+     *
+     * @return true if evaluations are independent of each other
+     */
+    public boolean isStateless() {
+        final List<RValue> inputs = new ArrayList<RValue>(variableNames.length);
+        for (String variableName : variableNames) {
+            inputs.add(variables.get(variableName));
+        }
+
+        return StateAnalyzer.isStateless(root, inputs);
     }
 
     @Override
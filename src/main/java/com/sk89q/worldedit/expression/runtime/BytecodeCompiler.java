@@ -0,0 +1,751 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sk89q.worldedit.expression.runtime.ClassFileWriter.Code;
+import com.sk89q.worldedit.expression.runtime.ClassFileWriter.Label;
+
+/**
+ * Translates an execution tree into a JVM class, so that the JIT compiler can
+ * inline arithmetic and math functions instead of going through reflection
+ * and a virtual call per node.
+ *
+ * Everything but switch statements, the rotate and swap functions and
+ * assignments to buffer elements is supported. Unsupported trees are left to
+ * the interpreter.
+ */
+public final class BytecodeCompiler {
+    private static final String COMPILED = "com/sk89q/worldedit/expression/runtime/CompiledExpression";
+    private static final String VARIABLE = "com/sk89q/worldedit/expression/runtime/Variable";
+    private static final String CONSTANT = "com/sk89q/worldedit/expression/runtime/Constant";
+    private static final String RVALUE = "Lcom/sk89q/worldedit/expression/runtime/RValue;";
+    private static final String EVALUATION_EXCEPTION = "com/sk89q/worldedit/expression/runtime/EvaluationException";
+    private static final String MATH = "java/lang/Math";
+
+    private static final int ICONST_M1 = 0x02;
+    private static final int LCONST_1 = 0x0a;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ILOAD = 0x15;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int AALOAD = 0x32;
+    private static final int ISTORE = 0x36;
+    private static final int DSTORE = 0x39;
+    private static final int ASTORE = 0x3a;
+    private static final int POP2 = 0x58;
+    private static final int DUP = 0x59;
+    private static final int DUP2 = 0x5c;
+    private static final int DADD = 0x63;
+    private static final int LSUB = 0x65;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DREM = 0x73;
+    private static final int LNEG = 0x75;
+    private static final int DNEG = 0x77;
+    private static final int LSHL = 0x79;
+    private static final int LSHR = 0x7b;
+    private static final int L2I = 0x88;
+    private static final int L2D = 0x8a;
+    private static final int D2L = 0x8f;
+    private static final int DCMPL = 0x97;
+    private static final int DCMPG = 0x98;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IFLT = 0x9b;
+    private static final int IFGE = 0x9c;
+    private static final int IFGT = 0x9d;
+    private static final int IFLE = 0x9e;
+    private static final int IF_ICMPLE = 0xa4;
+    private static final int GOTO = 0xa7;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int NEW = 0xbb;
+    private static final int ATHROW = 0xbf;
+
+    /**
+     * Same limit as the interpreted loops.
+     */
+    private static final int MAX_ITERATIONS = 256;
+
+    /**
+     * Functions that are plain calls to a method of {@link Math}, by name and
+     * number of arguments.
+     */
+    private static final Map<String, String> MATH_FUNCTIONS = new HashMap<String, String>();
+    static {
+        for (String name : new String[] { "sin", "cos", "tan", "asin", "acos", "atan", "sinh", "cosh", "tanh",
+                "sqrt", "cbrt", "abs", "ceil", "floor", "rint", "exp", "log10" }) {
+            MATH_FUNCTIONS.put(name + "/1", name);
+        }
+        MATH_FUNCTIONS.put("ln/1", "log");
+        MATH_FUNCTIONS.put("log/1", "log");
+        MATH_FUNCTIONS.put("atan2/2", "atan2");
+        MATH_FUNCTIONS.put("min/2", "min");
+        MATH_FUNCTIONS.put("max/2", "max");
+    }
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private final ClassFileWriter writer = new ClassFileWriter();
+    private final Code code = new Code();
+    private final Map<Variable, Integer> slots = new IdentityHashMap<Variable, Integer>();
+    private final List<Variable> variables = new ArrayList<Variable>();
+    private final List<Variable> assigned = new ArrayList<Variable>();
+    private final LinkedList<Loop> loops = new LinkedList<Loop>();
+    private final Label epilogue = new Label();
+    private int resultSlot;
+    private int nextSlot = 1;
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * Thrown when a tree contains something the compiler does not support.
+     */
+    private static class UnsupportedException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * The jump targets of a loop.
+     */
+    private static class Loop {
+        private final Label next = new Label();
+        private final Label end = new Label();
+        private final int stack;
+
+        private Loop(int stack) {
+            this.stack = stack;
+        }
+    }
+
+    /**
+     * Compiles an execution tree.
+     *
+     * @param root the root of the tree
+     * @return the compiled expression, or null if the tree is not supported
+     */
+    public static CompiledExpression compile(RValue root) {
+        final BytecodeCompiler compiler = new BytecodeCompiler();
+        final byte[] classFile;
+        final String className = COMPILED + "$" + classCount.incrementAndGet();
+        try {
+            classFile = compiler.compileClass(root, className);
+        } catch (UnsupportedException e) {
+            return null;
+        }
+
+        final Variable[] variables = compiler.variables.toArray(new Variable[compiler.variables.size()]);
+        try {
+            final Class<?> cls = new GeneratedClassLoader().define(className.replace('/', '.'), classFile);
+            final Constructor<?> constructor = cls.getConstructor(Variable[].class);
+            return (CompiledExpression) constructor.newInstance((Object) variables);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to load compiled expression", e);
+        }
+    }
+
+    private static class GeneratedClassLoader extends ClassLoader {
+        private GeneratedClassLoader() {
+            super(CompiledExpression.class.getClassLoader());
+        }
+
+        private Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+
+    private byte[] compileClass(RValue root, String className) throws UnsupportedException {
+        // Locals are allocated while compiling, so the body comes first
+        resultSlot = -1;
+        final Code body = compileBody(root);
+
+        final Code prologue = new Code();
+        for (int i = 0; i < variables.size(); ++i) {
+            loadVariable(prologue, i);
+            prologue.op2(GETFIELD, writer.fieldRef(VARIABLE, "value", "D"), 1);
+            prologue.op1(DSTORE, slots.get(variables.get(i)), -2);
+        }
+        prologue.append(body);
+        prologue.setMaxLocals(nextSlot);
+
+        final Code constructor = new Code();
+        constructor.op(ALOAD_0, 1);
+        constructor.op(ALOAD_1, 1);
+        constructor.op2(INVOKESPECIAL, writer.methodRef(COMPILED, "<init>", "([L" + VARIABLE + ";)V"), -2);
+        constructor.op(RETURN, 0);
+        constructor.setMaxLocals(2);
+
+        writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "([L" + VARIABLE + ";)V", constructor);
+        writer.addMethod(ClassFileWriter.ACC_PUBLIC, "evaluate", "()D", prologue);
+        return writer.toByteArray(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL | ClassFileWriter.ACC_SUPER,
+                className, COMPILED);
+    }
+
+    private Code compileBody(RValue root) throws UnsupportedException {
+        resultSlot = allocate(2);
+
+        final int start = code.length();
+        compileNode(root);
+        code.op1(DSTORE, resultSlot, -2);
+        final int end = code.length();
+
+        code.mark(epilogue);
+        storeVariables();
+        code.op1(DLOAD, resultSlot, 2);
+        code.op(DRETURN, -2);
+
+        // Write the variables back if the evaluation fails, too
+        final int exceptionSlot = allocate(1);
+        final int handler = code.length();
+        code.setStack(1);
+        code.op1(ASTORE, exceptionSlot, -1);
+        storeVariables();
+        code.op1(ALOAD, exceptionSlot, 1);
+        code.op(ATHROW, -1);
+        code.addHandler(start, end, handler);
+
+        if (code.length() > Short.MAX_VALUE) {
+            throw new UnsupportedException();
+        }
+
+        return code;
+    }
+
+    private void loadVariable(Code target, int index) {
+        target.op(ALOAD_0, 1);
+        target.op2(GETFIELD, writer.fieldRef(COMPILED, "variables", "[L" + VARIABLE + ";"), 0);
+        target.op2(SIPUSH, index, 1);
+        target.op(AALOAD, -1);
+    }
+
+    private void storeVariables() {
+        for (Variable variable : assigned) {
+            loadVariable(code, variables.indexOf(variable));
+            code.op1(DLOAD, slots.get(variable), 2);
+            code.op2(PUTFIELD, writer.fieldRef(VARIABLE, "value", "D"), -3);
+        }
+    }
+
+    private int allocate(int size) throws UnsupportedException {
+        final int slot = nextSlot;
+        nextSlot += size;
+        if (nextSlot > 255) {
+            throw new UnsupportedException();
+        }
+        return slot;
+    }
+
+    private int slot(Variable variable) throws UnsupportedException {
+        Integer slot = slots.get(variable);
+        if (slot == null) {
+            slot = allocate(2);
+            slots.put(variable, slot);
+            variables.add(variable);
+        }
+        return slot;
+    }
+
+    private int assignable(RValue node) throws UnsupportedException {
+        if (!(node instanceof Variable)) {
+            throw new UnsupportedException();
+        }
+
+        final Variable variable = (Variable) node;
+        final int slot = slot(variable);
+        if (!assigned.contains(variable)) {
+            assigned.add(variable);
+        }
+        return slot;
+    }
+
+    private void pushDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            code.op(DCONST_0, 2);
+        } else if (value == 1.0) {
+            code.op(DCONST_1, 2);
+        } else {
+            code.op2(LDC2_W, writer.doubleValue(value), 2);
+        }
+    }
+
+    private void pushInt(int value) {
+        if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.op2(SIPUSH, value, 1);
+        } else {
+            code.op2(LDC_W, writer.integer(value), 1);
+        }
+    }
+
+    /**
+     * Emits code that leaves the value of the node on the operand stack.
+     */
+    private void compileNode(RValue node) throws UnsupportedException {
+        if (node instanceof Constant) {
+            pushDouble(((Constant) node).getValue());
+        } else if (node instanceof Variable) {
+            code.op1(DLOAD, slot((Variable) node), 2);
+        } else if (node instanceof Function) {
+            compileFunction((Function) node);
+        } else if (node instanceof Sequence) {
+            final RValue[] sequence = ((Sequence) node).sequence;
+            if (sequence.length == 0) {
+                code.op(DCONST_0, 2);
+            }
+            for (int i = 0; i < sequence.length; ++i) {
+                compileNode(sequence[i]);
+                if (i < sequence.length - 1) {
+                    code.op(POP2, -2);
+                }
+            }
+        } else if (node instanceof Conditional) {
+            final Conditional conditional = (Conditional) node;
+            final Label falsePart = new Label();
+            final Label end = new Label();
+            jumpIfNotPositive(conditional.condition, falsePart);
+            compileNode(conditional.truePart);
+            code.jump(GOTO, end, 0);
+            code.mark(falsePart);
+            if (conditional.falsePart == null) {
+                code.op(DCONST_0, 2);
+            } else {
+                compileNode(conditional.falsePart);
+            }
+            code.mark(end);
+        } else if (node instanceof While) {
+            compileWhile((While) node);
+        } else if (node instanceof For) {
+            compileFor((For) node);
+        } else if (node instanceof SimpleFor) {
+            compileSimpleFor((SimpleFor) node);
+        } else if (node instanceof Break) {
+            final Loop loop = loops.peek();
+            if (loop == null || code.stack() != loop.stack) {
+                throw new UnsupportedException();
+            }
+            code.jump(GOTO, ((Break) node).doContinue ? loop.next : loop.end, 0);
+            // Unreachable, keeps the stack depth consistent
+            code.op(DCONST_0, 2);
+        } else if (node instanceof Return) {
+            compileNode(((Return) node).value);
+            code.op1(DSTORE, resultSlot, -2);
+            if (code.stack() != 0) {
+                throw new UnsupportedException();
+            }
+            code.jump(GOTO, epilogue, 0);
+            code.op(DCONST_0, 2);
+        } else {
+            throw new UnsupportedException();
+        }
+    }
+
+    /**
+     * Emits code that jumps to the given label unless the value of the node
+     * is greater than zero.
+     */
+    private void jumpIfNotPositive(RValue node, Label target) throws UnsupportedException {
+        compileNode(node);
+        code.op(DCONST_0, 2);
+        code.op(DCMPL, -3);
+        code.jump(IFLE, target, -1);
+    }
+
+    /**
+     * Emits 1.0 if the given jump is not taken and 0.0 otherwise.
+     */
+    private void compileTest(int comparison, int jump) {
+        final Label isFalse = new Label();
+        final Label end = new Label();
+        code.op(comparison, -3);
+        code.jump(jump, isFalse, -1);
+        code.op(DCONST_1, 2);
+        code.jump(GOTO, end, 0);
+        code.mark(isFalse);
+        code.op(DCONST_0, 2);
+        code.mark(end);
+    }
+
+    private void compileFunction(Function function) throws UnsupportedException {
+        final Method method = function.method;
+        final RValue[] args = function.args;
+        final String name = method.getName();
+
+        if (method.getDeclaringClass() == Operators.class && compileOperator(name, args)) {
+            return;
+        }
+
+        if (method.getDeclaringClass() == Functions.class) {
+            final String mathName = MATH_FUNCTIONS.get(name + "/" + args.length);
+            if (mathName != null) {
+                for (RValue arg : args) {
+                    compileNode(arg);
+                }
+                final String descriptor = args.length == 1 ? "(D)D" : "(DD)D";
+                code.op2(INVOKESTATIC, writer.methodRef(MATH, mathName, descriptor), 2 - args.length * 2);
+                return;
+            }
+
+            if ((name.equals("min") || name.equals("max")) && args.length == 3) {
+                for (RValue arg : args) {
+                    compileNode(arg);
+                }
+                final int ref = writer.methodRef(MATH, name, "(DD)D");
+                code.op2(INVOKESTATIC, ref, -2);
+                code.op2(INVOKESTATIC, ref, -2);
+                // a, b, c -> f(a, f(b, c)), same as the interpreted version
+                return;
+            }
+
+            if (name.equals("round") && args.length == 1) {
+                compileNode(args[0]);
+                code.op2(INVOKESTATIC, writer.methodRef(MATH, "round", "(D)J"), 0);
+                code.op(L2D, 0);
+                return;
+            }
+        }
+
+        compileCall(function);
+    }
+
+    /**
+     * Calls the method of the function, passing each argument as a
+     * {@link Constant}.
+     */
+    private void compileCall(Function function) throws UnsupportedException {
+        final Method method = function.method;
+        final Class<?> owner = method.getDeclaringClass();
+        if (owner != Functions.class && owner != Operators.class) {
+            // Functions of other class loaders may not be visible
+            throw new UnsupportedException();
+        }
+
+        final StringBuilder descriptor = new StringBuilder("(");
+        for (Class<?> type : method.getParameterTypes()) {
+            if (type != RValue.class) {
+                throw new UnsupportedException();
+            }
+            descriptor.append(RVALUE);
+        }
+        descriptor.append(")D");
+
+        final int constantClass = writer.classRef(CONSTANT);
+        final int constantInit = writer.methodRef(CONSTANT, "<init>", "(ID)V");
+        for (RValue arg : function.args) {
+            code.op2(NEW, constantClass, 1);
+            code.op(DUP, 1);
+            code.op(ICONST_M1, 1);
+            compileNode(arg);
+            code.op2(INVOKESPECIAL, constantInit, -4);
+        }
+
+        final String ownerName = owner.getName().replace('.', '/');
+        code.op2(INVOKESTATIC, writer.methodRef(ownerName, method.getName(), descriptor.toString()),
+                2 - function.args.length);
+    }
+
+    private boolean compileOperator(String name, RValue[] args) throws UnsupportedException {
+        if (args.length == 2) {
+            final int arithmetic = arithmeticOpcode(name);
+            if (arithmetic != 0) {
+                compileNode(args[0]);
+                compileNode(args[1]);
+                code.op(arithmetic, -2);
+                return true;
+            }
+
+            if (name.equals("pow")) {
+                compileNode(args[0]);
+                compileNode(args[1]);
+                code.op2(INVOKESTATIC, writer.methodRef(MATH, "pow", "(DD)D"), -2);
+                return true;
+            }
+
+            // The same instructions javac emits for the comparisons
+            final int[][] comparisons = {
+                    { DCMPG, IFGE }, { DCMPL, IFLE }, { DCMPG, IFGT }, { DCMPL, IFLT }, { DCMPL, IFNE }, { DCMPL, IFEQ } };
+            final int comparison = indexOf(name, "lth", "gth", "leq", "geq", "equ", "neq");
+            if (comparison >= 0) {
+                compileNode(args[0]);
+                compileNode(args[1]);
+                compileTest(comparisons[comparison][0], comparisons[comparison][1]);
+                return true;
+            }
+
+            if (name.equals("and") || name.equals("or")) {
+                final Label isTrue = new Label();
+                final Label isFalse = new Label();
+                final Label end = new Label();
+                compileNode(args[0]);
+                code.op(DCONST_0, 2);
+                code.op(DCMPL, -3);
+                code.jump(name.equals("and") ? IFLE : IFGT, name.equals("and") ? isFalse : isTrue, -1);
+                jumpIfNotPositive(args[1], isFalse);
+                code.mark(isTrue);
+                code.op(DCONST_1, 2);
+                code.jump(GOTO, end, 0);
+                code.mark(isFalse);
+                code.op(DCONST_0, 2);
+                code.mark(end);
+                return true;
+            }
+
+            if (name.equals("shl") || name.equals("shr")) {
+                compileNode(args[0]);
+                code.op(D2L, 0);
+                compileNode(args[1]);
+                code.op(D2L, 0);
+                code.op(L2I, -1);
+                code.op(name.equals("shl") ? LSHL : LSHR, -1);
+                code.op(L2D, 0);
+                return true;
+            }
+
+            final int assignment = indexOf(name, "ass", "aadd", "asub", "amul", "adiv", "amod", "aexp");
+            if (assignment >= 0) {
+                final int slot = assignable(args[0]);
+                if (assignment > 0) {
+                    code.op1(DLOAD, slot, 2);
+                }
+                compileNode(args[1]);
+                if (assignment == 6) {
+                    code.op2(INVOKESTATIC, writer.methodRef(MATH, "pow", "(DD)D"), -2);
+                } else if (assignment > 0) {
+                    code.op(arithmeticOpcode(name.substring(1)), -2);
+                }
+                code.op(DUP2, 2);
+                code.op1(DSTORE, slot, -2);
+                return true;
+            }
+        } else if (args.length == 1) {
+            if (name.equals("neg")) {
+                compileNode(args[0]);
+                code.op(DNEG, 0);
+                return true;
+            }
+
+            if (name.equals("not")) {
+                compileNode(args[0]);
+                code.op(DCONST_0, 2);
+                // x > 0.0 ? 0.0 : 1.0
+                compileTest(DCMPL, IFGT);
+                return true;
+            }
+
+            if (name.equals("inv")) {
+                compileNode(args[0]);
+                code.op(D2L, 0);
+                // ~x == -x - 1
+                code.op(LNEG, 0);
+                code.op(LCONST_1, 2);
+                code.op(LSUB, -2);
+                code.op(L2D, 0);
+                return true;
+            }
+
+            final int increment = indexOf(name, "inc", "dec", "postinc", "postdec");
+            if (increment >= 0) {
+                final int slot = assignable(args[0]);
+                code.op1(DLOAD, slot, 2);
+                if (increment >= 2) {
+                    // Leave the old value
+                    code.op(DUP2, 2);
+                }
+                code.op(DCONST_1, 2);
+                code.op(increment % 2 == 0 ? DADD : DSUB, -2);
+                if (increment < 2) {
+                    code.op(DUP2, 2);
+                }
+                code.op1(DSTORE, slot, -2);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int arithmeticOpcode(String name) {
+        switch (indexOf(name, "add", "sub", "mul", "div", "mod")) {
+        case 0: return DADD;
+        case 1: return DSUB;
+        case 2: return DMUL;
+        case 3: return DDIV;
+        case 4: return DREM;
+        default: return 0;
+        }
+    }
+
+    private static int indexOf(String name, String... names) {
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Emits the check of the iteration limit and counts the iteration.
+     */
+    private void countIteration(int counterSlot, int position) {
+        final Label ok = new Label();
+        code.op1(ILOAD, counterSlot, 1);
+        pushInt(MAX_ITERATIONS);
+        code.jump(IF_ICMPLE, ok, -2);
+        final int stack = code.stack();
+        code.op2(NEW, writer.classRef(EVALUATION_EXCEPTION), 1);
+        code.op(DUP, 1);
+        pushInt(position);
+        code.op2(LDC_W, writer.string("Loop exceeded " + MAX_ITERATIONS + " iterations."), 1);
+        code.op2(INVOKESPECIAL, writer.methodRef(EVALUATION_EXCEPTION, "<init>", "(ILjava/lang/String;)V"), -3);
+        code.op(ATHROW, -1);
+        code.setStack(stack);
+        code.mark(ok);
+        code.iinc(counterSlot, 1);
+    }
+
+    /**
+     * Starts a loop, with the iteration counter and the result initialized.
+     *
+     * @return the slot of the iteration counter, followed by the result
+     */
+    private int startLoop() throws UnsupportedException {
+        final int counterSlot = allocate(3);
+        code.op2(SIPUSH, 0, 1);
+        code.op1(ISTORE, counterSlot, -1);
+        code.op(DCONST_0, 2);
+        code.op1(DSTORE, counterSlot + 1, -2);
+        return counterSlot;
+    }
+
+    private void compileLoopBody(RValue body, int counterSlot) throws UnsupportedException {
+        compileNode(body);
+        code.op1(DSTORE, counterSlot + 1, -2);
+    }
+
+    private void endLoop(Loop loop, int counterSlot) {
+        code.mark(loop.end);
+        code.setStack(loop.stack);
+        code.op1(DLOAD, counterSlot + 1, 2);
+    }
+
+    private void compileWhile(While node) throws UnsupportedException {
+        final int counterSlot = startLoop();
+        final Loop loop = new Loop(code.stack());
+        loops.push(loop);
+
+        final Label top = new Label();
+        if (node.footChecked) {
+            code.mark(top);
+            countIteration(counterSlot, node.getPosition());
+            compileLoopBody(node.body, counterSlot);
+            code.mark(loop.next);
+            jumpIfNotPositive(node.condition, loop.end);
+            code.jump(GOTO, top, 0);
+        } else {
+            code.mark(top);
+            code.mark(loop.next);
+            jumpIfNotPositive(node.condition, loop.end);
+            countIteration(counterSlot, node.getPosition());
+            compileLoopBody(node.body, counterSlot);
+            code.jump(GOTO, top, 0);
+        }
+
+        loops.pop();
+        endLoop(loop, counterSlot);
+    }
+
+    private void compileFor(For node) throws UnsupportedException {
+        compileNode(node.init);
+        code.op(POP2, -2);
+
+        final int counterSlot = startLoop();
+        final Loop loop = new Loop(code.stack());
+        loops.push(loop);
+
+        final Label top = new Label();
+        code.mark(top);
+        jumpIfNotPositive(node.condition, loop.end);
+        countIteration(counterSlot, node.getPosition());
+        compileLoopBody(node.body, counterSlot);
+        code.mark(loop.next);
+        compileNode(node.increment);
+        code.op(POP2, -2);
+        code.jump(GOTO, top, 0);
+
+        loops.pop();
+        endLoop(loop, counterSlot);
+    }
+
+    private void compileSimpleFor(SimpleFor node) throws UnsupportedException {
+        final int counterSlot = startLoop();
+        final int indexSlot = allocate(4);
+        final int lastSlot = indexSlot + 2;
+
+        compileNode(node.first);
+        code.op1(DSTORE, indexSlot, -2);
+        compileNode(node.last);
+        code.op1(DSTORE, lastSlot, -2);
+
+        final int variableSlot = assignable(node.counter);
+        final Loop loop = new Loop(code.stack());
+        loops.push(loop);
+
+        final Label top = new Label();
+        code.mark(top);
+        code.op1(DLOAD, indexSlot, 2);
+        code.op1(DLOAD, lastSlot, 2);
+        code.op(DCMPG, -3);
+        code.jump(IFGT, loop.end, -1);
+        countIteration(counterSlot, node.getPosition());
+        code.op1(DLOAD, indexSlot, 2);
+        code.op1(DSTORE, variableSlot, -2);
+        compileLoopBody(node.body, counterSlot);
+        code.mark(loop.next);
+        code.op1(DLOAD, indexSlot, 2);
+        code.op(DCONST_1, 2);
+        code.op(DADD, -2);
+        code.op1(DSTORE, indexSlot, -2);
+        code.jump(GOTO, top, 0);
+
+        loops.pop();
+        endLoop(loop, counterSlot);
+    }
+}
@@ -0,0 +1,373 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer for class files without stack map frames, as used by
+ * {@link BytecodeCompiler}.
+ */
+final class ClassFileWriter {
+    /**
+     * Class file version 49 (Java 5) does not need stack map frames.
+     */
+    private static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndices = new HashMap<String, Integer>();
+    private int poolCount = 1;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    private Integer lookup(String key) {
+        return poolIndices.get(key);
+    }
+
+    private int register(String key, int slots) {
+        final int index = poolCount;
+        poolIndices.put(key, index);
+        poolCount += slots;
+        return index;
+    }
+
+    int utf8(String value) {
+        final Integer index = lookup("U" + value);
+        if (index != null) {
+            return index;
+        }
+
+        try {
+            pool.writeByte(1);
+            pool.writeUTF(value);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return register("U" + value, 1);
+    }
+
+    int classRef(String internalName) {
+        return reference("C", 7, utf8(internalName), -1);
+    }
+
+    int string(String value) {
+        return reference("S", 8, utf8(value), -1);
+    }
+
+    int integer(int value) {
+        final Integer index = lookup("I" + value);
+        if (index != null) {
+            return index;
+        }
+
+        try {
+            pool.writeByte(3);
+            pool.writeInt(value);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return register("I" + value, 1);
+    }
+
+    int doubleValue(double value) {
+        final long bits = Double.doubleToRawLongBits(value);
+        final Integer index = lookup("D" + bits);
+        if (index != null) {
+            return index;
+        }
+
+        try {
+            pool.writeByte(6);
+            pool.writeLong(bits);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return register("D" + bits, 2);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return reference("F", 9, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return reference("M", 10, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return reference("N", 12, utf8(name), utf8(descriptor));
+    }
+
+    private int reference(String prefix, int tag, int first, int second) {
+        final String key = prefix + first + ":" + second;
+        final Integer index = lookup(key);
+        if (index != null) {
+            return index;
+        }
+
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(first);
+            if (second >= 0) {
+                pool.writeShort(second);
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return register(key, 1);
+    }
+
+    void addMethod(int access, String name, String descriptor, Code code) {
+        final int nameIndex = utf8(name);
+        final int descriptorIndex = utf8(descriptor);
+        final int codeIndex = utf8("Code");
+
+        try {
+            methods.writeShort(access);
+            methods.writeShort(nameIndex);
+            methods.writeShort(descriptorIndex);
+            methods.writeShort(1);
+
+            methods.writeShort(codeIndex);
+            methods.writeInt(12 + code.length + code.handlers.size() * 8);
+            methods.writeShort(code.maxStack);
+            methods.writeShort(code.maxLocals);
+            methods.writeInt(code.length);
+            methods.write(code.bytes, 0, code.length);
+            methods.writeShort(code.handlers.size());
+            for (int[] handler : code.handlers) {
+                for (int value : handler) {
+                    methods.writeShort(value);
+                }
+            }
+            methods.writeShort(0);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        ++methodCount;
+    }
+
+    byte[] toByteArray(int access, String thisClass, String superClass) {
+        final int thisIndex = classRef(thisClass);
+        final int superIndex = classRef(superClass);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A jump target.
+     */
+    static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> jumps = new ArrayList<Integer>();
+    }
+
+    /**
+     * The code of a method, keeping track of the operand stack depth.
+     */
+    static final class Code {
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals = 0;
+        private final List<int[]> handlers = new ArrayList<int[]>();
+
+        int length() {
+            return length;
+        }
+
+        int stack() {
+            return stack;
+        }
+
+        void setMaxLocals(int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+
+        private void put(int value) {
+            if (length == bytes.length) {
+                final byte[] newBytes = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, newBytes, 0, length);
+                bytes = newBytes;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void adjustStack(int delta) {
+            stack += delta;
+            if (stack < 0) {
+                throw new IllegalStateException("Operand stack underflow");
+            }
+            if (stack > maxStack) {
+                maxStack = stack;
+            }
+        }
+
+        /**
+         * Emit an instruction without operands.
+         *
+         * @param opcode the opcode
+         * @param stackDelta the change of the operand stack depth, in slots
+         */
+        void op(int opcode, int stackDelta) {
+            put(opcode);
+            adjustStack(stackDelta);
+        }
+
+        /**
+         * Emit an instruction with a one byte operand.
+         */
+        void op1(int opcode, int operand, int stackDelta) {
+            put(opcode);
+            put(operand);
+            adjustStack(stackDelta);
+        }
+
+        /**
+         * Emit an instruction with a two byte operand.
+         */
+        void op2(int opcode, int operand, int stackDelta) {
+            put(opcode);
+            put(operand >> 8);
+            put(operand);
+            adjustStack(stackDelta);
+        }
+
+        void iinc(int local, int increment) {
+            put(0x84);
+            put(local);
+            put(increment);
+        }
+
+        /**
+         * Emit a jump instruction.
+         *
+         * @param opcode the opcode
+         * @param target the jump target
+         * @param stackDelta the change of the operand stack depth, in slots
+         */
+        void jump(int opcode, Label target, int stackDelta) {
+            adjustStack(stackDelta);
+            target.stack = stack;
+
+            final int position = length;
+            put(opcode);
+            if (target.position >= 0) {
+                final int offset = target.position - position;
+                put(offset >> 8);
+                put(offset);
+            } else {
+                target.jumps.add(position);
+                put(0);
+                put(0);
+            }
+        }
+
+        /**
+         * Place a label at the current position. If the label was jumped to,
+         * the operand stack depth is taken from the jumps.
+         *
+         * @param label the label
+         */
+        void mark(Label label) {
+            label.position = length;
+            if (label.stack >= 0) {
+                stack = label.stack;
+            }
+
+            for (int jump : label.jumps) {
+                final int offset = length - jump;
+                bytes[jump + 1] = (byte) (offset >> 8);
+                bytes[jump + 2] = (byte) offset;
+            }
+            label.jumps.clear();
+        }
+
+        /**
+         * Reset the operand stack depth, at the start of unreachable code or of
+         * an exception handler.
+         *
+         * @param stack the new depth
+         */
+        void setStack(int stack) {
+            this.stack = 0;
+            adjustStack(stack);
+        }
+
+        /**
+         * Add a handler that catches everything thrown between two positions.
+         */
+        void addHandler(int start, int end, int handler) {
+            handlers.add(new int[] { start, end, handler, 0 });
+        }
+
+        /**
+         * Append another piece of code, which must not contain any absolute
+         * positions.
+         *
+         * @param other the code to append
+         */
+        void append(Code other) {
+            final int offset = length;
+            for (int i = 0; i < other.length; ++i) {
+                put(other.bytes[i]);
+            }
+            for (int[] handler : other.handlers) {
+                handlers.add(new int[] { handler[0] + offset, handler[1] + offset, handler[2] + offset, handler[3] });
+            }
+            maxStack = Math.max(maxStack, stack + other.maxStack);
+            maxLocals = Math.max(maxLocals, other.maxLocals);
+        }
+    }
+}
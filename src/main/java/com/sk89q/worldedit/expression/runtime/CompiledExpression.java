@@ -0,0 +1,43 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+/**
+ * Base class of the classes generated by {@link BytecodeCompiler}.
+ *
+ * The generated code reads the variables into local variables, evaluates the
+ * expression and writes the assigned variables back, even if the evaluation
+ * fails.
+ */
+public abstract class CompiledExpression {
+    protected final Variable[] variables;
+
+    protected CompiledExpression(Variable[] variables) {
+        this.variables = variables;
+    }
+
+    /**
+     * Evaluates the expression with the current values of its variables.
+     *
+     * @return the result
+     * @throws EvaluationException
+     */
+    public abstract double evaluate() throws EvaluationException;
+}
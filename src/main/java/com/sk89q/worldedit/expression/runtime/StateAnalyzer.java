@@ -0,0 +1,129 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Finds out whether an execution tree carries state from one evaluation to
+ * the next.
+ */
+public final class StateAnalyzer {
+    private StateAnalyzer() {
+    }
+
+    /**
+     * Checks whether the result of evaluating the given tree only depends on
+     * the given input variables. This is the case if it calls no
+     * {@link Function.Dynamic} functions and every other variable is
+     * assigned by a top-level statement before it is read.
+     *
+     * This check is conservative, so it may reject some stateless trees.
+     *
+     * @param root the root of the tree
+     * @param inputs the variables that are set before every evaluation
+     * @return true if evaluations are independent of each other
+     */
+    public static boolean isStateless(RValue root, Collection<? extends RValue> inputs) {
+        final Set<RValue> assigned = Collections.newSetFromMap(new IdentityHashMap<RValue, Boolean>());
+        assigned.addAll(inputs);
+
+        final RValue[] statements = root instanceof Sequence ? ((Sequence) root).sequence : new RValue[] { root };
+        for (RValue statement : statements) {
+            if (statement.getClass() == Function.class) {
+                final Function function = (Function) statement;
+                if (function.method.getName().equals("ass") && function.args[0] instanceof Variable) {
+                    if (!readsAssigned(function.args[1], assigned)) {
+                        return false;
+                    }
+
+                    assigned.add(function.args[0]);
+                    continue;
+                }
+            }
+
+            if (!readsAssigned(statement, assigned)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean readsAssigned(RValue[] nodes, Set<RValue> assigned) {
+        for (RValue node : nodes) {
+            if (!readsAssigned(node, assigned)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean readsAssigned(RValue node, Set<RValue> assigned) {
+        if (node == null || node instanceof Constant || node instanceof Break) {
+            return true;
+        }
+
+        if (node instanceof Variable) {
+            return assigned.contains(node);
+        }
+
+        if (node instanceof Function) {
+            final Function function = (Function) node;
+            return !function.method.isAnnotationPresent(Function.Dynamic.class)
+                    && readsAssigned(function.args, assigned);
+        }
+
+        if (node instanceof Sequence) {
+            return readsAssigned(((Sequence) node).sequence, assigned);
+        }
+
+        if (node instanceof Conditional) {
+            final Conditional conditional = (Conditional) node;
+            return readsAssigned(new RValue[] { conditional.condition, conditional.truePart, conditional.falsePart }, assigned);
+        }
+
+        if (node instanceof For) {
+            final For loop = (For) node;
+            return readsAssigned(new RValue[] { loop.init, loop.condition, loop.increment, loop.body }, assigned);
+        }
+
+        if (node instanceof SimpleFor) {
+            final SimpleFor loop = (SimpleFor) node;
+            return readsAssigned(new RValue[] { loop.counter, loop.first, loop.last, loop.body }, assigned);
+        }
+
+        if (node instanceof While) {
+            final While loop = (While) node;
+            return readsAssigned(new RValue[] { loop.condition, loop.body }, assigned);
+        }
+
+        if (node instanceof Return) {
+            return readsAssigned(((Return) node).value, assigned);
+        }
+
+        // Switch and anything unknown
+        return false;
+    }
+}
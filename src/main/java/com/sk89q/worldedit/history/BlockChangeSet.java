@@ -0,0 +1,766 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.util.WorkerPool;
+
+/**
+ * Stores a sequence of block changes (position, previous block, new block)
+ * packed into primitive arrays.
+ * </p>
+ * Changes are grouped into pages. Each page remembers the position of its
+ * first change and stores every other position as an offset to it packed
+ * into a single <code>int</code>, while the type and data values of both
+ * blocks are packed into a <code>char</code> each. A change therefore costs
+ * eight bytes instead of two {@link com.sk89q.worldedit.BlockVector}s and two
+ * {@link BaseBlock}s. A new page is started when a page is full or when a
+ * position is too far away from the page's origin to be stored as an offset.
+ * </p>
+ * Blocks that cannot be packed (such as blocks with tile entity data) are
+ * kept as objects on the side, so nothing is lost.
+ * </p>
+ * The set can be walked forwards (for redo) and backwards (for undo) with a
+ * {@link Cursor}, which does not allocate while moving.
+ * </p>
+ * Once complete, a set can be spilled to a file with {@link #spill(File)}.
+ * Every page is then compressed separately and released from the heap, and
+ * cursors read the pages back one at a time. With
+ * {@link #startSpill(File)}, the pages are written on a worker thread.
+ *
+ * @author sk89q
+ */
+public class BlockChangeSet {
+
+    /**
+     * Maximum number of changes in a single page.
+     */
+    private static final int PAGE_SIZE = 4096;
+
+    /**
+     * Initial capacity of a page, so that small edits stay small.
+     */
+    private static final int INITIAL_PAGE_CAPACITY = 32;
+
+    /**
+     * Packed block value indicating that the actual block is stored
+     * as an object.
+     */
+    private static final char UNPACKED = 0xFFFF;
+
+    /**
+     * Approximate size of a stored {@link BaseBlock} and its map entry, used
+     * for memory estimation.
+     */
+    private static final int UNPACKED_BLOCK_COST = 96;
+
+    private Page[] pages = new Page[8];
+    private int pageCount = 0;
+    private int size = 0;
+    private Map<Integer, BaseBlock> unpackedBefore;
+    private Map<Integer, BaseBlock> unpackedAfter;
+    private File file;
+    private PendingSpill pendingSpill;
+
+    /**
+     * Record a change.
+     *
+     * @param pt position of the change
+     * @param before the previous block
+     * @param after the new block
+     */
+    public void add(Vector pt, BaseBlock before, BaseBlock after) {
+        add(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), before, after);
+    }
+
+    /**
+     * Record a change.
+     *
+     * @param x x coordinate of the change
+     * @param y y coordinate of the change
+     * @param z z coordinate of the change
+     * @param before the previous block
+     * @param after the new block
+     */
+    public void add(int x, int y, int z, BaseBlock before, BaseBlock after) {
+        if (file != null || pendingSpill != null) {
+            throw new IllegalStateException("Can't add changes to a spilled change set");
+        }
+
+        Page page = pageCount == 0 ? null : pages[pageCount - 1];
+        int offset;
+
+        if (page == null || page.size == PAGE_SIZE
+                || (offset = page.offset(x, y, z)) == Page.OUT_OF_RANGE) {
+            page = newPage(x, y, z);
+            offset = 0;
+        }
+
+        char packedBefore = pack(before);
+        if (packedBefore == UNPACKED) {
+            if (unpackedBefore == null) {
+                unpackedBefore = new HashMap<Integer, BaseBlock>();
+            }
+            unpackedBefore.put(size, before);
+        }
+
+        char packedAfter = pack(after);
+        if (packedAfter == UNPACKED) {
+            if (unpackedAfter == null) {
+                unpackedAfter = new HashMap<Integer, BaseBlock>();
+            }
+            unpackedAfter.put(size, after);
+        }
+
+        page.add(offset, packedBefore, packedAfter);
+        ++size;
+    }
+
+    /**
+     * Get the number of changes.
+     *
+     * @return number of changes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all changes. If the set was spilled, its file is deleted, and
+     * so is the file of a spill that is still being written.
+     */
+    public void clear() {
+        if (pendingSpill != null) {
+            pendingSpill.discard();
+            pendingSpill = null;
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        pages = new Page[8];
+        pageCount = 0;
+        size = 0;
+        unpackedBefore = null;
+        unpackedAfter = null;
+    }
+
+    /**
+     * Get an estimate of the number of bytes of heap used by this set.
+     *
+     * @return approximate size in bytes
+     */
+    public long getMemoryUsage() {
+        long bytes = 32 + 4L * pages.length;
+        for (int i = 0; i < pageCount; ++i) {
+            bytes += pages[i].getMemoryUsage();
+        }
+        if (unpackedBefore != null) {
+            bytes += (long) unpackedBefore.size() * UNPACKED_BLOCK_COST;
+        }
+        if (unpackedAfter != null) {
+            bytes += (long) unpackedAfter.size() * UNPACKED_BLOCK_COST;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns whether the changes were moved to a file.
+     *
+     * @return true if spilled
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Get the number of bytes used on disk by this set.
+     *
+     * @return size in bytes, 0 if not spilled
+     */
+    public long getDiskUsage() {
+        return file == null ? 0 : file.length();
+    }
+
+    /**
+     * Compress the changes into the given file and release them from the
+     * heap. Blocks that are stored as objects stay in memory. The file
+     * belongs to this set afterwards and is deleted by {@link #clear()}.
+     * If writing fails, the set is left untouched.
+     *
+     * @param file the file to write to, will be overwritten
+     * @throws IOException
+     */
+    public void spill(File file) throws IOException {
+        if (this.file != null || pendingSpill != null) {
+            throw new IllegalStateException("Change set has already been spilled");
+        }
+
+        release(file, write(file, pages, pageCount));
+    }
+
+    /**
+     * Start spilling the changes to the given file on the
+     * {@link WorkerPool}, like {@link #spill(File)}. Until
+     * {@link #completeSpill()} returns true, the changes stay in memory and
+     * can still be read, but no changes may be added.
+     *
+     * @param file the file to write to, will be overwritten
+     */
+    public void startSpill(File file) {
+        if (this.file != null || pendingSpill != null) {
+            throw new IllegalStateException("Change set has already been spilled");
+        }
+
+        final PendingSpill spill = new PendingSpill(file, pages, pageCount);
+        spill.future = WorkerPool.submit(spill);
+        pendingSpill = spill;
+    }
+
+    /**
+     * Returns whether a spill was started and not completed yet.
+     *
+     * @return true if spilling
+     */
+    public boolean isSpilling() {
+        return pendingSpill != null;
+    }
+
+    /**
+     * Release the changes from the heap once the spill started with
+     * {@link #startSpill(File)} has been written. Must be called by the
+     * thread that uses the set.
+     *
+     * @return true if the set is spilled now
+     * @throws IOException if writing failed, the set is then left in memory
+     *     and the file deleted
+     */
+    public boolean completeSpill() throws IOException {
+        if (pendingSpill == null) {
+            return isSpilled();
+        }
+        if (!pendingSpill.future.isDone()) {
+            return false;
+        }
+
+        final PendingSpill spill = pendingSpill;
+        pendingSpill = null;
+        try {
+            release(spill.file, WorkerPool.getUninterruptibly(spill.future));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to write " + spill.file, e.getCause());
+        }
+        return true;
+    }
+
+    /**
+     * Compress pages into a file. Only reads the pages.
+     *
+     * @param file the file to write to, will be overwritten
+     * @param pages the pages
+     * @param pageCount the number of pages used
+     * @return the position of every page in the file, followed by the length
+     *     of the file
+     * @throws IOException
+     */
+    private static long[] write(File file, Page[] pages, int pageCount) throws IOException {
+        final long[] positions = new long[pageCount + 1];
+        final RandomAccessFile out = new RandomAccessFile(file, "rw");
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        try {
+            out.setLength(0);
+            final ByteBuffer raw = ByteBuffer.allocate(PAGE_SIZE * 8);
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            final byte[] chunk = new byte[8192];
+
+            for (int i = 0; i < pageCount; ++i) {
+                final Page page = pages[i];
+                raw.clear();
+                for (int j = 0; j < page.size; ++j) {
+                    raw.putInt(page.offsets[j]);
+                    raw.putChar(page.before[j]);
+                    raw.putChar(page.after[j]);
+                }
+
+                deflater.reset();
+                deflater.setInput(raw.array(), 0, raw.position());
+                deflater.finish();
+                compressed.reset();
+                while (!deflater.finished()) {
+                    compressed.write(chunk, 0, deflater.deflate(chunk));
+                }
+
+                positions[i] = out.getFilePointer();
+                out.write(compressed.toByteArray());
+            }
+            positions[pageCount] = out.getFilePointer();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+
+        return positions;
+    }
+
+    /**
+     * Drop the pages from the heap after they were written to a file.
+     *
+     * @param file the file
+     * @param positions the positions returned by
+     *     {@link #write(File, Page[], int)}
+     */
+    private void release(File file, long[] positions) {
+        for (int i = 0; i < pageCount; ++i) {
+            pages[i].release(positions[i], (int) (positions[i + 1] - positions[i]));
+        }
+        this.file = file;
+    }
+
+    /**
+     * Get a cursor that walks the changes in the order they were added.
+     *
+     * @return a new cursor
+     */
+    public Cursor forward() {
+        return new Cursor(false);
+    }
+
+    /**
+     * Get a cursor that walks the changes from the last one to the first one.
+     *
+     * @return a new cursor
+     */
+    public Cursor reverse() {
+        return new Cursor(true);
+    }
+
+    private Page newPage(int x, int y, int z) {
+        if (pageCount == pages.length) {
+            pages = Arrays.copyOf(pages, pages.length * 2);
+        }
+        Page page = new Page(x, y, z);
+        pages[pageCount++] = page;
+        return page;
+    }
+
+    /**
+     * Pack a block into a <code>char</code>.
+     *
+     * @param block the block
+     * @return the packed value or {@link #UNPACKED}
+     */
+    private static char pack(BaseBlock block) {
+        if (block.getClass() != BaseBlock.class || block.hasNbtData() || block.getData() < 0) {
+            return UNPACKED;
+        }
+        // Also returns UNPACKED for ID 4095 with data 15, which is then
+        // simply stored as an object
+        return (char) ((block.getType() << 4) | block.getData());
+    }
+
+    /**
+     * A run of changes relative to a common origin.
+     */
+    private static final class Page {
+        private static final int OUT_OF_RANGE = Integer.MIN_VALUE;
+
+        private final int originX;
+        private final int originY;
+        private final int originZ;
+        private int[] offsets = new int[INITIAL_PAGE_CAPACITY];
+        private char[] before = new char[INITIAL_PAGE_CAPACITY];
+        private char[] after = new char[INITIAL_PAGE_CAPACITY];
+        private int size = 0;
+        private long filePosition = -1;
+        private int fileLength;
+
+        private Page(int originX, int originY, int originZ) {
+            this.originX = originX;
+            this.originY = originY;
+            this.originZ = originZ;
+        }
+
+        /**
+         * Pack a position as an offset to the origin of this page. X and Z
+         * get 11 bits each and Y gets 10 bits, all signed.
+         *
+         * @return packed offset or {@link #OUT_OF_RANGE}
+         */
+        private int offset(int x, int y, int z) {
+            final int dx = x - originX;
+            final int dy = y - originY;
+            final int dz = z - originZ;
+
+            if (dx < -1024 || dx > 1023 || dz < -1024 || dz > 1023 || dy < -512 || dy > 511) {
+                return OUT_OF_RANGE;
+            }
+
+            return (dx << 21) | ((dz & 0x7FF) << 10) | (dy & 0x3FF);
+        }
+
+        private void add(int offset, char packedBefore, char packedAfter) {
+            if (size == offsets.length) {
+                final int capacity = Math.min(PAGE_SIZE, size * 2);
+                offsets = Arrays.copyOf(offsets, capacity);
+                before = Arrays.copyOf(before, capacity);
+                after = Arrays.copyOf(after, capacity);
+            }
+
+            offsets[size] = offset;
+            before[size] = packedBefore;
+            after[size] = packedAfter;
+            ++size;
+        }
+
+        /**
+         * Drop the arrays after the page was written to a file.
+         */
+        private void release(long filePosition, int fileLength) {
+            this.filePosition = filePosition;
+            this.fileLength = fileLength;
+            offsets = null;
+            before = null;
+            after = null;
+        }
+
+        private long getMemoryUsage() {
+            return offsets == null ? 56 : 56 + 3 * 16 + offsets.length * 8L;
+        }
+    }
+
+    /**
+     * A spill being written on a worker thread. If the set is cleared
+     * meanwhile, the file is deleted once it was written.
+     */
+    private static final class PendingSpill implements Callable<long[]> {
+        private final File file;
+        private final Page[] pages;
+        private final int pageCount;
+        private Future<long[]> future;
+        private boolean written = false;
+        private boolean discarded = false;
+
+        private PendingSpill(File file, Page[] pages, int pageCount) {
+            this.file = file;
+            this.pages = pages;
+            this.pageCount = pageCount;
+        }
+
+        @Override
+        public long[] call() throws IOException {
+            final long[] positions;
+            try {
+                positions = write(file, pages, pageCount);
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            } catch (RuntimeException e) {
+                file.delete();
+                throw e;
+            }
+
+            synchronized (this) {
+                written = true;
+                if (discarded) {
+                    file.delete();
+                }
+            }
+            return positions;
+        }
+
+        private synchronized void discard() {
+            discarded = true;
+            if (written) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Walks the changes of the set without allocating. A cursor starts
+     * before the first change; call {@link #next()} to move to it.
+     * </p>
+     * Adding changes to the set while a cursor is in use is not supported.
+     * If the set was spilled, the cursor keeps the file open until the last
+     * change was reached or {@link #close()} is called.
+     */
+    public final class Cursor {
+        private final boolean reverse;
+        private int[] offsets;
+        private char[] befores;
+        private char[] afters;
+        private RandomAccessFile in;
+        private Inflater inflater;
+        private byte[] compressed;
+        private ByteBuffer raw;
+        private int[] offsetBuffer;
+        private char[] beforeBuffer;
+        private char[] afterBuffer;
+        private int pageIndex;
+        private int entryIndex;
+        private int index;
+        private Page page;
+        private int x;
+        private int y;
+        private int z;
+        private char before;
+        private char after;
+
+        private Cursor(boolean reverse) {
+            this.reverse = reverse;
+            reset();
+        }
+
+        /**
+         * Move the cursor back to its starting point.
+         */
+        public void reset() {
+            close();
+            page = null;
+            if (reverse) {
+                pageIndex = pageCount;
+                entryIndex = 0;
+                index = size;
+            } else {
+                pageIndex = -1;
+                entryIndex = 0;
+                index = -1;
+            }
+        }
+
+        /**
+         * Move to the next change.
+         *
+         * @return false if there are no more changes
+         */
+        public boolean next() {
+            if (reverse) {
+                while (page == null || entryIndex == 0) {
+                    if (pageIndex == 0) {
+                        close();
+                        return false;
+                    }
+                    enter(pages[--pageIndex]);
+                    entryIndex = page.size;
+                }
+                --entryIndex;
+                --index;
+            } else {
+                while (page == null || entryIndex == page.size - 1) {
+                    if (pageIndex + 1 >= pageCount) {
+                        close();
+                        return false;
+                    }
+                    enter(pages[++pageIndex]);
+                    entryIndex = -1;
+                }
+                ++entryIndex;
+                ++index;
+            }
+
+            final int offset = offsets[entryIndex];
+            x = page.originX + (offset >> 21);
+            z = page.originZ + ((offset << 11) >> 21);
+            y = page.originY + ((offset << 22) >> 22);
+            before = befores[entryIndex];
+            after = afters[entryIndex];
+            return true;
+        }
+
+        /**
+         * Release the file handle of a spilled set. The cursor can still be
+         * used afterwards and will reopen the file as needed.
+         */
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
+                in = null;
+            }
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+        }
+
+        private void enter(Page page) {
+            this.page = page;
+
+            if (page.offsets != null) {
+                offsets = page.offsets;
+                befores = page.before;
+                afters = page.after;
+                return;
+            }
+
+            try {
+                load(page);
+            } catch (IOException e) {
+                close();
+                throw new IllegalStateException("Failed to read history from " + file, e);
+            } catch (DataFormatException e) {
+                close();
+                throw new IllegalStateException("Corrupt history in " + file, e);
+            }
+        }
+
+        /**
+         * Read and decompress a spilled page into the buffers of the cursor.
+         */
+        private void load(Page page) throws IOException, DataFormatException {
+            if (in == null) {
+                in = new RandomAccessFile(file, "r");
+                inflater = new Inflater();
+            }
+            if (raw == null) {
+                raw = ByteBuffer.allocate(PAGE_SIZE * 8);
+                offsetBuffer = new int[PAGE_SIZE];
+                beforeBuffer = new char[PAGE_SIZE];
+                afterBuffer = new char[PAGE_SIZE];
+            }
+            if (compressed == null || compressed.length < page.fileLength) {
+                compressed = new byte[page.fileLength];
+            }
+
+            in.seek(page.filePosition);
+            in.readFully(compressed, 0, page.fileLength);
+
+            final int length = page.size * 8;
+            inflater.reset();
+            inflater.setInput(compressed, 0, page.fileLength);
+            int read = 0;
+            while (read < length) {
+                final int n = inflater.inflate(raw.array(), read, length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new DataFormatException("Page is truncated");
+                }
+                read += n;
+            }
+
+            raw.clear();
+            for (int i = 0; i < page.size; ++i) {
+                offsetBuffer[i] = raw.getInt();
+                beforeBuffer[i] = raw.getChar();
+                afterBuffer[i] = raw.getChar();
+            }
+            offsets = offsetBuffer;
+            befores = beforeBuffer;
+            afters = afterBuffer;
+        }
+
+        /**
+         * Get the index of the current change in the order of addition.
+         *
+         * @return index
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getZ() {
+            return z;
+        }
+
+        /**
+         * Get the type of the block before the change.
+         *
+         * @return type
+         */
+        public int getBeforeType() {
+            return before == UNPACKED ? unpackedBefore.get(index).getType() : before >> 4;
+        }
+
+        /**
+         * Get the data value of the block before the change.
+         *
+         * @return data value
+         */
+        public int getBeforeData() {
+            return before == UNPACKED ? unpackedBefore.get(index).getData() : before & 0xF;
+        }
+
+        /**
+         * Get the type of the block after the change.
+         *
+         * @return type
+         */
+        public int getAfterType() {
+            return after == UNPACKED ? unpackedAfter.get(index).getType() : after >> 4;
+        }
+
+        /**
+         * Get the data value of the block after the change.
+         *
+         * @return data value
+         */
+        public int getAfterData() {
+            return after == UNPACKED ? unpackedAfter.get(index).getData() : after & 0xF;
+        }
+
+        /**
+         * Get the block before the change. Packed blocks are returned as a
+         * new instance; blocks that were stored as objects are returned as-is.
+         *
+         * @return block
+         */
+        public BaseBlock getBefore() {
+            return before == UNPACKED ? unpackedBefore.get(index) : new BaseBlock(before >> 4, before & 0xF);
+        }
+
+        /**
+         * Get the block after the change. Packed blocks are returned as a
+         * new instance; blocks that were stored as objects are returned as-is.
+         *
+         * @return block
+         */
+        public BaseBlock getAfter() {
+            return after == UNPACKED ? unpackedAfter.get(index) : new BaseBlock(after >> 4, after & 0xF);
+        }
+    }
+}
@@ -53,6 +53,10 @@ public boolean has(Mask mask) {
         return masks.contains(mask);
     }
 
+    List<Mask> getMasks() {
+        return masks;
+    }
+
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
         for (Mask mask : masks) {
             mask.prepare(session, player, target);
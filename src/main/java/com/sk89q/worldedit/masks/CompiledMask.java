@@ -0,0 +1,599 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.masks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sk89q.worldedit.ChunkBlockSnapshot;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * A mask flattened into a single evaluator.
+ * </p>
+ * Block masks become lookup tables indexed by block type, nested combined
+ * masks are merged, and the tables of a combined mask are intersected into
+ * one. Masks that are not known to the compiler are evaluated as they are.
+ * </p>
+ * The built-in masks only look at the column of the block that is tested,
+ * so an evaluator can read the blocks from a snapshot of that chunk, see
+ * {@link Context#setSnapshot(ChunkBlockSnapshot)}.
+ */
+public abstract class CompiledMask {
+    /**
+     * Number of block types that fit in a lookup table.
+     */
+    private static final int TYPES = 4096;
+
+    /**
+     * Compile a mask. The mask is read when it is compiled, so it has to be
+     * compiled again after it was changed.
+     *
+     * @param mask the mask
+     * @return the evaluator
+     */
+    @SuppressWarnings("deprecation") // The deprecated block type masks are still accepted
+    public static CompiledMask compile(Mask mask) {
+        final Class<?> type = mask.getClass();
+
+        if (type == CombinedMask.class) {
+            final List<CompiledMask> children = new ArrayList<CompiledMask>();
+            for (Mask child : ((CombinedMask) mask).getMasks()) {
+                children.add(compile(child));
+            }
+            return and(children);
+        }
+
+        if (type == InvertedMask.class) {
+            return not(compile(((InvertedMask) mask).getMask()));
+        }
+
+        if (type == BlockMask.class || type == BlockTypeMask.class) {
+            return TableMask.of(((BlockMask) mask).blocks);
+        }
+
+        if (type == InvertedBlockTypeMask.class) {
+            return TableMask.of(((BlockMask) mask).blocks).invert();
+        }
+
+        if (type == ExistingBlockMask.class) {
+            return TableMask.of(Arrays.asList(new BaseBlock(BlockID.AIR, -1))).invert();
+        }
+
+        if (type == UnderOverlayMask.class) {
+            final UnderOverlayMask underOverlay = (UnderOverlayMask) mask;
+            return new ShiftedMask(compile(underOverlay.getMask()), underOverlay.getYMod());
+        }
+
+        if (type == RegionMask.class) {
+            return new RegionContainsMask(((RegionMask) mask).getRegion());
+        }
+
+        return new UncompiledMask(mask);
+    }
+
+    /**
+     * Returns whether the block at the given position matches.
+     *
+     * @param context the blocks to test
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return true if the block matches
+     */
+    public abstract boolean matches(Context context, int x, int y, int z);
+
+    /**
+     * Returns whether any block of a 16x16x16 section could match. This is a
+     * quick test that does not read any block, so it may return true for
+     * sections where no block matches.
+     *
+     * @param minX the lowest X coordinate of the section
+     * @param minY the lowest Y coordinate of the section
+     * @param minZ the lowest Z coordinate of the section
+     * @return false if no block of the section matches
+     */
+    public boolean mayMatchSection(int minX, int minY, int minZ) {
+        return true;
+    }
+
+    /**
+     * Returns whether the mask reads blocks through the context, and so can
+     * use a snapshot set with {@link Context#setSnapshot(ChunkBlockSnapshot)}.
+     *
+     * @return true if blocks are read through the context
+     */
+    public boolean readsBlocks() {
+        return true;
+    }
+
+    /**
+     * Test all blocks of a 16x16x16 chunk section. Bit <code>(y << 8) | (z << 4) | x</code>
+     * of the 64 longs is set for each block that matches, with coordinates
+     * relative to the section.
+     *
+     * @param context the blocks to test
+     * @param minX the lowest X coordinate of the section, a multiple of 16
+     * @param minY the lowest Y coordinate of the section, a multiple of 16
+     * @param minZ the lowest Z coordinate of the section, a multiple of 16
+     * @param bits 64 longs to store the result in
+     * @return true if any block matches
+     */
+    public boolean matchSection(Context context, int minX, int minY, int minZ, long[] bits) {
+        Arrays.fill(bits, 0);
+        if (!mayMatchSection(minX, minY, minZ)) {
+            return false;
+        }
+
+        boolean any = false;
+        for (int index = 0; index < 4096; ++index) {
+            if (matches(context, minX + (index & 15), minY + (index >> 8), minZ + ((index >> 4) & 15))) {
+                bits[index >> 6] |= 1L << index;
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    private static CompiledMask and(List<CompiledMask> children) {
+        final List<CompiledMask> flattened = new ArrayList<CompiledMask>();
+        TableMask table = null;
+
+        for (CompiledMask child : children) {
+            final List<CompiledMask> grandchildren = child instanceof AndMask
+                    ? Arrays.asList(((AndMask) child).children) : Arrays.asList(child);
+
+            for (CompiledMask grandchild : grandchildren) {
+                if (grandchild instanceof TableMask) {
+                    table = table == null ? (TableMask) grandchild : table.intersect((TableMask) grandchild);
+                } else if (grandchild instanceof RegionContainsMask) {
+                    // Region tests don't read blocks, so they go first
+                    flattened.add(0, grandchild);
+                } else {
+                    flattened.add(grandchild);
+                }
+            }
+        }
+
+        if (table != null) {
+            int index = 0;
+            while (index < flattened.size() && flattened.get(index) instanceof RegionContainsMask) {
+                ++index;
+            }
+            flattened.add(index, table);
+        }
+
+        if (flattened.size() == 1) {
+            return flattened.get(0);
+        }
+        return new AndMask(flattened.toArray(new CompiledMask[flattened.size()]));
+    }
+
+    private static CompiledMask not(CompiledMask mask) {
+        if (mask instanceof TableMask) {
+            return ((TableMask) mask).invert();
+        }
+        if (mask instanceof NotMask) {
+            return ((NotMask) mask).mask;
+        }
+        return new NotMask(mask);
+    }
+
+    /**
+     * The blocks that masks are evaluated against. Blocks are read from the
+     * world through the edit session, or from a snapshot of the chunk that
+     * is being tested.
+     */
+    public static class Context {
+        private final EditSession editSession;
+        private final LocalWorld world;
+        private final int maxY;
+        private ChunkBlockSnapshot snapshot;
+        private int blocksRead = 0;
+
+        /**
+         * Construct the context.
+         *
+         * @param editSession the edit session to read blocks through
+         */
+        public Context(EditSession editSession) {
+            this.editSession = editSession;
+            this.world = editSession.getWorld();
+            this.maxY = world.getMaxY();
+        }
+
+        /**
+         * Set the snapshot to read blocks from. Only blocks of the chunk of
+         * the snapshot may be tested until it is set back to null.
+         *
+         * @param snapshot the snapshot, or null to read from the world
+         */
+        public void setSnapshot(ChunkBlockSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * Get the edit session.
+         *
+         * @return the edit session
+         */
+        public EditSession getEditSession() {
+            return editSession;
+        }
+
+        /**
+         * Get the type of a block. Blocks above or below the world are air.
+         *
+         * @param x the X coordinate
+         * @param y the Y coordinate
+         * @param z the Z coordinate
+         * @return the block type
+         */
+        public int getBlockType(int x, int y, int z) {
+            if (y < 0 || y > maxY) {
+                return BlockID.AIR;
+            }
+            ++blocksRead;
+            if (snapshot != null) {
+                return snapshot.getBlockType(x & 15, y, z & 15);
+            }
+            return world.getBlockType(new Vector(x, y, z));
+        }
+
+        /**
+         * Get the data value of a block. Blocks above or below the world
+         * have a data value of 0.
+         *
+         * @param x the X coordinate
+         * @param y the Y coordinate
+         * @param z the Z coordinate
+         * @return the data value
+         */
+        public int getBlockData(int x, int y, int z) {
+            if (y < 0 || y > maxY) {
+                return 0;
+            }
+            ++blocksRead;
+            if (snapshot != null) {
+                return snapshot.getBlockData(x & 15, y, z & 15);
+            }
+            return world.getBlockData(new Vector(x, y, z));
+        }
+
+        /**
+         * Returns whether a section of the snapshot is known to hold nothing
+         * but air. Always false when blocks are read from the world.
+         *
+         * @param sectionY the section, Y divided by 16
+         * @return true if the section is empty
+         */
+        public boolean isSectionEmpty(int sectionY) {
+            return snapshot != null && snapshot.isSectionEmpty(sectionY);
+        }
+
+        /**
+         * Get the number of blocks read since the last call, from the world
+         * or a snapshot. The edit session adds them to its own count.
+         *
+         * @return number of blocks
+         */
+        public int takeBlocksRead() {
+            final int count = blocksRead;
+            blocksRead = 0;
+            return count;
+        }
+    }
+
+    /**
+     * Matches blocks by looking up their type, and their data value for
+     * types where only some data values match.
+     */
+    private static class TableMask extends CompiledMask {
+        /**
+         * Types that match with any data value.
+         */
+        private final boolean[] types;
+
+        /**
+         * Types that match with some data values.
+         */
+        private final boolean[] partial;
+
+        /**
+         * Indexed by <code>(type << 4) | data</code>, null if no type is partial.
+         */
+        private final boolean[] blocks;
+
+        private TableMask(boolean[] types, boolean[] partial, boolean[] blocks) {
+            this.types = types;
+            this.partial = partial;
+            this.blocks = blocks;
+        }
+
+        /**
+         * Build the table of a set of blocks, where a data value of -1
+         * matches any data value.
+         *
+         * @param set the blocks
+         * @return the table
+         */
+        static TableMask of(Iterable<BaseBlock> set) {
+            final boolean[] types = new boolean[TYPES];
+            final boolean[] blocks = new boolean[TYPES << 4];
+
+            for (BaseBlock block : set) {
+                final int type = block.getType();
+                final int data = block.getData();
+                if (type < 0 || type >= TYPES) {
+                    continue;
+                }
+                if (data == -1) {
+                    types[type] = true;
+                } else if (data >= 0 && data < 16) {
+                    blocks[(type << 4) | data] = true;
+                }
+            }
+
+            return normalize(types, blocks);
+        }
+
+        /**
+         * Move types that match with every data value to the type table,
+         * and drop the block table if it is not needed.
+         */
+        private static TableMask normalize(boolean[] types, boolean[] blocks) {
+            final boolean[] partial = new boolean[TYPES];
+            boolean anyPartial = false;
+
+            for (int type = 0; type < TYPES; ++type) {
+                if (types[type]) {
+                    continue;
+                }
+
+                int count = 0;
+                for (int data = 0; data < 16; ++data) {
+                    if (blocks[(type << 4) | data]) {
+                        ++count;
+                    }
+                }
+
+                if (count == 16) {
+                    types[type] = true;
+                } else if (count > 0) {
+                    partial[type] = true;
+                    anyPartial = true;
+                }
+            }
+
+            return new TableMask(types, partial, anyPartial ? blocks : null);
+        }
+
+        private boolean matches(int index) {
+            final int type = index >> 4;
+            return types[type] || (partial[type] && blocks[index]);
+        }
+
+        private boolean[] expand() {
+            final boolean[] expanded = new boolean[TYPES << 4];
+            for (int index = 0; index < expanded.length; ++index) {
+                expanded[index] = matches(index);
+            }
+            return expanded;
+        }
+
+        TableMask invert() {
+            final boolean[] expanded = expand();
+            for (int index = 0; index < expanded.length; ++index) {
+                expanded[index] = !expanded[index];
+            }
+            return normalize(new boolean[TYPES], expanded);
+        }
+
+        TableMask intersect(TableMask other) {
+            final boolean[] expanded = expand();
+            for (int index = 0; index < expanded.length; ++index) {
+                expanded[index] &= other.matches(index);
+            }
+            return normalize(new boolean[TYPES], expanded);
+        }
+
+        @Override
+        public boolean matches(Context context, int x, int y, int z) {
+            final int type = context.getBlockType(x, y, z);
+            if (type < 0 || type >= TYPES) {
+                return false;
+            }
+            if (types[type]) {
+                return true;
+            }
+            return partial[type] && blocks[(type << 4) | context.getBlockData(x, y, z)];
+        }
+
+        @Override
+        public boolean matchSection(Context context, int minX, int minY, int minZ, long[] bits) {
+            if (context.isSectionEmpty(minY >> 4)) {
+                // Every block of the section gives the same answer
+                final boolean air = matches(BlockID.AIR << 4);
+                Arrays.fill(bits, air ? -1L : 0L);
+                return air;
+            }
+            return super.matchSection(context, minX, minY, minZ, bits);
+        }
+    }
+
+    /**
+     * Matches if all of its masks match.
+     */
+    private static class AndMask extends CompiledMask {
+        private final CompiledMask[] children;
+
+        private AndMask(CompiledMask[] children) {
+            this.children = children;
+        }
+
+        @Override
+        public boolean matches(Context context, int x, int y, int z) {
+            for (CompiledMask child : children) {
+                if (!child.matches(context, x, y, z)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean mayMatchSection(int minX, int minY, int minZ) {
+            for (CompiledMask child : children) {
+                if (!child.mayMatchSection(minX, minY, minZ)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean readsBlocks() {
+            for (CompiledMask child : children) {
+                if (child.readsBlocks()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Matches if its mask does not.
+     */
+    private static class NotMask extends CompiledMask {
+        private final CompiledMask mask;
+
+        private NotMask(CompiledMask mask) {
+            this.mask = mask;
+        }
+
+        @Override
+        public boolean matches(Context context, int x, int y, int z) {
+            return !mask.matches(context, x, y, z);
+        }
+
+        @Override
+        public boolean readsBlocks() {
+            return mask.readsBlocks();
+        }
+    }
+
+    /**
+     * Tests the block above or below.
+     */
+    private static class ShiftedMask extends CompiledMask {
+        private final CompiledMask mask;
+        private final int yMod;
+
+        private ShiftedMask(CompiledMask mask, int yMod) {
+            this.mask = mask;
+            this.yMod = yMod;
+        }
+
+        @Override
+        public boolean matches(Context context, int x, int y, int z) {
+            return mask.matches(context, x, y + yMod, z);
+        }
+
+        @Override
+        public boolean readsBlocks() {
+            return mask.readsBlocks();
+        }
+    }
+
+    /**
+     * Matches the blocks of a region.
+     */
+    private static class RegionContainsMask extends CompiledMask {
+        private final Region region;
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+
+        private RegionContainsMask(Region region) {
+            this.region = region;
+
+            // The bounds of some regions are not whole numbers
+            final Vector min = region.getMinimumPoint();
+            final Vector max = region.getMaximumPoint();
+            minX = (int) Math.floor(min.getX());
+            minY = (int) Math.floor(min.getY());
+            minZ = (int) Math.floor(min.getZ());
+            maxX = (int) Math.ceil(max.getX());
+            maxY = (int) Math.ceil(max.getY());
+            maxZ = (int) Math.ceil(max.getZ());
+        }
+
+        @Override
+        public boolean matches(Context context, int x, int y, int z) {
+            if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) {
+                return false;
+            }
+            return region.contains(new Vector(x, y, z));
+        }
+
+        @Override
+        public boolean mayMatchSection(int sectionX, int sectionY, int sectionZ) {
+            return sectionX + 15 >= minX && sectionX <= maxX
+                    && sectionY + 15 >= minY && sectionY <= maxY
+                    && sectionZ + 15 >= minZ && sectionZ <= maxZ;
+        }
+
+        @Override
+        public boolean readsBlocks() {
+            return false;
+        }
+    }
+
+    /**
+     * Evaluates a mask that the compiler does not know.
+     */
+    private static class UncompiledMask extends CompiledMask {
+        private final Mask mask;
+
+        private UncompiledMask(Mask mask) {
+            this.mask = mask;
+        }
+
+        @Override
+        public boolean matches(Context context, int x, int y, int z) {
+            return mask.matches(context.getEditSession(), new Vector(x, y, z));
+        }
+
+        @Override
+        public boolean readsBlocks() {
+            // It reads through the edit session, which counts the reads
+            return false;
+        }
+    }
+}
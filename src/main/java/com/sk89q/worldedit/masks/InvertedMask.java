@@ -13,6 +13,10 @@ public InvertedMask(Mask mask) {
         this.mask = mask;
     }
 
+    Mask getMask() {
+        return mask;
+    }
+
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
         mask.prepare(session, player, target);
     }
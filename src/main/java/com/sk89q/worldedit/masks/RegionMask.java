@@ -33,6 +33,10 @@ public RegionMask(Region region) {
         this.region = region.clone();
     }
 
+    Region getRegion() {
+        return region;
+    }
+
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
     }
 
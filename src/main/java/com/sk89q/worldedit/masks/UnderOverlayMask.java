@@ -45,6 +45,14 @@ public UnderOverlayMask(Mask mask, boolean overlay) {
         this.mask = mask;
     }
 
+    Mask getMask() {
+        return mask;
+    }
+
+    int getYMod() {
+        return yMod;
+    }
+
     @Deprecated
     public void addAll(Set<Integer> ids) {
         if (mask instanceof BlockTypeMask) {
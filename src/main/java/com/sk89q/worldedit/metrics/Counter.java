@@ -0,0 +1,67 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count, such as a number of blocks or bytes. Most counters only go up;
+ * those that track a current amount, like the size of the history, are kept
+ * up to date by adding the changes, including negative ones. Counters can be
+ * updated from any thread.
+ */
+public class Counter implements CounterMBean {
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Construct the counter. Use {@link Metrics#counter(String)} to get a
+     * registered counter.
+     *
+     * @param name name of the counter
+     */
+    public Counter(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the name of the counter.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Add to the count.
+     *
+     * @param amount amount to add, may be negative
+     */
+    public void add(long amount) {
+        if (amount != 0) {
+            count.addAndGet(amount);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+}
@@ -0,0 +1,292 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sk89q.worldedit.WorldEdit;
+
+/**
+ * The timers and counters of WorldEdit, which tell where edits spend their
+ * time. Metrics are created on first use and live until the server stops.
+ * They can be published as MBeans through JMX, and written to a file by a
+ * {@link MetricsExporter}.
+ * </p>
+ * Metrics are named by dot-separated paths:
+ * <ul>
+ * <li><code>command.&lt;command&gt;</code>: server thread time of commands,
+ *     by the primary alias of the command</li>
+ * <li><code>player.&lt;name&gt;</code>: server thread time of each player's
+ *     commands and scheduled work. These timers are only kept while the
+ *     player has a session, and are not published through JMX</li>
+ * <li><code>thread.main</code> and <code>thread.worker</code>: time spent on
+ *     the server thread and on the threads of the worker pool</li>
+ * <li><code>operation.*</code>: time of single operations, such as flushing
+ *     the queue of an edit session</li>
+ * <li><code>blocks.*</code> and <code>chunks.*</code>: counters of blocks
+ *     and chunk loads</li>
+ * <li><code>history.*</code>: the current size of the undo history of all
+ *     sessions, in memory and on disk</li>
+ * </ul>
+ */
+public final class Metrics {
+    /**
+     * JMX domain of the MBeans.
+     */
+    public static final String DOMAIN = "com.sk89q.worldedit";
+
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentMap<String, Timer> playerTimers = new ConcurrentHashMap<String, Timer>();
+    private static volatile boolean jmxEnabled = false;
+    private static ScheduledExecutorService exportExecutor;
+
+    public static final Timer MAIN_THREAD = timer("thread.main");
+    public static final Timer WORKER_THREAD = timer("thread.worker");
+    public static final Timer FLUSH = timer("operation.flush");
+    public static final Timer SCHEDULER = timer("operation.scheduler");
+    public static final Counter BLOCKS_READ = counter("blocks.read");
+    public static final Counter BLOCKS_WRITTEN = counter("blocks.written");
+    public static final Counter CHUNK_LOADS = counter("chunks.loaded");
+    public static final Counter HISTORY_BYTES = counter("history.bytes");
+    public static final Counter HISTORY_SPILLED_BYTES = counter("history.spilledBytes");
+
+    private Metrics() {
+    }
+
+    /**
+     * Get a timer, creating it if it does not exist yet.
+     *
+     * @param name name of the timer
+     * @return the timer
+     */
+    public static Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            final Timer created = new Timer(name);
+            timer = timers.putIfAbsent(name, created);
+            if (timer == null) {
+                timer = created;
+                if (jmxEnabled) {
+                    register("Timer", name, timer);
+                }
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Get a counter, creating it if it does not exist yet.
+     *
+     * @param name name of the counter
+     * @return the counter
+     */
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            final Counter created = new Counter(name);
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+                if (jmxEnabled) {
+                    register("Counter", name, counter);
+                }
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Get the timer of a player, creating it if it does not exist yet. It
+     * is not published through JMX, and is removed again with
+     * {@link #removePlayer(String)}.
+     *
+     * @param player name of the player
+     * @return the timer
+     */
+    public static Timer playerTimer(String player) {
+        Timer timer = playerTimers.get(player);
+        if (timer == null) {
+            final Timer created = new Timer("player." + player);
+            timer = playerTimers.putIfAbsent(player, created);
+            if (timer == null) {
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Forget the timer of a player, once the player's session is gone.
+     *
+     * @param player name of the player
+     */
+    public static void removePlayer(String player) {
+        playerTimers.remove(player);
+    }
+
+    /**
+     * Forget the timers of all players.
+     */
+    public static void clearPlayers() {
+        playerTimers.clear();
+    }
+
+    /**
+     * Record the server thread time of a command.
+     *
+     * @param player name of the player who ran the command
+     * @param command the primary alias of the command
+     * @param nanos duration in nanoseconds
+     */
+    public static void recordCommand(String player, String command, long nanos) {
+        timer("command." + command).update(nanos);
+        playerTimer(player).update(nanos);
+        MAIN_THREAD.update(nanos);
+    }
+
+    /**
+     * Get all timers, including those of players, sorted by name.
+     *
+     * @return the timers
+     */
+    public static List<Timer> getTimers() {
+        final List<Timer> list = new ArrayList<Timer>(timers.values());
+        list.addAll(playerTimers.values());
+        Collections.sort(list, new Comparator<Timer>() {
+            @Override
+            public int compare(Timer a, Timer b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Get all counters, sorted by name.
+     *
+     * @return the counters
+     */
+    public static List<Counter> getCounters() {
+        final List<Counter> list = new ArrayList<Counter>(counters.values());
+        Collections.sort(list, new Comparator<Counter>() {
+            @Override
+            public int compare(Counter a, Counter b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Publish all metrics, including those created later, as MBeans of the
+     * platform MBean server.
+     */
+    public static synchronized void enableJmx() {
+        if (jmxEnabled) {
+            return;
+        }
+        jmxEnabled = true;
+
+        for (Timer timer : timers.values()) {
+            register("Timer", timer.getName(), timer);
+        }
+        for (Counter counter : counters.values()) {
+            register("Counter", counter.getName(), counter);
+        }
+    }
+
+    /**
+     * Remove the MBeans published by {@link #enableJmx()}.
+     */
+    public static synchronized void disableJmx() {
+        if (!jmxEnabled) {
+            return;
+        }
+        jmxEnabled = false;
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (ObjectName name : server.queryNames(new ObjectName(DOMAIN + ":*"), null)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            WorldEdit.logger.log(Level.WARNING, "Failed to unregister the MBeans of WorldEdit", e);
+        }
+    }
+
+    /**
+     * Run an exporter periodically on a background thread, replacing the
+     * exporter that was started before.
+     *
+     * @param exporter the exporter
+     * @param period seconds between exports
+     */
+    public static synchronized void startExport(MetricsExporter exporter, long period) {
+        stopExport();
+
+        exportExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "WorldEdit Metrics Exporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        exportExecutor.scheduleAtFixedRate(exporter, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the exporter started by {@link #startExport(MetricsExporter, long)}.
+     */
+    public static synchronized void stopExport() {
+        if (exportExecutor != null) {
+            exportExecutor.shutdown();
+            exportExecutor = null;
+        }
+    }
+
+    private static synchronized void register(String type, String name, Object mbean) {
+        try {
+            final ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type
+                    + ",name=" + ObjectName.quote(name));
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mbean, objectName);
+            }
+        } catch (JMException e) {
+            WorldEdit.logger.log(Level.WARNING, "Failed to register the MBean of " + name, e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.logging.Level;
+
+import com.sk89q.worldedit.WorldEdit;
+
+/**
+ * Appends the current values of all metrics to a CSV file every time it is
+ * run, one line per metric. Values are totals since the server started,
+ * except for the current sizes of the history. It is meant to be run on a
+ * background thread with {@link Metrics#startExport(MetricsExporter, long)},
+ * so that the file I/O stays off the server thread.
+ * Once the file grows past its size limit, it is moved aside to a file with
+ * <code>.1</code> appended to its name, replacing the previous one.
+ * </p>
+ * The columns are the time, the name and type of the metric, the count, and
+ * for timers the total, mean, maximum, median, 95th and 99th percentile in
+ * milliseconds.
+ */
+public class MetricsExporter implements Runnable {
+    private static final String HEADER = "time,metric,type,count,total_ms,mean_ms,max_ms,p50_ms,p95_ms,p99_ms";
+
+    private final File file;
+    private final long maxSize;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+
+    /**
+     * Construct the exporter.
+     *
+     * @param file the file to write to
+     * @param maxSize size in bytes after which the file is rolled over
+     */
+    public MetricsExporter(File file, long maxSize) {
+        this.file = file;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public void run() {
+        try {
+            export();
+        } catch (IOException e) {
+            WorldEdit.logger.log(Level.WARNING, "Failed to write metrics to " + file, e);
+        } catch (RuntimeException e) {
+            // Let the next export try again instead of ending the schedule
+            WorldEdit.logger.log(Level.WARNING, "Failed to write metrics to " + file, e);
+        }
+    }
+
+    /**
+     * Append the values of all metrics to the file.
+     *
+     * @throws IOException on I/O error
+     */
+    public void export() throws IOException {
+        if (file.length() > maxSize) {
+            final File rolled = new File(file.getPath() + ".1");
+            rolled.delete();
+            if (!file.renameTo(rolled)) {
+                throw new IOException("Could not move " + file + " to " + rolled);
+            }
+        }
+
+        final boolean header = !file.exists() || file.length() == 0;
+        final String time = dateFormat.format(new Date());
+        final StringBuilder builder = new StringBuilder();
+        if (header) {
+            builder.append(HEADER).append('\n');
+        }
+
+        for (Timer timer : Metrics.getTimers()) {
+            if (timer.getCount() == 0) {
+                continue;
+            }
+            builder.append(time).append(',').append(timer.getName()).append(",timer,")
+                    .append(timer.getCount()).append(',')
+                    .append(format(timer.getTotalMillis())).append(',')
+                    .append(format(timer.getMeanMillis())).append(',')
+                    .append(format(timer.getMaxMillis())).append(',')
+                    .append(format(timer.getMedianMillis())).append(',')
+                    .append(format(timer.get95thPercentileMillis())).append(',')
+                    .append(format(timer.get99thPercentileMillis())).append('\n');
+        }
+
+        for (Counter counter : Metrics.getCounters()) {
+            builder.append(time).append(',').append(counter.getName()).append(",counter,")
+                    .append(counter.getCount()).append(",,,,,,\n");
+        }
+
+        final Writer writer = new FileWriter(file, true);
+        try {
+            writer.write(builder.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String format(double millis) {
+        return String.format(Locale.US, "%.3f", millis);
+    }
+}
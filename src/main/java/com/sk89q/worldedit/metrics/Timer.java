@@ -0,0 +1,189 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records durations, such as the time taken by a command. Besides the count,
+ * the sum and the maximum, the durations are counted in a histogram with a
+ * bucket for every power of two microseconds, from which percentiles are
+ * estimated. Timers can be updated from any thread.
+ */
+public class Timer implements TimerMBean {
+    /**
+     * Number of buckets; the last one takes everything above 2^38
+     * microseconds, which is about three days.
+     */
+    private static final int BUCKETS = 40;
+
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Construct the timer. Use {@link Metrics#timer(String)} to get a
+     * registered timer.
+     *
+     * @param name name of the timer
+     */
+    public Timer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the name of the timer.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void update(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        buckets.incrementAndGet(getBucket(nanos));
+
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Record the time passed since a value of {@link System#nanoTime()}.
+     *
+     * @param start the start
+     * @return the recorded duration in nanoseconds
+     */
+    public long updateSince(long start) {
+        final long nanos = System.nanoTime() - start;
+        update(nanos);
+        return nanos;
+    }
+
+    /**
+     * Get the bucket of a duration. Bucket <code>i</code> holds durations
+     * below <code>2^(i + 1)</code> microseconds.
+     *
+     * @param nanos the duration in nanoseconds
+     * @return the bucket
+     */
+    private static int getBucket(long nanos) {
+        final long micros = nanos / 1000;
+        final int bucket = 63 - Long.numberOfLeadingZeros(micros | 1);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * Estimate the duration that the given fraction of all durations did
+     * not exceed. The estimate is the upper bound of the bucket that the
+     * percentile falls into, but never more than the maximum.
+     *
+     * @param fraction the fraction, between 0 and 1
+     * @return duration in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double fraction) {
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            recorded += buckets.get(i);
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(fraction * recorded));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; ++i) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min((2000L << i) - 1, max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Get the sum of the recorded durations.
+     *
+     * @return nanoseconds
+     */
+    public long getTotalNanos() {
+        return total.get();
+    }
+
+    /**
+     * Get the longest recorded duration.
+     *
+     * @return nanoseconds
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return total.get() / 1e6;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        final long n = count.get();
+        return n == 0 ? 0 : total.get() / 1e6 / n;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return max.get() / 1e6;
+    }
+
+    @Override
+    public double getMedianMillis() {
+        return getPercentileNanos(0.5) / 1e6;
+    }
+
+    @Override
+    public double get95thPercentileMillis() {
+        return getPercentileNanos(0.95) / 1e6;
+    }
+
+    @Override
+    public double get99thPercentileMillis() {
+        return getPercentileNanos(0.99) / 1e6;
+    }
+}
@@ -0,0 +1,74 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.metrics;
+
+/**
+ * The attributes of a {@link Timer} that are published through JMX.
+ */
+public interface TimerMBean {
+
+    /**
+     * Get the number of recorded durations.
+     *
+     * @return number of durations
+     */
+    public long getCount();
+
+    /**
+     * Get the sum of the recorded durations.
+     *
+     * @return milliseconds
+     */
+    public double getTotalMillis();
+
+    /**
+     * Get the mean of the recorded durations.
+     *
+     * @return milliseconds
+     */
+    public double getMeanMillis();
+
+    /**
+     * Get the longest recorded duration.
+     *
+     * @return milliseconds
+     */
+    public double getMaxMillis();
+
+    /**
+     * Get the duration that half of the durations did not exceed.
+     *
+     * @return milliseconds
+     */
+    public double getMedianMillis();
+
+    /**
+     * Get the duration that 95% of the durations did not exceed.
+     *
+     * @return milliseconds
+     */
+    public double get95thPercentileMillis();
+
+    /**
+     * Get the duration that 99% of the durations did not exceed.
+     *
+     * @return milliseconds
+     */
+    public double get99thPercentileMillis();
+}
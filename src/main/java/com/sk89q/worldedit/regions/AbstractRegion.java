@@ -23,6 +23,7 @@
 
 import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 
 public abstract class AbstractRegion implements Region {
@@ -49,6 +50,217 @@ public Iterator<BlockVector> iterator() {
         return new RegionIterator(this);
     }
 
+    /**
+     * Visit every block of the region, without creating a vector for each
+     * block. The blocks are visited one chunk at a time, from the bottom of
+     * the chunk to the top, so each chunk only needs to be looked up once.
+     *
+     * @param visitor
+     * @throws MaxChangedBlocksException if thrown by the visitor
+     */
+    public void visit(RegionVisitor visitor) throws MaxChangedBlocksException {
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+
+        for (int chunkX = min.getBlockX() >> 4; chunkX <= max.getBlockX() >> 4; ++chunkX) {
+            for (int chunkZ = min.getBlockZ() >> 4; chunkZ <= max.getBlockZ() >> 4; ++chunkZ) {
+                visitChunk(visitor, chunkX, chunkZ);
+            }
+        }
+    }
+
+    /**
+     * Visit the blocks of the region that are in one chunk, in the same order
+     * as {@link #visit(RegionVisitor)}. This can be called from any thread,
+     * as long as the region is not changed meanwhile.
+     *
+     * @param visitor
+     * @param chunkX X of the chunk, in chunk coordinates
+     * @param chunkZ Z of the chunk, in chunk coordinates
+     * @throws MaxChangedBlocksException if thrown by the visitor
+     */
+    public void visitChunk(RegionVisitor visitor, int chunkX, int chunkZ) throws MaxChangedBlocksException {
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+        final int minY = min.getBlockY();
+        final int maxY = max.getBlockY();
+        final int startX = Math.max(min.getBlockX(), chunkX << 4);
+        final int endX = Math.min(max.getBlockX(), (chunkX << 4) + 15);
+        final int startZ = Math.max(min.getBlockZ(), chunkZ << 4);
+        final int endZ = Math.min(max.getBlockZ(), (chunkZ << 4) + 15);
+        if (startX > endX) {
+            return;
+        }
+
+        for (int y = minY; y <= maxY; ++y) {
+            for (int z = startZ; z <= endZ; ++z) {
+                visitRow(visitor, y, z, startX, endX);
+            }
+        }
+    }
+
+    /**
+     * Visit every block of any region. Regions that extend this class are
+     * visited with {@link #visit(RegionVisitor)}; other regions are visited
+     * with their iterator, in the iterator's order.
+     *
+     * @param region
+     * @param visitor
+     * @throws MaxChangedBlocksException if thrown by the visitor
+     */
+    public static void visitRegion(Region region, RegionVisitor visitor) throws MaxChangedBlocksException {
+        if (region instanceof AbstractRegion) {
+            ((AbstractRegion) region).visit(visitor);
+            return;
+        }
+
+        for (BlockVector pt : region) {
+            visitor.visit(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+        }
+    }
+
+    /**
+     * Visit the blocks of any region that are in one chunk. Regions that
+     * extend this class are visited with
+     * {@link #visitChunk(RegionVisitor, int, int)}; other regions are visited
+     * with their iterator, skipping the blocks outside of the chunk.
+     *
+     * @param region
+     * @param visitor
+     * @param chunkX X of the chunk, in chunk coordinates
+     * @param chunkZ Z of the chunk, in chunk coordinates
+     * @throws MaxChangedBlocksException if thrown by the visitor
+     */
+    public static void visitRegionChunk(Region region, RegionVisitor visitor, int chunkX, int chunkZ)
+            throws MaxChangedBlocksException {
+        if (region instanceof AbstractRegion) {
+            ((AbstractRegion) region).visitChunk(visitor, chunkX, chunkZ);
+            return;
+        }
+
+        for (BlockVector pt : region) {
+            final int x = pt.getBlockX();
+            final int z = pt.getBlockZ();
+            if (x >> 4 == chunkX && z >> 4 == chunkZ) {
+                visitor.visit(x, pt.getBlockY(), z);
+            }
+        }
+    }
+
+    /**
+     * Visit the blocks of the region on part of a row along the X axis.
+     * The row is always within the bounding box. The default implementation
+     * checks every block with {@link #contains(Vector)}.
+     *
+     * @param visitor
+     * @param y
+     * @param z
+     * @param startX the first X to visit
+     * @param endX the last X to visit
+     * @throws MaxChangedBlocksException
+     */
+    protected void visitRow(RegionVisitor visitor, int y, int z, int startX, int endX) throws MaxChangedBlocksException {
+        for (int x = startX; x <= endX; ++x) {
+            if (contains(new Vector(x, y, z))) {
+                visitor.visit(x, y, z);
+            }
+        }
+    }
+
+    /**
+     * Visit the blocks of a region that has the same blocks at every Y and
+     * that are in one chunk, in the same order as
+     * {@link #visitChunk(RegionVisitor, int, int)}.
+     *
+     * @param visitor
+     * @param minY the lowest Y of the region
+     * @param maxY the highest Y of the region
+     * @param minX the X of the first column
+     * @param columns for each column along the Z axis, the first and last Z
+     *     of every run of blocks in ascending order
+     * @param chunkX X of the chunk, in chunk coordinates
+     * @param chunkZ Z of the chunk, in chunk coordinates
+     * @throws MaxChangedBlocksException
+     */
+    protected static void visitColumns(RegionVisitor visitor, int minY, int maxY, int minX, int[][] columns,
+            int chunkX, int chunkZ) throws MaxChangedBlocksException {
+        final int startX = Math.max(minX, chunkX << 4);
+        final int endX = Math.min(minX + columns.length - 1, (chunkX << 4) + 15);
+        final int startZ = chunkZ << 4;
+        final int endZ = startZ + 15;
+
+        for (int y = minY; y <= maxY; ++y) {
+            for (int x = startX; x <= endX; ++x) {
+                final int[] column = columns[x - minX];
+                for (int i = 0; i < column.length; i += 2) {
+                    final int runStart = Math.max(startZ, column[i]);
+                    final int runEnd = Math.min(endZ, column[i + 1]);
+                    for (int z = runStart; z <= runEnd; ++z) {
+                        visitor.visit(x, y, z);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit the blocks of part of a row along the X axis for which
+     * <code>(dx * dx + a) + b &lt;= 1</code>, where
+     * <code>dx = (x - centerX) / radiusX</code>. This is evaluated exactly
+     * like the <code>contains()</code> checks of cylinders and ellipsoids.
+     *
+     * @param visitor
+     * @param y
+     * @param z
+     * @param startX the first X to visit
+     * @param endX the last X to visit
+     * @param centerX
+     * @param radiusX
+     * @param a
+     * @param b
+     * @throws MaxChangedBlocksException
+     */
+    static void visitEllipseRow(RegionVisitor visitor, int y, int z, int startX, int endX,
+            double centerX, double radiusX, double a, double b) throws MaxChangedBlocksException {
+        if (startX > endX) {
+            return;
+        }
+
+        // The test only depends on the distance to the center, so the
+        // blocks that pass it form a single run around the center
+        final int middle = (int) Math.max(startX, Math.min(endX, Math.floor(centerX + 0.5)));
+        if (!isInEllipse(middle, centerX, radiusX, a, b)) {
+            return;
+        }
+
+        final double halfWidth = radiusX * Math.sqrt(Math.max(0, 1 - a - b));
+
+        int first = (int) Math.max(startX, Math.min(middle, Math.ceil(centerX - halfWidth)));
+        while (first > startX && isInEllipse(first - 1, centerX, radiusX, a, b)) {
+            --first;
+        }
+        while (!isInEllipse(first, centerX, radiusX, a, b)) {
+            ++first;
+        }
+
+        int last = (int) Math.min(endX, Math.max(middle, Math.floor(centerX + halfWidth)));
+        while (last < endX && isInEllipse(last + 1, centerX, radiusX, a, b)) {
+            ++last;
+        }
+        while (!isInEllipse(last, centerX, radiusX, a, b)) {
+            --last;
+        }
+
+        for (int x = first; x <= last; ++x) {
+            visitor.visit(x, y, z);
+        }
+    }
+
+    private static boolean isInEllipse(int x, double centerX, double radiusX, double a, double b) {
+        final double dx = (x - centerX) / radiusX;
+        return dx * dx + a + b <= 1;
+    }
+
     public LocalWorld getWorld() {
         return world;
     }
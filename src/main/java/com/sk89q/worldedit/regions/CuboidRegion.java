@@ -22,6 +22,7 @@
 import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
 import com.sk89q.worldedit.data.ChunkStore;
@@ -396,6 +397,13 @@ public void remove() {
         };
     }
 
+    @Override
+    protected void visitRow(RegionVisitor visitor, int y, int z, int startX, int endX) throws MaxChangedBlocksException {
+        for (int x = startX; x <= endX; ++x) {
+            visitor.visit(x, y, z);
+        }
+    }
+
     @Override
     public Iterable<Vector2D> asFlatRegion() {
         return new Iterable<Vector2D>() {
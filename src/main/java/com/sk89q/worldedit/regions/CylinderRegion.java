@@ -26,6 +26,7 @@
 import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
 import com.sk89q.worldedit.data.ChunkStore;
@@ -384,6 +385,12 @@ public Iterator<BlockVector> iterator() {
         return new FlatRegion3DIterator(this);
     }
 
+    @Override
+    protected void visitRow(RegionVisitor visitor, int y, int z, int startX, int endX) throws MaxChangedBlocksException {
+        final double dz = (z - center.getZ()) / radius.getZ();
+        visitEllipseRow(visitor, y, z, startX, endX, center.getX(), radius.getX(), 0, dz * dz);
+    }
+
     @Override
     public Iterable<Vector2D> asFlatRegion() {
         return new Iterable<Vector2D>() {
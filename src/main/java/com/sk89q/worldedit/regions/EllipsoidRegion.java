@@ -22,6 +22,7 @@
 import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
 import com.sk89q.worldedit.data.ChunkStore;
@@ -218,13 +219,15 @@ public Set<Vector2D> getChunks() {
         Vector min = getMinimumPoint();
         Vector max = getMaximumPoint();
 
+        // A column has blocks in the ellipsoid if its block closest to the
+        // center on the Y axis does
+        final int y = Math.max(min.getBlockY(), Math.min(max.getBlockY(), (int) Math.floor(center.getY() + 0.5)));
+
         for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    if (contains(new BlockVector(x, y, z))) {
-                        chunks.add(new BlockVector2D(x >> ChunkStore.CHUNK_SHIFTS,
-                                z >> ChunkStore.CHUNK_SHIFTS));
-                    }
+            for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
+                if (contains(new BlockVector(x, y, z))) {
+                    chunks.add(new BlockVector2D(x >> ChunkStore.CHUNK_SHIFTS,
+                            z >> ChunkStore.CHUNK_SHIFTS));
                 }
             }
         }
@@ -262,6 +265,13 @@ public boolean contains(Vector pt) {
         return pt.subtract(center).divide(radius).lengthSq() <= 1;
     }
 
+    @Override
+    protected void visitRow(RegionVisitor visitor, int y, int z, int startX, int endX) throws MaxChangedBlocksException {
+        final double dy = (y - center.getY()) / radius.getY();
+        final double dz = (z - center.getZ()) / radius.getZ();
+        visitEllipseRow(visitor, y, z, startX, endX, center.getX(), radius.getX(), dy * dy, dz * dz);
+    }
+
     /**
      * Returns string representation in the format
      * "(centerX, centerY, centerZ) - (radiusX, radiusY, radiusZ)".
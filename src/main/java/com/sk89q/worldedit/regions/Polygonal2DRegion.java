@@ -20,14 +20,17 @@
 package com.sk89q.worldedit.regions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
 import com.sk89q.worldedit.data.ChunkStore;
@@ -45,6 +48,13 @@ public class Polygonal2DRegion extends AbstractRegion implements FlatRegion {
     private int maxY;
     private boolean hasY = false;
 
+    /**
+     * The runs of blocks in each column along the Z axis, for every X of the
+     * bounding box. Built when first needed, and dropped whenever the points
+     * change.
+     */
+    private volatile int[][] columns;
+
     /**
      * Construct the region
      */
@@ -98,6 +108,8 @@ public List<BlockVector2D> getPoints() {
      * called after points have been changed.
      */
     protected void recalculate() {
+        columns = null;
+
         if (points.size() == 0) {
             min = new Vector2D(0, 0);
             minY = 0;
@@ -231,17 +243,14 @@ public Vector getMaximumPoint() {
      * @return number of blocks
      */
     public int getArea() {
-        double area = 0;
-        int i, j = points.size() - 1;
-
-        for (i = 0; i < points.size(); ++i) {
-            area += (points.get(j).getBlockX() + points.get(i).getBlockX())
-                    * (points.get(j).getBlockZ() - points.get(i).getBlockZ());
-            j = i;
+        long area = 0;
+        for (int[] runs : getColumns()) {
+            for (int i = 0; i < runs.length; i += 2) {
+                area += runs[i + 1] - runs[i] + 1;
+            }
         }
 
-        return (int) Math.floor(Math.abs(area * 0.5)
-                * (maxY - minY + 1));
+        return (int) (area * (maxY - minY + 1));
     }
 
     /**
@@ -338,7 +347,33 @@ public void shift(Vector change) throws RegionOperationException {
      * Checks to see if a point is inside this region.
      */
     public boolean contains(Vector pt) {
-        return contains(points, minY, maxY, pt);
+        final int y = pt.getBlockY();
+        if (y < minY || y > maxY) {
+            return false;
+        }
+
+        final int x = pt.getBlockX();
+        final int minX = min.getBlockX();
+        if (x < minX || x > max.getBlockX()) {
+            return false;
+        }
+
+        final int[] runs = getColumns()[x - minX];
+        final int z = pt.getBlockZ();
+
+        // Find the last run that starts at or before z
+        int low = 0;
+        int high = runs.length / 2 - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (runs[2 * mid] <= z) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return high >= 0 && z <= runs[2 * high + 1];
     }
 
     /**
@@ -417,14 +452,14 @@ public static boolean contains(List<BlockVector2D> points, int minY,
     public Set<Vector2D> getChunks() {
         Set<Vector2D> chunks = new HashSet<Vector2D>();
 
-        Vector min = getMinimumPoint();
-        Vector max = getMaximumPoint();
+        final int[][] columns = getColumns();
+        final int minX = min.getBlockX();
 
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                if (contains(new BlockVector(x, minY, z))) { // Not the best
-                    chunks.add(new BlockVector2D(x >> ChunkStore.CHUNK_SHIFTS,
-                            z >> ChunkStore.CHUNK_SHIFTS));
+        for (int x = minX; x <= max.getBlockX(); ++x) {
+            final int[] runs = columns[x - minX];
+            for (int i = 0; i < runs.length; i += 2) {
+                for (int chunkZ = runs[i] >> ChunkStore.CHUNK_SHIFTS; chunkZ <= runs[i + 1] >> ChunkStore.CHUNK_SHIFTS; ++chunkZ) {
+                    chunks.add(new BlockVector2D(x >> ChunkStore.CHUNK_SHIFTS, chunkZ));
                 }
             }
         }
@@ -436,17 +471,9 @@ public Set<Vector2D> getChunks() {
     public Set<Vector> getChunkCubes() {
         Set<Vector> chunks = new HashSet<Vector>();
 
-        Vector min = getMinimumPoint();
-        Vector max = getMaximumPoint();
-
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    if (contains(new BlockVector(x, y, z))) { // Not the best
-                        chunks.add(new BlockVector(x >> ChunkStore.CHUNK_SHIFTS,
-                                y >> ChunkStore.CHUNK_SHIFTS, z >> ChunkStore.CHUNK_SHIFTS));
-                    }
-                }
+        for (Vector2D chunk : getChunks()) {
+            for (int chunkY = minY >> ChunkStore.CHUNK_SHIFTS; chunkY <= maxY >> ChunkStore.CHUNK_SHIFTS; ++chunkY) {
+                chunks.add(new BlockVector(chunk.getBlockX(), chunkY, chunk.getBlockZ()));
             }
         }
 
@@ -495,16 +522,216 @@ public Iterator<BlockVector> iterator() {
         return new FlatRegion3DIterator(this);
     }
 
+    @Override
+    public void visitChunk(RegionVisitor visitor, int chunkX, int chunkZ) throws MaxChangedBlocksException {
+        visitColumns(visitor, minY, maxY, min.getBlockX(), getColumns(), chunkX, chunkZ);
+    }
+
     @Override
     public Iterable<Vector2D> asFlatRegion() {
         return new Iterable<Vector2D>() {
             @Override
             public Iterator<Vector2D> iterator() {
-                return new FlatRegionIterator(Polygonal2DRegion.this);
+                return new ColumnIterator(min.getBlockX(), getColumns());
             }
         };
     }
 
+    /**
+     * Get the runs of blocks in each column, rasterizing the polygon if the
+     * points changed since the last call.
+     *
+     * @return for each X from the minimum X, the first and last Z of every
+     *     run of blocks
+     */
+    private int[][] getColumns() {
+        int[][] columns = this.columns;
+        if (columns == null) {
+            columns = rasterize(points, min.getBlockX(), max.getBlockX());
+            this.columns = columns;
+        }
+        return columns;
+    }
+
+    /**
+     * Find the blocks of each column along the Z axis that
+     * {@link #contains(List, int, int, Vector)} accepts.
+     * </p>
+     * That test counts the edges crossed by a ray along the Z axis, so the
+     * crossings of a column with every edge can be found directly. A block is
+     * inside if an odd number of edges cross the column above it, or if it
+     * lies on an edge or a point.
+     *
+     * @param points
+     * @param minX the first column
+     * @param maxX the last column
+     * @return for each X from minX, the first and last Z of every run of
+     *     blocks, in ascending order
+     */
+    static int[][] rasterize(List<BlockVector2D> points, int minX, int maxX) {
+        final int[][] columns = new int[maxX - minX + 1][];
+        final int npoints = points.size();
+        if (npoints < 3) {
+            Arrays.fill(columns, new int[0]);
+            return columns;
+        }
+
+        final int[] xs = new int[npoints];
+        final int[] zs = new int[npoints];
+        for (int i = 0; i < npoints; ++i) {
+            xs[i] = points.get(i).getBlockX();
+            zs[i] = points.get(i).getBlockZ();
+        }
+
+        final long[] crossings = new long[npoints];
+        // Each point and each edge adds at most one run, plus the crossings
+        final long[] runs = new long[3 * npoints];
+        final int[] merged = new int[6 * npoints];
+
+        for (int x = minX; x <= maxX; ++x) {
+            int crossingCount = 0;
+            int runCount = 0;
+
+            for (int i = 0, j = npoints - 1; i < npoints; j = i++) {
+                if (xs[i] == x) {
+                    runs[runCount++] = packRun(zs[i], zs[i]);
+                }
+
+                final int x1, z1, x2, z2;
+                if (xs[i] > xs[j]) {
+                    x1 = xs[j];
+                    z1 = zs[j];
+                    x2 = xs[i];
+                    z2 = zs[i];
+                } else {
+                    x1 = xs[i];
+                    z1 = zs[i];
+                    x2 = xs[j];
+                    z2 = zs[j];
+                }
+
+                if (x < x1 || x > x2) {
+                    continue;
+                }
+
+                if (x1 == x2) {
+                    // The column runs along the edge
+                    runs[runCount++] = packRun(Math.min(z1, z2), Math.max(z1, z2));
+                    continue;
+                }
+
+                // The edge crosses the column at numerator / dx
+                final long dx = x2 - x1;
+                final long numerator = z1 * dx + ((long) z2 - z1) * (x - x1);
+                final long floor = floorDiv(numerator, dx);
+                if (floor * dx == numerator) {
+                    runs[runCount++] = packRun((int) floor, (int) floor);
+                }
+
+                if (x != x1) {
+                    // Blocks below the first Z at or past the crossing
+                    crossings[crossingCount++] = floor * dx == numerator ? floor : floor + 1;
+                }
+            }
+
+            // Crossing counts are always even, as the polygon is closed
+            Arrays.sort(crossings, 0, crossingCount);
+            for (int i = 0; i + 1 < crossingCount; i += 2) {
+                if (crossings[i] < crossings[i + 1]) {
+                    runs[runCount++] = packRun((int) crossings[i], (int) crossings[i + 1] - 1);
+                }
+            }
+
+            Arrays.sort(runs, 0, runCount);
+            int mergedCount = 0;
+            for (int i = 0; i < runCount; ++i) {
+                final int start = (int) (runs[i] >> 32);
+                final int end = (int) runs[i];
+                if (mergedCount > 0 && start <= merged[mergedCount - 1] + 1) {
+                    merged[mergedCount - 1] = Math.max(merged[mergedCount - 1], end);
+                } else {
+                    merged[mergedCount++] = start;
+                    merged[mergedCount++] = end;
+                }
+            }
+            columns[x - minX] = Arrays.copyOf(merged, mergedCount);
+        }
+
+        return columns;
+    }
+
+    private static long packRun(int start, int end) {
+        return ((long) start << 32) | (end & 0xFFFFFFFFL);
+    }
+
+    private static long floorDiv(long numerator, long denominator) {
+        final long quotient = numerator / denominator;
+        return (numerator % denominator != 0 && (numerator < 0) != (denominator < 0)) ? quotient - 1 : quotient;
+    }
+
+    /**
+     * Iterates over the columns of blocks, one column after the other.
+     */
+    private static class ColumnIterator implements Iterator<Vector2D> {
+        private final int minX;
+        private final int[][] columns;
+        private int column = -1;
+        private int run;
+        private int nextZ;
+
+        ColumnIterator(int minX, int[][] columns) {
+            this.minX = minX;
+            this.columns = columns;
+            forward();
+        }
+
+        private void forward() {
+            while (column < columns.length) {
+                final int[] runs = column >= 0 ? columns[column] : null;
+                if (runs != null && run < runs.length) {
+                    if (nextZ < runs[run]) {
+                        nextZ = runs[run];
+                    }
+                    if (nextZ <= runs[run + 1]) {
+                        return;
+                    }
+                    run += 2;
+                    continue;
+                }
+
+                ++column;
+                run = 0;
+                nextZ = Integer.MIN_VALUE;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return column < columns.length;
+        }
+
+        @Override
+        public Vector2D next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final Vector2D answer = new Vector2D(minX + column, nextZ);
+            if (nextZ == columns[column][run + 1]) {
+                run += 2;
+            } else {
+                ++nextZ;
+            }
+            forward();
+            return answer;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /**
      * Returns string representation in the format
      * "(x1, z1) - ... - (xN, zN) * (minY - maxY)"
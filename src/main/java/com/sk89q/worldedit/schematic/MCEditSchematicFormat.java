@@ -18,6 +18,8 @@
 
 package com.sk89q.worldedit.schematic;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -42,8 +44,11 @@
 import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
 import com.sk89q.worldedit.blocks.TileEntityBlock;
 import com.sk89q.worldedit.data.DataException;
 
@@ -59,31 +64,90 @@ protected MCEditSchematicFormat() {
 
     @Override
     public CuboidClipboard load(File file) throws IOException, DataException {
-        FileInputStream stream = new FileInputStream(file);
+        return read(file).toClipboard();
+    }
+
+    /**
+     * Pastes a schematic without loading it into a clipboard. Only the block
+     * arrays of the file are kept in memory while pasting.
+     */
+    @Override
+    public void paste(File file, EditSession editSession, Vector pos, boolean noAir)
+            throws IOException, DataException, MaxChangedBlocksException {
+        Schematic schematic = read(file);
+        schematic.place(editSession, pos.add(schematic.offset), noAir);
+    }
+
+    /**
+     * Read a schematic tag by tag. The block arrays are read into plain byte
+     * arrays, unused tags like entities are skipped.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    private Schematic read(File file) throws IOException, DataException {
         NBTInputStream nbtStream = new NBTInputStream(
-                new GZIPInputStream(stream));
+                new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
 
-        Vector origin = new Vector();
-        Vector offset = new Vector();
+        Map<String, Tag> schematic = new HashMap<String, Tag>();
+        byte[] rawBlocks = null;
+        byte[] blockData = null;
+        byte[] addBlockIds = null;
+
+        try {
+            // Schematic tag
+            if (nbtStream.readTagType() != NBTConstants.TYPE_COMPOUND
+                    || !nbtStream.readTagName().equals("Schematic")) {
+                throw new DataException("Tag \"Schematic\" does not exist or is not first");
+            }
+
+            while (true) {
+                int type = nbtStream.readTagType();
+                if (type == NBTConstants.TYPE_END) {
+                    break;
+                }
 
-        // Schematic tag
-        CompoundTag schematicTag = (CompoundTag) nbtStream.readTag();
-        nbtStream.close();
-        if (!schematicTag.getName().equals("Schematic")) {
-            throw new DataException("Tag \"Schematic\" does not exist or is not first");
+                String name = nbtStream.readTagName();
+                if (type == NBTConstants.TYPE_BYTE_ARRAY
+                        && (name.equals("Blocks") || name.equals("Data") || name.equals("AddBlocks"))) {
+                    byte[] bytes = new byte[nbtStream.readByteArrayLength()];
+                    nbtStream.readBytes(bytes, 0, bytes.length);
+                    if (name.equals("Blocks")) {
+                        rawBlocks = bytes;
+                    } else if (name.equals("Data")) {
+                        blockData = bytes;
+                    } else {
+                        addBlockIds = bytes;
+                    }
+                } else if (name.equals("Entities")) {
+                    // Not supported, may be large
+                    nbtStream.skipTagPayload(type);
+                } else {
+                    schematic.put(name, nbtStream.readTagPayload(type, name));
+                }
+            }
+        } finally {
+            nbtStream.close();
         }
 
         // Check
-        Map<String, Tag> schematic = schematicTag.getValue();
-        if (!schematic.containsKey("Blocks")) {
+        if (rawBlocks == null) {
             throw new DataException("Schematic file is missing a \"Blocks\" tag");
         }
+        if (blockData == null) {
+            throw new DataException("Schematic file is missing a \"Data\" tag");
+        }
 
         // Get information
         short width = getChildTag(schematic, "Width", ShortTag.class).getValue();
         short length = getChildTag(schematic, "Length", ShortTag.class).getValue();
         short height = getChildTag(schematic, "Height", ShortTag.class).getValue();
 
+        Vector origin = new Vector();
+        Vector offset = new Vector();
+
         try {
             int originX = getChildTag(schematic, "WEOriginX", IntTag.class).getValue();
             int originY = getChildTag(schematic, "WEOriginY", IntTag.class).getValue();
@@ -108,84 +172,54 @@ public CuboidClipboard load(File file) throws IOException, DataException {
             throw new DataException("Schematic file is not an Alpha schematic");
         }
 
-        // Get blocks
-        byte[] rawBlocks = getChildTag(schematic, "Blocks", ByteArrayTag.class).getValue();
-        byte[] blockData = getChildTag(schematic, "Data", ByteArrayTag.class).getValue();
-        short[] blocks = new short[rawBlocks.length];
-
-        if (schematic.containsKey("AddBlocks")) {
-            byte[] addBlockIds = getChildTag(schematic, "AddBlocks", ByteArrayTag.class).getValue();
-            for (int i = 0, index = 0; i < addBlockIds.length && index < blocks.length; ++i) {
-                blocks[index] = (short) (((addBlockIds[i] >> 4) << 8) + (rawBlocks[index++] & 0xFF));
-                if (index < blocks.length) {
-                    blocks[index] = (short) (((addBlockIds[i] & 0xF) << 8) + (rawBlocks[index++] & 0xFF));
-                }
-            }
-        } else {
-            for (int i = 0; i < rawBlocks.length; ++i) {
-                blocks[i] = (short) (rawBlocks[i] & 0xFF);
-            }
+        int volume = (width & 0xFFFF) * (height & 0xFFFF) * (length & 0xFFFF);
+        if (rawBlocks.length < volume || blockData.length < volume) {
+            throw new DataException("Schematic file has too few blocks for its size");
         }
 
         // Need to pull out tile entities
-        List<Tag> tileEntities = getChildTag(schematic, "TileEntities", ListTag.class)
-                .getValue();
-        Map<BlockVector, Map<String, Tag>> tileEntitiesMap =
-                new HashMap<BlockVector, Map<String, Tag>>();
+        Map<Integer, Map<String, Tag>> tileEntitiesMap = new HashMap<Integer, Map<String, Tag>>();
+        if (schematic.containsKey("TileEntities")) {
+            List<Tag> tileEntities = getChildTag(schematic, "TileEntities", ListTag.class)
+                    .getValue();
 
-        for (Tag tag : tileEntities) {
-            if (!(tag instanceof CompoundTag)) continue;
-            CompoundTag t = (CompoundTag) tag;
+            for (Tag tag : tileEntities) {
+                if (!(tag instanceof CompoundTag)) continue;
+                CompoundTag t = (CompoundTag) tag;
 
-            int x = 0;
-            int y = 0;
-            int z = 0;
+                int x = 0;
+                int y = 0;
+                int z = 0;
 
-            Map<String, Tag> values = new HashMap<String, Tag>();
+                Map<String, Tag> values = new HashMap<String, Tag>();
 
-            for (Map.Entry<String, Tag> entry : t.getValue().entrySet()) {
-                if (entry.getKey().equals("x")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        x = ((IntTag) entry.getValue()).getValue();
-                    }
-                } else if (entry.getKey().equals("y")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        y = ((IntTag) entry.getValue()).getValue();
-                    }
-                } else if (entry.getKey().equals("z")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        z = ((IntTag) entry.getValue()).getValue();
+                for (Map.Entry<String, Tag> entry : t.getValue().entrySet()) {
+                    if (entry.getKey().equals("x")) {
+                        if (entry.getValue() instanceof IntTag) {
+                            x = ((IntTag) entry.getValue()).getValue();
+                        }
+                    } else if (entry.getKey().equals("y")) {
+                        if (entry.getValue() instanceof IntTag) {
+                            y = ((IntTag) entry.getValue()).getValue();
+                        }
+                    } else if (entry.getKey().equals("z")) {
+                        if (entry.getValue() instanceof IntTag) {
+                            z = ((IntTag) entry.getValue()).getValue();
+                        }
                     }
-                }
-
-                values.put(entry.getKey(), entry.getValue());
-            }
 
-            BlockVector vec = new BlockVector(x, y, z);
-            tileEntitiesMap.put(vec, values);
-        }
-
-        Vector size = new Vector(width, height, length);
-        CuboidClipboard clipboard = new CuboidClipboard(size);
-        clipboard.setOrigin(origin);
-        clipboard.setOffset(offset);
-
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    BlockVector pt = new BlockVector(x, y, z);
-                    BaseBlock block = getBlockForId(blocks[index], blockData[index]);
+                    values.put(entry.getKey(), entry.getValue());
+                }
 
-                    if (block instanceof TileEntityBlock && tileEntitiesMap.containsKey(pt)) {
-                        ((TileEntityBlock) block).setNbtData(new CompoundTag("", tileEntitiesMap.get(pt)));
-                    }
-                    clipboard.setBlock(pt, block);
+                if (x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= length) {
+                    continue;
                 }
+                tileEntitiesMap.put(y * width * length + z * width + x, values);
             }
         }
 
-        return clipboard;
+        return new Schematic(width, height, length, origin, offset,
+                rawBlocks, blockData, addBlockIds, tileEntitiesMap);
     }
 
     @Override
@@ -204,39 +238,30 @@ public void save(CuboidClipboard clipboard, File file) throws IOException, DataE
             throw new DataException("Length of region too large for a .schematic");
         }
 
-        HashMap<String, Tag> schematic = new HashMap<String, Tag>();
-        schematic.put("Width", new ShortTag("Width", (short) width));
-        schematic.put("Length", new ShortTag("Length", (short) length));
-        schematic.put("Height", new ShortTag("Height", (short) height));
-        schematic.put("Materials", new StringTag("Materials", "Alpha"));
-        schematic.put("WEOriginX", new IntTag("WEOriginX", clipboard.getOrigin().getBlockX()));
-        schematic.put("WEOriginY", new IntTag("WEOriginY", clipboard.getOrigin().getBlockY()));
-        schematic.put("WEOriginZ", new IntTag("WEOriginZ", clipboard.getOrigin().getBlockZ()));
-        schematic.put("WEOffsetX", new IntTag("WEOffsetX", clipboard.getOffset().getBlockX()));
-        schematic.put("WEOffsetY", new IntTag("WEOffsetY", clipboard.getOffset().getBlockY()));
-        schematic.put("WEOffsetZ", new IntTag("WEOffsetZ", clipboard.getOffset().getBlockZ()));
-
-        // Copy
-        byte[] blocks = new byte[width * height * length];
+        // Fill all block arrays and find the tile entities in one pass, in
+        // file order
+        final int volume = width * height * length;
+        byte[] blocks = new byte[volume];
         byte[] addBlocks = null;
-        byte[] blockData = new byte[width * height * length];
+        byte[] blockData = new byte[volume];
         ArrayList<Tag> tileEntities = new ArrayList<Tag>();
 
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    BaseBlock block = clipboard.getPoint(new BlockVector(x, y, z));
-                    if (block.getType() > 255) {
+        int index = 0;
+        for (int y = 0; y < height; ++y) {
+            for (int z = 0; z < length; ++z) {
+                for (int x = 0; x < width; ++x, ++index) {
+                    BaseBlock block = clipboard.getPoint(x, y, z);
+                    final int type = block.getType();
+                    if (type > 255) {
                         if (addBlocks == null) {
-                            addBlocks = new byte[blocks.length >> 1];
+                            // The upper four bits of two IDs share a byte
+                            addBlocks = new byte[(volume + 1) >> 1];
                         }
-                        addBlocks[index >> 1] = (byte) (((index & 1) == 0) ?
-                                addBlocks[index >> 1] & 0xF0 | (block.getType() >> 8) & 0xF
-                                : addBlocks[index >> 1] & 0xF | ((block.getType() >> 8) & 0xF) << 4);
+                        final int add = (type >> 8) & 0xF;
+                        addBlocks[index >> 1] |= (byte) ((index & 1) == 0 ? add : add << 4);
                     }
 
-                    blocks[index] = (byte) block.getType();
+                    blocks[index] = (byte) type;
                     blockData[index] = (byte) block.getData();
 
                     // Store TileEntity data
@@ -264,19 +289,30 @@ public void save(CuboidClipboard clipboard, File file) throws IOException, DataE
             }
         }
 
-        schematic.put("Blocks", new ByteArrayTag("Blocks", blocks));
-        schematic.put("Data", new ByteArrayTag("Data", blockData));
-        schematic.put("Entities", new ListTag("Entities", CompoundTag.class, new ArrayList<Tag>()));
-        schematic.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, tileEntities));
-        if (addBlocks != null) {
-            schematic.put("AddBlocks", new ByteArrayTag("AddBlocks", addBlocks));
+        NBTOutputStream stream = new NBTOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            stream.writeTagHeader(NBTConstants.TYPE_COMPOUND, "Schematic");
+            stream.writeTag(new ShortTag("Width", (short) width));
+            stream.writeTag(new ShortTag("Length", (short) length));
+            stream.writeTag(new ShortTag("Height", (short) height));
+            stream.writeTag(new StringTag("Materials", "Alpha"));
+            stream.writeTag(new IntTag("WEOriginX", clipboard.getOrigin().getBlockX()));
+            stream.writeTag(new IntTag("WEOriginY", clipboard.getOrigin().getBlockY()));
+            stream.writeTag(new IntTag("WEOriginZ", clipboard.getOrigin().getBlockZ()));
+            stream.writeTag(new IntTag("WEOffsetX", clipboard.getOffset().getBlockX()));
+            stream.writeTag(new IntTag("WEOffsetY", clipboard.getOffset().getBlockY()));
+            stream.writeTag(new IntTag("WEOffsetZ", clipboard.getOffset().getBlockZ()));
+            stream.writeTag(new ByteArrayTag("Blocks", blocks));
+            stream.writeTag(new ByteArrayTag("Data", blockData));
+            if (addBlocks != null) {
+                stream.writeTag(new ByteArrayTag("AddBlocks", addBlocks));
+            }
+            stream.writeTag(new ListTag("Entities", CompoundTag.class, new ArrayList<Tag>()));
+            stream.writeTag(new ListTag("TileEntities", CompoundTag.class, tileEntities));
+            stream.writeEndTag();
+        } finally {
+            stream.close();
         }
-
-        // Build and output
-        CompoundTag schematicTag = new CompoundTag("Schematic", schematic);
-        NBTOutputStream stream = new NBTOutputStream(new FileOutputStream(file));
-        stream.writeTag(schematicTag);
-        stream.close();
     }
 
     @Override
@@ -326,4 +362,101 @@ private static <T extends Tag> T getChildTag(Map<String, Tag> items, String key,
         }
         return expected.cast(tag);
     }
+
+    /**
+     * The blocks of a schematic as stored in the file, with one byte for the
+     * lower eight bits of the ID, one byte for the data value and a shared
+     * byte for the upper bits of the IDs of two blocks.
+     */
+    private class Schematic {
+        private final int width;
+        private final int height;
+        private final int length;
+        private final Vector origin;
+        private final Vector offset;
+        private final byte[] blocks;
+        private final byte[] blockData;
+        private final byte[] addBlocks;
+        private final Map<Integer, Map<String, Tag>> tileEntities;
+
+        private Schematic(int width, int height, int length, Vector origin, Vector offset,
+                byte[] blocks, byte[] blockData, byte[] addBlocks, Map<Integer, Map<String, Tag>> tileEntities) {
+            this.width = width;
+            this.height = height;
+            this.length = length;
+            this.origin = origin;
+            this.offset = offset;
+            this.blocks = blocks;
+            this.blockData = blockData;
+            this.addBlocks = addBlocks;
+            this.tileEntities = tileEntities;
+        }
+
+        private int getType(int index) {
+            int type = blocks[index] & 0xFF;
+            if (addBlocks != null && (index >> 1) < addBlocks.length) {
+                // Even indices use the lower four bits
+                int add = addBlocks[index >> 1] >> ((index & 1) << 2) & 0xF;
+                type |= add << 8;
+            }
+            return type;
+        }
+
+        private BaseBlock getBlock(int index) throws DataException {
+            BaseBlock block = getBlockForId(getType(index), blockData[index]);
+            Map<String, Tag> tileEntity = tileEntities.get(index);
+            if (tileEntity != null) {
+                ((TileEntityBlock) block).setNbtData(new CompoundTag("", tileEntity));
+            }
+            return block;
+        }
+
+        private CuboidClipboard toClipboard() throws DataException {
+            CuboidClipboard clipboard = new CuboidClipboard(new Vector(width, height, length));
+            clipboard.setOrigin(origin);
+            clipboard.setOffset(offset);
+
+            int index = 0;
+            for (int y = 0; y < height; ++y) {
+                for (int z = 0; z < length; ++z) {
+                    for (int x = 0; x < width; ++x) {
+                        clipboard.setBlock(new BlockVector(x, y, z), getBlock(index++));
+                    }
+                }
+            }
+
+            return clipboard;
+        }
+
+        private void place(EditSession editSession, Vector pos, boolean noAir)
+                throws DataException, MaxChangedBlocksException {
+            // Blocks without tile entities are not changed by the edit session
+            BaseBlock[] cache = new BaseBlock[4096 * 16];
+
+            int index = 0;
+            for (int y = 0; y < height; ++y) {
+                for (int z = 0; z < length; ++z) {
+                    for (int x = 0; x < width; ++x, ++index) {
+                        int type = getType(index);
+                        if (noAir && type == BlockID.AIR) {
+                            continue;
+                        }
+
+                        BaseBlock block;
+                        if (tileEntities.containsKey(index)) {
+                            block = getBlock(index);
+                        } else {
+                            int key = (type << 4) | (blockData[index] & 0xF);
+                            block = cache[key];
+                            if (block == null || block.getData() != blockData[index]) {
+                                block = cache[key] = getBlock(index);
+                            }
+                        }
+
+                        editSession.setBlock(pos.add(x, y, z), block);
+                    }
+                }
+            }
+        }
+    }
 }
@@ -29,6 +29,9 @@
 import java.util.Set;
 
 import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.data.DataException;
 
@@ -146,5 +149,21 @@ public BaseBlock getBlockForId(int id, short data) {
      */
     public abstract void save(CuboidClipboard clipboard, File file) throws IOException, DataException;
 
+    /**
+     * Pastes a schematic from the given file like {@link CuboidClipboard#paste},
+     * without keeping it as a clipboard
+     * @param file The file to load from
+     * @param editSession The edit session to paste with
+     * @param pos The position to paste at, before the offset of the schematic is applied
+     * @param noAir True to not paste air
+     * @throws IOException If an error occurs while reading data
+     * @throws DataException if data is not in the correct format
+     * @throws MaxChangedBlocksException If the edit session's block change limit is reached
+     */
+    public void paste(File file, EditSession editSession, Vector pos, boolean noAir)
+            throws IOException, DataException, MaxChangedBlocksException {
+        load(file).paste(editSession, pos, noAir);
+    }
+
     public abstract boolean isOfFormat(File file);
 }
@@ -21,12 +21,21 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
@@ -35,20 +44,24 @@
 import com.sk89q.worldedit.data.ChunkStore;
 import com.sk89q.worldedit.data.DataException;
 import com.sk89q.worldedit.data.MissingChunkException;
-import com.sk89q.worldedit.data.MissingWorldException;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.WorkerPool;
 
 /**
  *
  * @author sk89q
  */
 public class SnapshotRestore {
+    /**
+     * Number of chunks loaded ahead for each worker thread.
+     */
+    private static final int READ_AHEAD = 4;
     /**
      * Store a list of chunks that are needed and the points in them.
      */
-    private Map<BlockVector2D, ArrayList<Vector>> neededChunks =
-            new LinkedHashMap<BlockVector2D, ArrayList<Vector>>();
+    private Map<BlockVector2D, ChunkPlan> neededChunks =
+            new LinkedHashMap<BlockVector2D, ChunkPlan>();
     /**
      * Chunk store.
      */
@@ -83,50 +96,70 @@ public SnapshotRestore(ChunkStore chunkStore, Region region) {
     }
 
     /**
-     * Find needed chunks in the cuboid of the region.
+     * Find needed chunks in the cuboid of the region. Only the bounds of the
+     * cuboid within each chunk are stored.
      *
      * @param region
      */
     private void findNeededCuboidChunks(Region region) {
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
+        int minX = min.getBlockX();
+        int minY = min.getBlockY();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxY = max.getBlockY();
+        int maxZ = max.getBlockZ();
 
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    Vector pos = new Vector(x, y, z);
-                    BlockVector2D chunkPos = ChunkStore.toChunk(pos);
-
-                    // Unidentified chunk
-                    if (!neededChunks.containsKey(chunkPos)) {
-                        neededChunks.put(chunkPos, new ArrayList<Vector>());
-                    }
-
-                    neededChunks.get(chunkPos).add(pos);
-                }
+        for (int chunkX = minX >> ChunkStore.CHUNK_SHIFTS; chunkX <= maxX >> ChunkStore.CHUNK_SHIFTS; ++chunkX) {
+            int baseX = chunkX << ChunkStore.CHUNK_SHIFTS;
+            for (int chunkZ = minZ >> ChunkStore.CHUNK_SHIFTS; chunkZ <= maxZ >> ChunkStore.CHUNK_SHIFTS; ++chunkZ) {
+                int baseZ = chunkZ << ChunkStore.CHUNK_SHIFTS;
+                neededChunks.put(new BlockVector2D(chunkX, chunkZ), new CuboidChunkPlan(
+                        Math.max(minX, baseX), minY, Math.max(minZ, baseZ),
+                        Math.min(maxX, baseX + 15), maxY, Math.min(maxZ, baseZ + 15)));
             }
         }
     }
 
     /**
-     * Find needed chunks in the region.
+     * Find needed chunks in the region. The points are stored as one bit per
+     * block of each chunk.
      *
      * @param region
      */
     private void findNeededChunks(Region region) {
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
+        int lastChunkX = 0;
+        int lastChunkZ = 0;
+        MaskChunkPlan lastPlan = null;
+
         for (Vector pos : region) {
-            BlockVector2D chunkPos = ChunkStore.toChunk(pos);
+            int x = pos.getBlockX();
+            int y = pos.getBlockY();
+            int z = pos.getBlockZ();
+            if (y < 0) {
+                continue;
+            }
+
+            int chunkX = x >> ChunkStore.CHUNK_SHIFTS;
+            int chunkZ = z >> ChunkStore.CHUNK_SHIFTS;
+
+            // Consecutive points are mostly in the same chunk
+            if (lastPlan == null || chunkX != lastChunkX || chunkZ != lastChunkZ) {
+                BlockVector2D chunkPos = new BlockVector2D(chunkX, chunkZ);
+                lastPlan = (MaskChunkPlan) neededChunks.get(chunkPos);
 
-            // Unidentified chunk
-            if (!neededChunks.containsKey(chunkPos)) {
-                neededChunks.put(chunkPos, new ArrayList<Vector>());
+                // Unidentified chunk
+                if (lastPlan == null) {
+                    lastPlan = new MaskChunkPlan(chunkX, chunkZ);
+                    neededChunks.put(chunkPos, lastPlan);
+                }
+
+                lastChunkX = chunkX;
+                lastChunkZ = chunkZ;
             }
 
-            neededChunks.get(chunkPos).add(pos);
+            lastPlan.add(x, y, z);
         }
     }
 
@@ -140,7 +173,9 @@ public int getChunksAffected() {
     }
 
     /**
-     * Restores to world.
+     * Restores to world. If the chunk store supports it, upcoming chunks are
+     * loaded and decoded on worker threads while the blocks of the chunks
+     * already loaded are set.
      *
      * @param editSession
      * @throws MaxChangedBlocksException
@@ -151,39 +186,190 @@ public void restore(EditSession editSession)
         missingChunks = new ArrayList<Vector2D>();
         errorChunks = new ArrayList<Vector2D>();
 
+        if (chunkStore.isThreadSafe() && WorkerPool.getParallelism() > 1 && neededChunks.size() > 1) {
+            restorePipelined(editSession);
+            return;
+        }
+
         // Now let's start restoring!
-        for (Map.Entry<BlockVector2D, ArrayList<Vector>> entry : neededChunks.entrySet()) {
+        for (Map.Entry<BlockVector2D, ChunkPlan> entry : neededChunks.entrySet()) {
             BlockVector2D chunkPos = entry.getKey();
             Chunk chunk;
 
             try {
                 chunk = chunkStore.getChunk(chunkPos, editSession.getWorld());
-                // Good, the chunk could be at least loaded
-
-                // Now just copy blocks!
-                for (Vector pos : entry.getValue()) {
-                    try {
-                        BaseBlock block = chunk.getBlock(pos);
-                        editSession.rawSetBlock(pos, block);
-                    } catch (DataException e) {
-                        // this is a workaround: just ignore for now
+            } catch (Exception e) {
+                handleFailure(chunkPos, e);
+                continue;
+            }
+
+            // Good, the chunk could be at least loaded
+            entry.getValue().restore(editSession, chunk);
+        }
+    }
+
+    /**
+     * Restores to world, loading up to {@link #READ_AHEAD} chunks per worker
+     * thread ahead.
+     *
+     * @param editSession
+     * @throws MaxChangedBlocksException
+     */
+    private void restorePipelined(final EditSession editSession)
+            throws MaxChangedBlocksException {
+
+        final Iterator<Map.Entry<BlockVector2D, ChunkPlan>> it = neededChunks.entrySet().iterator();
+        final LinkedList<Map.Entry<BlockVector2D, ChunkPlan>> pendingEntries =
+                new LinkedList<Map.Entry<BlockVector2D, ChunkPlan>>();
+        final LinkedList<Future<Chunk>> pendingChunks = new LinkedList<Future<Chunk>>();
+        final int readAhead = WorkerPool.getParallelism() * READ_AHEAD;
+        final LocalWorld world = editSession.getWorld();
+        final AtomicBoolean stopped = new AtomicBoolean();
+
+        try {
+            while (it.hasNext() || !pendingChunks.isEmpty()) {
+                // Keep the workers busy
+                while (it.hasNext() && pendingChunks.size() < readAhead) {
+                    final Map.Entry<BlockVector2D, ChunkPlan> entry = it.next();
+                    pendingEntries.add(entry);
+                    pendingChunks.add(WorkerPool.submit(new Callable<Chunk>() {
+                        @Override
+                        public Chunk call() throws DataException, IOException {
+                            if (stopped.get()) {
+                                return null;
+                            }
+                            return chunkStore.getChunk(entry.getKey(), world);
+                        }
+                    }));
+                }
+
+                final Map.Entry<BlockVector2D, ChunkPlan> entry = pendingEntries.removeFirst();
+                final Chunk chunk;
+                try {
+                    chunk = WorkerPool.getUninterruptibly(pendingChunks.removeFirst());
+                } catch (ExecutionException e) {
+                    handleFailure(entry.getKey(), e.getCause());
+                    continue;
+                }
+
+                entry.getValue().restore(editSession, chunk);
+            }
+        } finally {
+            // Only left over if the block change limit was hit. The caller
+            // closes the chunk store afterwards, so wait for the loads that
+            // are already running, while the others are skipped
+            stopped.set(true);
+            for (Future<Chunk> future : pendingChunks) {
+                try {
+                    WorkerPool.getUninterruptibly(future);
+                } catch (ExecutionException e) {
+                }
+            }
+        }
+    }
+
+    private static void restoreBlock(EditSession editSession, Chunk chunk, int x, int y, int z)
+            throws MaxChangedBlocksException {
+        Vector pos = new BlockVector(x, y, z);
+        try {
+            BaseBlock block = chunk.getBlock(pos);
+            editSession.rawSetBlock(pos, block);
+        } catch (DataException e) {
+            // this is a workaround: just ignore for now
+        }
+    }
+
+    /**
+     * The blocks to restore from one chunk.
+     */
+    private static abstract class ChunkPlan {
+        /**
+         * Copy the planned blocks from a loaded chunk.
+         *
+         * @param editSession
+         * @param chunk
+         * @throws MaxChangedBlocksException
+         */
+        abstract void restore(EditSession editSession, Chunk chunk) throws MaxChangedBlocksException;
+    }
+
+    /**
+     * All blocks of a chunk within a cuboid.
+     */
+    private static class CuboidChunkPlan extends ChunkPlan {
+        private final int minX, minY, minZ;
+        private final int maxX, maxY, maxZ;
+
+        CuboidChunkPlan(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+        }
+
+        @Override
+        void restore(EditSession editSession, Chunk chunk) throws MaxChangedBlocksException {
+            for (int x = minX; x <= maxX; ++x) {
+                for (int y = minY; y <= maxY; ++y) {
+                    for (int z = minZ; z <= maxZ; ++z) {
+                        restoreBlock(editSession, chunk, x, y, z);
                     }
                 }
-            } catch (MissingChunkException me) {
-                missingChunks.add(chunkPos);
-            } catch (MissingWorldException me) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = me.getMessage();
-            } catch (DataException de) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = de.getMessage();
-            } catch (IOException ioe) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = ioe.getMessage();
             }
         }
     }
 
+    /**
+     * Arbitrary blocks of a chunk, one bit per block. The blocks are
+     * restored in bit order (by Y, then Z, then X), not in the order in which
+     * the region iterates over them. Chunks are still restored in the order
+     * in which the region first reaches them.
+     */
+    private static class MaskChunkPlan extends ChunkPlan {
+        private final int baseX;
+        private final int baseZ;
+        private final BitSet blocks = new BitSet();
+
+        MaskChunkPlan(int chunkX, int chunkZ) {
+            baseX = chunkX << ChunkStore.CHUNK_SHIFTS;
+            baseZ = chunkZ << ChunkStore.CHUNK_SHIFTS;
+        }
+
+        void add(int x, int y, int z) {
+            blocks.set((y << 8) | ((z & 15) << 4) | (x & 15));
+        }
+
+        @Override
+        void restore(EditSession editSession, Chunk chunk) throws MaxChangedBlocksException {
+            for (int i = blocks.nextSetBit(0); i >= 0; i = blocks.nextSetBit(i + 1)) {
+                restoreBlock(editSession, chunk, baseX + (i & 15), i >> 8, baseZ + ((i >> 4) & 15));
+            }
+        }
+    }
+
+    /**
+     * Record a chunk that could not be loaded.
+     *
+     * @param chunkPos
+     * @param cause
+     */
+    private void handleFailure(BlockVector2D chunkPos, Throwable cause) {
+        if (cause instanceof MissingChunkException) {
+            missingChunks.add(chunkPos);
+        } else if (cause instanceof DataException || cause instanceof IOException) {
+            errorChunks.add(chunkPos);
+            lastErrorMessage = cause.getMessage();
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else {
+            throw new RuntimeException(cause);
+        }
+    }
+
     /**
      * Get a list of the missing chunks. restore() must have been called
      * already.
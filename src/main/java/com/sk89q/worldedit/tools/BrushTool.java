@@ -182,9 +182,8 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
             Mask existingMask = editSession.getMask();
             if (existingMask == null) {
                 editSession.setMask(mask);
-            } else if (existingMask instanceof CombinedMask) {
-                ((CombinedMask) existingMask).add(mask);
             } else {
+                // Don't add to a combined mask, it's the session's global mask
                 CombinedMask newMask = new CombinedMask(existingMask);
                 newMask.add(mask);
                 editSession.setMask(newMask);
@@ -85,11 +85,19 @@ public void load() {
         maxSuperPickaxeSize = getInt("max-super-pickaxe-size", maxSuperPickaxeSize);
         maxBrushRadius = getInt("max-brush-radius", maxBrushRadius);
         logCommands = getBool("log-commands", logCommands);
+        metricsJmx = getBool("metrics-jmx", metricsJmx);
+        metricsLogInterval = Math.max(-1, getInt("metrics-interval", metricsLogInterval));
+        metricsLogFile = getString("metrics-file", metricsLogFile);
         registerHelp = getBool("register-help", registerHelp);
         wandItem = getInt("wand-item", wandItem);
         superPickaxeDrop = getBool("super-pickaxe-drop-items", superPickaxeDrop);
         superPickaxeManyDrop = getBool("super-pickaxe-many-drop-items", superPickaxeManyDrop);
         noDoubleSlash = getBool("no-double-slash", noDoubleSlash);
+        batchBlockChanges = getBool("batch-block-changes", batchBlockChanges);
+        editTickBudget = Math.max(-1, getInt("edit-tick-budget", editTickBudget));
+        parallelExpressions = getBool("parallel-expressions", parallelExpressions);
+        compileExpressions = getBool("compile-expressions", compileExpressions);
+        parallelCopy = getBool("parallel-copy", parallelCopy);
         useInventory = getBool("use-inventory", useInventory);
         useInventoryOverride = getBool("use-inventory-override", useInventoryOverride);
         navigationWand = getInt("nav-wand-item", navigationWand);
@@ -98,6 +106,7 @@ public void load() {
         butcherDefaultRadius = getInt("butcher-default-radius", butcherDefaultRadius);
 
         LocalSession.MAX_HISTORY_SIZE = Math.max(15, getInt("history-size", 15));
+        historyHeapBudget = Math.max(-1, getInt("history-heap-budget", historyHeapBudget));
 
         String snapshotsDir = getString("snapshots-dir", "");
         if (snapshotsDir.length() > 0) {
@@ -0,0 +1,181 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sk89q.worldedit.metrics.Metrics;
+
+/**
+ * A shared pool of daemon threads for splitting CPU-heavy work that does not
+ * touch the world. Idle threads exit after a while.
+ */
+public final class WorkerPool {
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static ThreadPoolExecutor executor;
+
+    private WorkerPool() {
+    }
+
+    /**
+     * Get the number of threads of the pool.
+     *
+     * @return the number of threads
+     */
+    public static int getParallelism() {
+        return PARALLELISM;
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "WorldEdit Worker #" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+
+    /**
+     * Run the given tasks on the pool and wait until all of them are done.
+     *
+     * @param tasks the tasks
+     * @return the results, in the order of the tasks
+     * @throws ExecutionException if a task failed or the wait was interrupted
+     */
+    public static <T> List<T> invokeAll(Collection<? extends Callable<T>> tasks) throws ExecutionException {
+        final List<Callable<T>> timed = new ArrayList<Callable<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            timed.add(new TimedTask<T>(task));
+        }
+
+        final List<Future<T>> futures;
+        try {
+            futures = getExecutor().invokeAll(timed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException("Interrupted while waiting for workers", e);
+        }
+
+        final List<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            // Cannot happen, invokeAll() only returns when all tasks are done
+            Thread.currentThread().interrupt();
+            throw new ExecutionException("Interrupted while waiting for workers", e);
+        }
+
+        return results;
+    }
+
+    /**
+     * Run a task on the pool.
+     *
+     * @param task the task
+     * @return the pending result
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        return getExecutor().submit(new TimedTask<T>(task));
+    }
+
+    /**
+     * Wait for the result of a task, even if the current thread is
+     * interrupted meanwhile. The interrupt is restored afterwards.
+     *
+     * @param future the pending result
+     * @return the result
+     * @throws ExecutionException if the task failed
+     */
+    public static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Split the range <code>[0, size)</code> into about the given number of
+     * parts per thread.
+     *
+     * @param size the size of the range
+     * @param partsPerThread parts to create for each thread, for balancing
+     * @return the start of each part, followed by <code>size</code>
+     */
+    public static int[] split(int size, int partsPerThread) {
+        final int parts = Math.max(1, Math.min(size, PARALLELISM * partsPerThread));
+        final int[] bounds = new int[parts + 1];
+        for (int i = 0; i <= parts; ++i) {
+            bounds[i] = (int) ((long) size * i / parts);
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Records the time a task spends on a worker thread.
+     */
+    private static class TimedTask<T> implements Callable<T> {
+        private final Callable<T> task;
+
+        private TimedTask(Callable<T> task) {
+            this.task = task;
+        }
+
+        @Override
+        public T call() throws Exception {
+            final long start = System.nanoTime();
+            try {
+                return task.call();
+            } finally {
+                Metrics.WORKER_THREAD.updateSince(start);
+            }
+        }
+    }
+}
@@ -82,6 +82,9 @@ public void load() {
         registerHelp = config.getBoolean("register-help", true);
         logCommands = config.getBoolean("logging.log-commands", logCommands);
         logFile = config.getString("logging.file", logFile);
+        metricsJmx = config.getBoolean("logging.metrics.jmx", metricsJmx);
+        metricsLogInterval = Math.max(-1, config.getInt("logging.metrics.interval", metricsLogInterval));
+        metricsLogFile = config.getString("logging.metrics.file", metricsLogFile);
 
         superPickaxeDrop = config.getBoolean("super-pickaxe.drop-items",
                 superPickaxeDrop);
@@ -89,6 +92,11 @@ public void load() {
                 "super-pickaxe.many-drop-items", superPickaxeManyDrop);
 
         noDoubleSlash = config.getBoolean("no-double-slash", noDoubleSlash);
+        batchBlockChanges = config.getBoolean("batch-block-changes", batchBlockChanges);
+        editTickBudget = Math.max(-1, config.getInt("edit-tick-budget", editTickBudget));
+        parallelExpressions = config.getBoolean("parallel-expressions", parallelExpressions);
+        compileExpressions = config.getBoolean("compile-expressions", compileExpressions);
+        parallelCopy = config.getBoolean("parallel-copy", parallelCopy);
 
         useInventory = config.getBoolean("use-inventory.enable", useInventory);
         useInventoryOverride = config.getBoolean("use-inventory.allow-override",
@@ -107,6 +115,7 @@ public void load() {
         allowSymlinks = config.getBoolean("files.allow-symbolic-links", false);
         LocalSession.MAX_HISTORY_SIZE = Math.max(0, config.getInt("history.size", 15));
         LocalSession.EXPIRATION_GRACE = config.getInt("history.expiration", 10) * 60 * 1000;
+        historyHeapBudget = Math.max(-1, config.getInt("history.heap-budget", historyHeapBudget));
 
         String snapshotsDir = config.getString("snapshots.directory", "");
         if (snapshotsDir.length() > 0) {
@@ -24,6 +24,7 @@
 import com.sk89q.util.yaml.YAMLProcessor;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.bags.BlockBag;
+import com.sk89q.worldedit.metrics.Metrics;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Polygonal2DRegion;
 import com.sk89q.worldedit.regions.Region;
@@ -129,6 +130,8 @@ public void onDisable() {
         controller.clearSessions();
         config.unload();
         getEngine().getScheduler().cancelTasks(this);
+        Metrics.disableJmx();
+        Metrics.stopExport();
     }
 
     /**
@@ -0,0 +1,118 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.jnbt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class NBTInputStreamTest {
+    private byte[] chunk;
+
+    @Before
+    public void setUp() throws IOException {
+        final List<Tag> sections = new ArrayList<Tag>();
+        for (int y = 0; y < 2; ++y) {
+            final Map<String, Tag> section = new HashMap<String, Tag>();
+            section.put("Y", new ByteTag("Y", (byte) y));
+            section.put("Blocks", new ByteArrayTag("Blocks", new byte[] { (byte) y, 2, 3 }));
+            section.put("SkyLight", new ByteArrayTag("SkyLight", new byte[2048]));
+            sections.add(new CompoundTag("", section));
+        }
+
+        final List<Tag> entities = new ArrayList<Tag>();
+        final Map<String, Tag> entity = new HashMap<String, Tag>();
+        entity.put("id", new StringTag("id", "Pig"));
+        entity.put("Pos", new ListTag("Pos", DoubleTag.class, new ArrayList<Tag>()));
+        entities.add(new CompoundTag("", entity));
+
+        final Map<String, Tag> level = new HashMap<String, Tag>();
+        level.put("xPos", new IntTag("xPos", 3));
+        level.put("HeightMap", new IntArrayTag("HeightMap", new int[256]));
+        level.put("Sections", new ListTag("Sections", CompoundTag.class, sections));
+        level.put("Entities", new ListTag("Entities", CompoundTag.class, entities));
+        level.put("LastUpdate", new LongTag("LastUpdate", 42));
+
+        final Map<String, Tag> root = new HashMap<String, Tag>();
+        root.put("Level", new CompoundTag("Level", level));
+
+        // NBTOutputStream always writes gzip
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final NBTOutputStream nbt = new NBTOutputStream(out);
+        nbt.writeTag(new CompoundTag("", root));
+        nbt.writeTag(new IntTag("next", 7));
+        nbt.close();
+        chunk = out.toByteArray();
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        final NBTInputStream nbt = new NBTInputStream(new GZIPInputStream(new ByteArrayInputStream(chunk)));
+        final CompoundTag root = (CompoundTag) nbt.readTag(TagFilter.of("Level.xPos", "Level.Sections.Blocks"));
+
+        final Map<String, Tag> level = ((CompoundTag) root.getValue().get("Level")).getValue();
+        assertEquals(2, level.size());
+        assertEquals(3, ((IntTag) level.get("xPos")).getValue().intValue());
+
+        final List<Tag> sections = ((ListTag) level.get("Sections")).getValue();
+        assertEquals(2, sections.size());
+        for (int y = 0; y < 2; ++y) {
+            final Map<String, Tag> section = ((CompoundTag) sections.get(y)).getValue();
+            assertEquals(1, section.size());
+            assertArrayEquals(new byte[] { (byte) y, 2, 3 }, ((ByteArrayTag) section.get("Blocks")).getValue());
+        }
+
+        // The skipped tags must have been consumed completely
+        assertEquals(7, ((IntTag) nbt.readTag()).getValue().intValue());
+        nbt.close();
+    }
+
+    @Test
+    public void testFilterSelectsSubtree() throws IOException {
+        final NBTInputStream nbt = new NBTInputStream(new GZIPInputStream(new ByteArrayInputStream(chunk)));
+        final CompoundTag root = (CompoundTag) nbt.readTag(TagFilter.of("Level.Entities", "Level.Entities.id"));
+        nbt.close();
+
+        final Map<String, Tag> level = ((CompoundTag) root.getValue().get("Level")).getValue();
+        final List<Tag> entities = ((ListTag) level.get("Entities")).getValue();
+        assertEquals(2, ((CompoundTag) entities.get(0)).getValue().size());
+    }
+
+    @Test
+    public void testFilterAll() throws IOException {
+        NBTInputStream nbt = new NBTInputStream(new GZIPInputStream(new ByteArrayInputStream(chunk)));
+        final Tag full = nbt.readTag();
+        nbt.close();
+
+        nbt = new NBTInputStream(new GZIPInputStream(new ByteArrayInputStream(chunk)));
+        final Tag filtered = nbt.readTag(TagFilter.ALL);
+        nbt.close();
+
+        assertEquals(full.toString(), filtered.toString());
+    }
+}
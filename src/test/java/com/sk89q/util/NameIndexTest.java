@@ -0,0 +1,82 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.sk89q.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.sk89q.worldedit.blocks.BlockType;
+
+public class NameIndexTest {
+
+    private NameIndex<String> createIndex() {
+        final NameIndex<String> index = new NameIndex<String>();
+        index.put("stone", "stone");
+        index.put("stonebrick", "stonebrick");
+        index.put("reed", "reed");
+        index.put("lava", "lava");
+        index.put("java", "java");
+        return index;
+    }
+
+    @Test
+    public void testExact() {
+        final NameIndex<String> index = createIndex();
+        assertEquals("stonebrick", index.get("Stone_Brick", false));
+        assertEquals("stonebrick", index.get("stone brick", true));
+        assertNull(index.get("ston", false));
+        assertNull(index.get("", true));
+    }
+
+    @Test
+    public void testFuzzy() {
+        final NameIndex<String> index = createIndex();
+        assertEquals("stone", index.get("ston", true)); // deletion
+        assertEquals("stone", index.get("stoone", true)); // insertion
+        assertEquals("stone", index.get("stane", true)); // substitution
+        assertEquals("reed", index.get("red", true));
+        assertEquals("lava", index.get("lave", true));
+    }
+
+    @Test
+    public void testFuzzyRejects() {
+        final NameIndex<String> index = createIndex();
+        assertNull(index.get("sotne", true)); // transposition is two edits
+        assertNull(index.get("stn", true));
+        assertNull(index.get("ava", true)); // first letter must match
+        assertNull(index.get("xyz", true));
+    }
+
+    @Test
+    public void testFirstKeyWins() {
+        final NameIndex<String> index = new NameIndex<String>();
+        index.put("ab", "first");
+        index.put("ac", "second");
+        assertEquals("first", index.get("ad", true));
+    }
+
+    @Test
+    public void testBlockType() {
+        assertEquals(BlockType.STONE, BlockType.lookup("stone", false));
+        assertEquals(BlockType.STONE, BlockType.lookup("stpne"));
+        assertNull(BlockType.lookup("stpne", false));
+    }
+}
@@ -0,0 +1,87 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class BlockBitSetTest {
+    private final BlockBitSet set = new BlockBitSet(new Vector(-5, 10, 3), new Vector(20, 14, 40));
+
+    @Test
+    public void testIndex() {
+        final int index = set.index(-6, 15, 41);
+        assertEquals(-6, set.getX(index));
+        assertEquals(15, set.getY(index));
+        assertEquals(41, set.getZ(index));
+        assertEquals(set.index(-5, 10, 3) + set.getStride(1), set.index(-5, 11, 3));
+        assertEquals(set.index(-5, 10, 3) + set.getStride(2), set.index(-5, 10, 4));
+        assertTrue(set.isInBox(21, 9, 41));
+        assertFalse(set.isInBox(22, 9, 41));
+    }
+
+    @Test
+    public void testSetInner() {
+        set.setInner();
+
+        int count = 0;
+        for (int index = set.nextSetBit(0); index >= 0; index = set.nextSetBit(index + 1)) {
+            assertTrue(set.getX(index) >= -5 && set.getX(index) <= 20);
+            assertTrue(set.getY(index) >= 10 && set.getY(index) <= 14);
+            assertTrue(set.getZ(index) >= 3 && set.getZ(index) <= 40);
+            ++count;
+        }
+        assertEquals(26 * 5 * 38, count);
+    }
+
+    @Test
+    public void testNeighbors() {
+        final BlockBitSet source = new BlockBitSet(set);
+        source.set(source.index(0, 12, 20));
+        source.set(source.index(1, 12, 20));
+
+        set.setNeighbors(source);
+
+        int count = 0;
+        for (int index = set.nextSetBit(0); index >= 0; index = set.nextSetBit(index + 1)) {
+            ++count;
+        }
+        assertEquals(12, count);
+        assertTrue(set.get(set.index(0, 12, 20)));
+        assertTrue(set.get(set.index(-1, 12, 20)));
+        assertTrue(set.get(set.index(2, 12, 20)));
+        assertTrue(set.get(set.index(1, 13, 20)));
+        assertTrue(set.get(set.index(0, 12, 19)));
+        assertFalse(set.get(set.index(1, 13, 21)));
+    }
+
+    @Test
+    public void testOr() {
+        final BlockBitSet other = new BlockBitSet(set);
+        other.set(17);
+        assertTrue(set.or(other));
+        assertFalse(set.or(other));
+        assertTrue(set.get(17));
+        assertFalse(set.add(17));
+
+        set.andNot(other);
+        assertEquals(-1, set.nextSetBit(0));
+    }
+}
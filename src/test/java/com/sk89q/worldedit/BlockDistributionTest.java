@@ -0,0 +1,68 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.sk89q.worldedit;
+
+import java.util.List;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+public class BlockDistributionTest {
+
+    @Test
+    public void testCount() {
+        final MemoryWorld world = new MemoryWorld();
+        world.setBlockType(new Vector(3, 10, 3), BlockID.STONE);
+        world.setBlockType(new Vector(20, 10, 3), BlockID.STONE);
+
+        final BlockDistribution distribution = new BlockDistribution(world,
+                new CuboidRegion(new Vector(0, 10, 0), new Vector(31, 11, 15)));
+        distribution.run();
+
+        assertEquals(32 * 2 * 16, distribution.getTotal());
+        final List<Countable<Integer>> counts = distribution.getDistribution();
+        assertEquals(2, counts.size());
+        assertEquals(BlockID.STONE, (int) counts.get(0).getID());
+        assertEquals(2, counts.get(0).getLongAmount());
+    }
+
+    @Test
+    public void testRegionIsCopied() {
+        final MemoryWorld world = new MemoryWorld();
+        final CuboidRegion region = new CuboidRegion(new Vector(0, 0, 0), new Vector(3, 3, 3));
+        final BlockDistribution distribution = new BlockDistribution(world, region);
+
+        // Changing the selection afterwards does not change what is counted
+        region.setPos2(new Vector(40, 3, 40));
+        distribution.run();
+        assertEquals(4 * 4 * 4, distribution.getTotal());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCancel() {
+        final BlockDistribution distribution = new BlockDistribution(new MemoryWorld(),
+                new CuboidRegion(new Vector(0, 0, 0), new Vector(3, 3, 3)));
+        distribution.cancel();
+        distribution.getDistribution();
+    }
+}
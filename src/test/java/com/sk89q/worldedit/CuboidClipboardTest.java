@@ -0,0 +1,92 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.CuboidClipboard.FlipDirection;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockData;
+import com.sk89q.worldedit.blocks.BlockID;
+
+import static org.junit.Assert.*;
+
+public class CuboidClipboardTest {
+    private CuboidClipboard clipboard;
+
+    @Before
+    public void setUp() {
+        clipboard = new CuboidClipboard(new Vector(3, 2, 2));
+        for (int x = 0; x < 3; ++x) {
+            for (int y = 0; y < 2; ++y) {
+                for (int z = 0; z < 2; ++z) {
+                    clipboard.setBlock(new Vector(x, y, z), new BaseBlock(BlockID.WOODEN_STAIRS, x + 2 * z));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRotate() {
+        clipboard.rotate2D(90);
+        assertEquals(new Vector(2, 2, 3), clipboard.getSize());
+        for (int x = 0; x < 3; ++x) {
+            for (int z = 0; z < 2; ++z) {
+                // (x, z) moves to (-z, x), shifted back into the clipboard
+                final BaseBlock block = clipboard.getPoint(new Vector(1 - z, 1, x));
+                assertEquals(BlockData.rotate90(BlockID.WOODEN_STAIRS, x + 2 * z), block.getData());
+            }
+        }
+
+        clipboard.rotate2D(-90);
+        assertEquals(new Vector(3, 2, 2), clipboard.getSize());
+        for (int x = 0; x < 3; ++x) {
+            for (int z = 0; z < 2; ++z) {
+                assertEquals(x + 2 * z, clipboard.getPoint(new Vector(x, 0, z)).getData());
+            }
+        }
+    }
+
+    @Test
+    public void testFlip() {
+        clipboard.setBlock(new Vector(0, 1, 0), new BaseBlock(BlockID.STONE));
+        clipboard.flip(FlipDirection.WEST_EAST);
+        clipboard.flip(FlipDirection.UP_DOWN);
+        assertEquals(BlockID.STONE, clipboard.getPoint(new Vector(2, 0, 0)).getType());
+        // Formerly at (2, 1, 1)
+        final int data = BlockData.flip(BlockID.WOODEN_STAIRS, 4, FlipDirection.WEST_EAST);
+        assertEquals(BlockData.flip(BlockID.WOODEN_STAIRS, data, FlipDirection.UP_DOWN),
+                clipboard.getPoint(new Vector(0, 0, 1)).getData());
+    }
+
+    @Test
+    public void testSetAfterRotate() {
+        clipboard.rotate2D(90);
+        clipboard.setBlock(new Vector(0, 0, 0), new BaseBlock(BlockID.STONE));
+        assertEquals(BlockID.STONE, clipboard.getPoint(new Vector(0, 0, 0)).getType());
+        // Everything else keeps its rotation
+        assertEquals(BlockData.rotate90(BlockID.WOODEN_STAIRS, 1), clipboard.getPoint(new Vector(1, 0, 1)).getData());
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        clipboard.rotate2D(90);
+        clipboard.getPoint(new Vector(2, 0, 0));
+    }
+}
@@ -0,0 +1,100 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class FloodFillTest {
+    private final Set<BlockVector> visited = new HashSet<BlockVector>();
+
+    private FloodFill createFill(FloodFill.Predicate predicate) {
+        return new FloodFill(predicate, new FloodFill.Visitor() {
+            public void visit(int x, int y, int z) {
+                assertTrue(visited.add(new BlockVector(x, y, z)));
+            }
+        });
+    }
+
+    @Test
+    public void testLargeFill() throws MaxChangedBlocksException {
+        // Far too deep for a recursive fill
+        final FloodFill fill = createFill(new FloodFill.Predicate() {
+            public boolean test(int x, int y, int z) {
+                return x >= -500 && x < 500 && z >= -500 && z < 500 && y == 64;
+            }
+        });
+        assertEquals(1000 * 1000, fill.fill(0, 64, 0));
+        assertEquals(1000 * 1000, visited.size());
+    }
+
+    @Test
+    public void testRadius() throws MaxChangedBlocksException {
+        final FloodFill fill = createFill(new FloodFill.Predicate() {
+            public boolean test(int x, int y, int z) {
+                return true;
+            }
+        });
+        fill.setRadius(2);
+        fill.setHeightRange(10, 11);
+        fill.fill(new Vector(-3, 10, 7));
+
+        for (BlockVector pt : visited) {
+            assertTrue(pt.distance(new Vector(-3, 10, 7)) <= 2);
+            assertTrue(pt.getBlockY() == 10 || pt.getBlockY() == 11);
+        }
+        // 13 blocks on the origin's layer and 9 above it
+        assertEquals(13 + 9, visited.size());
+    }
+
+    @Test
+    public void testHorizontalAndLimit() throws MaxChangedBlocksException {
+        final FloodFill fill = createFill(new FloodFill.Predicate() {
+            public boolean test(int x, int y, int z) {
+                return true;
+            }
+        });
+        fill.setHorizontal(true);
+        fill.setLimit(100);
+        assertEquals(100, fill.fill(0, 0, 0));
+        for (BlockVector pt : visited) {
+            assertEquals(0, pt.getBlockY());
+            // Breadth-first, so the first blocks are close to the origin
+            assertTrue(Math.abs(pt.getBlockX()) + Math.abs(pt.getBlockZ()) <= 7);
+        }
+    }
+
+    @Test
+    public void testDisconnected() throws MaxChangedBlocksException {
+        final FloodFill fill = createFill(new FloodFill.Predicate() {
+            public boolean test(int x, int y, int z) {
+                return y == 0 && (x < 5 || x > 5) && Math.abs(x) < 20 && Math.abs(z) < 20;
+            }
+        });
+        fill.fill(0, 0, 0);
+        for (BlockVector pt : visited) {
+            assertTrue(pt.getBlockX() < 5);
+        }
+        assertEquals(24 * 39, visited.size());
+    }
+}
@@ -0,0 +1,53 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.sk89q.worldedit;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class LocalSessionTest {
+
+    @Test
+    public void testDeleteHistoryFiles() throws IOException {
+        final File root = File.createTempFile("history", "");
+        root.delete();
+        final File playerDirectory = new File(root, "player");
+        playerDirectory.mkdirs();
+
+        final File stale = File.createTempFile("history", ".dat", playerDirectory);
+        final File other = new File(playerDirectory, "notes.txt");
+        other.createNewFile();
+        try {
+            assertEquals(1, LocalSession.deleteHistoryFiles(root));
+            assertFalse(stale.exists());
+            assertTrue(other.exists());
+            assertEquals(0, LocalSession.deleteHistoryFiles(new File(root, "missing")));
+        } finally {
+            stale.delete();
+            other.delete();
+            playerDirectory.delete();
+            root.delete();
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.sk89q.worldedit;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.expression.Expression;
+import com.sk89q.worldedit.expression.ExpressionException;
+import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+public class MakeShapeTest {
+    private final CuboidRegion region = new CuboidRegion(new Vector(-2, 10, -2), new Vector(2, 12, 2));
+    private final Pattern pattern = new SingleBlockPattern(new BaseBlock(BlockID.STONE));
+
+    @Test
+    public void testInvalidMaterials() throws ExpressionException, MaxChangedBlocksException {
+        final String expressionString = "if (x > 0) type = 5000; if (z > 0) data = 20; if (y > 11) data = -2; 1";
+
+        final MemoryWorld serialWorld = new MemoryWorld();
+        final EditSession serial = new EditSession(serialWorld, -1);
+        serial.makeShape(region, new Vector(0, 0, 0), new Vector(1, 1, 1), pattern, expressionString, false);
+
+        final MemoryWorld parallelWorld = new MemoryWorld();
+        final EditSession parallel = new EditSession(parallelWorld, -1);
+        final Expression expression = Expression.compile(expressionString, "x", "y", "z", "type", "data");
+        expression.optimize();
+        parallel.makeShapeParallel(region, new Vector(0, 0, 0), new Vector(1, 1, 1), pattern, expression, false);
+
+        for (int x = -3; x <= 3; ++x) {
+            for (int y = 9; y <= 13; ++y) {
+                for (int z = -3; z <= 3; ++z) {
+                    final Vector pt = new Vector(x, y, z);
+                    assertEquals(pt.toString(), serialWorld.getBlockType(pt), parallelWorld.getBlockType(pt));
+                    assertEquals(pt.toString(), serialWorld.getBlockData(pt), parallelWorld.getBlockData(pt));
+                }
+            }
+        }
+
+        assertEquals(BlockID.STONE, parallelWorld.getBlockType(new Vector(0, 10, 0)));
+        assertEquals(0, parallelWorld.getBlockType(new Vector(1, 10, 0)));
+        assertEquals(0, parallelWorld.getBlockType(new Vector(0, 10, 1)));
+        assertEquals(0, parallelWorld.getBlockType(new Vector(0, 12, 0)));
+    }
+
+}
@@ -0,0 +1,228 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.sk89q.worldedit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.*;
+
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.ByteTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.data.ChunkStore;
+import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.data.MissingChunkException;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+public class MemoryWorldTest {
+
+    @Test
+    public void testSetAndGet() {
+        final MemoryWorld world = new MemoryWorld();
+        assertEquals(0, world.getBlockType(new Vector(5, 64, -3)));
+        assertEquals(0, world.getChunkCount());
+
+        assertTrue(world.setTypeIdAndData(new Vector(5, 64, -3), BlockID.CLOTH, 14));
+        assertFalse(world.setTypeIdAndData(new Vector(5, 64, -3), BlockID.CLOTH, 14));
+        assertEquals(BlockID.CLOTH, world.getBlockType(new Vector(5, 64, -3)));
+        assertEquals(14, world.getBlockData(new Vector(5, 64, -3)));
+        assertEquals(0, world.getBlockType(new Vector(5, 65, -3)));
+
+        // Outside of the world
+        assertFalse(world.setBlockType(new Vector(0, -1, 0), BlockID.STONE));
+        assertFalse(world.setBlockType(new Vector(0, 256, 0), BlockID.STONE));
+        assertEquals(0, world.getBlockType(new Vector(0, -1, 0)));
+
+        // Setting air does not create chunks
+        assertFalse(world.setBlockType(new Vector(1000, 0, 1000), 0));
+        assertEquals(1, world.getChunkCount());
+    }
+
+    @Test
+    public void testSectionCounts() {
+        final MemoryWorld world = new MemoryWorld();
+        final BlockVector2D chunk = new BlockVector2D(0, 0);
+
+        world.setBlockType(new Vector(1, 20, 1), BlockID.STONE);
+        assertFalse(world.getChunkSnapshot(chunk).isSectionEmpty(1));
+        assertTrue(world.getChunkSnapshot(chunk).isSectionEmpty(0));
+
+        world.setBlockType(new Vector(1, 20, 1), 0);
+        assertTrue(world.getChunkSnapshot(chunk).isSectionEmpty(1));
+
+        // Fast mode leaves the counts to fixAfterFastMode()
+        world.setBlockTypeFast(new Vector(1, 20, 1), BlockID.STONE);
+        world.setBlockTypeFast(new Vector(1, 20, 1), 0);
+        assertFalse(world.getChunkSnapshot(chunk).isSectionEmpty(1));
+        world.fixAfterFastMode(Arrays.asList(chunk));
+        assertTrue(world.getChunkSnapshot(chunk).isSectionEmpty(1));
+    }
+
+    @Test
+    public void testSnapshot() {
+        final MemoryWorld world = new MemoryWorld();
+        world.setTypeIdAndData(new Vector(-1, 100, 17), BlockID.CLOTH, 3);
+        final ChunkBlockSnapshot snapshot = world.getChunkSnapshot(new BlockVector2D(-1, 1));
+        world.setBlockType(new Vector(-1, 100, 17), 0);
+
+        assertEquals(BlockID.CLOTH, snapshot.getBlockType(15, 100, 1));
+        assertEquals(3, snapshot.getBlockData(15, 100, 1));
+        assertFalse(snapshot.hasTileEntity(15, 100, 1));
+        assertEquals(0, world.getBlockType(new Vector(-1, 100, 17)));
+        assertTrue(world.getChunkSnapshot(new BlockVector2D(50, 50)).isSectionEmpty(0));
+    }
+
+    @Test
+    public void testTileEntities() throws MaxChangedBlocksException {
+        final MemoryWorld world = new MemoryWorld();
+        final EditSession editSession = new EditSession(world, -1);
+        final Vector pt = new Vector(3, 70, 3);
+        editSession.setBlock(pt, new SignBlock(BlockID.SIGN_POST, 0, new String[] { "a", "b", "c", "d" }));
+
+        final BaseBlock block = world.getBlock(pt);
+        assertTrue(block instanceof SignBlock);
+        assertEquals("c", ((SignBlock) block).getText()[2]);
+        assertTrue(world.getChunkSnapshot(new BlockVector2D(0, 0)).hasTileEntity(3, 70, 3));
+
+        // Replacing the block removes the tile entity
+        editSession.setBlock(pt, new BaseBlock(BlockID.SIGN_POST));
+        assertEquals("", ((SignBlock) world.getBlock(pt)).getText()[2]);
+    }
+
+    @Test
+    public void testQueuedEdit() throws MaxChangedBlocksException {
+        final MemoryWorld world = new MemoryWorld();
+        final EditSession editSession = new EditSession(world, -1);
+        editSession.enableQueue();
+        editSession.setFastMode(true);
+        final CuboidRegion region = new CuboidRegion(new Vector(-20, 10, -20), new Vector(20, 40, 20));
+        assertEquals(region.getArea(), editSession.setBlocks(region, new BaseBlock(BlockID.STONE)));
+        editSession.flushQueue();
+
+        assertEquals(BlockID.STONE, world.getBlockType(new Vector(-20, 10, 20)));
+        assertEquals(BlockID.STONE, world.getBlockType(new Vector(7, 40, -3)));
+        assertEquals(0, world.getBlockType(new Vector(7, 41, -3)));
+        assertTrue(world.getChunkSnapshot(new BlockVector2D(0, 0)).isSectionEmpty(3));
+        assertFalse(world.getChunkSnapshot(new BlockVector2D(0, 0)).isSectionEmpty(2));
+    }
+
+    @Test
+    public void testWaitingForEdit() throws MaxChangedBlocksException {
+        final MemoryWorld world = new MemoryWorld();
+        world.setBlockType(new Vector(0, 10, 0), BlockID.STONE);
+        final EditSession editSession = new EditSession(world, -1);
+        editSession.enableQueue();
+        editSession.setWaitingForEdit(true);
+
+        // Reading still works
+        assertEquals(BlockID.STONE, editSession.getBlockType(new Vector(0, 10, 0)));
+
+        try {
+            editSession.setBlock(new Vector(0, 11, 0), new BaseBlock(BlockID.STONE));
+            fail();
+        } catch (EditPendingException e) {
+        }
+        try {
+            editSession.rawSetBlock(new Vector(0, 11, 0), new BaseBlock(BlockID.STONE));
+            fail();
+        } catch (EditPendingException e) {
+        }
+        assertEquals(0, editSession.size());
+        assertEquals(0, world.getBlockType(new Vector(0, 11, 0)));
+    }
+
+    @Test
+    public void testLoadChunks() throws DataException, IOException {
+        final ChunkStore store = new ChunkStore() {
+            @Override
+            public CompoundTag getChunkTag(Vector2D pos, LocalWorld world) throws DataException {
+                if (pos.getBlockX() != 1 || pos.getBlockZ() != 0) {
+                    throw new MissingChunkException();
+                }
+                return createChunkTag(pos.getBlockX(), pos.getBlockZ());
+            }
+
+            @Override
+            public boolean isValid() {
+                return true;
+            }
+        };
+
+        final MemoryWorld world = new MemoryWorld();
+        world.setBlockType(new Vector(16, 0, 0), BlockID.STONE);
+        assertEquals(1, world.loadChunks(store, new CuboidRegion(new Vector(0, 0, 0), new Vector(31, 0, 15))));
+
+        assertEquals(0, world.getBlockType(new Vector(16, 0, 0)));
+        assertEquals(BlockID.CLOTH, world.getBlockType(new Vector(17, 66, 2)));
+        assertEquals(5, world.getBlockData(new Vector(17, 66, 2)));
+        assertEquals(0, world.getBlockType(new Vector(17, 67, 2)));
+        assertEquals("x", ((SignBlock) world.getBlock(new Vector(18, 64, 0))).getText()[0]);
+        assertTrue(world.getChunkSnapshot(new BlockVector2D(1, 0)).isSectionEmpty(0));
+    }
+
+    /**
+     * Create an Anvil chunk with wool at 1, 66, 2 and a sign at 2, 64, 0.
+     */
+    private static CompoundTag createChunkTag(int chunkX, int chunkZ) {
+        final byte[] blocks = new byte[4096];
+        final byte[] data = new byte[2048];
+        blocks[(2 << 8) | (2 << 4) | 1] = BlockID.CLOTH;
+        data[((2 << 8) | (2 << 4) | 1) >> 1] = (byte) (5 << 4);
+        blocks[2] = BlockID.SIGN_POST;
+
+        final Map<String, Tag> section = new HashMap<String, Tag>();
+        section.put("Y", new ByteTag("Y", (byte) 4));
+        section.put("Blocks", new ByteArrayTag("Blocks", blocks));
+        section.put("Data", new ByteArrayTag("Data", data));
+        final List<Tag> sections = new ArrayList<Tag>();
+        sections.add(new CompoundTag("", section));
+
+        final Map<String, Tag> sign = new HashMap<String, Tag>();
+        sign.put("id", new StringTag("id", "Sign"));
+        sign.put("x", new IntTag("x", chunkX * 16 + 2));
+        sign.put("y", new IntTag("y", 64));
+        sign.put("z", new IntTag("z", chunkZ * 16));
+        for (int line = 1; line <= 4; ++line) {
+            sign.put("Text" + line, new StringTag("Text" + line, line == 1 ? "x" : ""));
+        }
+        final List<Tag> tileEntities = new ArrayList<Tag>();
+        tileEntities.add(new CompoundTag("", sign));
+
+        final Map<String, Tag> level = new HashMap<String, Tag>();
+        level.put("xPos", new IntTag("xPos", chunkX));
+        level.put("zPos", new IntTag("zPos", chunkZ));
+        level.put("Sections", new ListTag("Sections", CompoundTag.class, sections));
+        level.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, tileEntities));
+        return new CompoundTag("Level", level);
+    }
+}
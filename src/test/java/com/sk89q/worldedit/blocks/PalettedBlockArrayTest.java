@@ -0,0 +1,92 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.blocks;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class PalettedBlockArrayTest {
+    @Test
+    public void testGrowPalette() {
+        final PalettedBlockArray array = new PalettedBlockArray(1001);
+        for (int index = 0; index < array.size(); ++index) {
+            assertTrue(array.get(index).isAir());
+        }
+
+        // Enough distinct blocks to widen the indices several times
+        for (int index = 0; index < array.size(); ++index) {
+            array.set(index, new BaseBlock(index % 300 + 1, index & 15));
+        }
+        for (int index = 0; index < array.size(); ++index) {
+            assertEquals(index % 300 + 1, array.get(index).getType());
+            assertEquals(index & 15, array.get(index).getData());
+        }
+        assertTrue(array.getPaletteSize() <= 1 + 300 * 16);
+    }
+
+    @Test
+    public void testSharedEntries() throws Exception {
+        final PalettedBlockArray array = new PalettedBlockArray(10);
+        final BaseBlock block = new BaseBlock(BlockID.STONE, 3);
+        array.set(0, block);
+        array.set(1, new BaseBlock(BlockID.STONE, 3));
+        assertEquals(2, array.getPaletteSize());
+        assertEquals(array.getPaletteIndex(0), array.getPaletteIndex(1));
+
+        // Blocks with extra data are kept as they are
+        final SignBlock sign = new SignBlock(BlockID.SIGN_POST, 0, new String[] { "a", "b", "c", "d" });
+        array.set(2, sign);
+        array.set(3, new SignBlock(BlockID.SIGN_POST, 0, new String[] { "a", "b", "c", "d" }));
+        assertSame(sign, array.get(2));
+        assertNotSame(array.get(2), array.get(3));
+
+        final int[] counts = array.getPaletteCounts();
+        assertEquals(6, counts[0]);
+        assertEquals(2, counts[array.getPaletteIndex(0)]);
+    }
+
+    @Test
+    public void testSetPaletteBlock() {
+        final PalettedBlockArray array = new PalettedBlockArray(4);
+        array.set(1, new BaseBlock(BlockID.LOG, 1));
+        array.set(2, new BaseBlock(BlockID.LOG, 1));
+        final int paletteIndex = array.getPaletteIndex(1);
+        array.setPaletteBlock(paletteIndex, new BaseBlock(BlockID.LOG, 2));
+        assertEquals(2, array.get(1).getData());
+        assertEquals(2, array.get(2).getData());
+
+        // The old block is no longer found, the new one is
+        array.set(3, new BaseBlock(BlockID.LOG, 2));
+        assertEquals(paletteIndex, array.getPaletteIndex(3));
+        array.set(0, new BaseBlock(BlockID.LOG, 1));
+        assertEquals(1, array.get(0).getData());
+        assertFalse(paletteIndex == array.getPaletteIndex(0));
+
+        final PalettedBlockArray copy = new PalettedBlockArray(2, array);
+        copy.setPaletteIndex(1, paletteIndex);
+        assertTrue(copy.get(0).isAir());
+        assertEquals(2, copy.get(1).getData());
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        new PalettedBlockArray(16).get(16);
+    }
+}
@@ -0,0 +1,158 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.*;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.Vector2D;
+
+import static org.junit.Assert.*;
+
+public class McRegionChunkStoreTest {
+    private File folder;
+    private File regionFile;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("snapshot", "");
+        folder.delete();
+        new File(folder, "region").mkdirs();
+        regionFile = new File(folder, "region" + File.separator + "r.0.0.mca");
+
+        // Stored out of order, so the stream reader has to seek backwards
+        final byte[] region = new byte[6 * McRegionReader.SECTOR_BYTES];
+        writeChunk(region, 0, 0, 4, McRegionReader.VERSION_GZIP);
+        writeChunk(region, 1, 0, 3, McRegionReader.VERSION_DEFLATE);
+        writeChunk(region, 5, 3, 2, McRegionReader.VERSION_DEFLATE);
+
+        final FileOutputStream out = new FileOutputStream(regionFile);
+        try {
+            out.write(region);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        regionFile.delete();
+        new File(folder, "region").delete();
+        folder.delete();
+    }
+
+    @Test
+    public void testMappedStore() throws Exception {
+        testStore(new FileMcRegionChunkStore(folder));
+    }
+
+    @Test
+    public void testStreamStore() throws Exception {
+        testStore(new McRegionChunkStore() {
+            @Override
+            protected InputStream getInputStream(String name, String worldname) throws IOException {
+                return new FileInputStream(new File(folder, "region" + File.separator + name));
+            }
+
+            @Override
+            public boolean isValid() {
+                return true;
+            }
+        });
+    }
+
+    private void testStore(McRegionChunkStore store) throws Exception {
+        try {
+            assertChunk(store, 0, 0);
+            assertChunk(store, 1, 0);
+            assertChunk(store, 5, 3);
+            assertChunk(store, 0, 0);
+            assertNull(store.getChunkInputStream(new Vector2D(2, 2), "world"));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void assertChunk(McRegionChunkStore store, int x, int z) throws Exception {
+        final NBTInputStream nbt = new NBTInputStream(store.getChunkInputStream(new Vector2D(x, z), "world"));
+        final CompoundTag root = (CompoundTag) nbt.readTag();
+        nbt.close();
+
+        final Map<String, Tag> level = ((CompoundTag) root.getValue().get("Level")).getValue();
+        assertEquals(x, ((IntTag) level.get("xPos")).getValue().intValue());
+        assertEquals(z, ((IntTag) level.get("zPos")).getValue().intValue());
+    }
+
+    private static void writeChunk(byte[] region, int x, int z, int sector, int version) throws IOException {
+        final Map<String, Tag> level = new HashMap<String, Tag>();
+        level.put("xPos", new IntTag("xPos", x));
+        level.put("zPos", new IntTag("zPos", z));
+        final Map<String, Tag> root = new HashMap<String, Tag>();
+        root.put("Level", new CompoundTag("Level", level));
+
+        // NBTOutputStream always writes gzip
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        final NBTOutputStream nbt = new NBTOutputStream(gzipped);
+        nbt.writeTag(new CompoundTag("", root));
+        nbt.close();
+
+        byte[] data = gzipped.toByteArray();
+        if (version == McRegionReader.VERSION_DEFLATE) {
+            final InputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+            final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            final DeflaterOutputStream out = new DeflaterOutputStream(deflated);
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            data = deflated.toByteArray();
+        }
+
+        final int start = sector * McRegionReader.SECTOR_BYTES;
+        writeInt(region, (x + z * 32) * 4, (sector << 8) | 1);
+        writeInt(region, start, data.length + 1);
+        region[start + 4] = (byte) version;
+        System.arraycopy(data, 0, region, start + McRegionReader.CHUNK_HEADER_SIZE, data.length);
+    }
+
+    private static void writeInt(byte[] bytes, int index, int value) {
+        bytes[index] = (byte) (value >>> 24);
+        bytes[index + 1] = (byte) (value >>> 16);
+        bytes[index + 2] = (byte) (value >>> 8);
+        bytes[index + 3] = (byte) value;
+    }
+}
@@ -110,6 +110,83 @@ public void testSwitch() throws ExpressionException {
         assertEquals(127, simpleEval("x=1;y=2;z=3;switch (3) { case 1: x=5; case 2: y=6; default: z=7 } x*100+y*10+z"), 0);
     }
 
+    @Test
+    public void testStateless() throws ExpressionException {
+        assertTrue(compile("x^2+y^2+z^2 < 1", "x", "y", "z").isStateless());
+        assertTrue(compile("r = sqrt(x^2+z^2); y -= r; r < 5", "x", "y", "z").isStateless());
+        assertTrue(compile("if (x > 0) { y = 1 } else { y = -1 }", "x", "y").isStateless());
+
+        // state carried over from the previous evaluation
+        assertFalse(compile("a = a + x; a", "x").isStateless());
+        assertFalse(compile("if (x > 0) { r = x } r", "x").isStateless());
+        assertFalse(compile("megabuf(x, 1)", "x").isStateless());
+        assertFalse(compile("random() < x", "x").isStateless());
+    }
+
+    @Test
+    public void testCopy() throws ExpressionException {
+        final Expression expression = compile("a = x * 2; a + y", "x", "y");
+        final Expression copy = expression.copy();
+
+        assertEquals(7, expression.evaluate(2, 3), 0);
+        assertEquals(11, copy.evaluate(4, 3), 0);
+        assertEquals(4, expression.getVariable("a", false).getValue(), 0);
+        assertEquals(8, copy.getVariable("a", false).getValue(), 0);
+    }
+
+    @Test
+    public void testBytecode() throws ExpressionException {
+        final String[] expressions = {
+                "x + y * 2 - x / y % 3",
+                "-x ^ 2 + sin(x) * atan2(y, x) + min(x, y, 1) + max(x, y) + round(x * 3.3) + abs(y)",
+                "(x < y) + (x > y) * 2 + (x <= y) * 4 + (x >= y) * 8 + (x == y) * 16 + (x != y) * 32 + (x ~= y) * 64",
+                "(x && y) + (x || y) * 2 + !x * 4 + ~x * 8 + (x << 2) + (y >> 1)",
+                "a = x; a += y; a *= 2; a -= 1; a /= 3; a %= 5; a ^= 2; ++a * 3 + --a",
+                "if (x > y) { r = x } else if (x == y) { r = 0 } else { r = y } r * 10 + megabuf(x)",
+                "r = 0; while (r < x) { ++r; if (r > 5) break; } r",
+                "r = 0; do { r += 2; } while (r < y); r",
+                "r = 0; for (i = 0; i < 10; ++i) { if (i % 2 == 0) continue; r += i; } r",
+                "r = 0; for (i = x, y) { r = r * 10 + i; } r",
+                "if (x > 1) return x * 100; y",
+        };
+        final double[][] inputs = { { 0, 0 }, { 1, 2 }, { 2, 1 }, { 3, 3 }, { -2.5, 7 }, { 8, -1 } };
+
+        for (String expressionString : expressions) {
+            final Expression interpreted = compile(expressionString, "x", "y", "a", "r", "i");
+            final Expression compiled = compile(expressionString, "x", "y", "a", "r", "i");
+            assertTrue(expressionString, compiled.compileBytecode());
+
+            for (double[] input : inputs) {
+                final String message = expressionString + " with " + input[0] + ", " + input[1];
+                assertEquals(message, interpreted.evaluate(input), compiled.evaluate(input), 0);
+                for (String name : new String[] { "a", "r", "i" }) {
+                    assertEquals(message, interpreted.getVariable(name, false).getValue(),
+                            compiled.getVariable(name, false).getValue(), 0);
+                }
+            }
+        }
+
+        // not supported, stays interpreted
+        final Expression expression = compile("switch (x) { case 1: y = 5; break; default: y = 7 } y", "x", "y");
+        assertFalse(expression.compileBytecode());
+        assertEquals(5, expression.evaluate(1), 0);
+    }
+
+    @Test
+    public void testBytecodeErrors() throws ExpressionException {
+        final Expression expression = compile("a = x; while (1) { ++a; } a", "x", "a");
+        assertTrue(expression.compileBytecode());
+        try {
+            expression.evaluate(1);
+            fail("Error expected");
+        } catch (EvaluationException e) {
+            assertEquals("Error position", 7, e.getPosition());
+        }
+
+        // assignments made before the error are kept
+        assertEquals(258, expression.getVariable("a", false).getValue(), 0);
+    }
+
     private double simpleEval(String expressionString) throws ExpressionException {
         final Expression expression = compile(expressionString);
         return expression.evaluate();
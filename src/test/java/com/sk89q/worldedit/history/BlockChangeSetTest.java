@@ -0,0 +1,227 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.*;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.data.DataException;
+
+import static org.junit.Assert.*;
+
+public class BlockChangeSetTest {
+    @Test
+    public void testForwardAndReverse() {
+        final Random random = new Random(1234);
+        final int count = 20000;
+        final int[][] positions = new int[count][];
+        final BlockChangeSet changes = new BlockChangeSet();
+
+        for (int i = 0; i < count; ++i) {
+            // Mostly local changes with the occasional far jump
+            final int spread = i % 1000 == 0 ? 30000000 : 3000;
+            final int x = random.nextInt(spread * 2) - spread;
+            final int y = random.nextInt(256);
+            final int z = random.nextInt(spread * 2) - spread;
+            positions[i] = new int[] { x, y, z };
+            changes.add(x, y, z, new BaseBlock(i % 4096, i % 16), new BaseBlock((i + 1) % 4096, (i + 7) % 16));
+        }
+
+        assertEquals(count, changes.size());
+
+        BlockChangeSet.Cursor cursor = changes.forward();
+        int i = 0;
+        while (cursor.next()) {
+            assertChange(cursor, i, positions[i]);
+            ++i;
+        }
+        assertEquals(count, i);
+
+        cursor = changes.reverse();
+        while (cursor.next()) {
+            --i;
+            assertChange(cursor, i, positions[i]);
+        }
+        assertEquals(0, i);
+    }
+
+    @Test
+    public void testUnpackedBlocks() {
+        final BlockChangeSet changes = new BlockChangeSet();
+        final SignBlock sign = new SignBlock(63, 4, new String[] { "a", "b", "c", "d" });
+        final BaseBlock highest = new BaseBlock(4095, 15);
+
+        changes.add(0, 64, 0, new BaseBlock(0), sign);
+        changes.add(1, 64, 0, sign, highest);
+
+        BlockChangeSet.Cursor cursor = changes.forward();
+        assertTrue(cursor.next());
+        assertEquals(0, cursor.getBeforeType());
+        assertSame(sign, cursor.getAfter());
+        assertTrue(cursor.next());
+        assertSame(sign, cursor.getBefore());
+        assertEquals(4095, cursor.getAfterType());
+        assertEquals(15, cursor.getAfterData());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testNbtData() throws DataException {
+        final BlockChangeSet changes = new BlockChangeSet();
+        final BaseBlock block = new BaseBlock(54, 2);
+        block.setNbtData(new CompoundTag("", new HashMap<String, Tag>()));
+
+        changes.add(0, 64, 0, block, new BaseBlock(0));
+
+        BlockChangeSet.Cursor cursor = changes.forward();
+        assertTrue(cursor.next());
+        assertSame(block, cursor.getBefore());
+    }
+
+    @Test
+    public void testStartSpill() throws IOException, InterruptedException {
+        final BlockChangeSet changes = new BlockChangeSet();
+        final int count = 10000;
+        for (int i = 0; i < count; ++i) {
+            changes.add(i % 100, 64, i / 100, new BaseBlock(i % 4096, i % 16), new BaseBlock(1));
+        }
+
+        final long inMemory = changes.getMemoryUsage();
+        final File file = File.createTempFile("history", ".dat");
+        try {
+            changes.startSpill(file);
+            assertTrue(changes.isSpilling());
+            while (!changes.completeSpill()) {
+                Thread.sleep(1);
+            }
+            assertFalse(changes.isSpilling());
+            assertTrue(changes.isSpilled());
+            assertTrue(changes.getMemoryUsage() < inMemory / 10);
+
+            BlockChangeSet.Cursor cursor = changes.forward();
+            int i = 0;
+            while (cursor.next()) {
+                assertEquals(i % 100, cursor.getX());
+                assertEquals(i % 4096, cursor.getBeforeType());
+                assertEquals(1, cursor.getAfterType());
+                ++i;
+            }
+            assertEquals(count, i);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testClearWhileSpilling() throws IOException, InterruptedException {
+        final BlockChangeSet changes = new BlockChangeSet();
+        for (int i = 0; i < 10000; ++i) {
+            changes.add(i % 100, 64, i / 100, new BaseBlock(1), new BaseBlock(2));
+        }
+
+        final File file = File.createTempFile("history", ".dat");
+        try {
+            changes.startSpill(file);
+            changes.clear();
+            assertFalse(changes.isSpilling());
+
+            // The file is deleted by the worker once it was written
+            for (int i = 0; i < 5000 && file.exists(); ++i) {
+                Thread.sleep(1);
+            }
+            assertFalse(file.exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        final BlockChangeSet changes = new BlockChangeSet();
+        final SignBlock sign = new SignBlock(63, 4, new String[] { "a", "b", "c", "d" });
+        final int count = 10000;
+        for (int i = 0; i < count; ++i) {
+            changes.add(i % 100, 64 + i / 10000, i / 100, new BaseBlock(i % 4096, i % 16),
+                    i == 5000 ? sign : new BaseBlock((i + 1) % 4096, (i + 7) % 16));
+        }
+
+        final long inMemory = changes.getMemoryUsage();
+        final File file = File.createTempFile("history", ".dat");
+        try {
+            changes.spill(file);
+            assertTrue(changes.isSpilled());
+            assertTrue(changes.getMemoryUsage() < inMemory / 10);
+            assertTrue(changes.getDiskUsage() > 0);
+
+            BlockChangeSet.Cursor cursor = changes.reverse();
+            int i = count;
+            while (cursor.next()) {
+                --i;
+                assertEquals(i % 100, cursor.getX());
+                assertEquals(i / 100, cursor.getZ());
+                assertEquals(i % 4096, cursor.getBeforeType());
+                assertEquals(i % 16, cursor.getBeforeData());
+                if (i == 5000) {
+                    assertSame(sign, cursor.getAfter());
+                } else {
+                    assertEquals((i + 1) % 4096, cursor.getAfterType());
+                }
+            }
+            assertEquals(0, i);
+
+            cursor = changes.forward();
+            while (cursor.next()) {
+                assertEquals(i, cursor.getIndex());
+                ++i;
+            }
+            assertEquals(count, i);
+
+            changes.clear();
+            assertFalse(file.exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        final BlockChangeSet changes = new BlockChangeSet();
+        assertFalse(changes.forward().next());
+        assertFalse(changes.reverse().next());
+    }
+
+    private static void assertChange(BlockChangeSet.Cursor cursor, int i, int[] position) {
+        assertEquals(i, cursor.getIndex());
+        assertEquals(position[0], cursor.getX());
+        assertEquals(position[1], cursor.getY());
+        assertEquals(position[2], cursor.getZ());
+        assertEquals(i % 4096, cursor.getBeforeType());
+        assertEquals(i % 16, cursor.getBeforeData());
+        assertEquals((i + 1) % 4096, cursor.getAfter().getType());
+        assertEquals((i + 7) % 16, cursor.getAfter().getData());
+    }
+}
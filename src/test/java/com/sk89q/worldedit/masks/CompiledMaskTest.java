@@ -0,0 +1,155 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.masks;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalPlayer;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+public class CompiledMaskTest {
+    private static final int[] TYPES = { BlockID.AIR, BlockID.STONE, BlockID.DIRT, BlockID.CLOTH };
+
+    private MemoryWorld world;
+    private EditSession editSession;
+
+    @Before
+    public void setUp() {
+        world = new MemoryWorld();
+        final Random random = new Random(42);
+        for (int x = 0; x < 32; ++x) {
+            for (int y = 0; y < 20; ++y) {
+                for (int z = 0; z < 16; ++z) {
+                    final int type = TYPES[random.nextInt(TYPES.length)];
+                    final int data = type == BlockID.CLOTH ? random.nextInt(16) : 0;
+                    world.setBlock(new Vector(x, y, z), new BaseBlock(type, data), false);
+                }
+            }
+        }
+        editSession = new EditSession(world, -1);
+    }
+
+    /**
+     * Compare the compiled mask with the mask for every block of two chunks,
+     * reading from the world, from chunk snapshots and a section at a time.
+     */
+    private void assertSameMatches(Mask mask) {
+        final CompiledMask compiled = CompiledMask.compile(mask);
+        final CompiledMask.Context context = new CompiledMask.Context(editSession);
+        final long[] bits = new long[64];
+
+        for (int chunkX = 0; chunkX < 2; ++chunkX) {
+            for (int y = 0; y < 32; ++y) {
+                for (int z = 0; z < 16; ++z) {
+                    for (int x = chunkX << 4; x < (chunkX + 1) << 4; ++x) {
+                        final boolean expected = mask.matches(editSession, new Vector(x, y, z));
+                        assertEquals(x + ", " + y + ", " + z, expected, compiled.matches(context, x, y, z));
+                    }
+                }
+            }
+
+            context.setSnapshot(world.getChunkSnapshot(new BlockVector2D(chunkX, 0)));
+            try {
+                for (int minY = 0; minY < 32; minY += 16) {
+                    compiled.matchSection(context, chunkX << 4, minY, 0, bits);
+                    for (int index = 0; index < 4096; ++index) {
+                        final int x = (chunkX << 4) + (index & 15);
+                        final int y = minY + (index >> 8);
+                        final int z = (index >> 4) & 15;
+                        final boolean expected = mask.matches(editSession, new Vector(x, y, z));
+                        assertEquals(x + ", " + y + ", " + z, expected, compiled.matches(context, x, y, z));
+                        assertEquals(x + ", " + y + ", " + z, expected, (bits[index >> 6] & (1L << index)) != 0);
+                    }
+                }
+            } finally {
+                context.setSnapshot(null);
+            }
+        }
+    }
+
+    private static BlockMask createBlockMask() {
+        return new BlockMask(new HashSet<BaseBlock>(Arrays.asList(
+                new BaseBlock(BlockID.STONE), new BaseBlock(BlockID.CLOTH, 3), new BaseBlock(BlockID.DIRT, -1))));
+    }
+
+    @Test
+    public void testBlockMask() {
+        assertSameMatches(createBlockMask());
+    }
+
+    @Test
+    public void testInvertedMask() {
+        assertSameMatches(new InvertedMask(createBlockMask()));
+    }
+
+    @Test
+    public void testCombinedMask() {
+        final CombinedMask mask = new CombinedMask(new ExistingBlockMask());
+        mask.add(new InvertedMask(new BlockMask(new BaseBlock(BlockID.STONE))));
+        assertSameMatches(mask);
+        assertSameMatches(new CombinedMask());
+    }
+
+    @Test
+    public void testUnderOverlayMask() {
+        assertSameMatches(new UnderOverlayMask(createBlockMask(), true));
+        assertSameMatches(new UnderOverlayMask(new ExistingBlockMask(), false));
+    }
+
+    @Test
+    public void testExistingBlockMask() {
+        assertSameMatches(new ExistingBlockMask());
+    }
+
+    @Test
+    public void testRegionMask() {
+        assertSameMatches(new RegionMask(new CuboidRegion(new Vector(3, 2, 5), new Vector(20, 17, 9))));
+        assertSameMatches(new CombinedMask(new RegionMask(new CuboidRegion(new Vector(40, 2, 5), new Vector(50, 17, 9)))));
+    }
+
+    @Test
+    public void testCustomMask() {
+        final Mask mask = new Mask() {
+            public void prepare(LocalSession session, LocalPlayer player, Vector target) {
+            }
+
+            public boolean matches(EditSession editSession, Vector pos) {
+                return (pos.getBlockX() + pos.getBlockY() + pos.getBlockZ()) % 3 == 0
+                        && editSession.getBlockType(pos) != BlockID.AIR;
+            }
+        };
+        assertSameMatches(mask);
+        assertSameMatches(new InvertedMask(mask));
+    }
+
+}
@@ -0,0 +1,86 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.sk89q.worldedit.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TimerTest {
+
+    @Test
+    public void testEmpty() {
+        final Timer timer = new Timer("test");
+        assertEquals(0, timer.getCount());
+        assertEquals(0, timer.getPercentileNanos(0.5));
+        assertEquals(0.0, timer.getMeanMillis(), 0.0);
+    }
+
+    @Test
+    public void testTotals() {
+        final Timer timer = new Timer("test");
+        timer.update(1000000);
+        timer.update(3000000);
+        timer.update(-5);
+
+        assertEquals(3, timer.getCount());
+        assertEquals(4000000, timer.getTotalNanos());
+        assertEquals(3000000, timer.getMaxNanos());
+        assertEquals(4.0 / 3, timer.getMeanMillis(), 1e-9);
+    }
+
+    @Test
+    public void testPercentiles() {
+        final Timer timer = new Timer("test");
+        for (int i = 0; i < 99; ++i) {
+            timer.update(100000); // 0.1 ms
+        }
+        timer.update(500000000); // 500 ms
+
+        // Estimates are bucket bounds, at most twice the actual duration
+        final long median = timer.getPercentileNanos(0.5);
+        assertTrue(median >= 100000 && median < 200000);
+        assertEquals(median, timer.getPercentileNanos(0.99));
+        assertEquals(500000000, timer.getPercentileNanos(1.0));
+    }
+
+    @Test
+    public void testRegistry() {
+        assertTrue(Metrics.timer("test.registry") == Metrics.timer("test.registry"));
+
+        final long before = Metrics.counter("test.counter").getCount();
+        Metrics.counter("test.counter").add(5);
+        assertEquals(before + 5, Metrics.counter("test.counter").getCount());
+    }
+
+    @Test
+    public void testPlayerTimers() {
+        final Timer timer = Metrics.playerTimer("Steve");
+        assertEquals("player.Steve", timer.getName());
+        assertTrue(timer == Metrics.playerTimer("Steve"));
+        assertTrue(Metrics.getTimers().contains(timer));
+
+        Metrics.removePlayer("Steve");
+        assertFalse(Metrics.getTimers().contains(timer));
+        assertTrue(timer != Metrics.playerTimer("Steve"));
+        Metrics.clearPlayers();
+    }
+}
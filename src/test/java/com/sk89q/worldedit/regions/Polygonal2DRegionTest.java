@@ -0,0 +1,95 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+
+import static org.junit.Assert.*;
+
+public class Polygonal2DRegionTest {
+
+    private static void assertMatchesCrossingTest(List<BlockVector2D> points) {
+        final Polygonal2DRegion region = new Polygonal2DRegion(null, points, 3, 5);
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+
+        final Set<Vector2D> expected = new HashSet<Vector2D>();
+        for (int x = min.getBlockX() - 2; x <= max.getBlockX() + 2; ++x) {
+            for (int z = min.getBlockZ() - 2; z <= max.getBlockZ() + 2; ++z) {
+                for (int y = 2; y <= 6; ++y) {
+                    final Vector pt = new Vector(x, y, z);
+                    assertEquals(pt.toString(), Polygonal2DRegion.contains(points, 3, 5, pt), region.contains(pt));
+                }
+                if (Polygonal2DRegion.contains(points, 3, 5, new Vector(x, 3, z))) {
+                    expected.add(new Vector2D(x, z));
+                }
+            }
+        }
+
+        final Set<Vector2D> iterated = new HashSet<Vector2D>();
+        for (Vector2D pt : region.asFlatRegion()) {
+            assertTrue(iterated.add(pt));
+        }
+        assertEquals(expected, iterated);
+        assertEquals(expected.size() * 3, region.getArea());
+    }
+
+    @Test
+    public void testConcave() {
+        assertMatchesCrossingTest(Arrays.asList(
+                new BlockVector2D(0, 0), new BlockVector2D(10, 0), new BlockVector2D(10, 10),
+                new BlockVector2D(5, 3), new BlockVector2D(0, 10)));
+    }
+
+    @Test
+    public void testStraightAndSlantedEdges() {
+        assertMatchesCrossingTest(Arrays.asList(
+                new BlockVector2D(-7, -3), new BlockVector2D(-7, 12), new BlockVector2D(2, 12),
+                new BlockVector2D(2, 5), new BlockVector2D(9, 8), new BlockVector2D(13, -9),
+                new BlockVector2D(4, -3), new BlockVector2D(-1, -3)));
+    }
+
+    @Test
+    public void testSelfIntersecting() {
+        assertMatchesCrossingTest(Arrays.asList(
+                new BlockVector2D(0, 0), new BlockVector2D(20, 13), new BlockVector2D(20, 0),
+                new BlockVector2D(0, 13)));
+    }
+
+    @Test
+    public void testPointsChange() {
+        final Polygonal2DRegion region = new Polygonal2DRegion(null, Arrays.asList(
+                new BlockVector2D(0, 0), new BlockVector2D(4, 0), new BlockVector2D(4, 4)), 0, 0);
+        assertFalse(region.contains(new Vector(0, 0, 4)));
+
+        region.addPoint(new BlockVector2D(0, 4));
+        assertTrue(region.contains(new Vector(0, 0, 4)));
+        assertEquals(25, region.getArea());
+    }
+}
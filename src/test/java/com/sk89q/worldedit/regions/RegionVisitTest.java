@@ -0,0 +1,87 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+
+import static org.junit.Assert.*;
+
+public class RegionVisitTest {
+
+    private static void assertVisitsIteratedBlocks(Region region) throws MaxChangedBlocksException {
+        final Set<BlockVector> expected = new HashSet<BlockVector>();
+        for (BlockVector position : region) {
+            expected.add(position);
+        }
+
+        final Set<BlockVector> visited = new HashSet<BlockVector>();
+        final Set<BlockVector2D> finishedChunks = new HashSet<BlockVector2D>();
+        AbstractRegion.visitRegion(region, new RegionVisitor() {
+            private BlockVector2D chunk;
+
+            public void visit(int x, int y, int z) {
+                assertTrue(visited.add(new BlockVector(x, y, z)));
+
+                final BlockVector2D current = new BlockVector2D(x >> 4, z >> 4);
+                if (!current.equals(chunk)) {
+                    // Each chunk is visited in one go
+                    assertTrue(finishedChunks.add(current));
+                    chunk = current;
+                }
+            }
+        });
+
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    public void testCuboid() throws MaxChangedBlocksException {
+        assertVisitsIteratedBlocks(new CuboidRegion(new Vector(-20, 3, 7), new Vector(17, 9, 40)));
+    }
+
+    @Test
+    public void testCylinder() throws MaxChangedBlocksException {
+        assertVisitsIteratedBlocks(new CylinderRegion(null, new Vector(3, 0, -5), new Vector2D(21, 13), 2, 6));
+        assertVisitsIteratedBlocks(new CylinderRegion(null, new Vector(3.5, 0, -5.5), new Vector2D(0, 7), 2, 2));
+    }
+
+    @Test
+    public void testEllipsoid() throws MaxChangedBlocksException {
+        assertVisitsIteratedBlocks(new EllipsoidRegion(null, new Vector(-9, 40, 12), new Vector(17, 8, 23)));
+        assertVisitsIteratedBlocks(new EllipsoidRegion(null, new Vector(0.5, 40, 0.5), new Vector(0, 3, 2)));
+    }
+
+    @Test
+    public void testPolygon() throws MaxChangedBlocksException {
+        assertVisitsIteratedBlocks(new Polygonal2DRegion(null, Arrays.asList(
+                new BlockVector2D(-30, -10), new BlockVector2D(5, 25), new BlockVector2D(0, 0),
+                new BlockVector2D(40, -3), new BlockVector2D(12, -30)), 10, 14));
+    }
+}
@@ -0,0 +1,147 @@
+// $Id$
+/*
+ * This file is a part of WorldEdit.
+ * Copyright (c) sk89q <http://www.sk89q.com>
+ * Copyright (c) the WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.schematic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.*;
+
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.ShortTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.data.DataException;
+
+import static org.junit.Assert.*;
+
+public class MCEditSchematicFormatTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("test", ".schematic");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, DataException {
+        // Odd volume, so the last AddBlocks byte only holds one nibble
+        final CuboidClipboard clipboard = new CuboidClipboard(new Vector(3, 5, 3),
+                new Vector(10, 64, -20), new Vector(-1, 0, 2));
+        for (int x = 0; x < 3; ++x) {
+            for (int y = 0; y < 5; ++y) {
+                for (int z = 0; z < 3; ++z) {
+                    clipboard.setBlock(new Vector(x, y, z), new BaseBlock(getType(x, y, z), (x + z) & 15));
+                }
+            }
+        }
+
+        SchematicFormat.MCEDIT.save(clipboard, file);
+        assertTrue(SchematicFormat.MCEDIT.isOfFormat(file));
+
+        final CuboidClipboard loaded = SchematicFormat.MCEDIT.load(file);
+        assertEquals(clipboard.getSize(), loaded.getSize());
+        assertEquals(clipboard.getOrigin(), loaded.getOrigin());
+        assertEquals(clipboard.getOffset(), loaded.getOffset());
+        for (int x = 0; x < 3; ++x) {
+            for (int y = 0; y < 5; ++y) {
+                for (int z = 0; z < 3; ++z) {
+                    final BaseBlock block = loaded.getPoint(new Vector(x, y, z));
+                    assertEquals(getType(x, y, z), block.getType());
+                    assertEquals((x + z) & 15, block.getData());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUnorderedTags() throws IOException, DataException {
+        // Tags in an unusual order, with entities that are never read
+        final Map<String, Tag> entity = new HashMap<String, Tag>();
+        entity.put("id", new StringTag("id", "Pig"));
+        final List<Tag> entities = new ArrayList<Tag>();
+        entities.add(new CompoundTag("", entity));
+
+        final Map<String, Tag> schematic = new HashMap<String, Tag>();
+        schematic.put("Entities", new ListTag("Entities", CompoundTag.class, entities));
+        schematic.put("Data", new ByteArrayTag("Data", new byte[] { 0, 1, 2, 3 }));
+        schematic.put("Blocks", new ByteArrayTag("Blocks", new byte[] { 1, 2, 3, (byte) 200 }));
+        schematic.put("AddBlocks", new ByteArrayTag("AddBlocks", new byte[] { 0x21, 0 }));
+        schematic.put("Materials", new StringTag("Materials", "Alpha"));
+        schematic.put("Width", new ShortTag("Width", (short) 2));
+        schematic.put("Length", new ShortTag("Length", (short) 1));
+        schematic.put("Height", new ShortTag("Height", (short) 2));
+        schematic.put("WEOriginX", new IntTag("WEOriginX", 1));
+        schematic.put("WEOriginY", new IntTag("WEOriginY", 2));
+        schematic.put("WEOriginZ", new IntTag("WEOriginZ", 3));
+        final NBTOutputStream out = new NBTOutputStream(new FileOutputStream(file));
+        try {
+            out.writeTag(new CompoundTag("Schematic", schematic));
+        } finally {
+            out.close();
+        }
+
+        final CuboidClipboard loaded = SchematicFormat.MCEDIT.load(file);
+        assertEquals(new Vector(1, 2, 3), loaded.getOrigin());
+        assertEquals(new Vector(0, 0, 0), loaded.getOffset());
+        assertEquals(0x101, loaded.getPoint(new Vector(0, 0, 0)).getType());
+        assertEquals(0x202, loaded.getPoint(new Vector(1, 0, 0)).getType());
+        assertEquals(3, loaded.getPoint(new Vector(0, 1, 0)).getType());
+        assertEquals(200, loaded.getPoint(new Vector(1, 1, 0)).getType());
+        assertEquals(3, loaded.getPoint(new Vector(1, 1, 0)).getData());
+    }
+
+    @Test(expected = DataException.class)
+    public void testMissingBlocks() throws IOException, DataException {
+        final Map<String, Tag> schematic = new HashMap<String, Tag>();
+        schematic.put("Materials", new StringTag("Materials", "Alpha"));
+        schematic.put("Width", new ShortTag("Width", (short) 1));
+        schematic.put("Length", new ShortTag("Length", (short) 1));
+        schematic.put("Height", new ShortTag("Height", (short) 1));
+        final NBTOutputStream out = new NBTOutputStream(new FileOutputStream(file));
+        try {
+            out.writeTag(new CompoundTag("Schematic", schematic));
+        } finally {
+            out.close();
+        }
+
+        SchematicFormat.MCEDIT.load(file);
+    }
+
+    private static int getType(int x, int y, int z) {
+        return 1 + x + y * 300 + z * 7;
+    }
+}